@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.benchmarks;
+
+import static com.android.tools.build.bundletool.testing.DeviceFactory.abis;
+import static com.android.tools.build.bundletool.testing.DeviceFactory.density;
+import static com.android.tools.build.bundletool.testing.DeviceFactory.locales;
+import static com.android.tools.build.bundletool.testing.DeviceFactory.mergeSpecs;
+import static com.android.tools.build.bundletool.testing.DeviceFactory.sdkVersion;
+
+import com.android.bundle.Commands.BuildApksResult;
+import com.android.tools.build.bundletool.device.ApkMatcher;
+import com.android.tools.build.bundletool.device.ApkMatcher.GeneratedApk;
+import com.android.tools.build.bundletool.io.TempDirectory;
+import com.android.tools.build.bundletool.model.utils.ResultUtils;
+import com.google.common.collect.ImmutableList;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks the matching of the APKs of an APK Set against a device. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ApkMatcherBenchmark {
+
+  private ApkMatcher apkMatcher;
+  private BuildApksResult tableOfContents;
+
+  @Setup
+  public void setUp(BundleShape bundleShape) {
+    try (TempDirectory tempDirectory = new TempDirectory(getClass().getSimpleName())) {
+      Path bundlePath =
+          bundleShape.toSyntheticBundle().writeTo(tempDirectory.getPath().resolve("app.aab"));
+      tableOfContents =
+          ResultUtils.readTableOfContents(
+              SyntheticBundle.buildApkSet(bundlePath, tempDirectory.getPath().resolve("app.apks")));
+    }
+    apkMatcher =
+        new ApkMatcher(
+            mergeSpecs(sdkVersion(28), abis("arm64-v8a"), density(480), locales("fr")));
+  }
+
+  @Benchmark
+  public ImmutableList<GeneratedApk> getMatchingApks() {
+    return apkMatcher.getMatchingApks(tableOfContents);
+  }
+}
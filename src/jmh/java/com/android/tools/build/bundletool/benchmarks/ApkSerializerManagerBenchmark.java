@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.benchmarks;
+
+import com.android.bundle.Commands.LocalTestingInfo;
+import com.android.tools.build.bundletool.commands.BuildApksCommand.ApkBuildMode;
+import com.android.tools.build.bundletool.commands.BuildApksModule;
+import com.android.tools.build.bundletool.commands.CommandScoped;
+import com.android.tools.build.bundletool.io.ApkSerializerManager;
+import com.android.tools.build.bundletool.io.ApkSetBuilderFactory;
+import com.android.tools.build.bundletool.io.SplitApkSerializer;
+import com.android.tools.build.bundletool.io.StandaloneApkSerializer;
+import com.android.tools.build.bundletool.io.TempDirectory;
+import com.android.tools.build.bundletool.model.AppBundle;
+import com.android.tools.build.bundletool.model.GeneratedApks;
+import com.android.tools.build.bundletool.model.GeneratedAssetSlices;
+import com.android.tools.build.bundletool.splitters.SplitApksGenerator;
+import com.android.tools.build.bundletool.testing.TestModule;
+import dagger.Component;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the serialization of the split APKs of an App Bundle: aapt2 conversion (faked),
+ * compression of the entries and signing.
+ *
+ * <p>The compressed payloads of the entries are cached across the APKs of a command, so after the
+ * first invocation this measures the serialization with a warm cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ApkSerializerManagerBenchmark {
+
+  @Inject ApkSerializerManager apkSerializerManager;
+  @Inject SplitApksGenerator splitApksGenerator;
+  @Inject SplitApkSerializer splitApkSerializer;
+  @Inject StandaloneApkSerializer standaloneApkSerializer;
+
+  private GeneratedApks generatedApks;
+  private TempDirectory outputDirectory;
+
+  @Setup
+  public void setUp(BundleShape bundleShape) {
+    AppBundle appBundle = bundleShape.toSyntheticBundle().generate();
+    BenchmarkComponent.useTestModule(
+        this,
+        TestModule.builder()
+            .withAppBundle(appBundle)
+            .withCustomBuildApksCommandSetter(
+                command -> command.setAapt2Command(new FakeAapt2Command()))
+            .build());
+    generatedApks =
+        GeneratedApks.fromModuleSplits(
+            splitApksGenerator.generateSplits(
+                appBundle.getFeatureModules().values().asList(),
+                ModuleSplitterBenchmark.APK_GENERATION_CONFIGURATION));
+  }
+
+  @Setup(Level.Invocation)
+  public void setUpInvocation() {
+    outputDirectory = new TempDirectory(getClass().getSimpleName());
+  }
+
+  @TearDown(Level.Invocation)
+  public void tearDownInvocation() {
+    outputDirectory.close();
+  }
+
+  @Benchmark
+  public void serializeApks() {
+    apkSerializerManager.populateApkSetBuilder(
+        ApkSetBuilderFactory.createApkSetWithoutArchiveBuilder(
+            splitApkSerializer, standaloneApkSerializer, outputDirectory.getPath()),
+        generatedApks,
+        GeneratedAssetSlices.builder().build(),
+        ApkBuildMode.DEFAULT,
+        /* deviceSpec= */ Optional.empty(),
+        LocalTestingInfo.getDefaultInstance());
+  }
+
+  @CommandScoped
+  @Component(modules = {BuildApksModule.class, TestModule.class})
+  interface BenchmarkComponent {
+    void inject(ApkSerializerManagerBenchmark benchmark);
+
+    static void useTestModule(ApkSerializerManagerBenchmark benchmark, TestModule testModule) {
+      DaggerApkSerializerManagerBenchmark_BenchmarkComponent.builder()
+          .testModule(testModule)
+          .build()
+          .inject(benchmark);
+    }
+  }
+}
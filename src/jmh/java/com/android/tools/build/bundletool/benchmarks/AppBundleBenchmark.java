@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.benchmarks;
+
+import com.android.tools.build.bundletool.io.TempDirectory;
+import com.android.tools.build.bundletool.model.AppBundle;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks the reading of an App Bundle. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class AppBundleBenchmark {
+
+  private TempDirectory tempDirectory;
+  private ZipFile bundleZip;
+
+  @Setup
+  public void setUp(BundleShape bundleShape) throws IOException {
+    tempDirectory = new TempDirectory(getClass().getSimpleName());
+    Path bundlePath =
+        bundleShape.toSyntheticBundle().writeTo(tempDirectory.getPath().resolve("bundle.aab"));
+    bundleZip = new ZipFile(bundlePath.toFile());
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    bundleZip.close();
+    tempDirectory.close();
+  }
+
+  @Benchmark
+  public AppBundle buildFromZip() {
+    return AppBundle.buildFromZip(bundleZip);
+  }
+}
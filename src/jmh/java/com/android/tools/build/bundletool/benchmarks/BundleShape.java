@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Shape of the synthetic App Bundle used by a benchmark.
+ *
+ * <p>The parameters can be overridden on the command line, e.g. {@code -p modules=50}.
+ */
+@State(Scope.Benchmark)
+public class BundleShape {
+
+  @Param({"1", "10"})
+  public int modules;
+
+  @Param({"10"})
+  public int locales;
+
+  @Param({"6"})
+  public int densities;
+
+  @Param({"4"})
+  public int abis;
+
+  @Param({"20"})
+  public int entriesPerModule;
+
+  @Param({"16384"})
+  public int entrySizeBytes;
+
+  public SyntheticBundle toSyntheticBundle() {
+    return SyntheticBundle.builder()
+        .setModuleCount(modules)
+        .setLocaleCount(locales)
+        .setDensityCount(densities)
+        .setAbiCount(abis)
+        .setEntriesPerModule(entriesPerModule)
+        .setEntrySizeBytes(entrySizeBytes)
+        .build();
+  }
+}
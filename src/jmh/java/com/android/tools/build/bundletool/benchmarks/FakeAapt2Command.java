@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.benchmarks;
+
+import com.android.tools.build.bundletool.model.Aapt2Command;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * {@link Aapt2Command} copying the Proto-APK instead of converting it, so that the benchmarks
+ * measure bundletool rather than aapt2.
+ */
+public final class FakeAapt2Command implements Aapt2Command {
+
+  @Override
+  public void convertApkProtoToBinary(Path protoApk, Path binaryApk) {
+    try {
+      Files.copy(protoApk, binaryApk);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.benchmarks;
+
+import static com.android.tools.build.bundletool.model.utils.TargetingProtoUtils.lPlusVariantTargeting;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+
+import com.android.tools.build.bundletool.model.AppBundle;
+import com.android.tools.build.bundletool.model.BundleModule;
+import com.android.tools.build.bundletool.model.BundleModuleName;
+import com.android.tools.build.bundletool.model.ModuleSplit;
+import com.android.tools.build.bundletool.model.OptimizationDimension;
+import com.android.tools.build.bundletool.model.version.BundleToolVersion;
+import com.android.tools.build.bundletool.splitters.ApkGenerationConfiguration;
+import com.android.tools.build.bundletool.splitters.ModuleSplitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks the splitting of the base module by ABI, screen density and language. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ModuleSplitterBenchmark {
+
+  static final ApkGenerationConfiguration APK_GENERATION_CONFIGURATION =
+      ApkGenerationConfiguration.builder()
+          .setOptimizationDimensions(
+              ImmutableSet.of(
+                  OptimizationDimension.ABI,
+                  OptimizationDimension.SCREEN_DENSITY,
+                  OptimizationDimension.LANGUAGE))
+          .build();
+
+  private BundleModule baseModule;
+  private ImmutableSet<String> allModuleNames;
+
+  @Setup
+  public void setUp(BundleShape bundleShape) {
+    AppBundle appBundle = bundleShape.toSyntheticBundle().generate();
+    baseModule = appBundle.getBaseModule();
+    allModuleNames =
+        appBundle.getModules().keySet().stream()
+            .map(BundleModuleName::getName)
+            .collect(toImmutableSet());
+  }
+
+  @Benchmark
+  public ImmutableList<ModuleSplit> splitModule() {
+    return splitBaseModule(baseModule, allModuleNames);
+  }
+
+  static ImmutableList<ModuleSplit> splitBaseModule(
+      BundleModule baseModule, ImmutableSet<String> allModuleNames) {
+    return ModuleSplitter.createNoStamp(
+            baseModule,
+            BundleToolVersion.getCurrentVersion(),
+            APK_GENERATION_CONFIGURATION,
+            lPlusVariantTargeting(),
+            allModuleNames)
+        .splitModule();
+  }
+}
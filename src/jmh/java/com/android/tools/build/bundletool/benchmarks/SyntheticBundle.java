@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.benchmarks;
+
+import static com.android.tools.build.bundletool.testing.ManifestProtoUtils.androidManifest;
+import static com.android.tools.build.bundletool.testing.ManifestProtoUtils.withFusingAttribute;
+import static com.android.tools.build.bundletool.testing.ManifestProtoUtils.withInstallTimeDelivery;
+import static com.android.tools.build.bundletool.testing.ManifestProtoUtils.withMinSdkVersion;
+import static com.android.tools.build.bundletool.testing.TargetingUtils.nativeDirectoryTargeting;
+import static com.android.tools.build.bundletool.testing.TargetingUtils.nativeLibraries;
+import static com.android.tools.build.bundletool.testing.TargetingUtils.targetedNativeDirectory;
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.android.bundle.Files.TargetedNativeDirectory;
+import com.android.tools.build.bundletool.commands.BuildApksCommand;
+import com.android.tools.build.bundletool.io.AppBundleSerializer;
+import com.android.tools.build.bundletool.model.AppBundle;
+import com.android.tools.build.bundletool.model.BundleModule;
+import com.android.tools.build.bundletool.testing.AppBundleBuilder;
+import com.android.tools.build.bundletool.testing.BundleModuleBuilder;
+import com.android.tools.build.bundletool.testing.ResourceTableBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Generates synthetic App Bundles for the benchmarks.
+ *
+ * <p>Each module contains string resources translated in the configured locales, drawables in the
+ * configured densities, native libraries for the configured ABIs and assets. All the file entries
+ * have the configured size, and a content which compresses roughly like real resources and code.
+ */
+public final class SyntheticBundle {
+
+  public static final String PACKAGE_NAME = "com.example.benchmark";
+
+  private static final ImmutableList<String> LOCALES =
+      ImmutableList.of(
+          "ar", "de", "el", "es", "fr", "he", "hi", "id", "it", "ja", "ko", "nl", "pl", "pt", "ru",
+          "sv", "th", "tr", "uk", "vi", "zh");
+
+  private static final ImmutableList<Integer> DENSITIES =
+      ImmutableList.of(120, 160, 240, 320, 480, 640);
+
+  private static final ImmutableList<String> ABIS =
+      ImmutableList.of("arm64-v8a", "armeabi-v7a", "x86", "x86_64");
+
+  private final int moduleCount;
+  private final int localeCount;
+  private final int densityCount;
+  private final int abiCount;
+  private final int entriesPerModule;
+  private final int entrySizeBytes;
+
+  private SyntheticBundle(Builder builder) {
+    this.moduleCount = builder.moduleCount;
+    this.localeCount = builder.localeCount;
+    this.densityCount = builder.densityCount;
+    this.abiCount = builder.abiCount;
+    this.entriesPerModule = builder.entriesPerModule;
+    this.entrySizeBytes = builder.entrySizeBytes;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /** Generates the App Bundle. The same configuration always generates the same App Bundle. */
+  public AppBundle generate() {
+    Random random = new Random(/* seed= */ 42);
+    AppBundleBuilder appBundle = new AppBundleBuilder();
+    for (int i = 0; i < moduleCount; i++) {
+      appBundle.addModule(generateModule(i, random));
+    }
+    return appBundle.build();
+  }
+
+  /** Generates the App Bundle and writes it to the given path, which is returned. */
+  public Path writeTo(Path bundlePath) {
+    try {
+      new AppBundleSerializer().writeToDisk(generate(), bundlePath);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bundlePath;
+  }
+
+  /**
+   * Generates an APK Set archive from the given App Bundle, with a fake aapt2.
+   *
+   * <p>The resources and manifest of the APKs are left in proto format, which is enough for the
+   * commands reading APK Sets.
+   */
+  public static Path buildApkSet(Path bundlePath, Path apkSetPath) {
+    return BuildApksCommand.builder()
+        .setBundlePath(bundlePath)
+        .setOutputFile(apkSetPath)
+        .setAapt2Command(new FakeAapt2Command())
+        .build()
+        .execute();
+  }
+
+  private BundleModule generateModule(int moduleIndex, Random random) {
+    String moduleName = moduleIndex == 0 ? "base" : "feature" + moduleIndex;
+    BundleModuleBuilder module = new BundleModuleBuilder(moduleName);
+    // Resource IDs must not collide between modules.
+    ResourceTableBuilder resourceTable =
+        new ResourceTableBuilder().addPackage(PACKAGE_NAME, 0x7f + moduleIndex);
+
+    ImmutableList<String> locales = LOCALES.subList(0, localeCount);
+    ImmutableList<Integer> densities = DENSITIES.subList(0, densityCount);
+    for (int i = 0; i < entriesPerModule; i++) {
+      ImmutableMap.Builder<String, String> stringByLocale = ImmutableMap.builder();
+      stringByLocale.put("", "String " + i);
+      locales.forEach(locale -> stringByLocale.put(locale, "String " + i + " in " + locale));
+      resourceTable.addStringResourceForMultipleLocales("string_" + i, stringByLocale.build());
+
+      ImmutableMap.Builder<Integer, String> drawableByDensity = ImmutableMap.builder();
+      for (int density : densities) {
+        String path = String.format("res/drawable-%ddpi/image_%d.png", density, i);
+        module.addFile(path, generateContent(random));
+        drawableByDensity.put(density, path);
+      }
+      resourceTable.addDrawableResourceForMultipleDensities(
+          "image_" + i, drawableByDensity.build());
+
+      module.addFile(String.format("assets/asset_%d.bin", i), generateContent(random));
+    }
+
+    ImmutableList<String> abis = ABIS.subList(0, abiCount);
+    for (String abi : abis) {
+      module.addFile(String.format("lib/%s/lib%s.so", abi, moduleName), generateContent(random));
+    }
+    if (!abis.isEmpty()) {
+      module.setNativeConfig(
+          nativeLibraries(
+              abis.stream()
+                  .map(abi -> targetedNativeDirectory("lib/" + abi, nativeDirectoryTargeting(abi)))
+                  .toArray(TargetedNativeDirectory[]::new)));
+    }
+
+    return module
+        .setResourceTable(resourceTable.build())
+        .setManifest(
+            moduleIndex == 0
+                ? androidManifest(PACKAGE_NAME, withMinSdkVersion(21))
+                : androidManifest(
+                    PACKAGE_NAME, withInstallTimeDelivery(), withFusingAttribute(true)))
+        .build();
+  }
+
+  /**
+   * Generates the content of a file entry: random bytes drawn from a small alphabet, so that
+   * Deflate compresses it by about a half.
+   */
+  private byte[] generateContent(Random random) {
+    byte[] content = new byte[entrySizeBytes];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) ('a' + random.nextInt(16));
+    }
+    return content;
+  }
+
+  /** Builder for {@link SyntheticBundle}. */
+  public static final class Builder {
+    private int moduleCount = 1;
+    private int localeCount = 5;
+    private int densityCount = DENSITIES.size();
+    private int abiCount = ABIS.size();
+    private int entriesPerModule = 20;
+    private int entrySizeBytes = 16 * 1024;
+
+    private Builder() {}
+
+    /** Number of modules, including the base module. */
+    public Builder setModuleCount(int moduleCount) {
+      // Each module has its own resource package ID, from 0x7f to 0xff.
+      checkArgument(moduleCount >= 1 && moduleCount <= 0x81);
+      this.moduleCount = moduleCount;
+      return this;
+    }
+
+    /** Number of locales in which each string resource is translated. */
+    public Builder setLocaleCount(int localeCount) {
+      checkArgument(localeCount >= 0 && localeCount <= LOCALES.size());
+      this.localeCount = localeCount;
+      return this;
+    }
+
+    /** Number of densities in which each drawable resource is provided. */
+    public Builder setDensityCount(int densityCount) {
+      checkArgument(densityCount >= 0 && densityCount <= DENSITIES.size());
+      this.densityCount = densityCount;
+      return this;
+    }
+
+    /** Number of ABIs for which each module has native libraries. */
+    public Builder setAbiCount(int abiCount) {
+      checkArgument(abiCount >= 0 && abiCount <= ABIS.size());
+      this.abiCount = abiCount;
+      return this;
+    }
+
+    /** Number of string resources, drawable resources and assets in each module. */
+    public Builder setEntriesPerModule(int entriesPerModule) {
+      this.entriesPerModule = entriesPerModule;
+      return this;
+    }
+
+    /** Size in bytes of each file entry. */
+    public Builder setEntrySizeBytes(int entrySizeBytes) {
+      this.entrySizeBytes = entrySizeBytes;
+      return this;
+    }
+
+    public SyntheticBundle build() {
+      return new SyntheticBundle(this);
+    }
+  }
+}
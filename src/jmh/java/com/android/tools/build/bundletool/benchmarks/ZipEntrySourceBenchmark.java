@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.benchmarks;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.android.tools.build.bundletool.io.TempDirectory;
+import com.android.tools.build.bundletool.io.ZipEntrySource;
+import com.android.tools.build.bundletool.io.ZipReader;
+import com.android.tools.build.bundletool.model.CompressionLevel;
+import com.android.zipflinger.Entry;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Benchmarks the re-compression of all the entries of an App Bundle, as done for each APK. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ZipEntrySourceBenchmark {
+
+  @Param({"DEFAULT_COMPRESSION", "BEST_COMPRESSION", "NO_COMPRESSION"})
+  public CompressionLevel compressionLevel;
+
+  private TempDirectory bundleDirectory;
+  private ZipReader zipReader;
+  private ImmutableList<Entry> entries;
+  private TempDirectory payloadDirectory;
+
+  @Setup
+  public void setUp(BundleShape bundleShape) {
+    bundleDirectory = new TempDirectory(getClass().getSimpleName());
+    Path bundlePath =
+        bundleShape.toSyntheticBundle().writeTo(bundleDirectory.getPath().resolve("bundle.aab"));
+    zipReader = ZipReader.createFromFile(bundlePath);
+    entries =
+        zipReader.getEntries().values().stream()
+            .filter(entry -> !entry.getName().endsWith("/"))
+            .collect(toImmutableList());
+  }
+
+  /** Large payloads are spilled to disk, so they get a fresh directory at each iteration. */
+  @Setup(Level.Iteration)
+  public void setUpIteration() {
+    payloadDirectory = new TempDirectory(getClass().getSimpleName());
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDownIteration() {
+    payloadDirectory.close();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    zipReader.close();
+    bundleDirectory.close();
+  }
+
+  @Benchmark
+  public void createZipEntrySources(Blackhole blackhole) throws IOException {
+    for (Entry entry : entries) {
+      blackhole.consume(
+          ZipEntrySource.create(zipReader, entry, compressionLevel, payloadDirectory));
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.commands;
+
+import com.android.tools.build.bundletool.benchmarks.SyntheticBundle;
+import com.android.tools.build.bundletool.commands.GetSizeCommand.GetSizeSubcommand;
+import com.android.tools.build.bundletool.io.TempDirectory;
+import com.android.tools.build.bundletool.model.ConfigurationSizes;
+import com.android.tools.build.bundletool.model.GetSizeRequest.Dimension;
+import com.google.common.collect.ImmutableSet;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the computation of the download sizes of an APK Set of about 500 APKs, depending on
+ * the number of threads compressing the APKs.
+ *
+ * <p>Each of the 23 modules has a master split, 4 ABI splits, 7 screen density splits and 10
+ * language splits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class GetSizeCommandThreadsBenchmark {
+
+  @Param({"1", "2", "4", "8"})
+  public int threads;
+
+  private TempDirectory tempDirectory;
+  private GetSizeCommand command;
+
+  @Setup
+  public void setUp() {
+    tempDirectory = new TempDirectory(getClass().getSimpleName());
+    SyntheticBundle bundle =
+        SyntheticBundle.builder()
+            .setModuleCount(23)
+            .setLocaleCount(10)
+            .setDensityCount(6)
+            .setAbiCount(4)
+            .setEntriesPerModule(5)
+            .build();
+    Path apkSetPath =
+        SyntheticBundle.buildApkSet(
+            bundle.writeTo(tempDirectory.getPath().resolve("app.aab")),
+            tempDirectory.getPath().resolve("app.apks"));
+    command =
+        GetSizeCommand.builder()
+            .setApksArchivePath(apkSetPath)
+            .setGetSizeSubCommand(GetSizeSubcommand.TOTAL)
+            .setDimensions(ImmutableSet.of(Dimension.ABI, Dimension.SCREEN_DENSITY))
+            .setMaxThreads(threads)
+            .build();
+  }
+
+  @TearDown
+  public void tearDown() {
+    tempDirectory.close();
+  }
+
+  @Benchmark
+  public ConfigurationSizes getSizeTotal() {
+    return command.getSizeTotalInternal();
+  }
+}
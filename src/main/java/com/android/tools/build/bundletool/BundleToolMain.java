@@ -24,6 +24,7 @@ import com.android.tools.build.bundletool.commands.GetDeviceSpecCommand;
 import com.android.tools.build.bundletool.commands.GetSizeCommand;
 import com.android.tools.build.bundletool.commands.InstallApksCommand;
 import com.android.tools.build.bundletool.commands.InstallMultiApksCommand;
+import com.android.tools.build.bundletool.commands.ServeCommand;
 import com.android.tools.build.bundletool.commands.ValidateBundleCommand;
 import com.android.tools.build.bundletool.commands.VersionCommand;
 import com.android.tools.build.bundletool.device.AdbServer;
@@ -106,6 +107,11 @@ public class BundleToolMain {
         case VersionCommand.COMMAND_NAME:
           VersionCommand.fromFlags(flags, System.out).execute();
           break;
+        case ServeCommand.COMMAND_NAME:
+          try (AdbServer adbServer = DdmlibAdbServer.getInstance()) {
+            ServeCommand.fromFlags(flags, adbServer).execute();
+          }
+          break;
         case HELP_CMD:
           if (flags.getSubCommand().isPresent()) {
             help(flags.getSubCommand().get(), runtime);
@@ -144,7 +150,8 @@ public class BundleToolMain {
             ValidateBundleCommand.help(),
             DumpCommand.help(),
             GetSizeCommand.help(),
-            VersionCommand.help());
+            VersionCommand.help(),
+            ServeCommand.help());
 
     System.out.println("Synopsis: bundletool <command> ...");
     System.out.println();
@@ -184,6 +191,9 @@ public class BundleToolMain {
       case GetSizeCommand.COMMAND_NAME:
         commandHelp = GetSizeCommand.help();
         break;
+      case ServeCommand.COMMAND_NAME:
+        commandHelp = ServeCommand.help();
+        break;
       default:
         System.err.printf("Error: Unrecognized command '%s'.%n%n%n", commandName);
         help();
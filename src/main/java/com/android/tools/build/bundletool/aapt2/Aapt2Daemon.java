@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.aapt2;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.android.tools.build.bundletool.model.exceptions.CommandExecutionException;
+import com.google.common.collect.ImmutableList;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.file.Path;
+
+/**
+ * A long-lived aapt2 process started in daemon mode ("aapt2 daemon").
+ *
+ * <p>The daemon reads commands from its standard input, one argument per line, each command being
+ * terminated by an empty line. It prints the diagnostics of the command on its standard error,
+ * followed by "Error" if the command failed, and always by "Done".
+ *
+ * <p>Not thread-safe: a daemon runs one command at a time.
+ */
+final class Aapt2Daemon {
+
+  private static final String READY = "Ready";
+  private static final String DONE = "Done";
+  private static final String ERROR = "Error";
+  private static final String QUIT = "quit";
+
+  private final Process process;
+  private final BufferedWriter stdin;
+  private final BufferedReader stdout;
+  private final BufferedReader stderr;
+
+  private Aapt2Daemon(Process process) {
+    this.process = process;
+    this.stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), UTF_8));
+    this.stdout = new BufferedReader(new InputStreamReader(process.getInputStream(), UTF_8));
+    this.stderr = new BufferedReader(new InputStreamReader(process.getErrorStream(), UTF_8));
+  }
+
+  /**
+   * Starts the daemon without waiting for it to be ready; see {@link #awaitReady()}.
+   *
+   * @throws IOException if the process could not be started
+   */
+  static Aapt2Daemon start(Path aapt2Path) throws IOException {
+    return new Aapt2Daemon(new ProcessBuilder(aapt2Path.toString(), "daemon").start());
+  }
+
+  /**
+   * Waits for the daemon to be ready to accept commands.
+   *
+   * <p>Blocks until the daemon reports being ready or exits, so callers must bound the wait by
+   * killing the daemon with {@link #kill()}.
+   *
+   * @throws IOException if the daemon exited or did not report being ready
+   */
+  void awaitReady() throws IOException {
+    String line = stdout.readLine();
+    if (!READY.equals(line)) {
+      throw new IOException(
+          line == null
+              ? "aapt2 daemon exited before being ready."
+              : "Unexpected output from aapt2 daemon: " + line);
+    }
+  }
+
+  /**
+   * Runs an aapt2 command in the daemon.
+   *
+   * @param args the arguments of the command, starting with the aapt2 command name
+   * @throws CommandExecutionException if the command failed, in which case the daemon remains
+   *     usable
+   * @throws IOException if the daemon crashed or was killed while running the command, in which
+   *     case it is not usable anymore
+   */
+  void execute(ImmutableList<String> args) throws IOException {
+    for (String arg : args) {
+      stdin.write(arg);
+      stdin.newLine();
+    }
+    stdin.newLine();
+    stdin.flush();
+
+    ImmutableList.Builder<String> diagnostics = ImmutableList.builder();
+    boolean failed = false;
+    for (String line = stderr.readLine(); !DONE.equals(line); line = stderr.readLine()) {
+      if (line == null) {
+        throw new IOException("aapt2 daemon exited while running: " + args);
+      }
+      if (line.equals(ERROR)) {
+        failed = true;
+      } else {
+        diagnostics.add(line);
+      }
+    }
+
+    if (failed) {
+      diagnostics.build().forEach(System.err::println);
+      throw CommandExecutionException.builder()
+          .withInternalMessage("Command '%s' didn't terminate successfully. Check the logs.", args)
+          .build();
+    }
+  }
+
+  boolean isAlive() {
+    return process.isAlive();
+  }
+
+  /** Kills the daemon, e.g. when a command times out, which fails the running command. */
+  void kill() {
+    process.destroyForcibly();
+  }
+
+  /** Asks the daemon to exit, and kills it if it does not exit promptly. */
+  void shutdown() {
+    try {
+      stdin.write(QUIT);
+      stdin.newLine();
+      stdin.newLine();
+      stdin.flush();
+      stdin.close();
+    } catch (IOException e) {
+      // The daemon is already gone.
+    }
+    process.destroy();
+  }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.aapt2;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.android.tools.build.bundletool.model.Aapt2Command;
+import com.android.tools.build.bundletool.model.exceptions.CommandExecutionException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * {@link Aapt2Command} converting proto APKs to binary APKs using a pool of aapt2 daemons, saving
+ * the cost of starting one aapt2 process per APK.
+ *
+ * <p>A new daemon is only started when all existing ones are busy, so the size of the pool is
+ * bounded by the number of threads converting APKs concurrently, i.e. by the size of the executor
+ * of the command.
+ *
+ * <p>A daemon that crashes or times out is discarded and the conversion is retried once on a new
+ * daemon. A daemon that isn't ready within the timeout is killed and the conversion fails. The pool
+ * must be closed to terminate the daemons.
+ */
+public final class Aapt2DaemonPool implements Aapt2Command, AutoCloseable {
+
+  private static final Logger logger = Logger.getLogger(Aapt2DaemonPool.class.getName());
+
+  private static final DateTimeFormatter DATE_FORMATTER =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+  private static final Duration DEFAULT_TIMEOUT = Duration.ofMinutes(5);
+  private static final int MAX_ATTEMPTS = 2;
+
+  private final Supplier<Path> aapt2Path;
+  private final boolean verbose;
+  private final Duration timeout;
+
+  private final LinkedBlockingQueue<Aapt2Daemon> idleDaemons = new LinkedBlockingQueue<>();
+  private final Set<Aapt2Daemon> allDaemons = ConcurrentHashMap.newKeySet();
+  private final ScheduledExecutorService watchdog =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder()
+              .setNameFormat("aapt2-daemon-watchdog")
+              .setDaemon(true)
+              .build());
+
+  private final AtomicInteger conversionCount = new AtomicInteger();
+  private final AtomicLong totalConversionMillis = new AtomicLong();
+  private final AtomicInteger restartCount = new AtomicInteger();
+
+  private Aapt2DaemonPool(Supplier<Path> aapt2Path, boolean verbose, Duration timeout) {
+    // The aapt2 binary may need to be extracted from the jar, so only do it if it's needed.
+    this.aapt2Path = Suppliers.memoize(aapt2Path::get);
+    this.verbose = verbose;
+    this.timeout = timeout;
+  }
+
+  /**
+   * Creates a pool of daemons running the given aapt2 binary.
+   *
+   * @param verbose whether the latency of each conversion is printed
+   */
+  public static Aapt2DaemonPool create(Supplier<Path> aapt2Path, boolean verbose) {
+    return create(aapt2Path, verbose, DEFAULT_TIMEOUT);
+  }
+
+  /**
+   * Creates a pool of daemons which are killed when they take longer than the timeout to start or
+   * to run a command.
+   */
+  @VisibleForTesting
+  static Aapt2DaemonPool create(Supplier<Path> aapt2Path, boolean verbose, Duration timeout) {
+    return new Aapt2DaemonPool(aapt2Path, verbose, timeout);
+  }
+
+  @Override
+  public void convertApkProtoToBinary(Path protoApk, Path binaryApk) {
+    ImmutableList<String> args =
+        ImmutableList.of(
+            "convert",
+            "--output-format",
+            "binary",
+            "-o",
+            binaryApk.toString(),
+            protoApk.toString());
+
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    executeWithRetry(args);
+    long elapsedMillis = stopwatch.elapsed(MILLISECONDS);
+
+    conversionCount.incrementAndGet();
+    totalConversionMillis.addAndGet(elapsedMillis);
+    if (verbose) {
+      System.out.printf(
+          "INFO: [%s] aapt2 convert of '%s' took %d ms.%n",
+          LocalDateTime.now(ZoneId.systemDefault()).format(DATE_FORMATTER),
+          protoApk,
+          elapsedMillis);
+    }
+  }
+
+  @Override
+  public ImmutableList<String> dumpBadging(Path apkPath) {
+    // The output of the daemon is not captured, so run a dedicated process.
+    return Aapt2Command.createFromExecutablePath(aapt2Path.get()).dumpBadging(apkPath);
+  }
+
+  private void executeWithRetry(ImmutableList<String> args) {
+    IOException lastFailure = null;
+    for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+      Aapt2Daemon daemon = acquireDaemon();
+      ScheduledFuture<?> timeoutFuture =
+          watchdog.schedule(daemon::kill, timeout.toMillis(), MILLISECONDS);
+      try {
+        daemon.execute(args);
+        releaseOrDiscardDaemon(daemon, timeoutFuture);
+        return;
+      } catch (CommandExecutionException e) {
+        // The command failed but the daemon is still healthy.
+        releaseOrDiscardDaemon(daemon, timeoutFuture);
+        throw e;
+      } catch (IOException e) {
+        timeoutFuture.cancel(/* mayInterruptIfRunning= */ false);
+        discardDaemon(daemon);
+        restartCount.incrementAndGet();
+        logger.warning(
+            String.format(
+                "aapt2 daemon failed while running %s (attempt %d of %d): %s",
+                args, attempt + 1, MAX_ATTEMPTS, e.getMessage()));
+        lastFailure = e;
+      }
+    }
+    throw CommandExecutionException.builder()
+        .withInternalMessage("aapt2 daemon failed to run command: %s", args)
+        .withCause(lastFailure)
+        .build();
+  }
+
+  /**
+   * Returns the daemon to the pool once its command has terminated, unless the watchdog already
+   * started killing it, in which case the daemon is discarded.
+   */
+  private void releaseOrDiscardDaemon(Aapt2Daemon daemon, ScheduledFuture<?> timeoutFuture) {
+    if (timeoutFuture.cancel(/* mayInterruptIfRunning= */ false)) {
+      releaseDaemon(daemon);
+    } else {
+      discardDaemon(daemon);
+    }
+  }
+
+  /** Returns a healthy idle daemon, starting a new one if none is available. */
+  private Aapt2Daemon acquireDaemon() {
+    Aapt2Daemon daemon;
+    while ((daemon = idleDaemons.poll()) != null) {
+      if (daemon.isAlive()) {
+        return daemon;
+      }
+      discardDaemon(daemon);
+    }
+    return startDaemon();
+  }
+
+  private Aapt2Daemon startDaemon() {
+    Path path = aapt2Path.get();
+    Aapt2Daemon daemon;
+    try {
+      daemon = Aapt2Daemon.start(path);
+    } catch (IOException e) {
+      throw CommandExecutionException.builder()
+          .withInternalMessage("Failed to start aapt2 daemon '%s'.", path)
+          .withCause(e)
+          .build();
+    }
+    allDaemons.add(daemon);
+    // A daemon which never reports being ready is killed, which ends the wait.
+    ScheduledFuture<?> timeoutFuture =
+        watchdog.schedule(daemon::kill, timeout.toMillis(), MILLISECONDS);
+    IOException failure = null;
+    try {
+      daemon.awaitReady();
+    } catch (IOException e) {
+      failure = e;
+    }
+    boolean timedOut = !timeoutFuture.cancel(/* mayInterruptIfRunning= */ false);
+    if (timedOut) {
+      discardDaemon(daemon);
+      throw CommandExecutionException.builder()
+          .withInternalMessage("aapt2 daemon '%s' was not ready after %s.", path, timeout)
+          .withCause(failure)
+          .build();
+    }
+    if (failure != null) {
+      discardDaemon(daemon);
+      throw CommandExecutionException.builder()
+          .withInternalMessage("aapt2 daemon '%s' failed to start.", path)
+          .withCause(failure)
+          .build();
+    }
+    return daemon;
+  }
+
+  private void releaseDaemon(Aapt2Daemon daemon) {
+    idleDaemons.add(daemon);
+  }
+
+  private void discardDaemon(Aapt2Daemon daemon) {
+    allDaemons.remove(daemon);
+    daemon.kill();
+  }
+
+  /** Terminates all the daemons of the pool. */
+  @Override
+  public void close() {
+    watchdog.shutdownNow();
+    for (Aapt2Daemon daemon : allDaemons) {
+      daemon.shutdown();
+    }
+    allDaemons.clear();
+    idleDaemons.clear();
+
+    int conversions = conversionCount.get();
+    if (verbose && conversions > 0) {
+      System.out.printf(
+          "INFO: [%s] aapt2 daemons converted %d APKs, %d ms on average (%d daemon restarts).%n",
+          LocalDateTime.now(ZoneId.systemDefault()).format(DATE_FORMATTER),
+          conversions,
+          totalConversionMillis.get() / conversions,
+          restartCount.get());
+    }
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.aapt2;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import com.android.aapt.ConfigurationOuterClass.Configuration;
+import com.google.common.base.Ascii;
+import com.google.common.base.Splitter;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary representation of a resource configuration ({@code ResTable_config}) converted from its
+ * proto representation.
+ */
+final class BinaryConfig {
+
+  private static final int SIZE = 64;
+
+  // Offsets of the fields of ResTable_config.
+  private static final int MCC = 4;
+  private static final int MNC = 6;
+  private static final int LANGUAGE = 8;
+  private static final int COUNTRY = 10;
+  private static final int ORIENTATION = 12;
+  private static final int TOUCHSCREEN = 13;
+  private static final int DENSITY = 14;
+  private static final int KEYBOARD = 16;
+  private static final int NAVIGATION = 17;
+  private static final int INPUT_FLAGS = 18;
+  private static final int SCREEN_WIDTH = 20;
+  private static final int SCREEN_HEIGHT = 22;
+  private static final int SDK_VERSION = 24;
+  private static final int SCREEN_LAYOUT = 28;
+  private static final int UI_MODE = 29;
+  private static final int SMALLEST_SCREEN_WIDTH_DP = 30;
+  private static final int SCREEN_WIDTH_DP = 32;
+  private static final int SCREEN_HEIGHT_DP = 34;
+  private static final int LOCALE_SCRIPT = 36;
+  private static final int LOCALE_VARIANT = 40;
+  private static final int SCREEN_LAYOUT_2 = 48;
+  private static final int COLOR_MODE = 49;
+  private static final int LOCALE_NUMBERING_SYSTEM = 53;
+
+  private static final int MASK_LAYOUTDIR = 0xC0;
+  private static final int MASK_SCREENROUND = 0x03;
+
+  // Bits returned by diff(), used as flags of the ResTable_typeSpec entries.
+  private static final int CONFIG_MCC = 0x0001;
+  private static final int CONFIG_MNC = 0x0002;
+  private static final int CONFIG_LOCALE = 0x0004;
+  private static final int CONFIG_TOUCHSCREEN = 0x0008;
+  private static final int CONFIG_KEYBOARD = 0x0010;
+  private static final int CONFIG_KEYBOARD_HIDDEN = 0x0020;
+  private static final int CONFIG_NAVIGATION = 0x0040;
+  private static final int CONFIG_ORIENTATION = 0x0080;
+  private static final int CONFIG_DENSITY = 0x0100;
+  private static final int CONFIG_SCREEN_SIZE = 0x0200;
+  private static final int CONFIG_VERSION = 0x0400;
+  private static final int CONFIG_SCREEN_LAYOUT = 0x0800;
+  private static final int CONFIG_UI_MODE = 0x1000;
+  private static final int CONFIG_SMALLEST_SCREEN_SIZE = 0x2000;
+  private static final int CONFIG_LAYOUTDIR = 0x4000;
+  private static final int CONFIG_SCREEN_ROUND = 0x8000;
+  private static final int CONFIG_COLOR_MODE = 0x10000;
+
+  private final byte[] bytes;
+
+  private BinaryConfig(byte[] bytes) {
+    this.bytes = bytes;
+  }
+
+  static BinaryConfig fromProto(Configuration config) {
+    if (!config.getProduct().isEmpty()) {
+      throw new UnsupportedResourceException(
+          "Configurations with a product cannot be encoded: '%s'.", config.getProduct());
+    }
+    ChunkBuffer buffer = new ChunkBuffer();
+    buffer.putInt(SIZE);
+    buffer.putShort(config.getMcc());
+    buffer.putShort(config.getMnc());
+    buffer.putZeros(4); // Language and country, set below.
+    buffer.putByte(config.getOrientationValue());
+    buffer.putByte(config.getTouchscreenValue());
+    buffer.putShort(config.getDensity());
+    buffer.putByte(config.getKeyboardValue());
+    buffer.putByte(config.getNavigationValue());
+    buffer.putByte(config.getKeysHiddenValue() | (config.getNavHiddenValue() << 2));
+    buffer.putByte(0);
+    buffer.putShort(config.getScreenWidth());
+    buffer.putShort(config.getScreenHeight());
+    buffer.putShort(config.getSdkVersion());
+    buffer.putShort(0); // Minor version.
+    buffer.putByte(
+        config.getScreenLayoutSizeValue()
+            | swap(config.getScreenLayoutLongValue(), 0x20, 0x10)
+            | (config.getLayoutDirectionValue() << 6));
+    buffer.putByte(config.getUiModeTypeValue() | swap(config.getUiModeNightValue(), 0x20, 0x10));
+    buffer.putShort(config.getSmallestScreenWidthDp());
+    buffer.putShort(config.getScreenWidthDp());
+    buffer.putShort(config.getScreenHeightDp());
+    buffer.putZeros(12); // Locale script and variant, set below.
+    buffer.putByte(swap(config.getScreenRoundValue(), 0x2, 0x1));
+    buffer.putByte(
+        swap(config.getWideColorGamutValue(), 0x2, 0x1) | swap(config.getHdrValue(), 0x8, 0x4));
+    buffer.putZeros(SIZE - buffer.position());
+
+    byte[] bytes = buffer.toByteArray();
+    if (!config.getLocale().isEmpty()) {
+      writeLocale(config.getLocale(), bytes);
+    }
+    return new BinaryConfig(bytes);
+  }
+
+  void writeTo(ChunkBuffer buffer) {
+    buffer.putBytes(bytes);
+  }
+
+  /**
+   * Returns the {@code CONFIG_*} bits of the dimensions in which the two configurations differ, as
+   * computed by {@code ResTable_config::diff}.
+   */
+  int diff(BinaryConfig other) {
+    int diffs = 0;
+    diffs |= differs(other, MCC, 2) ? CONFIG_MCC : 0;
+    diffs |= differs(other, MNC, 2) ? CONFIG_MNC : 0;
+    diffs |=
+        differs(other, LANGUAGE, 4)
+                || differs(other, LOCALE_SCRIPT, 12)
+                || differs(other, LOCALE_NUMBERING_SYSTEM, 8)
+            ? CONFIG_LOCALE
+            : 0;
+    diffs |= differs(other, ORIENTATION, 1) ? CONFIG_ORIENTATION : 0;
+    diffs |= differs(other, TOUCHSCREEN, 1) ? CONFIG_TOUCHSCREEN : 0;
+    diffs |= differs(other, DENSITY, 2) ? CONFIG_DENSITY : 0;
+    diffs |= differs(other, KEYBOARD, 1) ? CONFIG_KEYBOARD : 0;
+    diffs |= differs(other, NAVIGATION, 1) ? CONFIG_NAVIGATION : 0;
+    diffs |= differs(other, INPUT_FLAGS, 1) ? CONFIG_KEYBOARD_HIDDEN : 0;
+    diffs |=
+        differs(other, SCREEN_WIDTH, 4) || differs(other, SCREEN_WIDTH_DP, 4)
+            ? CONFIG_SCREEN_SIZE
+            : 0;
+    diffs |= differs(other, SDK_VERSION, 4) ? CONFIG_VERSION : 0;
+    diffs |= differsMasked(other, SCREEN_LAYOUT, MASK_LAYOUTDIR) ? CONFIG_LAYOUTDIR : 0;
+    diffs |= differsMasked(other, SCREEN_LAYOUT, ~MASK_LAYOUTDIR) ? CONFIG_SCREEN_LAYOUT : 0;
+    diffs |= differsMasked(other, SCREEN_LAYOUT_2, MASK_SCREENROUND) ? CONFIG_SCREEN_ROUND : 0;
+    diffs |= differs(other, COLOR_MODE, 1) ? CONFIG_COLOR_MODE : 0;
+    diffs |= differs(other, UI_MODE, 1) ? CONFIG_UI_MODE : 0;
+    diffs |= differs(other, SMALLEST_SCREEN_WIDTH_DP, 2) ? CONFIG_SMALLEST_SCREEN_SIZE : 0;
+    return diffs;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof BinaryConfig && Arrays.equals(bytes, ((BinaryConfig) obj).bytes);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(bytes);
+  }
+
+  private boolean differs(BinaryConfig other, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      if (bytes[i] != other.bytes[i]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean differsMasked(BinaryConfig other, int offset, int mask) {
+    return (bytes[offset] & mask) != (other.bytes[offset] & mask);
+  }
+
+  /**
+   * Maps the proto values of a two-state dimension (1 and 2, 0 being "unset") to their binary
+   * values.
+   */
+  private static int swap(int protoValue, int binaryValueOf1, int binaryValueOf2) {
+    switch (protoValue) {
+      case 0:
+        return 0;
+      case 1:
+        return binaryValueOf1;
+      case 2:
+        return binaryValueOf2;
+      default:
+        throw new UnsupportedResourceException("Unknown configuration value: %d.", protoValue);
+    }
+  }
+
+  /**
+   * Parses a BCP-47 language tag the way aapt2 does ({@code LocaleValue::InitFromBcp47Tag}) and
+   * writes its parts in the binary configuration.
+   */
+  private static void writeLocale(String bcp47Tag, byte[] bytes) {
+    List<String> parts = Splitter.on('-').splitToList(Ascii.toLowerCase(bcp47Tag));
+    String language = parts.get(0);
+    if (!isAlpha(language) || language.length() < 2 || language.length() > 3) {
+      throw new UnsupportedResourceException("Unsupported locale: '%s'.", bcp47Tag);
+    }
+    packLanguageOrRegion(language, 'a', bytes, LANGUAGE);
+
+    for (int i = 1; i < parts.size(); i++) {
+      String part = parts.get(i);
+      if (part.length() == 4 && isAlpha(part) && i == 1) {
+        String script = Ascii.toUpperCase(part.substring(0, 1)) + part.substring(1);
+        System.arraycopy(script.getBytes(US_ASCII), 0, bytes, LOCALE_SCRIPT, 4);
+      } else if ((part.length() == 2 && isAlpha(part)) || (part.length() == 3 && isDigits(part))) {
+        packLanguageOrRegion(Ascii.toUpperCase(part), '0', bytes, COUNTRY);
+      } else if (part.length() >= 5 && part.length() <= 8 && i == parts.size() - 1) {
+        System.arraycopy(part.getBytes(US_ASCII), 0, bytes, LOCALE_VARIANT, part.length());
+      } else {
+        throw new UnsupportedResourceException("Unsupported locale: '%s'.", bcp47Tag);
+      }
+    }
+  }
+
+  /**
+   * Writes a 2-letter code as is, or packs a 3-letter code in 2 bytes as in {@code
+   * ResTable_config::packLanguageOrRegion}.
+   */
+  private static void packLanguageOrRegion(String value, char base, byte[] bytes, int offset) {
+    if (value.length() == 2) {
+      bytes[offset] = (byte) value.charAt(0);
+      bytes[offset + 1] = (byte) value.charAt(1);
+      return;
+    }
+    int first = (value.charAt(0) - base) & 0x7F;
+    int second = (value.charAt(1) - base) & 0x7F;
+    int third = (value.charAt(2) - base) & 0x7F;
+    bytes[offset] = (byte) (0x80 | (third << 2) | (second >> 3));
+    bytes[offset + 1] = (byte) ((second << 5) | first);
+  }
+
+  private static boolean isAlpha(String value) {
+    return value.chars().allMatch(c -> c >= 'a' && c <= 'z');
+  }
+
+  private static boolean isDigits(String value) {
+    return value.chars().allMatch(c -> c >= '0' && c <= '9');
+  }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.aapt2;
+
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.ATTR_FEW;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.ATTR_MANY;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.ATTR_MAX;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.ATTR_MIN;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.ATTR_ONE;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.ATTR_OTHER;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.ATTR_TWO;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.ATTR_TYPE;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.ATTR_ZERO;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.FLAG_COMPLEX;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.FLAG_PUBLIC;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.FLAG_WEAK;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.NO_ENTRY;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.RES_TABLE_PACKAGE_TYPE;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.RES_TABLE_TYPE;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.RES_TABLE_TYPE_SPEC_TYPE;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.RES_TABLE_TYPE_TYPE;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.SPEC_PUBLIC;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.TYPE_FLAGS;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.TYPE_INT_DEC;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.TYPE_INT_HEX;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.TYPE_NULL;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.android.aapt.Resources.Array;
+import com.android.aapt.Resources.Attribute;
+import com.android.aapt.Resources.CompoundValue;
+import com.android.aapt.Resources.ConfigValue;
+import com.android.aapt.Resources.Entry;
+import com.android.aapt.Resources.Item;
+import com.android.aapt.Resources.Package;
+import com.android.aapt.Resources.Plural;
+import com.android.aapt.Resources.ResourceTable;
+import com.android.aapt.Resources.Style;
+import com.android.aapt.Resources.Styleable;
+import com.android.aapt.Resources.Type;
+import com.android.aapt.Resources.Value;
+import com.android.aapt.Resources.Visibility;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/** Serializes a proto resource table into the binary format ("resources.arsc"). */
+final class BinaryResourceTableSerializer {
+
+  private static final int TABLE_HEADER_SIZE = 12;
+  private static final int PACKAGE_HEADER_SIZE = 288;
+  private static final int PACKAGE_NAME_MAX_LENGTH = 128;
+  private static final int TYPE_SPEC_HEADER_SIZE = 16;
+  private static final int TYPE_HEADER_SIZE = 84;
+  private static final int SIMPLE_ENTRY_SIZE = 8;
+  private static final int MAP_ENTRY_SIZE = 16;
+  private static final int ATTR_MIN_INT_DEFAULT = Integer.MIN_VALUE;
+  private static final int ATTR_MAX_INT_DEFAULT = Integer.MAX_VALUE;
+
+  private static final ImmutableMap<Plural.Arity, Integer> PLURAL_KEYS =
+      ImmutableMap.<Plural.Arity, Integer>builder()
+          .put(Plural.Arity.ZERO, ATTR_ZERO)
+          .put(Plural.Arity.ONE, ATTR_ONE)
+          .put(Plural.Arity.TWO, ATTR_TWO)
+          .put(Plural.Arity.FEW, ATTR_FEW)
+          .put(Plural.Arity.MANY, ATTR_MANY)
+          .put(Plural.Arity.OTHER, ATTR_OTHER)
+          .build();
+
+  private final BinaryStringPool valuePool = BinaryStringPool.createUtf8();
+
+  private BinaryResourceTableSerializer() {}
+
+  static byte[] serialize(ResourceTable table) {
+    if (table.getOverlayableCount() > 0) {
+      throw new UnsupportedResourceException("Overlayable resources are not supported.");
+    }
+    return new BinaryResourceTableSerializer().serializeTable(table);
+  }
+
+  private byte[] serializeTable(ResourceTable table) {
+    // Styled strings must occupy the first indices of the pool, hence the two passes.
+    forEachItem(table, item -> {
+      if (item.hasStyledStr()) {
+        valuePool.addStyled(item.getStyledStr());
+      }
+    });
+    forEachItem(table, item -> ResValues.getStringValue(item).ifPresent(valuePool::add));
+
+    ChunkBuffer buffer = new ChunkBuffer();
+    int tableStart = buffer.startChunk(RES_TABLE_TYPE, TABLE_HEADER_SIZE);
+    buffer.putInt(table.getPackageCount());
+    valuePool.writeTo(buffer);
+    for (Package pkg : table.getPackageList()) {
+      writePackage(buffer, pkg);
+    }
+    buffer.endChunk(tableStart);
+    return buffer.toByteArray();
+  }
+
+  private void writePackage(ChunkBuffer buffer, Package pkg) {
+    if (pkg.getPackageId().getId() == 0) {
+      throw new UnsupportedResourceException("Shared libraries are not supported.");
+    }
+    if (pkg.getPackageName().length() >= PACKAGE_NAME_MAX_LENGTH) {
+      throw new UnsupportedResourceException(
+          "Package name too long to be encoded: '%s'.", pkg.getPackageName());
+    }
+    ImmutableList<Type> types =
+        pkg.getTypeList().stream()
+            .sorted(Comparator.comparingInt(type -> type.getTypeId().getId()))
+            .collect(toImmutableList());
+
+    // Type names are indexed by type ID - 1, gaps being filled with a placeholder.
+    BinaryStringPool typePool = BinaryStringPool.createUtf16();
+    for (Type type : types) {
+      while (typePool.size() < type.getTypeId().getId() - 1) {
+        typePool.addUnique("?");
+      }
+      typePool.addUnique(type.getName());
+    }
+    BinaryStringPool keyPool = BinaryStringPool.createUtf8();
+    types.stream()
+        .flatMap(type -> type.getEntryList().stream())
+        .forEach(entry -> keyPool.add(entry.getName()));
+
+    int packageStart = buffer.startChunk(RES_TABLE_PACKAGE_TYPE, PACKAGE_HEADER_SIZE);
+    buffer.putInt(pkg.getPackageId().getId());
+    String packageName = pkg.getPackageName();
+    for (int i = 0; i < PACKAGE_NAME_MAX_LENGTH; i++) {
+      buffer.putShort(i < packageName.length() ? packageName.charAt(i) : 0);
+    }
+    int typeStringsPosition = buffer.position();
+    buffer.putInt(0);
+    buffer.putInt(typePool.size()); // lastPublicType.
+    int keyStringsPosition = buffer.position();
+    buffer.putInt(0);
+    buffer.putInt(keyPool.size()); // lastPublicKey.
+    buffer.putInt(0); // typeIdOffset.
+
+    buffer.setInt(typeStringsPosition, buffer.position() - packageStart);
+    typePool.writeTo(buffer);
+    buffer.setInt(keyStringsPosition, buffer.position() - packageStart);
+    keyPool.writeTo(buffer);
+
+    for (Type type : types) {
+      writeType(buffer, type, keyPool);
+    }
+    buffer.endChunk(packageStart);
+  }
+
+  private void writeType(ChunkBuffer buffer, Type type, BinaryStringPool keyPool) {
+    int entryCount =
+        type.getEntryList().stream().mapToInt(entry -> entry.getEntryId().getId()).max().orElse(-1)
+            + 1;
+
+    // Values of each configuration, indexed by entry ID, in order of first appearance.
+    Map<BinaryConfig, Value[]> valuesByConfig = new LinkedHashMap<>();
+    int[] specFlags = new int[entryCount];
+    for (Entry entry : type.getEntryList()) {
+      int entryId = entry.getEntryId().getId();
+      if (isPublic(entry)) {
+        specFlags[entryId] |= SPEC_PUBLIC;
+      }
+      List<BinaryConfig> entryConfigs = new ArrayList<>();
+      for (ConfigValue configValue : entry.getConfigValueList()) {
+        BinaryConfig config = BinaryConfig.fromProto(configValue.getConfig());
+        Value[] values = valuesByConfig.computeIfAbsent(config, c -> new Value[entryCount]);
+        if (values[entryId] != null) {
+          throw new UnsupportedResourceException(
+              "Resource '%s/%s' has several values for the same configuration.",
+              type.getName(), entry.getName());
+        }
+        values[entryId] = configValue.getValue();
+        for (BinaryConfig otherConfig : entryConfigs) {
+          specFlags[entryId] |= config.diff(otherConfig);
+        }
+        entryConfigs.add(config);
+      }
+    }
+
+    int typeSpecStart = buffer.startChunk(RES_TABLE_TYPE_SPEC_TYPE, TYPE_SPEC_HEADER_SIZE);
+    buffer.putByte(type.getTypeId().getId());
+    buffer.putByte(0);
+    buffer.putShort(0);
+    buffer.putInt(entryCount);
+    for (int flags : specFlags) {
+      buffer.putInt(flags);
+    }
+    buffer.endChunk(typeSpecStart);
+
+    Entry[] entriesById = new Entry[entryCount];
+    type.getEntryList().forEach(entry -> entriesById[entry.getEntryId().getId()] = entry);
+
+    for (Map.Entry<BinaryConfig, Value[]> configValues : valuesByConfig.entrySet()) {
+      int typeStart = buffer.startChunk(RES_TABLE_TYPE_TYPE, TYPE_HEADER_SIZE);
+      buffer.putByte(type.getTypeId().getId());
+      buffer.putByte(0); // flags.
+      buffer.putShort(0);
+      buffer.putInt(entryCount);
+      int entriesStartPosition = buffer.position();
+      buffer.putInt(0);
+      configValues.getKey().writeTo(buffer);
+      int offsetsPosition = buffer.position();
+      buffer.putZeros(4 * entryCount);
+
+      int entriesStart = buffer.position();
+      buffer.setInt(entriesStartPosition, entriesStart - typeStart);
+      Value[] values = configValues.getValue();
+      for (int entryId = 0; entryId < entryCount; entryId++) {
+        if (values[entryId] == null) {
+          buffer.setInt(offsetsPosition + 4 * entryId, NO_ENTRY);
+          continue;
+        }
+        buffer.setInt(offsetsPosition + 4 * entryId, buffer.position() - entriesStart);
+        writeEntry(buffer, entriesById[entryId], values[entryId], keyPool);
+      }
+      buffer.endChunk(typeStart);
+    }
+  }
+
+  private void writeEntry(ChunkBuffer buffer, Entry entry, Value value, BinaryStringPool keyPool) {
+    int flags = (isPublic(entry) ? FLAG_PUBLIC : 0) | (value.getWeak() ? FLAG_WEAK : 0);
+    int key = keyPool.indexOf(entry.getName());
+    switch (value.getValueCase()) {
+      case ITEM:
+        buffer.putShort(SIMPLE_ENTRY_SIZE);
+        buffer.putShort(flags);
+        buffer.putInt(key);
+        ResValues.writeItem(buffer, value.getItem(), this::stringIndex);
+        return;
+      case COMPOUND_VALUE:
+        buffer.putShort(MAP_ENTRY_SIZE);
+        buffer.putShort(flags | FLAG_COMPLEX);
+        buffer.putInt(key);
+        writeCompoundValue(buffer, value.getCompoundValue());
+        return;
+      default:
+        throw new UnsupportedResourceException(
+            "Resource '%s' has no value.", entry.getName());
+    }
+  }
+
+  /** Writes the parent and the map entries ({@code ResTable_map}) of a compound value. */
+  private void writeCompoundValue(ChunkBuffer buffer, CompoundValue compoundValue) {
+    switch (compoundValue.getValueCase()) {
+      case ATTR:
+        Attribute attr = compoundValue.getAttr();
+        boolean hasMin = attr.getMinInt() != ATTR_MIN_INT_DEFAULT;
+        boolean hasMax = attr.getMaxInt() != ATTR_MAX_INT_DEFAULT;
+        buffer.putInt(0);
+        buffer.putInt(1 + (hasMin ? 1 : 0) + (hasMax ? 1 : 0) + attr.getSymbolCount());
+        writeMapValue(buffer, ATTR_TYPE, TYPE_INT_DEC, attr.getFormatFlags());
+        if (hasMin) {
+          writeMapValue(buffer, ATTR_MIN, TYPE_INT_DEC, attr.getMinInt());
+        }
+        if (hasMax) {
+          writeMapValue(buffer, ATTR_MAX, TYPE_INT_DEC, attr.getMaxInt());
+        }
+        int symbolType = (attr.getFormatFlags() & TYPE_FLAGS) != 0 ? TYPE_INT_HEX : TYPE_INT_DEC;
+        for (Attribute.Symbol symbol : attr.getSymbolList()) {
+          writeMapValue(buffer, symbol.getName().getId(), symbolType, symbol.getValue());
+        }
+        return;
+      case STYLE:
+        Style style = compoundValue.getStyle();
+        buffer.putInt(style.hasParent() ? style.getParent().getId() : 0);
+        buffer.putInt(style.getEntryCount());
+        style.getEntryList().stream()
+            .sorted(Comparator.comparing(entry -> entry.getKey().getId(), Integer::compareUnsigned))
+            .forEach(
+                entry -> {
+                  buffer.putInt(entry.getKey().getId());
+                  ResValues.writeItem(buffer, entry.getItem(), this::stringIndex);
+                });
+        return;
+      case STYLEABLE:
+        Styleable styleable = compoundValue.getStyleable();
+        buffer.putInt(0);
+        buffer.putInt(styleable.getEntryCount());
+        for (Styleable.Entry entry : styleable.getEntryList()) {
+          writeMapValue(buffer, entry.getAttr().getId(), TYPE_NULL, 0);
+        }
+        return;
+      case ARRAY:
+        Array array = compoundValue.getArray();
+        buffer.putInt(0);
+        buffer.putInt(array.getElementCount());
+        for (int i = 0; i < array.getElementCount(); i++) {
+          buffer.putInt(ATTR_MIN + i);
+          ResValues.writeItem(buffer, array.getElement(i).getItem(), this::stringIndex);
+        }
+        return;
+      case PLURAL:
+        Plural plural = compoundValue.getPlural();
+        buffer.putInt(0);
+        buffer.putInt(plural.getEntryCount());
+        plural.getEntryList().stream()
+            .sorted(Comparator.comparingInt(entry -> entry.getArity().getNumber()))
+            .forEach(
+                entry -> {
+                  buffer.putInt(PLURAL_KEYS.get(entry.getArity()));
+                  ResValues.writeItem(buffer, entry.getItem(), this::stringIndex);
+                });
+        return;
+      default:
+        throw new UnsupportedResourceException(
+            "Unsupported compound value type '%s'.", compoundValue.getValueCase());
+    }
+  }
+
+  private static void writeMapValue(ChunkBuffer buffer, int name, int type, int data) {
+    buffer.putInt(name);
+    ResValues.writeValue(buffer, type, data);
+  }
+
+  private int stringIndex(Item item) {
+    return item.hasStyledStr()
+        ? valuePool.indexOf(item.getStyledStr())
+        : valuePool.indexOf(ResValues.getStringValue(item).get());
+  }
+
+  private static boolean isPublic(Entry entry) {
+    return entry.getVisibility().getLevel().equals(Visibility.Level.PUBLIC);
+  }
+
+  /** Calls the given consumer on all the items of the table, including in compound values. */
+  private static void forEachItem(ResourceTable table, Consumer<Item> itemConsumer) {
+    table.getPackageList().stream()
+        .flatMap(pkg -> pkg.getTypeList().stream())
+        .flatMap(type -> type.getEntryList().stream())
+        .flatMap(entry -> entry.getConfigValueList().stream())
+        .map(ConfigValue::getValue)
+        .forEach(
+            value -> {
+              if (value.hasItem()) {
+                itemConsumer.accept(value.getItem());
+                return;
+              }
+              CompoundValue compoundValue = value.getCompoundValue();
+              compoundValue.getStyle().getEntryList().stream()
+                  .map(Style.Entry::getItem)
+                  .forEach(itemConsumer);
+              compoundValue.getArray().getElementList().stream()
+                  .map(Array.Element::getItem)
+                  .forEach(itemConsumer);
+              compoundValue.getPlural().getEntryList().stream()
+                  .map(Plural.Entry::getItem)
+                  .forEach(itemConsumer);
+            });
+  }
+}
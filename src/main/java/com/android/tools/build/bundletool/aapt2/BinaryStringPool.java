@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.aapt2;
+
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.RES_STRING_POOL_TYPE;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.android.aapt.Resources.StyledString;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builder of a string pool chunk ({@code ResStringPool}).
+ *
+ * <p>Styled strings must all be added before any plain string: the platform requires the style
+ * at index {@code i} to describe the string at index {@code i}, so styled strings occupy the first
+ * indices of the pool.
+ */
+final class BinaryStringPool {
+
+  private static final int HEADER_SIZE = 28;
+  private static final int UTF8_FLAG = 1 << 8;
+  private static final int SPAN_END = 0xFFFFFFFF;
+  private static final int MAX_STRING_LENGTH = 0x7FFF;
+
+  private final boolean utf8;
+  private final List<String> strings = new ArrayList<>();
+  private final Map<String, Integer> plainStringIndices = new HashMap<>();
+  private final Map<StyledString, Integer> styledStringIndices = new LinkedHashMap<>();
+  private boolean stylesSealed = false;
+
+  private BinaryStringPool(boolean utf8) {
+    this.utf8 = utf8;
+  }
+
+  static BinaryStringPool createUtf8() {
+    return new BinaryStringPool(/* utf8= */ true);
+  }
+
+  static BinaryStringPool createUtf16() {
+    return new BinaryStringPool(/* utf8= */ false);
+  }
+
+  /** Adds a styled string to the pool if not already present and returns its index. */
+  int addStyled(StyledString styledString) {
+    if (styledString.getSpanCount() == 0) {
+      return add(styledString.getValue());
+    }
+    checkState(!stylesSealed, "Styled strings must be added before any plain string.");
+    Integer index = styledStringIndices.get(styledString);
+    if (index == null) {
+      index = strings.size();
+      strings.add(checkLength(styledString.getValue()));
+      styledStringIndices.put(styledString, index);
+    }
+    return index;
+  }
+
+  /** Adds a plain string to the pool if not already present and returns its index. */
+  int add(String value) {
+    sealStyles();
+    Integer index = plainStringIndices.get(value);
+    if (index == null) {
+      index = strings.size();
+      strings.add(checkLength(value));
+      plainStringIndices.put(value, index);
+    }
+    return index;
+  }
+
+  /**
+   * Adds a string to the pool at a new index, even if the same string is already present.
+   *
+   * <p>The string is not returned by {@link #indexOf(String)} and is not reused by {@link
+   * #add(String)}.
+   */
+  int addUnique(String value) {
+    sealStyles();
+    strings.add(checkLength(value));
+    return strings.size() - 1;
+  }
+
+  /** Returns the index of a string previously added with {@link #add(String)}. */
+  int indexOf(String value) {
+    Integer index = plainStringIndices.get(value);
+    checkArgument(index != null, "String '%s' was not added to the pool.", value);
+    return index;
+  }
+
+  /** Returns the index of a string previously added with {@link #addStyled(StyledString)}. */
+  int indexOf(StyledString styledString) {
+    if (styledString.getSpanCount() == 0) {
+      return indexOf(styledString.getValue());
+    }
+    Integer index = styledStringIndices.get(styledString);
+    checkArgument(index != null, "Styled string '%s' was not added to the pool.", styledString);
+    return index;
+  }
+
+  int size() {
+    return strings.size();
+  }
+
+  /** Writes the string pool chunk. */
+  void writeTo(ChunkBuffer buffer) {
+    sealStyles();
+    int styleCount = styledStringIndices.size();
+
+    int chunkStart = buffer.startChunk(RES_STRING_POOL_TYPE, HEADER_SIZE);
+    buffer.putInt(strings.size());
+    buffer.putInt(styleCount);
+    buffer.putInt(utf8 ? UTF8_FLAG : 0);
+    int stringsStartPosition = buffer.position();
+    buffer.putInt(0);
+    int stylesStartPosition = buffer.position();
+    buffer.putInt(0);
+
+    int stringOffsetsPosition = buffer.position();
+    buffer.putZeros(4 * strings.size());
+    int styleOffsetsPosition = buffer.position();
+    buffer.putZeros(4 * styleCount);
+
+    int stringsStart = buffer.position();
+    buffer.setInt(stringsStartPosition, stringsStart - chunkStart);
+    for (int i = 0; i < strings.size(); i++) {
+      buffer.setInt(stringOffsetsPosition + 4 * i, buffer.position() - stringsStart);
+      if (utf8) {
+        writeUtf8String(buffer, strings.get(i));
+      } else {
+        writeUtf16String(buffer, strings.get(i));
+      }
+    }
+    buffer.alignTo4();
+
+    if (styleCount > 0) {
+      int stylesStart = buffer.position();
+      buffer.setInt(stylesStartPosition, stylesStart - chunkStart);
+      int styleIndex = 0;
+      for (StyledString styledString : styledStringIndices.keySet()) {
+        buffer.setInt(styleOffsetsPosition + 4 * styleIndex++, buffer.position() - stylesStart);
+        for (StyledString.Span span : styledString.getSpanList()) {
+          buffer.putInt(indexOf(span.getTag()));
+          buffer.putInt(span.getFirstChar());
+          buffer.putInt(span.getLastChar());
+        }
+        buffer.putInt(SPAN_END);
+      }
+      // The platform expects a whole ResStringPool_span worth of 0xFFFFFFFF at the end of the
+      // styles, of which the 'name' was already written above for the last style.
+      buffer.putInt(SPAN_END);
+      buffer.putInt(SPAN_END);
+    }
+
+    buffer.endChunk(chunkStart);
+  }
+
+  /** Adds the tags of the styled strings to the pool, after the styled strings themselves. */
+  private void sealStyles() {
+    if (stylesSealed) {
+      return;
+    }
+    stylesSealed = true;
+    for (StyledString styledString : styledStringIndices.keySet()) {
+      for (StyledString.Span span : styledString.getSpanList()) {
+        add(span.getTag());
+      }
+    }
+  }
+
+  private static void writeUtf8String(ChunkBuffer buffer, String value) {
+    byte[] encoded = value.getBytes(UTF_8);
+    checkLength(encoded.length, value);
+    writeUtf8Length(buffer, value.length());
+    writeUtf8Length(buffer, encoded.length);
+    buffer.putBytes(encoded);
+    buffer.putByte(0);
+  }
+
+  private static void writeUtf8Length(ChunkBuffer buffer, int length) {
+    if (length > 0x7F) {
+      buffer.putByte(((length >> 8) & 0x7F) | 0x80);
+    }
+    buffer.putByte(length & 0xFF);
+  }
+
+  private static void writeUtf16String(ChunkBuffer buffer, String value) {
+    buffer.putShort(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      buffer.putShort(value.charAt(i));
+    }
+    buffer.putShort(0);
+  }
+
+  private static String checkLength(String value) {
+    checkLength(value.length(), value);
+    return value;
+  }
+
+  private static void checkLength(int length, String value) {
+    if (length > MAX_STRING_LENGTH) {
+      throw new UnsupportedResourceException(
+          "String of length %d is too long to be encoded: '%.20s...'.", length, value);
+    }
+  }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.aapt2;
+
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.ANDROID_ID_ATTRIBUTE;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.NO_INDEX;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.RES_XML_CDATA_TYPE;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.RES_XML_END_ELEMENT_TYPE;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.RES_XML_END_NAMESPACE_TYPE;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.RES_XML_RESOURCE_MAP_TYPE;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.RES_XML_START_ELEMENT_TYPE;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.RES_XML_START_NAMESPACE_TYPE;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.RES_XML_TYPE;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.TYPE_STRING;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.android.aapt.Resources.XmlAttribute;
+import com.android.aapt.Resources.XmlElement;
+import com.android.aapt.Resources.XmlNamespace;
+import com.android.aapt.Resources.XmlNode;
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Serializes a proto XML file into the binary XML format, as {@code aapt2 convert} does.
+ *
+ * <p>Raw values of the attributes are always kept, as aapt2 does when converting from proto.
+ */
+final class BinaryXmlSerializer {
+
+  private static final int NODE_HEADER_SIZE = 16;
+  private static final int ATTRIBUTE_START = 20;
+  private static final int ATTRIBUTE_SIZE = 20;
+  private static final int NO_COMMENT = NO_INDEX;
+
+  /** Order in which aapt2 writes the attributes: by resource ID first, then by name. */
+  private static final Comparator<XmlAttribute> ATTRIBUTE_ORDER =
+      Comparator.comparing((XmlAttribute attribute) -> attribute.getResourceId() == 0)
+          .thenComparing(XmlAttribute::getResourceId, Integer::compareUnsigned)
+          .thenComparing(XmlAttribute::getNamespaceUri)
+          .thenComparing(XmlAttribute::getName);
+
+  private final BinaryStringPool stringPool;
+  /** Index in the string pool of the name of the attributes with a resource ID, keyed by ID. */
+  private final Map<Integer, Integer> attributeNameIndices =
+      new TreeMap<>(Integer::compareUnsigned);
+  private final ChunkBuffer nodes = new ChunkBuffer();
+
+  private BinaryXmlSerializer(boolean utf16) {
+    this.stringPool = utf16 ? BinaryStringPool.createUtf16() : BinaryStringPool.createUtf8();
+  }
+
+  /**
+   * Serializes the given XML tree.
+   *
+   * @param utf16 whether strings should be encoded in UTF-16 rather than UTF-8, as the platform
+   *     expects for the manifest
+   */
+  static byte[] serialize(XmlNode root, boolean utf16) {
+    if (!root.hasElement()) {
+      throw new UnsupportedResourceException("The root of an XML file must be an element.");
+    }
+    return new BinaryXmlSerializer(utf16).serializeRoot(root);
+  }
+
+  private byte[] serializeRoot(XmlNode root) {
+    // The names of the attributes with a resource ID occupy the first indices of the string pool,
+    // so that the platform can match them with the resource map.
+    Map<Integer, String> attributeNames = new TreeMap<>(Integer::compareUnsigned);
+    collectAttributeNames(root, attributeNames);
+    attributeNames.forEach((id, name) -> attributeNameIndices.put(id, stringPool.addUnique(name)));
+
+    writeElement(root.getElement(), root.getSource().getLineNumber());
+
+    ChunkBuffer buffer = new ChunkBuffer();
+    int xmlStart = buffer.startChunk(RES_XML_TYPE, /* headerSize= */ 8);
+    stringPool.writeTo(buffer);
+    if (!attributeNameIndices.isEmpty()) {
+      int resourceMapStart = buffer.startChunk(RES_XML_RESOURCE_MAP_TYPE, /* headerSize= */ 8);
+      attributeNameIndices.keySet().forEach(buffer::putInt);
+      buffer.endChunk(resourceMapStart);
+    }
+    buffer.putBytes(nodes.toByteArray());
+    buffer.endChunk(xmlStart);
+    return buffer.toByteArray();
+  }
+
+  private static void collectAttributeNames(XmlNode node, Map<Integer, String> attributeNames) {
+    if (!node.hasElement()) {
+      return;
+    }
+    for (XmlAttribute attribute : node.getElement().getAttributeList()) {
+      if (attribute.getResourceId() != 0) {
+        attributeNames.putIfAbsent(attribute.getResourceId(), attribute.getName());
+      }
+    }
+    for (XmlNode child : node.getElement().getChildList()) {
+      collectAttributeNames(child, attributeNames);
+    }
+  }
+
+  private void writeElement(XmlElement element, int lineNumber) {
+    for (XmlNamespace namespace : element.getNamespaceDeclarationList()) {
+      writeNamespace(RES_XML_START_NAMESPACE_TYPE, namespace);
+    }
+
+    ImmutableList<XmlAttribute> attributes =
+        element.getAttributeList().stream().sorted(ATTRIBUTE_ORDER).collect(toImmutableList());
+    int startElement = startNode(RES_XML_START_ELEMENT_TYPE, lineNumber);
+    nodes.putInt(namespaceIndex(element.getNamespaceUri()));
+    nodes.putInt(stringPool.add(element.getName()));
+    nodes.putShort(ATTRIBUTE_START);
+    nodes.putShort(ATTRIBUTE_SIZE);
+    nodes.putShort(attributes.size());
+    int specialIndicesPosition = nodes.position();
+    nodes.putZeros(6); // idIndex, classIndex and styleIndex.
+    for (int i = 0; i < attributes.size(); i++) {
+      XmlAttribute attribute = attributes.get(i);
+      // The special indices are 1-based, 0 meaning that there is no such attribute.
+      if (attribute.getResourceId() == ANDROID_ID_ATTRIBUTE) {
+        nodes.setShort(specialIndicesPosition, i + 1);
+      } else if (attribute.getNamespaceUri().isEmpty() && attribute.getName().equals("class")) {
+        nodes.setShort(specialIndicesPosition + 2, i + 1);
+      } else if (attribute.getNamespaceUri().isEmpty() && attribute.getName().equals("style")) {
+        nodes.setShort(specialIndicesPosition + 4, i + 1);
+      }
+      writeAttribute(attribute);
+    }
+    nodes.endChunk(startElement);
+
+    for (XmlNode child : element.getChildList()) {
+      switch (child.getNodeCase()) {
+        case ELEMENT:
+          writeElement(child.getElement(), child.getSource().getLineNumber());
+          break;
+        case TEXT:
+          writeText(child.getText(), child.getSource().getLineNumber());
+          break;
+        default:
+          throw new UnsupportedResourceException(
+              "Unknown XML node type '%s'.", child.getNodeCase());
+      }
+    }
+
+    int endElement = startNode(RES_XML_END_ELEMENT_TYPE, lineNumber);
+    nodes.putInt(namespaceIndex(element.getNamespaceUri()));
+    nodes.putInt(stringPool.indexOf(element.getName()));
+    nodes.endChunk(endElement);
+
+    for (XmlNamespace namespace : Lists.reverse(element.getNamespaceDeclarationList())) {
+      writeNamespace(RES_XML_END_NAMESPACE_TYPE, namespace);
+    }
+  }
+
+  private void writeAttribute(XmlAttribute attribute) {
+    nodes.putInt(namespaceIndex(attribute.getNamespaceUri()));
+    nodes.putInt(
+        attribute.getResourceId() != 0
+            ? attributeNameIndices.get(attribute.getResourceId())
+            : stringPool.add(attribute.getName()));
+    nodes.putInt(stringPool.add(attribute.getValue()));
+    if (attribute.hasCompiledItem()) {
+      ResValues.writeItem(
+          nodes,
+          attribute.getCompiledItem(),
+          item -> stringPool.add(ResValues.getStringValue(item).get()));
+    } else {
+      ResValues.writeValue(nodes, TYPE_STRING, stringPool.indexOf(attribute.getValue()));
+    }
+  }
+
+  private void writeText(String text, int lineNumber) {
+    if (CharMatcher.whitespace().trimFrom(text).isEmpty()) {
+      // aapt2 drops the whitespace between elements.
+      return;
+    }
+    int cdata = startNode(RES_XML_CDATA_TYPE, lineNumber);
+    nodes.putInt(stringPool.add(text));
+    // The typed value of the text is left undefined, as aapt2 does.
+    nodes.putZeros(8);
+    nodes.endChunk(cdata);
+  }
+
+  private void writeNamespace(int chunkType, XmlNamespace namespace) {
+    int chunkStart = startNode(chunkType, namespace.getSource().getLineNumber());
+    nodes.putInt(stringPool.add(namespace.getPrefix()));
+    nodes.putInt(stringPool.add(namespace.getUri()));
+    nodes.endChunk(chunkStart);
+  }
+
+  /** Writes the header of a node ({@code ResXMLTree_node}) and returns the start of the chunk. */
+  private int startNode(int chunkType, int lineNumber) {
+    int chunkStart = nodes.startChunk(chunkType, NODE_HEADER_SIZE);
+    nodes.putInt(lineNumber);
+    nodes.putInt(NO_COMMENT);
+    return chunkStart;
+  }
+
+  private int namespaceIndex(String namespaceUri) {
+    return namespaceUri.isEmpty() ? NO_INDEX : stringPool.add(namespaceUri);
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.aapt2;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+/**
+ * Growable little-endian byte buffer used to write the binary chunks of the Android resources
+ * format (see "ResourceTypes.h" in the Android platform).
+ */
+final class ChunkBuffer {
+
+  private byte[] bytes = new byte[1024];
+  private int size = 0;
+
+  /** Returns the number of bytes written so far. */
+  int position() {
+    return size;
+  }
+
+  ChunkBuffer putByte(int value) {
+    ensureCapacity(1);
+    bytes[size++] = (byte) value;
+    return this;
+  }
+
+  ChunkBuffer putShort(int value) {
+    ensureCapacity(2);
+    bytes[size++] = (byte) value;
+    bytes[size++] = (byte) (value >>> 8);
+    return this;
+  }
+
+  ChunkBuffer putInt(int value) {
+    ensureCapacity(4);
+    bytes[size++] = (byte) value;
+    bytes[size++] = (byte) (value >>> 8);
+    bytes[size++] = (byte) (value >>> 16);
+    bytes[size++] = (byte) (value >>> 24);
+    return this;
+  }
+
+  ChunkBuffer putBytes(byte[] values) {
+    ensureCapacity(values.length);
+    System.arraycopy(values, 0, bytes, size, values.length);
+    size += values.length;
+    return this;
+  }
+
+  ChunkBuffer putZeros(int count) {
+    ensureCapacity(count);
+    // The backing array is always zero beyond "size".
+    size += count;
+    return this;
+  }
+
+  /** Pads the buffer with zeros until its size is a multiple of 4. */
+  ChunkBuffer alignTo4() {
+    return putZeros((4 - (size % 4)) % 4);
+  }
+
+  /** Overwrites a 16-bit value previously written at the given position. */
+  void setShort(int position, int value) {
+    checkArgument(position + 2 <= size, "Position %s out of bounds.", position);
+    bytes[position] = (byte) value;
+    bytes[position + 1] = (byte) (value >>> 8);
+  }
+
+  /** Overwrites a 32-bit value previously written at the given position. */
+  void setInt(int position, int value) {
+    checkArgument(position + 4 <= size, "Position %s out of bounds.", position);
+    bytes[position] = (byte) value;
+    bytes[position + 1] = (byte) (value >>> 8);
+    bytes[position + 2] = (byte) (value >>> 16);
+    bytes[position + 3] = (byte) (value >>> 24);
+  }
+
+  /**
+   * Writes the header of a chunk ({@code ResChunk_header}) with a placeholder for its total size.
+   *
+   * @return the position of the start of the chunk, to be passed to {@link #endChunk(int)}
+   */
+  int startChunk(int type, int headerSize) {
+    int start = size;
+    putShort(type);
+    putShort(headerSize);
+    putInt(0); // Chunk size, set in endChunk().
+    return start;
+  }
+
+  /** Sets the size of the chunk started at the given position to end at the current position. */
+  void endChunk(int chunkStart) {
+    setInt(chunkStart + 4, size - chunkStart);
+  }
+
+  byte[] toByteArray() {
+    return Arrays.copyOf(bytes, size);
+  }
+
+  private void ensureCapacity(int extraBytes) {
+    if (size + extraBytes > bytes.length) {
+      bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extraBytes));
+    }
+  }
+}
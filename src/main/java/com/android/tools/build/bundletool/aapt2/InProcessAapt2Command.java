@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.aapt2;
+
+import static com.android.tools.build.bundletool.model.BundleModule.MANIFEST_FILENAME;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+
+import com.android.aapt.Resources.FileReference;
+import com.android.aapt.Resources.Item;
+import com.android.aapt.Resources.ResourceTable;
+import com.android.aapt.Resources.XmlNode;
+import com.android.tools.build.bundletool.io.ZipBuilder;
+import com.android.tools.build.bundletool.io.ZipBuilder.EntryOption;
+import com.android.tools.build.bundletool.model.Aapt2Command;
+import com.android.tools.build.bundletool.model.ZipPath;
+import com.android.tools.build.bundletool.model.exceptions.CommandExecutionException;
+import com.android.tools.build.bundletool.model.utils.ZipUtils;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * {@link Aapt2Command} converting proto APKs to binary APKs within the JVM, without forking an
+ * aapt2 process.
+ *
+ * <p>Resources that cannot be encoded in-process (e.g. overlayable resources or shared libraries)
+ * are converted by the aapt2 binary instead, which is also used for all other commands.
+ */
+public final class InProcessAapt2Command implements Aapt2Command {
+
+  private static final Logger logger = Logger.getLogger(InProcessAapt2Command.class.getName());
+
+  private static final String PROTO_RESOURCE_TABLE = "resources.pb";
+  private static final String BINARY_RESOURCE_TABLE = "resources.arsc";
+
+  private final Supplier<Aapt2Command> aapt2;
+  private final boolean verify;
+
+  private InProcessAapt2Command(Supplier<Aapt2Command> aapt2, boolean verify) {
+    // The aapt2 binary may need to be extracted from the jar, so only do it if it's needed.
+    this.aapt2 = Suppliers.memoize(aapt2::get);
+    this.verify = verify;
+  }
+
+  /** Creates a command converting in-process, falling back to the given aapt2 command. */
+  public static InProcessAapt2Command create(Supplier<Aapt2Command> aapt2) {
+    return new InProcessAapt2Command(aapt2, /* verify= */ false);
+  }
+
+  /**
+   * Creates a command converting with both the in-process converter and the given aapt2 command,
+   * logging any difference between the two outputs.
+   *
+   * <p>The output of aapt2 is the one kept.
+   */
+  public static InProcessAapt2Command createVerifying(Supplier<Aapt2Command> aapt2) {
+    return new InProcessAapt2Command(aapt2, /* verify= */ true);
+  }
+
+  @Override
+  public void convertApkProtoToBinary(Path protoApk, Path binaryApk) {
+    if (verify) {
+      convertAndVerify(protoApk, binaryApk);
+      return;
+    }
+    try {
+      convertInProcess(protoApk, binaryApk);
+    } catch (UnsupportedResourceException e) {
+      logger.fine(String.format("Falling back to aapt2 for '%s': %s", protoApk, e.getMessage()));
+      aapt2.get().convertApkProtoToBinary(protoApk, binaryApk);
+    }
+  }
+
+  @Override
+  public ImmutableList<String> dumpBadging(Path apkPath) {
+    return aapt2.get().dumpBadging(apkPath);
+  }
+
+  private void convertAndVerify(Path protoApk, Path binaryApk) {
+    aapt2.get().convertApkProtoToBinary(protoApk, binaryApk);
+
+    Path inProcessBinaryApk = binaryApk.resolveSibling(binaryApk.getFileName() + ".in-process");
+    try {
+      convertInProcess(protoApk, inProcessBinaryApk);
+      ImmutableSet<String> differences = diffApks(binaryApk, inProcessBinaryApk);
+      if (!differences.isEmpty()) {
+        logger.warning(
+            String.format(
+                "In-process conversion of '%s' differs from aapt2 for entries: %s",
+                protoApk, differences));
+      }
+    } catch (UnsupportedResourceException e) {
+      logger.info(
+          String.format(
+              "In-process conversion of '%s' not supported: %s", protoApk, e.getMessage()));
+    } catch (IOException e) {
+      throw CommandExecutionException.builder()
+          .withCause(e)
+          .withInternalMessage("Unable to compare the outputs of the proto to binary conversion.")
+          .build();
+    } finally {
+      try {
+        Files.deleteIfExists(inProcessBinaryApk);
+      } catch (IOException e) {
+        logger.warning("Unable to delete " + inProcessBinaryApk);
+      }
+    }
+  }
+
+  private static void convertInProcess(Path protoApk, Path binaryApk) {
+    try (ZipFile protoZip = new ZipFile(protoApk.toFile())) {
+      ZipBuilder binaryZip = new ZipBuilder();
+
+      ImmutableSet<String> protoXmlPaths = ImmutableSet.of();
+      ZipEntry tableEntry = protoZip.getEntry(PROTO_RESOURCE_TABLE);
+      if (tableEntry != null) {
+        ResourceTable table =
+            ResourceTable.parseFrom(ZipUtils.asByteSource(protoZip, tableEntry).read());
+        protoXmlPaths = getProtoXmlPaths(table);
+        binaryZip.addFileWithContent(
+            ZipPath.create(BINARY_RESOURCE_TABLE),
+            BinaryResourceTableSerializer.serialize(table),
+            EntryOption.UNCOMPRESSED);
+      }
+
+      for (ZipEntry entry : ZipUtils.allFileEntries(protoZip).collect(toImmutableList())) {
+        String name = entry.getName();
+        ZipPath path = ZipPath.create(name);
+        if (name.equals(PROTO_RESOURCE_TABLE)) {
+          continue;
+        } else if (name.equals(MANIFEST_FILENAME) || protoXmlPaths.contains(name)) {
+          XmlNode xml = XmlNode.parseFrom(ZipUtils.asByteSource(protoZip, entry).read());
+          binaryZip.addFileWithContent(
+              path,
+              BinaryXmlSerializer.serialize(xml, /* utf16= */ name.equals(MANIFEST_FILENAME)));
+        } else {
+          binaryZip.addFileFromZipPreservingCompression(path, protoZip, entry);
+        }
+      }
+
+      binaryZip.writeTo(binaryApk);
+    } catch (IOException e) {
+      throw CommandExecutionException.builder()
+          .withCause(e)
+          .withInternalMessage("Unable to convert '%s' to binary format.", protoApk)
+          .build();
+    }
+  }
+
+  /** Returns the paths of the files referenced by the table which are in proto XML format. */
+  private static ImmutableSet<String> getProtoXmlPaths(ResourceTable table) {
+    return table.getPackageList().stream()
+        .flatMap(pkg -> pkg.getTypeList().stream())
+        .flatMap(type -> type.getEntryList().stream())
+        .flatMap(entry -> entry.getConfigValueList().stream())
+        .filter(configValue -> configValue.getValue().hasItem())
+        .map(configValue -> configValue.getValue().getItem())
+        .filter(Item::hasFile)
+        .map(Item::getFile)
+        .filter(file -> file.getType().equals(FileReference.Type.PROTO_XML))
+        .map(FileReference::getPath)
+        .collect(toImmutableSet());
+  }
+
+  /** Returns the names of the entries which are not identical in both APKs. */
+  private static ImmutableSet<String> diffApks(Path apk1, Path apk2) throws IOException {
+    try (ZipFile zip1 = new ZipFile(apk1.toFile());
+        ZipFile zip2 = new ZipFile(apk2.toFile())) {
+      ImmutableMap<String, ZipEntry> entries1 = getFileEntries(zip1);
+      ImmutableMap<String, ZipEntry> entries2 = getFileEntries(zip2);
+      ImmutableSet.Builder<String> differences = ImmutableSet.builder();
+      differences.addAll(Sets.symmetricDifference(entries1.keySet(), entries2.keySet()));
+      for (String name : Sets.intersection(entries1.keySet(), entries2.keySet())) {
+        byte[] content1 = ZipUtils.asByteSource(zip1, entries1.get(name)).read();
+        byte[] content2 = ZipUtils.asByteSource(zip2, entries2.get(name)).read();
+        if (!Arrays.equals(content1, content2)) {
+          differences.add(name);
+        }
+      }
+      return differences.build();
+    }
+  }
+
+  private static ImmutableMap<String, ZipEntry> getFileEntries(ZipFile zipFile) {
+    return ZipUtils.allFileEntries(zipFile)
+        .collect(toImmutableMap(ZipEntry::getName, entry -> entry));
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.aapt2;
+
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.DATA_NULL_EMPTY;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.DATA_NULL_UNDEFINED;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.TYPE_ATTRIBUTE;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.TYPE_DIMENSION;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.TYPE_FLOAT;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.TYPE_FRACTION;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.TYPE_INT_BOOLEAN;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.TYPE_INT_COLOR_ARGB4;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.TYPE_INT_COLOR_ARGB8;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.TYPE_INT_COLOR_RGB4;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.TYPE_INT_COLOR_RGB8;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.TYPE_INT_DEC;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.TYPE_INT_HEX;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.TYPE_NULL;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.TYPE_REFERENCE;
+import static com.android.tools.build.bundletool.aapt2.ResourceTypes.TYPE_STRING;
+
+import com.android.aapt.Resources.Item;
+import com.android.aapt.Resources.Primitive;
+import com.android.aapt.Resources.Reference;
+import java.util.Optional;
+import java.util.function.ToIntFunction;
+
+/** Conversion of proto items into binary values ({@code Res_value}). */
+final class ResValues {
+
+  private static final int RES_VALUE_SIZE = 8;
+
+  /**
+   * Returns the string held by the given item if it is encoded as a string in the binary format.
+   *
+   * <p>File references are encoded as the path of the file.
+   */
+  static Optional<String> getStringValue(Item item) {
+    switch (item.getValueCase()) {
+      case STR:
+        return Optional.of(item.getStr().getValue());
+      case RAW_STR:
+        return Optional.of(item.getRawStr().getValue());
+      case STYLED_STR:
+        return Optional.of(item.getStyledStr().getValue());
+      case FILE:
+        return Optional.of(item.getFile().getPath());
+      default:
+        return Optional.empty();
+    }
+  }
+
+  /**
+   * Writes the binary value of the given item.
+   *
+   * @param stringIndexFn returns the index in the relevant string pool of items holding a string,
+   *     as defined by {@link #getStringValue(Item)}
+   */
+  static void writeItem(ChunkBuffer buffer, Item item, ToIntFunction<Item> stringIndexFn) {
+    switch (item.getValueCase()) {
+      case REF:
+        writeReference(buffer, item.getRef());
+        return;
+      case STR:
+      case RAW_STR:
+      case STYLED_STR:
+      case FILE:
+        writeValue(buffer, TYPE_STRING, stringIndexFn.applyAsInt(item));
+        return;
+      case ID:
+        writeValue(buffer, TYPE_INT_BOOLEAN, 0);
+        return;
+      case PRIM:
+        writePrimitive(buffer, item.getPrim());
+        return;
+      default:
+        throw new UnsupportedResourceException(
+            "Unsupported item type '%s'.", item.getValueCase());
+    }
+  }
+
+  static void writeReference(ChunkBuffer buffer, Reference reference) {
+    if (reference.hasIsDynamic() && reference.getIsDynamic().getValue()) {
+      throw new UnsupportedResourceException(
+          "Dynamic references are not supported: '%s'.", reference.getName());
+    }
+    writeValue(
+        buffer,
+        reference.getType().equals(Reference.Type.ATTRIBUTE) ? TYPE_ATTRIBUTE : TYPE_REFERENCE,
+        reference.getId());
+  }
+
+  static void writeValue(ChunkBuffer buffer, int type, int data) {
+    buffer.putShort(RES_VALUE_SIZE);
+    buffer.putByte(0);
+    buffer.putByte(type);
+    buffer.putInt(data);
+  }
+
+  private static void writePrimitive(ChunkBuffer buffer, Primitive primitive) {
+    switch (primitive.getOneofValueCase()) {
+      case NULL_VALUE:
+        writeValue(buffer, TYPE_NULL, DATA_NULL_UNDEFINED);
+        return;
+      case EMPTY_VALUE:
+        writeValue(buffer, TYPE_NULL, DATA_NULL_EMPTY);
+        return;
+      case FLOAT_VALUE:
+        writeValue(buffer, TYPE_FLOAT, Float.floatToRawIntBits(primitive.getFloatValue()));
+        return;
+      case DIMENSION_VALUE:
+        writeValue(buffer, TYPE_DIMENSION, primitive.getDimensionValue());
+        return;
+      case FRACTION_VALUE:
+        writeValue(buffer, TYPE_FRACTION, primitive.getFractionValue());
+        return;
+      case INT_DECIMAL_VALUE:
+        writeValue(buffer, TYPE_INT_DEC, primitive.getIntDecimalValue());
+        return;
+      case INT_HEXADECIMAL_VALUE:
+        writeValue(buffer, TYPE_INT_HEX, primitive.getIntHexadecimalValue());
+        return;
+      case BOOLEAN_VALUE:
+        writeValue(buffer, TYPE_INT_BOOLEAN, primitive.getBooleanValue() ? 0xFFFFFFFF : 0);
+        return;
+      case COLOR_ARGB8_VALUE:
+        writeValue(buffer, TYPE_INT_COLOR_ARGB8, primitive.getColorArgb8Value());
+        return;
+      case COLOR_RGB8_VALUE:
+        writeValue(buffer, TYPE_INT_COLOR_RGB8, primitive.getColorRgb8Value());
+        return;
+      case COLOR_ARGB4_VALUE:
+        writeValue(buffer, TYPE_INT_COLOR_ARGB4, primitive.getColorArgb4Value());
+        return;
+      case COLOR_RGB4_VALUE:
+        writeValue(buffer, TYPE_INT_COLOR_RGB4, primitive.getColorRgb4Value());
+        return;
+      default:
+        throw new UnsupportedResourceException(
+            "Unsupported primitive type '%s'.", primitive.getOneofValueCase());
+    }
+  }
+
+  private ResValues() {}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.aapt2;
+
+/** Constants of the binary resources format, as defined in "ResourceTypes.h". */
+final class ResourceTypes {
+
+  // Chunk types.
+  static final int RES_STRING_POOL_TYPE = 0x0001;
+  static final int RES_TABLE_TYPE = 0x0002;
+  static final int RES_XML_TYPE = 0x0003;
+  static final int RES_XML_START_NAMESPACE_TYPE = 0x0100;
+  static final int RES_XML_END_NAMESPACE_TYPE = 0x0101;
+  static final int RES_XML_START_ELEMENT_TYPE = 0x0102;
+  static final int RES_XML_END_ELEMENT_TYPE = 0x0103;
+  static final int RES_XML_CDATA_TYPE = 0x0104;
+  static final int RES_XML_RESOURCE_MAP_TYPE = 0x0180;
+  static final int RES_TABLE_PACKAGE_TYPE = 0x0200;
+  static final int RES_TABLE_TYPE_TYPE = 0x0201;
+  static final int RES_TABLE_TYPE_SPEC_TYPE = 0x0202;
+
+  // Res_value data types.
+  static final int TYPE_NULL = 0x00;
+  static final int TYPE_REFERENCE = 0x01;
+  static final int TYPE_ATTRIBUTE = 0x02;
+  static final int TYPE_STRING = 0x03;
+  static final int TYPE_FLOAT = 0x04;
+  static final int TYPE_DIMENSION = 0x05;
+  static final int TYPE_FRACTION = 0x06;
+  static final int TYPE_INT_DEC = 0x10;
+  static final int TYPE_INT_HEX = 0x11;
+  static final int TYPE_INT_BOOLEAN = 0x12;
+  static final int TYPE_INT_COLOR_ARGB8 = 0x1c;
+  static final int TYPE_INT_COLOR_RGB8 = 0x1d;
+  static final int TYPE_INT_COLOR_ARGB4 = 0x1e;
+  static final int TYPE_INT_COLOR_RGB4 = 0x1f;
+
+  static final int DATA_NULL_UNDEFINED = 0;
+  static final int DATA_NULL_EMPTY = 1;
+
+  // ResTable_entry flags.
+  static final int FLAG_COMPLEX = 0x0001;
+  static final int FLAG_PUBLIC = 0x0002;
+  static final int FLAG_WEAK = 0x0004;
+
+  // ResTable_typeSpec flags.
+  static final int SPEC_PUBLIC = 0x40000000;
+
+  // ResTable_map special keys.
+  static final int ATTR_TYPE = 0x01000000;
+  static final int ATTR_MIN = 0x01000001;
+  static final int ATTR_MAX = 0x01000002;
+  static final int ATTR_OTHER = 0x01000004;
+  static final int ATTR_ZERO = 0x01000005;
+  static final int ATTR_ONE = 0x01000006;
+  static final int ATTR_TWO = 0x01000007;
+  static final int ATTR_FEW = 0x01000008;
+  static final int ATTR_MANY = 0x01000009;
+
+  // ResTable_map attribute format flags.
+  static final int TYPE_FLAGS = 0x00020000;
+
+  static final int NO_ENTRY = 0xFFFFFFFF;
+  static final int NO_INDEX = 0xFFFFFFFF;
+
+  /** Resource ID of the "android:id" attribute. */
+  static final int ANDROID_ID_ATTRIBUTE = 0x010100d0;
+
+  private ResourceTypes() {}
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.aapt2;
+
+import com.google.errorprone.annotations.FormatMethod;
+
+/**
+ * Exception thrown when a proto resource cannot be encoded in binary format by the in-process
+ * converter, in which case the conversion is delegated to aapt2.
+ */
+class UnsupportedResourceException extends RuntimeException {
+
+  @FormatMethod
+  UnsupportedResourceException(String message, Object... args) {
+    super(String.format(message, args));
+  }
+}
@@ -41,6 +41,7 @@ import com.android.tools.build.bundletool.device.DeviceSpecParser;
 import com.android.tools.build.bundletool.flags.Flag;
 import com.android.tools.build.bundletool.flags.ParsedFlags;
 import com.android.tools.build.bundletool.io.TempDirectory;
+import com.android.tools.build.bundletool.io.TraceRecorder;
 import com.android.tools.build.bundletool.io.ZipReader;
 import com.android.tools.build.bundletool.model.Aapt2Command;
 import com.android.tools.build.bundletool.model.ApkListener;
@@ -49,6 +50,9 @@ import com.android.tools.build.bundletool.model.AppBundle;
 import com.android.tools.build.bundletool.model.KeystoreProperties;
 import com.android.tools.build.bundletool.model.OptimizationDimension;
 import com.android.tools.build.bundletool.model.Password;
+import com.android.tools.build.bundletool.model.PhaseTracer;
+import com.android.tools.build.bundletool.model.PhaseTracer.Phase;
+import com.android.tools.build.bundletool.model.PhaseTracer.Span;
 import com.android.tools.build.bundletool.model.SignerConfig;
 import com.android.tools.build.bundletool.model.SigningConfiguration;
 import com.android.tools.build.bundletool.model.SourceStamp;
@@ -80,6 +84,7 @@ import java.io.UncheckedIOException;
 import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Optional;
 import java.util.concurrent.Executors;
@@ -132,6 +137,19 @@ public abstract class BuildApksCommand {
     DIRECTORY
   }
 
+  /** How resources and manifests are converted from proto to binary format. */
+  public enum ResourceConversionMode {
+    /** Conversion is done by the aapt2 binary. */
+    AAPT2,
+    /** Conversion is done within bundletool, falling back to aapt2 for unsupported resources. */
+    IN_PROCESS,
+    /**
+     * Conversion is done by aapt2 and within bundletool, logging any difference between the two.
+     * The output of aapt2 is the one used.
+     */
+    VERIFY
+  }
+
   private static final Flag<Path> BUNDLE_LOCATION_FLAG = Flag.path("bundle");
   private static final Flag<Path> OUTPUT_FILE_FLAG = Flag.path("output");
   private static final Flag<OutputFormat> OUTPUT_FORMAT_FLAG =
@@ -171,6 +189,15 @@ public abstract class BuildApksCommand {
   private static final Flag<Password> STAMP_KEY_PASSWORD_FLAG = Flag.password("stamp-key-pass");
   private static final Flag<String> STAMP_SOURCE_FLAG = Flag.string("stamp-source");
 
+  private static final Flag<Path> INCREMENTAL_FROM_FLAG = Flag.path("incremental-from");
+  private static final Flag<Boolean> RECORD_APK_FINGERPRINTS_FLAG =
+      Flag.booleanFlag("record-apk-fingerprints");
+
+  private static final Flag<Boolean> RECORD_APK_SIZES_FLAG = Flag.booleanFlag("record-apk-sizes");
+
+  private static final Flag<Path> TRACE_OUTPUT_FLAG = Flag.path("trace-output");
+  private static final Flag<Path> METRICS_OUTPUT_FLAG = Flag.path("metrics-output");
+
 
   private static final String APK_SET_ARCHIVE_EXTENSION = "apks";
 
@@ -192,6 +219,67 @@ public abstract class BuildApksCommand {
           .map(Boolean::parseBoolean)
           .orElse(false);
 
+  /**
+   * How resources are converted from proto to binary format.
+   *
+   * <p>Can be overridden using the system property "bundletool.resources.conversion" set to one of
+   * the values of {@link ResourceConversionMode}.
+   */
+  private static final ResourceConversionMode RESOURCE_CONVERSION_MODE =
+      SystemEnvironmentProvider.DEFAULT_PROVIDER
+          .getProperty("bundletool.resources.conversion")
+          .map(value -> ResourceConversionMode.valueOf(Ascii.toUpperCase(value)))
+          .orElse(ResourceConversionMode.AAPT2);
+
+  /**
+   * Whether proto to binary conversions are run by a pool of long-lived aapt2 daemons instead of
+   * one aapt2 process per APK.
+   *
+   * <p>Can be overridden using the system property "bundletool.aapt2.daemon" set to "true".
+   */
+  private static final boolean ENABLE_AAPT2_DAEMON =
+      SystemEnvironmentProvider.DEFAULT_PROVIDER
+          .getProperty("bundletool.aapt2.daemon")
+          .map(Boolean::parseBoolean)
+          .orElse(false);
+
+  /**
+   * Whether the serialization of the asset slices overlaps with the generation of the other APKs,
+   * and each APK is added to the APK Set archive as soon as it and the APKs before it are
+   * serialized. Only asset slices are serialized early: all other APKs are still generated in
+   * memory before being serialized, so this doesn't lower the peak heap usage. The APK Set archive
+   * is still deterministic, but its entries are in a different order than by default.
+   *
+   * <p>Can be overridden using the system property "bundletool.serializer.pipelined" set to
+   * "true".
+   */
+  private static final boolean ENABLE_PIPELINED_SERIALIZATION =
+      SystemEnvironmentProvider.DEFAULT_PROVIDER
+          .getProperty("bundletool.serializer.pipelined")
+          .map(Boolean::parseBoolean)
+          .orElse(false);
+
+  /**
+   * Directory of the cache of serialized APKs, shared between runs of bundletool.
+   *
+   * <p>Disabled by default. Can be enabled using the system property "bundletool.apkcache.dir".
+   */
+  private static final Optional<Path> APK_CACHE_DIRECTORY =
+      SystemEnvironmentProvider.DEFAULT_PROVIDER
+          .getProperty("bundletool.apkcache.dir")
+          .map(Paths::get);
+
+  /**
+   * Maximum size in bytes of the cache of serialized APKs.
+   *
+   * <p>Can be overridden using the system property "bundletool.apkcache.maxsize".
+   */
+  private static final long APK_CACHE_MAX_SIZE_BYTES =
+      SystemEnvironmentProvider.DEFAULT_PROVIDER
+          .getProperty("bundletool.apkcache.maxsize")
+          .map(Long::parseLong)
+          .orElse(4L * 1024 * 1024 * 1024);
+
   public abstract Path getBundlePath();
 
   public abstract Path getOutputFile();
@@ -226,6 +314,9 @@ public abstract class BuildApksCommand {
 
   public abstract Optional<Aapt2Command> getAapt2Command();
 
+  /** Path to the aapt2 binary, if known; used to start aapt2 daemons. */
+  public abstract Optional<Path> getAapt2ExecutablePath();
+
   public abstract Optional<SigningConfiguration> getSigningConfiguration();
 
   ListeningExecutorService getExecutorService() {
@@ -255,6 +346,28 @@ public abstract class BuildApksCommand {
 
   public abstract boolean getEnableNewApkSerializer();
 
+  public abstract ResourceConversionMode getResourceConversionMode();
+
+  public abstract boolean getEnableAapt2Daemon();
+
+  public abstract boolean getEnablePipelinedSerialization();
+
+  public abstract Optional<Path> getApkCacheDirectory();
+
+  public abstract long getApkCacheMaxSizeBytes();
+
+  public abstract Optional<Path> getIncrementalFrom();
+
+  public abstract boolean getRecordApkFingerprints();
+
+  public abstract boolean getRecordApkSizes();
+
+  public abstract Optional<PhaseTracer> getPhaseTracer();
+
+  public abstract Optional<Path> getTraceOutputFile();
+
+  public abstract Optional<Path> getMetricsOutputFile();
+
   public static Builder builder() {
     return new AutoValue_BuildApksCommand.Builder()
         .setOverwriteOutput(false)
@@ -267,7 +380,14 @@ public abstract class BuildApksCommand {
         .setModules(ImmutableSet.of())
         .setExtraValidators(ImmutableList.of())
         .setSystemApkOptions(ImmutableSet.of())
-        .setEnableNewApkSerializer(ENABLE_NEW_APK_SERIALIZER);
+        .setEnableNewApkSerializer(ENABLE_NEW_APK_SERIALIZER)
+        .setResourceConversionMode(RESOURCE_CONVERSION_MODE)
+        .setEnableAapt2Daemon(ENABLE_AAPT2_DAEMON)
+        .setEnablePipelinedSerialization(ENABLE_PIPELINED_SERIALIZATION)
+        .setApkCacheDirectory(APK_CACHE_DIRECTORY)
+        .setApkCacheMaxSizeBytes(APK_CACHE_MAX_SIZE_BYTES)
+        .setRecordApkFingerprints(false)
+        .setRecordApkSizes(false);
   }
 
   /** Builder for the {@link BuildApksCommand}. */
@@ -364,6 +484,17 @@ public abstract class BuildApksCommand {
     /** Provides a wrapper around the execution of the aapt2 command. */
     public abstract Builder setAapt2Command(Aapt2Command aapt2Command);
 
+    abstract Optional<Aapt2Command> getAapt2Command();
+
+    /**
+     * Sets the path to the aapt2 binary.
+     *
+     * <p>Only used to start aapt2 daemons, see {@link #setEnableAapt2Daemon(boolean)}. If not set,
+     * daemons are only used when no custom {@link Aapt2Command} is set, with the aapt2 binary
+     * embedded in bundletool.
+     */
+    public abstract Builder setAapt2ExecutablePath(Path aapt2Path);
+
     /**
      * Sets the signing configuration for the generated APKs.
      *
@@ -422,7 +553,12 @@ public abstract class BuildApksCommand {
      */
     public abstract Builder setApkModifier(ApkModifier apkModifier);
 
-    /** Provides additional {@link SubValidator}s that will be invoked during validation. */
+    /**
+     * Provides additional {@link SubValidator}s that will be invoked during validation.
+     *
+     * <p>The {@link SubValidator}s must be thread-safe as they are invoked concurrently for the
+     * different modules of the bundle.
+     */
     public abstract Builder setExtraValidators(ImmutableList<SubValidator> extraValidators);
 
     /**
@@ -444,6 +580,101 @@ public abstract class BuildApksCommand {
 
     public abstract Builder setEnableNewApkSerializer(boolean enabled);
 
+    /**
+     * Sets how resources are converted from proto to binary format.
+     *
+     * <p>Default is {@link ResourceConversionMode#AAPT2}.
+     */
+    public abstract Builder setResourceConversionMode(ResourceConversionMode mode);
+
+    /**
+     * Sets whether proto to binary conversions are run by a pool of aapt2 daemons, at most one per
+     * thread of the executor.
+     *
+     * <p>Default is false.
+     */
+    public abstract Builder setEnableAapt2Daemon(boolean enabled);
+
+    /**
+     * Sets whether the serialization of the asset slices overlaps with the generation of the other
+     * APKs. Only asset slices are serialized early, so this doesn't lower the peak heap usage. The
+     * APK Set contains the same entries as by default, in a different but deterministic order.
+     *
+     * <p>Default is false.
+     */
+    public abstract Builder setEnablePipelinedSerialization(boolean enabled);
+
+    /**
+     * Sets the directory of a cache of serialized APKs, to reuse the APKs that didn't change since
+     * a previous run.
+     *
+     * <p>Optional. The cache is not used when a custom {@link Aapt2Command} is set without the path
+     * to its binary, since the output of aapt2 can't be fingerprinted then.
+     */
+    public abstract Builder setApkCacheDirectory(Path apkCacheDirectory);
+
+    abstract Builder setApkCacheDirectory(Optional<Path> apkCacheDirectory);
+
+    /**
+     * Sets the maximum size of the cache of serialized APKs, above which the least recently used
+     * APKs are evicted.
+     *
+     * <p>Default is 4 GiB.
+     */
+    public abstract Builder setApkCacheMaxSizeBytes(long maxSizeBytes);
+
+    /**
+     * Sets the APK Set archive built by a previous run, whose APKs are reused when their
+     * fingerprint didn't change.
+     *
+     * <p>Optional. The fingerprint of each APK is then recorded in the table of contents of the
+     * generated APK Set, to be reused by the next run. If the previous APK Set doesn't exist, all
+     * APKs are generated, so the same path can be passed to every run.
+     */
+    public abstract Builder setIncrementalFrom(Path previousApkSet);
+
+    /**
+     * Sets whether the fingerprint of each APK is recorded in the table of contents of the APK Set
+     * even when not built incrementally, so that it can be passed to the next incremental run.
+     *
+     * <p>Default is false. Always recorded when {@link #setIncrementalFrom} is set.
+     */
+    public abstract Builder setRecordApkFingerprints(boolean recordApkFingerprints);
+
+    /**
+     * Sets whether the size, gzip-compressed size and SHA-256 digest of each APK are recorded in
+     * the table of contents of the APK Set, so that the {@code get-size} command reads them instead
+     * of compressing the APKs again.
+     *
+     * <p>Default is false.
+     */
+    public abstract Builder setRecordApkSizes(boolean recordApkSizes);
+
+    /**
+     * Provides a {@link PhaseTracer} that will be notified when the phases of the APK generation
+     * start and end.
+     *
+     * <p>The {@link PhaseTracer} must be thread-safe.
+     */
+    public abstract Builder setPhaseTracer(PhaseTracer phaseTracer);
+
+    /**
+     * Sets the file where the phases of the APK generation are written in the Chrome trace event
+     * format, which can be opened with Perfetto.
+     *
+     * <p>Optional.
+     */
+    public abstract Builder setTraceOutputFile(Path traceOutputFile);
+
+    /**
+     * Sets the file where a summary of the phases of the APK generation is written in JSON: for
+     * each phase, the number of times it ran, the bytes processed, the total wall-clock and CPU
+     * time, and the median and 99th percentile of its durations.
+     *
+     * <p>Optional.
+     */
+    public abstract Builder setMetricsOutputFile(Path metricsOutputFile);
+
     abstract BuildApksCommand autoBuild();
 
     public BuildApksCommand build() {
@@ -564,6 +795,15 @@ public abstract class BuildApksCommand {
       PrintStream out,
       SystemEnvironmentProvider systemEnvironmentProvider,
       AdbServer adbServer) {
+    return builderFromFlags(flags, out, systemEnvironmentProvider, adbServer).build();
+  }
+
+  /** Returns a builder populated from the flags, to customize the command before building it. */
+  static BuildApksCommand.Builder builderFromFlags(
+      ParsedFlags flags,
+      PrintStream out,
+      SystemEnvironmentProvider systemEnvironmentProvider,
+      AdbServer adbServer) {
     BuildApksCommand.Builder buildApksCommand =
         BuildApksCommand.builder()
             .setBundlePath(BUNDLE_LOCATION_FLAG.getRequiredValue(flags))
@@ -577,7 +817,9 @@ public abstract class BuildApksCommand {
         .getValue(flags)
         .ifPresent(
             aapt2Path ->
-                buildApksCommand.setAapt2Command(Aapt2Command.createFromExecutablePath(aapt2Path)));
+                buildApksCommand
+                    .setAapt2Command(Aapt2Command.createFromExecutablePath(aapt2Path))
+                    .setAapt2ExecutablePath(aapt2Path));
 
     BUILD_MODE_FLAG.getValue(flags).ifPresent(buildApksCommand::setApkBuildMode);
     LOCAL_TESTING_MODE_FLAG.getValue(flags).ifPresent(buildApksCommand::setLocalTestingMode);
@@ -635,10 +877,17 @@ public abstract class BuildApksCommand {
     DEVICE_TIER_FLAG.getValue(flags).ifPresent(buildApksCommand::setDeviceTier);
     MODULES_FLAG.getValue(flags).ifPresent(buildApksCommand::setModules);
     VERBOSE_FLAG.getValue(flags).ifPresent(buildApksCommand::setVerbose);
+    INCREMENTAL_FROM_FLAG.getValue(flags).ifPresent(buildApksCommand::setIncrementalFrom);
+    RECORD_APK_FINGERPRINTS_FLAG
+        .getValue(flags)
+        .ifPresent(buildApksCommand::setRecordApkFingerprints);
+    RECORD_APK_SIZES_FLAG.getValue(flags).ifPresent(buildApksCommand::setRecordApkSizes);
+    TRACE_OUTPUT_FLAG.getValue(flags).ifPresent(buildApksCommand::setTraceOutputFile);
+    METRICS_OUTPUT_FLAG.getValue(flags).ifPresent(buildApksCommand::setMetricsOutputFile);
 
     flags.checkNoUnknownFlags();
 
-    return buildApksCommand.build();
+    return buildApksCommand;
   }
 
   public Path execute() {
@@ -651,6 +900,15 @@ public abstract class BuildApksCommand {
       FileUtils.createDirectories(outputDirectory);
     }
 
+    Optional<TraceRecorder> traceRecorder =
+        getTraceOutputFile().isPresent() || getMetricsOutputFile().isPresent()
+            ? Optional.of(new TraceRecorder(getPhaseTracer().orElse(PhaseTracer.NO_OP)))
+            : Optional.empty();
+    PhaseTracer phaseTracer =
+        traceRecorder.isPresent()
+            ? traceRecorder.get()
+            : getPhaseTracer().orElse(PhaseTracer.NO_OP);
+
     try (TempDirectory tempDir = new TempDirectory(getClass().getSimpleName())) {
       Path bundlePath;
       // The new APK serializer relies on the compression of entries in the App Bundle.
@@ -661,23 +919,37 @@ public abstract class BuildApksCommand {
       boolean recompressAppBundle = getEnableNewApkSerializer() && !getDeviceSpec().isPresent();
       if (recompressAppBundle) {
         bundlePath = tempDir.getPath().resolve("recompressed.aab");
-        new AppBundleRecompressor(getExecutorService())
-            .recompressAppBundle(getBundlePath().toFile(), bundlePath.toFile());
+        try (Span span = phaseTracer.startPhase(Phase.READ_BUNDLE, "recompress")) {
+          new AppBundleRecompressor(getExecutorService())
+              .recompressAppBundle(getBundlePath().toFile(), bundlePath.toFile());
+          span.addBytes(Files.size(bundlePath));
+        }
       } else {
         bundlePath = getBundlePath();
       }
 
       try (ZipFile bundleZip = new ZipFile(bundlePath.toFile());
           ZipReader zipReader = ZipReader.createFromFile(bundlePath)) {
-        AppBundleValidator bundleValidator = AppBundleValidator.create(getExtraValidators());
-        bundleValidator.validateFile(bundleZip);
+        AppBundleValidator bundleValidator =
+            AppBundleValidator.create(getExtraValidators(), getExecutorService());
+        try (Span span = phaseTracer.startPhase(Phase.VALIDATE_BUNDLE, "zip")) {
+          bundleValidator.validateFile(bundleZip);
+        }
 
-        AppBundle appBundle = AppBundle.buildFromZip(bundleZip);
-        bundleValidator.validate(appBundle);
+        AppBundle appBundle;
+        try (Span span = phaseTracer.startPhase(Phase.READ_BUNDLE, "parse")) {
+          // The bundle is read through the ZipReader, whose entries can be read concurrently.
+          appBundle = AppBundle.buildFromZipEntries(zipReader.getFileEntryContents());
+          span.addBytes(Files.size(bundlePath));
+        }
+        try (Span span = phaseTracer.startPhase(Phase.VALIDATE_BUNDLE, "bundle")) {
+          bundleValidator.validate(appBundle);
+        }
 
         AppBundlePreprocessorManager appBundlePreprocessorManager =
             DaggerAppBundlePreprocessorComponent.builder()
                 .setBuildApksCommand(this)
+                .setPhaseTracer(phaseTracer)
                 .build()
                 .create();
         AppBundle preprocessedAppBundle = appBundlePreprocessorManager.processAppBundle(appBundle);
@@ -689,6 +961,7 @@ public abstract class BuildApksCommand {
                 .setAppBundle(preprocessedAppBundle)
                 .setZipReader(zipReader)
                 .setUseBundleCompression(recompressAppBundle)
+                .setPhaseTracer(phaseTracer)
                 .build()
                 .create();
         buildApksManager.execute();
@@ -704,6 +977,12 @@ public abstract class BuildApksCommand {
       }
     } catch (IOException e) {
       throw new UncheckedIOException("An error occurred when processing the App Bundle.", e);
+    } finally {
+      traceRecorder.ifPresent(
+          recorder -> {
+            getTraceOutputFile().ifPresent(recorder::writeTrace);
+            getMetricsOutputFile().ifPresent(recorder::writeSummary);
+          });
     }
 
     return getOutputFile();
@@ -1033,6 +1312,58 @@ public abstract class BuildApksCommand {
                     "Name of source generating the stamp. For stores, it is their package names."
                         + " For locally generated stamp, it is 'local'.")
                 .build())
+        .addFlag(
+            FlagDescription.builder()
+                .setFlagName(INCREMENTAL_FROM_FLAG.getName())
+                .setExampleValue("previous.apks")
+                .setOptional(true)
+                .setDescription(
+                    "Path to the APK Set archive generated by a previous run. The APKs which"
+                        + " didn't change since are copied from it instead of being generated"
+                        + " again. The fingerprints of the APKs are recorded in the generated APK"
+                        + " Set for the next run. If the file doesn't exist, all APKs are"
+                        + " generated.")
+                .build())
+        .addFlag(
+            FlagDescription.builder()
+                .setFlagName(RECORD_APK_FINGERPRINTS_FLAG.getName())
+                .setOptional(true)
+                .setDescription(
+                    "If set, the fingerprints of the APKs are recorded in the APK Set even when"
+                        + " '%s' isn't set, so that it can be passed to the next incremental run.",
+                    INCREMENTAL_FROM_FLAG.getName())
+                .build())
+        .addFlag(
+            FlagDescription.builder()
+                .setFlagName(RECORD_APK_SIZES_FLAG.getName())
+                .setOptional(true)
+                .setDescription(
+                    "If set, the size, gzip-compressed size and SHA-256 digest of each APK are"
+                        + " recorded in the APK Set, so that the '%s' command doesn't need to"
+                        + " compress the APKs again.",
+                    GetSizeCommand.COMMAND_NAME)
+                .build())
+        .addFlag(
+            FlagDescription.builder()
+                .setFlagName(TRACE_OUTPUT_FLAG.getName())
+                .setExampleValue("trace.json")
+                .setOptional(true)
+                .setDescription(
+                    "Path to a file where the phases of the generation of the APKs (reading the"
+                        + " bundle, validation, splitting, aapt2 conversion, compression, signing,"
+                        + " etc.) are written in the Chrome trace event format, which can be"
+                        + " opened with Perfetto or chrome://tracing.")
+                .build())
+        .addFlag(
+            FlagDescription.builder()
+                .setFlagName(METRICS_OUTPUT_FLAG.getName())
+                .setExampleValue("metrics.json")
+                .setOptional(true)
+                .setDescription(
+                    "Path to a file where a summary of the phases of the generation of the APKs"
+                        + " is written in JSON: count, bytes processed, total wall-clock and CPU"
+                        + " time, median and 99th percentile of the durations of each phase.")
+                .build())
         .build();
   }
 
@@ -20,9 +20,11 @@ import static com.android.tools.build.bundletool.model.version.VersionGuardedFea
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
 
+import com.android.bundle.Commands.AssetSliceSet;
 import com.android.bundle.Commands.LocalTestingInfo;
 import com.android.bundle.Config.BundleConfig;
 import com.android.bundle.Devices.DeviceSpec;
+import com.android.tools.build.bundletool.aapt2.Aapt2DaemonPool;
 import com.android.tools.build.bundletool.commands.BuildApksCommand.ApkBuildMode;
 import com.android.tools.build.bundletool.commands.BuildApksCommand.SystemApkOption;
 import com.android.tools.build.bundletool.device.ApkMatcher;
@@ -40,6 +42,9 @@ import com.android.tools.build.bundletool.model.BundleModuleName;
 import com.android.tools.build.bundletool.model.GeneratedApks;
 import com.android.tools.build.bundletool.model.GeneratedAssetSlices;
 import com.android.tools.build.bundletool.model.ModuleSplit;
+import com.android.tools.build.bundletool.model.PhaseTracer;
+import com.android.tools.build.bundletool.model.PhaseTracer.Phase;
+import com.android.tools.build.bundletool.model.PhaseTracer.Span;
 import com.android.tools.build.bundletool.model.SigningConfiguration;
 import com.android.tools.build.bundletool.model.exceptions.IncompatibleDeviceException;
 import com.android.tools.build.bundletool.model.exceptions.InvalidCommandException;
@@ -59,10 +64,14 @@ import com.android.tools.build.bundletool.splitters.SplitApksGenerator;
 import com.android.tools.build.bundletool.validation.AppBundleValidator;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Stream;
 import javax.inject.Inject;
 
@@ -81,6 +90,8 @@ public final class BuildApksManager {
   private final SplitApksGenerator splitApksGenerator;
   private final ShardedApksFacade shardedApksFacade;
   private final ApkOptimizations apkOptimizations;
+  private final Optional<Aapt2DaemonPool> aapt2DaemonPool;
+  private final PhaseTracer phaseTracer;
 
   @Inject
   BuildApksManager(
@@ -94,7 +105,9 @@ public final class BuildApksManager {
       ApkSerializerManager apkSerializerManager,
       SplitApksGenerator splitApksGenerator,
       ShardedApksFacade shardedApksFacade,
-      ApkOptimizations apkOptimizations) {
+      ApkOptimizations apkOptimizations,
+      Optional<Aapt2DaemonPool> aapt2DaemonPool,
+      PhaseTracer phaseTracer) {
     this.appBundle = appBundle;
     this.command = command;
     this.bundletoolVersion = bundletoolVersion;
@@ -106,9 +119,19 @@ public final class BuildApksManager {
     this.apkSerializerManager = apkSerializerManager;
     this.shardedApksFacade = shardedApksFacade;
     this.apkOptimizations = apkOptimizations;
+    this.aapt2DaemonPool = aapt2DaemonPool;
+    this.phaseTracer = phaseTracer;
   }
 
   public void execute() throws IOException {
+    try (ApkSetBuilder apkSetBuilder = createApkSetBuilder(tempDir.getPath())) {
+      executeInternal(apkSetBuilder);
+    } finally {
+      aapt2DaemonPool.ifPresent(Aapt2DaemonPool::close);
+    }
+  }
+
+  private void executeInternal(ApkSetBuilder apkSetBuilder) throws IOException {
     ImmutableSet<BundleModule> requestedModules =
         command.getModules().isEmpty()
             ? ImmutableSet.of()
@@ -124,81 +147,135 @@ public final class BuildApksManager {
         new ApksToGenerate(
             appBundle, command.getApkBuildMode(), enableUniversalAsFallbackForSplits, deviceSpec);
 
-    // Split APKs
+    // Split APKs are generated from the bundle merged and validated before anything is serialized.
+    Optional<AppBundle> mergedAppBundle = Optional.empty();
     if (apksToGenerate.generateSplitApks()) {
-      AppBundle mergedAppBundle =
-          BundleModuleMerger.mergeNonRemovableInstallTimeModules(
-              appBundle, enableInstallTimeNonRemovableModules);
-      AppBundleValidator bundleValidator = AppBundleValidator.create(command.getExtraValidators());
-      bundleValidator.validate(mergedAppBundle);
-      generatedApksBuilder.setSplitApks(generateSplitApks(mergedAppBundle));
+      mergedAppBundle =
+          Optional.of(
+              BundleModuleMerger.mergeNonRemovableInstallTimeModules(
+                  appBundle, enableInstallTimeNonRemovableModules));
+      AppBundleValidator bundleValidator =
+          AppBundleValidator.create(command.getExtraValidators(), command.getExecutorService());
+      bundleValidator.validate(mergedAppBundle.get());
     }
 
-    // Instant APKs
-    if (apksToGenerate.generateInstantApks()) {
-      generatedApksBuilder.setInstantApks(generateInstantApks(appBundle));
+    // When enabled, asset slices are serialized while the APKs are generated. This isn't done when
+    // targeting a device so that no I/O happens before the device compatibility check.
+    Optional<ListenableFuture<ImmutableList<AssetSliceSet>>> assetSliceSets = Optional.empty();
+    if (command.getEnablePipelinedSerialization()
+        && !deviceSpec.isPresent()
+        && apksToGenerate.generateAssetSlices()) {
+      assetSliceSets =
+          Optional.of(
+              apkSerializerManager.serializeAssetSlicesAsync(
+                  apkSetBuilder,
+                  GeneratedAssetSlices.builder()
+                      .setAssetSlices(generateAssetSlices(appBundle))
+                      .build(),
+                  command.getApkBuildMode(),
+                  deviceSpec));
     }
 
-    // Standalone APKs
-    if (apksToGenerate.generateStandaloneApks()) {
-      generatedApksBuilder.setStandaloneApks(generateStandaloneApks(appBundle));
-    }
+    try {
+      // Split APKs
+      if (mergedAppBundle.isPresent()) {
+        generatedApksBuilder.setSplitApks(generateSplitApks(mergedAppBundle.get()));
+      }
 
-    // Universal APK
-    if (apksToGenerate.generateUniversalApk()) {
-      // Note: Universal APK is a special type of standalone, with no optimization dimensions.
-      ImmutableList<BundleModule> modulesToFuse =
-          requestedModules.isEmpty()
-              ? modulesToFuse(getModulesForStandaloneApks(appBundle))
-              : requestedModules.asList();
-      generatedApksBuilder.setStandaloneApks(
-          shardedApksFacade.generateSplits(
-              modulesToFuse, ApkOptimizations.getOptimizationsForUniversalApk()));
-    }
+      // Instant APKs
+      if (apksToGenerate.generateInstantApks()) {
+        generatedApksBuilder.setInstantApks(generateInstantApks(appBundle));
+      }
 
-    // System APKs
-    if (apksToGenerate.generateSystemApks()) {
-      generatedApksBuilder.setSystemApks(generateSystemApks(appBundle, requestedModules));
-    }
+      // Standalone APKs
+      if (apksToGenerate.generateStandaloneApks()) {
+        generatedApksBuilder.setStandaloneApks(generateStandaloneApks(appBundle));
+      }
 
-    // Asset Slices
-    if (apksToGenerate.generateAssetSlices()) {
-      generatedAssetSlices.setAssetSlices(generateAssetSlices(appBundle));
-    }
+      // Universal APK
+      if (apksToGenerate.generateUniversalApk()) {
+        // Note: Universal APK is a special type of standalone, with no optimization dimensions.
+        ImmutableList<BundleModule> modulesToFuse =
+            requestedModules.isEmpty()
+                ? modulesToFuse(getModulesForStandaloneApks(appBundle))
+                : requestedModules.asList();
+        generatedApksBuilder.setStandaloneApks(
+            shardedApksFacade.generateSplits(
+                modulesToFuse, ApkOptimizations.getOptimizationsForUniversalApk()));
+      }
 
-    // Populate alternative targeting based on variant targeting of all APKs.
-    GeneratedApks generatedApks =
-        AlternativeVariantTargetingPopulator.populateAlternativeVariantTargeting(
-            generatedApksBuilder.build(),
-            appBundle.isAssetOnly()
-                ? Optional.empty()
-                : appBundle.getBaseModule().getAndroidManifest().getMaxSdkVersion());
-
-    SplitsXmlInjector splitsXmlInjector = new SplitsXmlInjector();
-    generatedApks = splitsXmlInjector.process(generatedApks);
-
-    if (deviceSpec.isPresent()) {
-      // It is easier to fully check device compatibility once the splits have been generated (in
-      // memory). Note that no costly I/O happened up until this point, so it's not too late for
-      // this check.
-      checkDeviceCompatibilityWithBundle(generatedApks, deviceSpec.get());
-    }
+      // System APKs
+      if (apksToGenerate.generateSystemApks()) {
+        generatedApksBuilder.setSystemApks(generateSystemApks(appBundle, requestedModules));
+      }
 
-    ApkSetBuilder apkSetBuilder = createApkSetBuilder(tempDir.getPath());
+      // Asset Slices
+      if (apksToGenerate.generateAssetSlices() && !assetSliceSets.isPresent()) {
+        generatedAssetSlices.setAssetSlices(generateAssetSlices(appBundle));
+      }
+
+      // Populate alternative targeting based on variant targeting of all APKs.
+      GeneratedApks generatedApks =
+          AlternativeVariantTargetingPopulator.populateAlternativeVariantTargeting(
+              generatedApksBuilder.build(),
+              appBundle.isAssetOnly()
+                  ? Optional.empty()
+                  : appBundle.getBaseModule().getAndroidManifest().getMaxSdkVersion());
 
-    // Create variants and serialize APKs.
-    apkSerializerManager.populateApkSetBuilder(
-        apkSetBuilder,
-        generatedApks,
-        generatedAssetSlices.build(),
-        command.getApkBuildMode(),
-        deviceSpec,
-        getLocalTestingInfo(appBundle));
+      SplitsXmlInjector splitsXmlInjector = new SplitsXmlInjector();
+      generatedApks = splitsXmlInjector.process(generatedApks);
+
+      if (deviceSpec.isPresent()) {
+        // It is easier to fully check device compatibility once the splits have been generated
+        // (in memory). Note that no costly I/O happened up until this point, so it's not too late
+        // for this check.
+        checkDeviceCompatibilityWithBundle(generatedApks, deviceSpec.get());
+      }
+
+      // Create variants and serialize APKs.
+      if (assetSliceSets.isPresent()) {
+        apkSerializerManager.populateApkSetBuilder(
+            apkSetBuilder,
+            generatedApks,
+            assetSliceSets.get(),
+            command.getApkBuildMode(),
+            deviceSpec,
+            getLocalTestingInfo(appBundle));
+      } else {
+        apkSerializerManager.populateApkSetBuilder(
+            apkSetBuilder,
+            generatedApks,
+            generatedAssetSlices.build(),
+            command.getApkBuildMode(),
+            deviceSpec,
+            getLocalTestingInfo(appBundle));
+      }
+
+      if (command.getOverwriteOutput()) {
+        Files.deleteIfExists(command.getOutputFile());
+      }
+      try (Span span =
+          phaseTracer.startPhase(Phase.ASSEMBLE_APK_SET, command.getOutputFile().toString())) {
+        apkSetBuilder.writeTo(command.getOutputFile());
+        if (Files.isRegularFile(command.getOutputFile())) {
+          span.addBytes(Files.size(command.getOutputFile()));
+        }
+      }
+    } finally {
+      // The asset slices are written to the APK Set builder, which must not be closed while they
+      // are still being serialized, even if generating the other APKs failed.
+      assetSliceSets.ifPresent(BuildApksManager::awaitCompletion);
+    }
+  }
 
-    if (command.getOverwriteOutput()) {
-      Files.deleteIfExists(command.getOutputFile());
+  /** Waits until the given future is done, regardless of whether it succeeded. */
+  private static void awaitCompletion(ListenableFuture<?> future) {
+    try {
+      Uninterruptibles.getUninterruptibly(Futures.successfulAsList(future));
+    } catch (ExecutionException e) {
+      // Never thrown: failures are turned into null results.
+      throw new IllegalStateException(e);
     }
-    apkSetBuilder.writeTo(command.getOutputFile());
   }
 
   private ImmutableList<ModuleSplit> generateStandaloneApks(AppBundle appBundle) {
@@ -271,8 +348,11 @@ public final class BuildApksManager {
   private ApkSetBuilder createApkSetBuilder(Path tempDir) {
     switch (command.getOutputFormat()) {
       case APK_SET:
-        return ApkSetBuilderFactory.createApkSetBuilder(
-            splitApkSerializer, standaloneApkSerializer, tempDir);
+        return command.getEnablePipelinedSerialization()
+            ? ApkSetBuilderFactory.createPipelinedApkSetBuilder(
+                splitApkSerializer, standaloneApkSerializer, tempDir)
+            : ApkSetBuilderFactory.createApkSetBuilder(
+                splitApkSerializer, standaloneApkSerializer, tempDir);
       case DIRECTORY:
         return ApkSetBuilderFactory.createApkSetWithoutArchiveBuilder(
             splitApkSerializer, standaloneApkSerializer, command.getOutputFile());
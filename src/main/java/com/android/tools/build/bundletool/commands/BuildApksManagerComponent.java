@@ -20,6 +20,7 @@ import static java.lang.annotation.RetentionPolicy.RUNTIME;
 import com.android.tools.build.bundletool.io.TempDirectory;
 import com.android.tools.build.bundletool.io.ZipReader;
 import com.android.tools.build.bundletool.model.AppBundle;
+import com.android.tools.build.bundletool.model.PhaseTracer;
 import dagger.BindsInstance;
 import dagger.Component;
 import java.lang.annotation.Retention;
@@ -50,6 +51,9 @@ public interface BuildApksManagerComponent {
 
     @BindsInstance
     Builder setUseBundleCompression(@UseBundleCompression boolean useBundleCompression);
+
+    @BindsInstance
+    Builder setPhaseTracer(PhaseTracer phaseTracer);
   }
 
   /**
@@ -142,6 +142,21 @@ public final class BuildApksModule {
     return command.getVerbose();
   }
 
+  @CommandScoped
+  @Provides
+  @RecordApkSizes
+  static boolean provideRecordApkSizes(BuildApksCommand command) {
+    return command.getRecordApkSizes();
+  }
+
+  /**
+   * Qualifying annotation of a {@code boolean} on whether the sizes and digest of each APK are
+   * recorded in the table of contents.
+   */
+  @Qualifier
+  @Retention(RUNTIME)
+  public @interface RecordApkSizes {}
+
   /**
    * Qualifying annotation of an {@code Optional<Integer>} for the first variant number to use when
    * numbering the generated variants.
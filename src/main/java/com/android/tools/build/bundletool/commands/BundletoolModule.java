@@ -15,6 +15,8 @@
  */
 package com.android.tools.build.bundletool.commands;
 
+import com.android.tools.build.bundletool.aapt2.Aapt2DaemonPool;
+import com.android.tools.build.bundletool.aapt2.InProcessAapt2Command;
 import com.android.tools.build.bundletool.io.TempDirectory;
 import com.android.tools.build.bundletool.mergers.D8DexMerger;
 import com.android.tools.build.bundletool.mergers.DexMerger;
@@ -22,6 +24,8 @@ import com.android.tools.build.bundletool.model.Aapt2Command;
 import dagger.Binds;
 import dagger.Module;
 import dagger.Provides;
+import java.util.Optional;
+import java.util.function.Supplier;
 
 /** Dagger module command to all bundletool commands. */
 @Module
@@ -29,10 +33,46 @@ public abstract class BundletoolModule {
 
   @CommandScoped
   @Provides
-  static Aapt2Command provideAapt2Command(BuildApksCommand command, TempDirectory tempDir) {
-    return command
-        .getAapt2Command()
-        .orElseGet(() -> CommandUtils.extractAapt2FromJar(tempDir.getPath()));
+  static Optional<Aapt2DaemonPool> provideAapt2DaemonPool(
+      BuildApksCommand command, TempDirectory tempDir) {
+    if (!command.getEnableAapt2Daemon()) {
+      return Optional.empty();
+    }
+    // A custom Aapt2Command can't be run as a daemon unless the path to its binary is known.
+    if (command.getAapt2Command().isPresent() && !command.getAapt2ExecutablePath().isPresent()) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        Aapt2DaemonPool.create(
+            () ->
+                command
+                    .getAapt2ExecutablePath()
+                    .orElseGet(() -> CommandUtils.extractAapt2PathFromJar(tempDir.getPath())),
+            command.getVerbose()));
+  }
+
+  @CommandScoped
+  @Provides
+  static Aapt2Command provideAapt2Command(
+      BuildApksCommand command,
+      TempDirectory tempDir,
+      Optional<Aapt2DaemonPool> aapt2DaemonPool) {
+    Supplier<Aapt2Command> aapt2 =
+        aapt2DaemonPool.isPresent()
+            ? aapt2DaemonPool::get
+            : () ->
+                command
+                    .getAapt2Command()
+                    .orElseGet(() -> CommandUtils.extractAapt2FromJar(tempDir.getPath()));
+    switch (command.getResourceConversionMode()) {
+      case IN_PROCESS:
+        return InProcessAapt2Command.create(aapt2);
+      case VERIFY:
+        return InProcessAapt2Command.createVerifying(aapt2);
+      case AAPT2:
+        break;
+    }
+    return aapt2.get();
   }
 
   @Binds
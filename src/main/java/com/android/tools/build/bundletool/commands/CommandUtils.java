@@ -60,9 +60,12 @@ final class CommandUtils {
   }
 
   static Aapt2Command extractAapt2FromJar(Path tempDir) {
+    return Aapt2Command.createFromExecutablePath(extractAapt2PathFromJar(tempDir));
+  }
+
+  static Path extractAapt2PathFromJar(Path tempDir) {
     return new SdkToolsLocator()
         .extractAapt2(tempDir)
-        .map(Aapt2Command::createFromExecutablePath)
         .orElseThrow(
             () ->
                 CommandExecutionException.builder()
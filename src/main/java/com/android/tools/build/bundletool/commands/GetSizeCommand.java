@@ -17,8 +17,7 @@
 package com.android.tools.build.bundletool.commands;
 
 import static com.android.tools.build.bundletool.commands.GetSizeCommand.GetSizeSubcommand.STRING_TO_SUBCOMMAND;
-import static com.android.tools.build.bundletool.model.utils.ApkSizeUtils.getCompressedSizeByApkPaths;
-import static com.android.tools.build.bundletool.model.utils.ApkSizeUtils.getVariantCompressedSizeByApkPaths;
+import static com.android.tools.build.bundletool.model.utils.ApkSizeUtils.getCompressedSizeByApkDescriptions;
 import static com.android.tools.build.bundletool.model.utils.CollectorUtils.combineMaps;
 import static com.android.tools.build.bundletool.model.utils.GetSizeCsvUtils.getSizeTotalOutputInCsv;
 import static com.android.tools.build.bundletool.model.utils.files.FilePreconditions.checkFileExistsAndReadable;
@@ -38,6 +37,7 @@ import com.android.tools.build.bundletool.device.VariantMatcher;
 import com.android.tools.build.bundletool.device.VariantTotalSizeAggregator;
 import com.android.tools.build.bundletool.flags.Flag;
 import com.android.tools.build.bundletool.flags.ParsedFlags;
+import com.android.tools.build.bundletool.io.ConcurrencyUtils;
 import com.android.tools.build.bundletool.model.ConfigurationSizes;
 import com.android.tools.build.bundletool.model.GetSizeRequest;
 import com.android.tools.build.bundletool.model.SizeConfiguration;
@@ -52,10 +52,15 @@ import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.io.PrintStream;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
 
 /** Gets over-the-wire sizes of APKS that are going to be served from the APK Set. */
 @AutoValue
@@ -101,8 +106,11 @@ public abstract class GetSizeCommand implements GetSizeRequest {
   private static final Flag<Boolean> INSTANT_FLAG = Flag.booleanFlag("instant");
   private static final Flag<ImmutableSet<Dimension>> DIMENSIONS_FLAG =
       Flag.enumSet("dimensions", Dimension.class);
+  private static final Flag<Integer> MAX_THREADS_FLAG = Flag.positiveInteger("max-threads");
   private static final Joiner COMMA_JOINER = Joiner.on(',');
 
+  private static final int DEFAULT_THREAD_POOL_SIZE = 4;
+
   @VisibleForTesting
   static final ImmutableSet<Dimension> SUPPORTED_DIMENSIONS =
       ImmutableSet.of(
@@ -130,10 +138,16 @@ public abstract class GetSizeCommand implements GetSizeRequest {
   @Override
   public abstract boolean getInstant();
 
+  /** Gets the number of threads computing the sizes, unless an executor service is provided. */
+  public abstract int getMaxThreads();
+
+  public abstract Optional<ListeningExecutorService> getExecutorService();
+
   public static Builder builder() {
     return new AutoValue_GetSizeCommand.Builder()
         .setDeviceSpec(DeviceSpec.getDefaultInstance())
         .setInstant(false)
+        .setMaxThreads(DEFAULT_THREAD_POOL_SIZE)
         .setDimensions(ImmutableSet.of());
   }
 
@@ -163,14 +177,34 @@ public abstract class GetSizeCommand implements GetSizeRequest {
     /** Sets the sub-command of the get-size command, e.g. total. */
     public abstract Builder setGetSizeSubCommand(GetSizeSubcommand getSizeSubcommand);
 
+    /**
+     * Sets the number of threads compressing the APKs and aggregating the sizes of the variants.
+     *
+     * <p>The default is 4. Ignored if an executor service is provided.
+     */
+    public abstract Builder setMaxThreads(int maxThreads);
+
+    /**
+     * Allows to set an executor service for parallelization.
+     *
+     * <p>Optional. The caller is responsible for providing a service that accepts new tasks, and
+     * for shutting it down afterwards.
+     */
+    public abstract Builder setExecutorService(ListeningExecutorService executorService);
+
     public abstract GetSizeCommand build();
   }
 
   public static GetSizeCommand fromFlags(ParsedFlags flags) {
+    return builderFromFlags(flags).build();
+  }
+
+  static GetSizeCommand.Builder builderFromFlags(ParsedFlags flags) {
     Path apksArchivePath = APKS_ARCHIVE_FILE_FLAG.getRequiredValue(flags);
     Optional<Path> deviceSpecPath = DEVICE_SPEC_FLAG.getValue(flags);
     Optional<ImmutableSet<String>> modules = MODULES_FLAG.getValue(flags);
     Optional<Boolean> instant = INSTANT_FLAG.getValue(flags);
+    Optional<Integer> maxThreads = MAX_THREADS_FLAG.getValue(flags);
 
     ImmutableSet<Dimension> dimensions = DIMENSIONS_FLAG.getValue(flags).orElse(ImmutableSet.of());
     flags.checkNoUnknownFlags();
@@ -192,13 +226,15 @@ public abstract class GetSizeCommand implements GetSizeRequest {
 
     instant.ifPresent(command::setInstant);
 
+    maxThreads.ifPresent(command::setMaxThreads);
+
     if (dimensions.contains(Dimension.ALL)) {
       dimensions = SUPPORTED_DIMENSIONS;
     }
 
     command.setDimensions(dimensions);
 
-    return command.build();
+    return command;
   }
 
   private static GetSizeSubcommand parseGetSizeSubCommand(ParsedFlags flags) {
@@ -228,41 +264,54 @@ public abstract class GetSizeCommand implements GetSizeRequest {
 
   @VisibleForTesting
   ConfigurationSizes getSizeTotalInternal() {
+    if (getExecutorService().isPresent()) {
+      return getSizeTotalInternal(getExecutorService().get());
+    }
+    ListeningExecutorService executorService =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(getMaxThreads()));
+    try {
+      return getSizeTotalInternal(executorService);
+    } finally {
+      executorService.shutdown();
+    }
+  }
+
+  private ConfigurationSizes getSizeTotalInternal(ListeningExecutorService executorService) {
     BuildApksResult buildApksResult = ResultUtils.readTableOfContents(getApksArchivePath());
+    Version bundletoolVersion = Version.of(buildApksResult.getBundletool().getVersion());
 
     ImmutableList<Variant> variants =
         new VariantMatcher(getDeviceSpec(), getInstant()).getAllMatchingVariants(buildApksResult);
-    ImmutableMap<String, Long> variantCompressedSizeByApkPaths =
-        getVariantCompressedSizeByApkPaths(variants, getApksArchivePath());
 
-    ImmutableList<String> assetModuleApks =
-        buildApksResult.getAssetSliceSetList().stream()
-            .flatMap(module -> module.getApkDescriptionList().stream())
-            .map(ApkDescription::getPath)
+    // The variants share many APKs, so the sizes of the APKs of all the variants and asset slices
+    // are computed at once, for each APK to be compressed only once.
+    ImmutableList<ApkDescription> apkDescriptions =
+        Stream.concat(
+                variants.stream()
+                    .flatMap(variant -> variant.getApkSetList().stream())
+                    .flatMap(apkSet -> apkSet.getApkDescriptionList().stream()),
+                buildApksResult.getAssetSliceSetList().stream()
+                    .flatMap(assetSliceSet -> assetSliceSet.getApkDescriptionList().stream()))
+            .collect(toImmutableList());
+    ImmutableMap<String, Long> compressedSizeByApkPaths =
+        getCompressedSizeByApkDescriptions(apkDescriptions, getApksArchivePath(), executorService);
+
+    ImmutableList<ListenableFuture<ConfigurationSizes>> variantSizes =
+        variants.stream()
+            .map(
+                variant ->
+                    executorService.submit(
+                        () ->
+                            getVariantSizes(
+                                variant,
+                                buildApksResult,
+                                bundletoolVersion,
+                                compressedSizeByApkPaths)))
             .collect(toImmutableList());
-    ImmutableMap<String, Long> assetModuleCompressedSizeByApkPaths =
-        getCompressedSizeByApkPaths(assetModuleApks, getApksArchivePath());
 
     ImmutableMap<SizeConfiguration, Long> minSizeConfigurationMap = ImmutableMap.of();
     ImmutableMap<SizeConfiguration, Long> maxSizeConfigurationMap = ImmutableMap.of();
-
-    for (Variant variant : variants) {
-      ConfigurationSizes variantConfigurationSizes =
-          new VariantTotalSizeAggregator(
-                  variantCompressedSizeByApkPaths,
-                  Version.of(buildApksResult.getBundletool().getVersion()),
-                  variant,
-                  this)
-              .getSize();
-      ConfigurationSizes assetModuleConfigurationSizes =
-          new AssetModuleSizeAggregator(
-                  buildApksResult.getAssetSliceSetList(),
-                  variant.getTargeting(),
-                  assetModuleCompressedSizeByApkPaths,
-                  this)
-              .getSize();
-      ConfigurationSizes configurationSizes =
-          ConfigurationSizesMerger.merge(variantConfigurationSizes, assetModuleConfigurationSizes);
+    for (ConfigurationSizes configurationSizes : ConcurrencyUtils.waitForAll(variantSizes)) {
       minSizeConfigurationMap =
           combineMaps(
               minSizeConfigurationMap, configurationSizes.getMinSizeConfigurationMap(), Math::min);
@@ -274,6 +323,24 @@ public abstract class GetSizeCommand implements GetSizeRequest {
     return ConfigurationSizes.create(minSizeConfigurationMap, maxSizeConfigurationMap);
   }
 
+  private ConfigurationSizes getVariantSizes(
+      Variant variant,
+      BuildApksResult buildApksResult,
+      Version bundletoolVersion,
+      ImmutableMap<String, Long> compressedSizeByApkPaths) {
+    ConfigurationSizes variantConfigurationSizes =
+        new VariantTotalSizeAggregator(compressedSizeByApkPaths, bundletoolVersion, variant, this)
+            .getSize();
+    ConfigurationSizes assetModuleConfigurationSizes =
+        new AssetModuleSizeAggregator(
+                buildApksResult.getAssetSliceSetList(),
+                variant.getTargeting(),
+                compressedSizeByApkPaths,
+                this)
+            .getSize();
+    return ConfigurationSizesMerger.merge(variantConfigurationSizes, assetModuleConfigurationSizes);
+  }
+
   public static CommandHelp help() {
     return CommandHelp.builder()
         .setCommandName(COMMAND_NAME)
@@ -326,6 +393,15 @@ public abstract class GetSizeCommand implements GetSizeRequest {
                         + "be considered. We ignore standalone APKs for size calculation when this "
                         + "flag is set.")
                 .build())
+        .addFlag(
+            FlagDescription.builder()
+                .setFlagName(MAX_THREADS_FLAG.getName())
+                .setExampleValue("num-threads")
+                .setOptional(true)
+                .setDescription(
+                    "Sets the maximum number of threads to use (default: %d).",
+                    DEFAULT_THREAD_POOL_SIZE)
+                .build())
         .addFlag(
             FlagDescription.builder()
                 .setFlagName(INSTANT_FLAG.getName())
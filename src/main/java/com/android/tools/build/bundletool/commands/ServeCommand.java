@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.commands;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.android.bundle.Commands.ServeRequest;
+import com.android.bundle.Commands.ServeResponse;
+import com.android.tools.build.bundletool.commands.CommandHelp.CommandDescription;
+import com.android.tools.build.bundletool.commands.CommandHelp.FlagDescription;
+import com.android.tools.build.bundletool.device.AdbServer;
+import com.android.tools.build.bundletool.flags.Flag;
+import com.android.tools.build.bundletool.flags.FlagParser;
+import com.android.tools.build.bundletool.flags.ParsedFlags;
+import com.android.tools.build.bundletool.io.TempDirectory;
+import com.android.tools.build.bundletool.model.Aapt2Command;
+import com.android.tools.build.bundletool.model.exceptions.InvalidCommandException;
+import com.android.tools.build.bundletool.model.utils.DefaultSystemEnvironmentProvider;
+import com.android.tools.build.bundletool.model.utils.SystemEnvironmentProvider;
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Suppliers;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.util.JsonFormat;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Command running bundletool commands sent on the standard input, in a single long-lived JVM.
+ *
+ * <p>Each line of the input is a {@link ServeRequest} in JSON. When the command of a request
+ * completes, a {@link ServeResponse} in JSON is printed on one line of the output, with what the
+ * command printed. Requests run concurrently, and share the executor running the tasks of the
+ * commands and the aapt2 binary extracted from bundletool, so that only the first requests pay for
+ * the start-up of the JVM and the extraction of aapt2.
+ *
+ * <p>Cancelling a request is best effort: its command only stops once it checks for interruption,
+ * and keeps its slot among the concurrent requests until then. The cancellation is reported once
+ * the command has stopped.
+ *
+ * <p>The command returns once the input is closed and all the pending requests are completed.
+ */
+@AutoValue
+public abstract class ServeCommand {
+
+  public static final String COMMAND_NAME = "serve";
+
+  private static final Flag<Integer> MAX_THREADS_FLAG = Flag.positiveInteger("max-threads");
+  private static final Flag<Integer> MAX_CONCURRENT_REQUESTS_FLAG =
+      Flag.positiveInteger("max-concurrent-requests");
+
+  private static final int DEFAULT_THREAD_POOL_SIZE = 4;
+  private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 2;
+
+  private static final SystemEnvironmentProvider DEFAULT_PROVIDER =
+      new DefaultSystemEnvironmentProvider();
+
+  abstract InputStream getInputStream();
+
+  abstract PrintStream getOutputStream();
+
+  abstract AdbServer getAdbServer();
+
+  public abstract int getMaxThreads();
+
+  public abstract int getMaxConcurrentRequests();
+
+  public static Builder builder() {
+    return new AutoValue_ServeCommand.Builder()
+        .setInputStream(System.in)
+        .setOutputStream(System.out)
+        .setMaxThreads(DEFAULT_THREAD_POOL_SIZE)
+        .setMaxConcurrentRequests(DEFAULT_MAX_CONCURRENT_REQUESTS);
+  }
+
+  /** Builder for the {@link ServeCommand}. */
+  @AutoValue.Builder
+  public abstract static class Builder {
+    /** Sets the stream the requests are read from. Default is the standard input. */
+    public abstract Builder setInputStream(InputStream inputStream);
+
+    /** Sets the stream the responses are printed to. Default is the standard output. */
+    public abstract Builder setOutputStream(PrintStream outputStream);
+
+    /** The caller is responsible for the lifecycle of the {@link AdbServer}. */
+    public abstract Builder setAdbServer(AdbServer adbServer);
+
+    /**
+     * Sets the number of threads of the executor shared by the commands, unless a command sets
+     * its own with the flag --max-threads.
+     *
+     * <p>Default is 4.
+     */
+    public abstract Builder setMaxThreads(int maxThreads);
+
+    /**
+     * Sets how many requests run at the same time. Other requests wait for their turn.
+     *
+     * <p>Since the JVM can't bound the memory used by each request, this is what bounds the memory
+     * used by the requests. Default is 2.
+     */
+    public abstract Builder setMaxConcurrentRequests(int maxConcurrentRequests);
+
+    public abstract ServeCommand build();
+  }
+
+  public static ServeCommand fromFlags(ParsedFlags flags, AdbServer adbServer) {
+    ServeCommand.Builder builder = builder().setAdbServer(adbServer);
+    MAX_THREADS_FLAG.getValue(flags).ifPresent(builder::setMaxThreads);
+    MAX_CONCURRENT_REQUESTS_FLAG.getValue(flags).ifPresent(builder::setMaxConcurrentRequests);
+    flags.checkNoUnknownFlags();
+
+    return builder.build();
+  }
+
+  public void execute() {
+    ListeningExecutorService executorService =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(getMaxThreads()));
+    ListeningExecutorService requestExecutorService =
+        MoreExecutors.listeningDecorator(
+            Executors.newFixedThreadPool(getMaxConcurrentRequests()));
+    Map<String, ListenableFuture<String>> pendingRequests = new ConcurrentHashMap<>();
+
+    try (TempDirectory tempDir = new TempDirectory(getClass().getSimpleName())) {
+      // Extracted on first use, then shared by all the requests.
+      Supplier<Path> aapt2Path =
+          Suppliers.memoize(() -> CommandUtils.extractAapt2PathFromJar(tempDir.getPath()));
+
+      BufferedReader reader = new BufferedReader(new InputStreamReader(getInputStream(), UTF_8));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+        handleRequest(
+            line,
+            pendingRequests,
+            requestExecutorService,
+            args -> runCommand(args, executorService, aapt2Path));
+      }
+
+      requestExecutorService.shutdown();
+      requestExecutorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Error while reading the requests.", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the pending requests.", e);
+    } finally {
+      requestExecutorService.shutdownNow();
+      executorService.shutdownNow();
+    }
+  }
+
+  private void handleRequest(
+      String line,
+      Map<String, ListenableFuture<String>> pendingRequests,
+      ListeningExecutorService requestExecutorService,
+      CommandRunner commandRunner) {
+    ServeRequest.Builder request = ServeRequest.newBuilder();
+    try {
+      JsonFormat.parser().merge(line, request);
+    } catch (InvalidProtocolBufferException e) {
+      writeResponse(
+          ServeResponse.newBuilder().setErrorMessage("Invalid request: " + e.getMessage()).build());
+      return;
+    }
+    String id = request.getId();
+
+    if (request.getCancel()) {
+      ListenableFuture<String> pendingRequest = pendingRequests.get(id);
+      if (pendingRequest != null) {
+        // Best effort, see the class documentation.
+        pendingRequest.cancel(/* mayInterruptIfRunning= */ true);
+      }
+      return;
+    }
+    if (pendingRequests.containsKey(id)) {
+      writeResponse(
+          ServeResponse.newBuilder()
+              .setId(id)
+              .setErrorMessage(String.format("A request with id '%s' is already pending.", id))
+              .build());
+      return;
+    }
+
+    List<String> args = request.getArgsList();
+    // Set when the command starts, or when the request is cancelled before the command started.
+    AtomicBoolean startedOrCancelled = new AtomicBoolean(false);
+    // Set once the command has ended, or won't ever start.
+    SettableFuture<Void> commandEnded = SettableFuture.create();
+    ListenableFuture<String> future =
+        requestExecutorService.submit(
+            () -> {
+              if (!startedOrCancelled.compareAndSet(false, true)) {
+                return "";
+              }
+              try {
+                return commandRunner.run(args);
+              } finally {
+                commandEnded.set(null);
+              }
+            });
+    pendingRequests.put(id, future);
+    Futures.addCallback(
+        future,
+        new FutureCallback<String>() {
+          @Override
+          public void onSuccess(String output) {
+            pendingRequests.remove(id, future);
+            writeResponse(
+                ServeResponse.newBuilder().setId(id).setSuccess(true).setOutput(output).build());
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            if (t instanceof CancellationException) {
+              if (startedOrCancelled.compareAndSet(false, true)) {
+                commandEnded.set(null);
+              }
+              // A running command keeps its request slot and its id until it has ended.
+              commandEnded.addListener(
+                  () -> {
+                    pendingRequests.remove(id, future);
+                    writeResponse(ServeResponse.newBuilder().setId(id).setCancelled(true).build());
+                  },
+                  directExecutor());
+            } else {
+              pendingRequests.remove(id, future);
+              writeResponse(
+                  ServeResponse.newBuilder()
+                      .setId(id)
+                      .setErrorMessage(String.valueOf(t.getMessage()))
+                      .build());
+            }
+          }
+        },
+        directExecutor());
+  }
+
+  /** Runs a command, and returns what it printed. */
+  private String runCommand(
+      List<String> args, ListeningExecutorService executorService, Supplier<Path> aapt2Path) {
+    ParsedFlags flags = new FlagParser().parse(args.toArray(new String[0]));
+    String command =
+        flags
+            .getMainCommand()
+            .orElseThrow(
+                () ->
+                    InvalidCommandException.builder()
+                        .withInternalMessage("You have to specify a command.")
+                        .build());
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(output);
+    switch (command) {
+      case BuildApksCommand.COMMAND_NAME:
+        BuildApksCommand.Builder buildApksCommand =
+            BuildApksCommand.builderFromFlags(flags, out, DEFAULT_PROVIDER, getAdbServer());
+        if (!buildApksCommand.getExecutorServiceInternal().isPresent()) {
+          buildApksCommand.setExecutorService(executorService);
+        }
+        if (!buildApksCommand.getAapt2Command().isPresent()) {
+          buildApksCommand
+              .setAapt2Command(Aapt2Command.createFromExecutablePath(aapt2Path.get()))
+              .setAapt2ExecutablePath(aapt2Path.get());
+        }
+        buildApksCommand.build().execute();
+        break;
+      case ExtractApksCommand.COMMAND_NAME:
+        ExtractApksCommand.fromFlags(flags).execute(out);
+        break;
+      case GetSizeCommand.COMMAND_NAME:
+        GetSizeCommand.Builder getSizeCommand = GetSizeCommand.builderFromFlags(flags);
+        if (!MAX_THREADS_FLAG.getValue(flags).isPresent()) {
+          getSizeCommand.setExecutorService(executorService);
+        }
+        getSizeCommand.build().getSizeTotal(out);
+        break;
+      case VersionCommand.COMMAND_NAME:
+        VersionCommand.fromFlags(flags, out).execute();
+        break;
+      default:
+        throw InvalidCommandException.builder()
+            .withInternalMessage(
+                "Command '%s' is not supported by the '%s' command.", command, COMMAND_NAME)
+            .build();
+    }
+    out.flush();
+    return output.toString();
+  }
+
+  private void writeResponse(ServeResponse response) {
+    String json;
+    try {
+      json = JsonFormat.printer().omittingInsignificantWhitespace().print(response);
+    } catch (InvalidProtocolBufferException e) {
+      throw new IllegalStateException(e);
+    }
+    PrintStream outputStream = getOutputStream();
+    synchronized (outputStream) {
+      outputStream.println(json);
+      outputStream.flush();
+    }
+  }
+
+  /** Runs a command from its arguments, and returns what it printed. */
+  private interface CommandRunner {
+    String run(List<String> args);
+  }
+
+  public static CommandHelp help() {
+    return CommandHelp.builder()
+        .setCommandName(COMMAND_NAME)
+        .setCommandDescription(
+            CommandDescription.builder()
+                .setShortDescription(
+                    "Runs the bundletool commands sent on the standard input in a single"
+                        + " long-lived process.")
+                .addAdditionalParagraph(
+                    "Each line of the standard input must be a request in JSON, e.g."
+                        + " {\"id\": \"1\", \"args\": [\"build-apks\", \"--bundle=app.aab\","
+                        + " \"--output=app.apks\"]}. When the command completes, a response in"
+                        + " JSON is printed on one line of the standard output, e.g."
+                        + " {\"id\":\"1\",\"success\":true}, with what the command printed. A"
+                        + " pending request can be cancelled with {\"id\": \"1\", \"cancel\":"
+                        + " true}. Cancellation is best effort: a running command stops once it"
+                        + " checks for interruption, and the cancellation is only reported once it"
+                        + " has stopped.")
+                .addAdditionalParagraph(
+                    String.format(
+                        "Supported commands are %s, %s, %s and %s. The process exits once the"
+                            + " standard input is closed and all the pending requests are"
+                            + " completed.",
+                        BuildApksCommand.COMMAND_NAME,
+                        ExtractApksCommand.COMMAND_NAME,
+                        GetSizeCommand.COMMAND_NAME,
+                        VersionCommand.COMMAND_NAME))
+                .build())
+        .addFlag(
+            FlagDescription.builder()
+                .setFlagName(MAX_THREADS_FLAG.getName())
+                .setExampleValue("num-threads")
+                .setOptional(true)
+                .setDescription(
+                    "Number of threads shared by the commands which don't set their own with the"
+                        + " flag --%s. Default is %d.",
+                    MAX_THREADS_FLAG.getName(), DEFAULT_THREAD_POOL_SIZE)
+                .build())
+        .addFlag(
+            FlagDescription.builder()
+                .setFlagName(MAX_CONCURRENT_REQUESTS_FLAG.getName())
+                .setExampleValue("num-requests")
+                .setOptional(true)
+                .setDescription(
+                    "Number of requests running at the same time, which bounds the memory used"
+                        + " by the process. Other requests wait for their turn. Default is %d.",
+                    DEFAULT_MAX_CONCURRENT_REQUESTS)
+                .build())
+        .build();
+  }
+}
@@ -43,7 +43,7 @@ import com.android.bundle.Targeting.ScreenDensityTargeting;
 import com.android.bundle.Targeting.SdkVersionTargeting;
 import com.android.bundle.Targeting.TextureCompressionFormatTargeting;
 import com.android.tools.build.bundletool.commands.GetSizeCommand;
-import com.android.tools.build.bundletool.device.ApkMatcher.GeneratedApk;
+import com.android.tools.build.bundletool.device.DecomposedSizeSolver.DeviceDimension;
 import com.android.tools.build.bundletool.device.DeviceSpecUtils.DeviceSpecFromTargetingBuilder;
 import com.android.tools.build.bundletool.model.ConfigurationSizes;
 import com.android.tools.build.bundletool.model.GetSizeRequest;
@@ -64,8 +64,7 @@ import java.util.function.Predicate;
  * dimensions passed to {@link GetSizeCommand}.
  *
  * <p>Subclasses should implement the high level logic to get the total size ({@code getSize}) and
- * the logic to get the matching apks from a particular combination of targetings ({@code
- * getMatchingApks}).
+ * the logic to get the apks of the modules matching a device ({@code getApksOfMatchingModules}).
  */
 public abstract class AbstractSizeAggregator {
 
@@ -83,13 +82,17 @@ public abstract class AbstractSizeAggregator {
   /** Aggregate the sizes of a set of APKs info a {@link ConfigurationSizes}. */
   public abstract ConfigurationSizes getSize();
 
-  protected abstract ImmutableList<GeneratedApk> getMatchingApks(
-      SdkVersionTargeting sdkVersionTargeting,
-      AbiTargeting abiTargeting,
-      ScreenDensityTargeting screenDensityTargeting,
-      LanguageTargeting languageTargeting,
-      TextureCompressionFormatTargeting textureTargeting,
-      DeviceTierTargeting deviceTierTargeting);
+  /**
+   * Returns the APKs of the modules which should be installed on the device, whatever the
+   * targeting of the APKs.
+   *
+   * <p>The modules installed can only depend on the SDK version and on the device features of the
+   * device.
+   */
+  protected abstract ImmutableList<ApkDescription> getApksOfMatchingModules(DeviceSpec deviceSpec);
+
+  /** Returns whether devices must be compatible with the targeting of all the APKs matched. */
+  protected abstract boolean isDeviceCompatibilityChecked();
 
   protected ImmutableSet<SdkVersionTargeting> getAllSdkVersionTargetings(
       ImmutableList<ApkDescription> apkDescriptions) {
@@ -185,41 +188,118 @@ public abstract class AbstractSizeAggregator {
     Map<SizeConfiguration, Long> minSizeByConfiguration = new HashMap<>();
     Map<SizeConfiguration, Long> maxSizeByConfiguration = new HashMap<>();
 
+    ImmutableList<AbiTargeting> abiTargetings = abiTargetingOptions.asList();
+    ImmutableList<ScreenDensityTargeting> screenDensityTargetings =
+        screenDensityTargetingOptions.asList();
+    ImmutableList<LanguageTargeting> languageTargetings = languageTargetingOptions.asList();
+    ImmutableList<DeviceTierTargeting> deviceTierTargetings = deviceTierTargetingOptions.asList();
+
+    // The texture compression formats add the OpenGL ES version they require to the device
+    // features, so both the SDK version and the texture compression format select the modules.
     for (SdkVersionTargeting sdkVersionTargeting : sdkTargetingOptions) {
-      for (AbiTargeting abiTargeting : abiTargetingOptions) {
-        for (ScreenDensityTargeting screenDensityTargeting : screenDensityTargetingOptions) {
-          for (LanguageTargeting languageTargeting : languageTargetingOptions) {
-            for (TextureCompressionFormatTargeting textureCompressionFormatTargeting :
-                textureCompressionFormatTargetingOptions) {
-              for (DeviceTierTargeting deviceTierTargeting : deviceTierTargetingOptions) {
-
-                SizeConfiguration configuration =
-                    mergeWithDeviceSpec(
+      for (TextureCompressionFormatTargeting textureCompressionFormatTargeting :
+          textureCompressionFormatTargetingOptions) {
+        DeviceSpec deviceSpec =
+            new DeviceSpecFromTargetingBuilder(getSizeRequest.getDeviceSpec())
+                .setSdkVersion(sdkVersionTargeting)
+                .setSupportedTextureCompressionFormats(textureCompressionFormatTargeting)
+                .build();
+
+        // The dimensions, in the order of the arguments of getSizeConfiguration.
+        ImmutableList<DeviceDimension> dimensions =
+            ImmutableList.of(
+                DeviceDimension.create(
+                    ImmutableList.of(ImmutableList.of(new SdkVersionMatcher(deviceSpec))),
+                    ImmutableList.of(sdkVersionTargeting)),
+                createDimension(
+                    abiTargetings,
+                    abiTargeting -> {
+                      DeviceSpec abiDeviceSpec =
+                          new DeviceSpecFromTargetingBuilder(deviceSpec)
+                              .setSupportedAbis(abiTargeting)
+                              .build();
+                      return ImmutableList.of(
+                          new AbiMatcher(abiDeviceSpec), new MultiAbiMatcher(abiDeviceSpec));
+                    },
+                    abiTargeting ->
                         getSizeConfiguration(
-                            sdkVersionTargeting,
-                            abiTargeting,
-                            screenDensityTargeting,
-                            languageTargeting,
-                            textureCompressionFormatTargeting,
-                            deviceTierTargeting),
-                        getSizeRequest.getDeviceSpec());
-
-                long compressedSize =
-                    getCompressedSize(
-                        getMatchingApks(
-                            sdkVersionTargeting,
+                            SdkVersionTargeting.getDefaultInstance(),
                             abiTargeting,
+                            ScreenDensityTargeting.getDefaultInstance(),
+                            LanguageTargeting.getDefaultInstance(),
+                            TextureCompressionFormatTargeting.getDefaultInstance(),
+                            DeviceTierTargeting.getDefaultInstance())),
+                createDimension(
+                    screenDensityTargetings,
+                    screenDensityTargeting ->
+                        ImmutableList.of(
+                            new ScreenDensityMatcher(
+                                new DeviceSpecFromTargetingBuilder(deviceSpec)
+                                    .setScreenDensity(screenDensityTargeting)
+                                    .build())),
+                    screenDensityTargeting ->
+                        getSizeConfiguration(
+                            SdkVersionTargeting.getDefaultInstance(),
+                            AbiTargeting.getDefaultInstance(),
                             screenDensityTargeting,
+                            LanguageTargeting.getDefaultInstance(),
+                            TextureCompressionFormatTargeting.getDefaultInstance(),
+                            DeviceTierTargeting.getDefaultInstance())),
+                createDimension(
+                    languageTargetings,
+                    languageTargeting ->
+                        ImmutableList.of(
+                            new LanguageMatcher(
+                                new DeviceSpecFromTargetingBuilder(deviceSpec)
+                                    .setSupportedLocales(languageTargeting)
+                                    .build())),
+                    languageTargeting ->
+                        getSizeConfiguration(
+                            SdkVersionTargeting.getDefaultInstance(),
+                            AbiTargeting.getDefaultInstance(),
+                            ScreenDensityTargeting.getDefaultInstance(),
                             languageTargeting,
-                            textureCompressionFormatTargeting,
-                            deviceTierTargeting));
-
-                minSizeByConfiguration.merge(configuration, compressedSize, Math::min);
-                maxSizeByConfiguration.merge(configuration, compressedSize, Math::max);
-              }
-            }
-          }
-        }
+                            TextureCompressionFormatTargeting.getDefaultInstance(),
+                            DeviceTierTargeting.getDefaultInstance())),
+                DeviceDimension.create(
+                    ImmutableList.of(
+                        ImmutableList.of(new TextureCompressionFormatMatcher(deviceSpec))),
+                    ImmutableList.of(textureCompressionFormatTargeting)),
+                createDimension(
+                    deviceTierTargetings,
+                    deviceTierTargeting ->
+                        ImmutableList.of(
+                            new DeviceTierMatcher(
+                                new DeviceSpecFromTargetingBuilder(deviceSpec)
+                                    .setDeviceTier(deviceTierTargeting)
+                                    .build())),
+                    deviceTierTargeting ->
+                        getSizeConfiguration(
+                            SdkVersionTargeting.getDefaultInstance(),
+                            AbiTargeting.getDefaultInstance(),
+                            ScreenDensityTargeting.getDefaultInstance(),
+                            LanguageTargeting.getDefaultInstance(),
+                            TextureCompressionFormatTargeting.getDefaultInstance(),
+                            deviceTierTargeting)));
+
+        new DecomposedSizeSolver(dimensions, isDeviceCompatibilityChecked())
+            .solve(
+                getApksOfMatchingModules(deviceSpec),
+                sizeByApkPaths,
+                (values, minSize, maxSize) -> {
+                  SizeConfiguration configuration =
+                      mergeWithDeviceSpec(
+                          getSizeConfiguration(
+                              sdkVersionTargeting,
+                              abiTargetings.get(values[1]),
+                              screenDensityTargetings.get(values[2]),
+                              languageTargetings.get(values[3]),
+                              textureCompressionFormatTargeting,
+                              deviceTierTargetings.get(values[5])),
+                          getSizeRequest.getDeviceSpec());
+                  minSizeByConfiguration.merge(configuration, minSize, Math::min);
+                  maxSizeByConfiguration.merge(configuration, maxSize, Math::max);
+                });
       }
     }
 
@@ -228,6 +308,19 @@ public abstract class AbstractSizeAggregator {
         /* maxSizeConfigurationMap= */ ImmutableMap.copyOf(maxSizeByConfiguration));
   }
 
+  /**
+   * Creates a dimension whose values are grouped by their {@link SizeConfiguration}, which only
+   * distinguishes the values of the requested dimensions.
+   */
+  private static <T> DeviceDimension createDimension(
+      ImmutableList<T> targetings,
+      Function<T, ImmutableList<TargetingDimensionMatcher<?>>> getMatchers,
+      Function<T, SizeConfiguration> getSizeConfiguration) {
+    return DeviceDimension.create(
+        targetings.stream().map(getMatchers).collect(toImmutableList()),
+        targetings.stream().map(getSizeConfiguration).collect(toImmutableList()));
+  }
+
   protected SizeConfiguration getSizeConfiguration(
       SdkVersionTargeting sdkVersionTargeting,
       AbiTargeting abiTargeting,
@@ -269,25 +362,6 @@ public abstract class AbstractSizeAggregator {
     return sizeConfiguration.build();
   }
 
-  protected DeviceSpec getDeviceSpec(
-      DeviceSpec deviceSpec,
-      SdkVersionTargeting sdkVersionTargeting,
-      AbiTargeting abiTargeting,
-      ScreenDensityTargeting screenDensityTargeting,
-      LanguageTargeting languageTargeting,
-      TextureCompressionFormatTargeting textureTargeting,
-      DeviceTierTargeting deviceTierTargeting) {
-
-    return new DeviceSpecFromTargetingBuilder(deviceSpec)
-        .setSdkVersion(sdkVersionTargeting)
-        .setSupportedAbis(abiTargeting)
-        .setScreenDensity(screenDensityTargeting)
-        .setSupportedLocales(languageTargeting)
-        .setSupportedTextureCompressionFormats(textureTargeting)
-        .setDeviceTier(deviceTierTargeting)
-        .build();
-  }
-
   protected SizeConfiguration mergeWithDeviceSpec(
       SizeConfiguration getSizeConfiguration, DeviceSpec deviceSpec) {
 
@@ -324,9 +398,4 @@ public abstract class AbstractSizeAggregator {
 
     return mergedSizeConfiguration.build();
   }
-
-  /** Gets the total compressed sizes represented by the APK paths. */
-  private long getCompressedSize(ImmutableList<GeneratedApk> apks) {
-    return apks.stream().mapToLong(apk -> sizeByApkPaths.get(apk.getPath().toString())).sum();
-  }
 }
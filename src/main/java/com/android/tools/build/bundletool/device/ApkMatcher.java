@@ -145,6 +145,17 @@ public class ApkMatcher {
 
   public ImmutableList<GeneratedApk> getMatchingApksFromVariant(
       Variant variant, Version bundleVersion) {
+    return getMatchingModulesFromVariant(variant, bundleVersion).stream()
+        .flatMap(apkSet -> getMatchingApksFromModule(apkSet).stream())
+        .collect(toImmutableList());
+  }
+
+  /**
+   * Returns the modules of the variant which should be installed on the device, without matching
+   * the targeting of their APKs.
+   */
+  public ImmutableList<ApkSet> getMatchingModulesFromVariant(
+      Variant variant, Version bundleVersion) {
     ImmutableSet<String> modulesToMatch =
         matchInstant
             ? getRequestedInstantModulesWithDependencies(variant)
@@ -152,7 +163,6 @@ public class ApkMatcher {
 
     return variant.getApkSetList().stream()
         .filter(apkSet -> modulesToMatch.contains(apkSet.getModuleMetadata().getName()))
-        .flatMap(apkSet -> getMatchingApksFromModule(apkSet).stream())
         .collect(toImmutableList());
   }
 
@@ -324,13 +334,7 @@ public class ApkMatcher {
 
   public ImmutableList<GeneratedApk> getMatchingApksFromAssetModules(
       Collection<AssetSliceSet> assetModules) {
-    ImmutableSet<String> assetModulesToMatch =
-        requestedModuleNames.orElseGet(() -> getUpfrontAssetModules(assetModules));
-
-    return assetModules.stream()
-        .filter(
-            assetModule ->
-                assetModulesToMatch.contains(assetModule.getAssetModuleMetadata().getName()))
+    return getMatchingAssetModules(assetModules).stream()
         .flatMap(
             assetModule ->
                 assetModule.getApkDescriptionList().stream()
@@ -344,6 +348,22 @@ public class ApkMatcher {
         .collect(toImmutableList());
   }
 
+  /**
+   * Returns the asset modules which should be installed on the device, without matching the
+   * targeting of their APKs.
+   */
+  public ImmutableList<AssetSliceSet> getMatchingAssetModules(
+      Collection<AssetSliceSet> assetModules) {
+    ImmutableSet<String> assetModulesToMatch =
+        requestedModuleNames.orElseGet(() -> getUpfrontAssetModules(assetModules));
+
+    return assetModules.stream()
+        .filter(
+            assetModule ->
+                assetModulesToMatch.contains(assetModule.getAssetModuleMetadata().getName()))
+        .collect(toImmutableList());
+  }
+
   private static ImmutableSet<String> getUpfrontAssetModules(
       Collection<AssetSliceSet> assetModules) {
     return assetModules.stream()
@@ -20,6 +20,7 @@ import static com.google.common.collect.ImmutableList.toImmutableList;
 
 import com.android.bundle.Commands.ApkDescription;
 import com.android.bundle.Commands.AssetSliceSet;
+import com.android.bundle.Devices.DeviceSpec;
 import com.android.bundle.Targeting.AbiTargeting;
 import com.android.bundle.Targeting.DeviceTierTargeting;
 import com.android.bundle.Targeting.LanguageTargeting;
@@ -27,7 +28,6 @@ import com.android.bundle.Targeting.ScreenDensityTargeting;
 import com.android.bundle.Targeting.SdkVersionTargeting;
 import com.android.bundle.Targeting.TextureCompressionFormatTargeting;
 import com.android.bundle.Targeting.VariantTargeting;
-import com.android.tools.build.bundletool.device.ApkMatcher.GeneratedApk;
 import com.android.tools.build.bundletool.model.ConfigurationSizes;
 import com.android.tools.build.bundletool.model.GetSizeRequest;
 import com.google.common.collect.ImmutableList;
@@ -97,25 +97,20 @@ public class AssetModuleSizeAggregator extends AbstractSizeAggregator {
   }
 
   @Override
-  protected ImmutableList<GeneratedApk> getMatchingApks(
-      SdkVersionTargeting sdkVersionTargeting,
-      AbiTargeting abiTargeting,
-      ScreenDensityTargeting screenDensityTargeting,
-      LanguageTargeting languageTargeting,
-      TextureCompressionFormatTargeting textureTargeting,
-      DeviceTierTargeting deviceTierTargeting) {
+  protected ImmutableList<ApkDescription> getApksOfMatchingModules(DeviceSpec deviceSpec) {
     return new ApkMatcher(
-            getDeviceSpec(
-                getSizeRequest.getDeviceSpec(),
-                sdkVersionTargeting,
-                abiTargeting,
-                screenDensityTargeting,
-                languageTargeting,
-                textureTargeting,
-                deviceTierTargeting),
+            deviceSpec,
             getSizeRequest.getModules(),
             getSizeRequest.getInstant(),
             /* ensureDensityAndAbiApksMatched= */ false)
-        .getMatchingApksFromAssetModules(assetModules);
+        .getMatchingAssetModules(assetModules)
+        .stream()
+        .flatMap(assetModule -> assetModule.getApkDescriptionList().stream())
+        .collect(toImmutableList());
+  }
+
+  @Override
+  protected boolean isDeviceCompatibilityChecked() {
+    return false;
   }
 }
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.tools.build.bundletool.device;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.android.bundle.Commands.ApkDescription;
+import com.android.bundle.Targeting.ApkTargeting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the min and max total sizes of the APKs served to the devices of all the combinations
+ * of values of some device dimensions, without matching the APKs against each combination.
+ *
+ * <p>Each APK is matched once against each value of each dimension. Most APKs are targeted at one
+ * dimension at most, e.g. language splits, so the total size is a sum of one term per dimension:
+ * its min and max over the values of a dimension are found for each dimension separately. Only the
+ * dimensions on which the matching of a same APK depends are enumerated together.
+ *
+ * <p>The values of a dimension which are not distinguished in the result, e.g. all the values of a
+ * dimension which isn't reported, form a group. The result has one entry per combination of groups.
+ */
+final class DecomposedSizeSolver {
+
+  private final ImmutableList<DeviceDimension> dimensions;
+  private final boolean checkDeviceCompatibility;
+
+  /**
+   * @param dimensions the device dimensions, with the values they take
+   * @param checkDeviceCompatibility when set, checks that devices of all the combinations are
+   *     compatible with the targeting of the APKs, as when matching the APKs of a variant
+   */
+  DecomposedSizeSolver(
+      ImmutableList<DeviceDimension> dimensions, boolean checkDeviceCompatibility) {
+    this.dimensions = dimensions;
+    this.checkDeviceCompatibility = checkDeviceCompatibility;
+  }
+
+  /**
+   * Computes the min and max total sizes of the given APKs, an APK being served to a device if
+   * matched by the values of the device in all the dimensions.
+   *
+   * <p>The consumer is called once per combination of groups, with the index of a value of each
+   * group.
+   */
+  void solve(
+      ImmutableList<ApkDescription> apks,
+      ImmutableMap<String, Long> sizeByApkPaths,
+      SizeConsumer sizeConsumer) {
+    int dimensionCount = dimensions.size();
+
+    // Size of the APKs served whatever the values of the dimensions.
+    long constantSize = 0;
+    // Size of the APKs targeted at one dimension, for each value of the dimension.
+    long[][] sizeByDimensionValue = new long[dimensionCount][];
+    for (int dimension = 0; dimension < dimensionCount; dimension++) {
+      sizeByDimensionValue[dimension] = new long[dimensions.get(dimension).getValueCount()];
+    }
+    // APKs targeted at several dimensions, which are enumerated together.
+    List<JointApk> jointApks = new ArrayList<>();
+    boolean[] isJointDimension = new boolean[dimensionCount];
+
+    for (ApkDescription apk : apks) {
+      ApkTargeting apkTargeting = apk.getTargeting();
+      if (checkDeviceCompatibility) {
+        dimensions.forEach(dimension -> dimension.checkDeviceCompatible(apkTargeting));
+      }
+
+      boolean[][] matchesByDimension = new boolean[dimensionCount][];
+      List<Integer> targetedDimensions = new ArrayList<>();
+      boolean neverMatched = false;
+      for (int dimension = 0; dimension < dimensionCount; dimension++) {
+        boolean[] matches = dimensions.get(dimension).matches(apkTargeting);
+        int matchCount = countMatches(matches);
+        if (matchCount == 0) {
+          neverMatched = true;
+          break;
+        }
+        if (matchCount < matches.length) {
+          targetedDimensions.add(dimension);
+        }
+        matchesByDimension[dimension] = matches;
+      }
+      if (neverMatched) {
+        continue;
+      }
+
+      long size = sizeByApkPaths.get(apk.getPath());
+      if (targetedDimensions.isEmpty()) {
+        constantSize += size;
+      } else if (targetedDimensions.size() == 1) {
+        int dimension = targetedDimensions.get(0);
+        for (int value = 0; value < sizeByDimensionValue[dimension].length; value++) {
+          if (matchesByDimension[dimension][value]) {
+            sizeByDimensionValue[dimension][value] += size;
+          }
+        }
+      } else {
+        targetedDimensions.forEach(dimension -> isJointDimension[dimension] = true);
+        jointApks.add(
+            new JointApk(
+                size,
+                targetedDimensions.stream().mapToInt(Integer::intValue).toArray(),
+                matchesByDimension));
+      }
+    }
+
+    // Min and max sizes for each group of each dimension not enumerated.
+    long[][] minSizeByGroup = new long[dimensionCount][];
+    long[][] maxSizeByGroup = new long[dimensionCount][];
+    for (int dimension = 0; dimension < dimensionCount; dimension++) {
+      if (!isJointDimension[dimension]) {
+        DeviceDimension deviceDimension = dimensions.get(dimension);
+        minSizeByGroup[dimension] = newArray(deviceDimension.getGroupCount(), Long.MAX_VALUE);
+        maxSizeByGroup[dimension] = newArray(deviceDimension.getGroupCount(), Long.MIN_VALUE);
+        for (int value = 0; value < deviceDimension.getValueCount(); value++) {
+          int group = deviceDimension.getGroup(value);
+          long size = sizeByDimensionValue[dimension][value];
+          minSizeByGroup[dimension][group] = Math.min(minSizeByGroup[dimension][group], size);
+          maxSizeByGroup[dimension][group] = Math.max(maxSizeByGroup[dimension][group], size);
+        }
+      }
+    }
+
+    // Min and max sizes for each combination of groups of the dimensions enumerated together,
+    // indexed like the combinations of groups of all the dimensions but with a single group for
+    // the other dimensions.
+    int[] jointValueCounts = new int[dimensionCount];
+    int[] jointGroupCounts = new int[dimensionCount];
+    for (int dimension = 0; dimension < dimensionCount; dimension++) {
+      jointValueCounts[dimension] =
+          isJointDimension[dimension] ? dimensions.get(dimension).getValueCount() : 1;
+      jointGroupCounts[dimension] =
+          isJointDimension[dimension] ? dimensions.get(dimension).getGroupCount() : 1;
+    }
+    long[] minJointSizes = newArray(getCombinationCount(jointGroupCounts), Long.MAX_VALUE);
+    long[] maxJointSizes = newArray(getCombinationCount(jointGroupCounts), Long.MIN_VALUE);
+    int[] values = new int[dimensionCount];
+    int[] groups = new int[dimensionCount];
+    do {
+      long size = 0;
+      for (int dimension = 0; dimension < dimensionCount; dimension++) {
+        if (isJointDimension[dimension]) {
+          size += sizeByDimensionValue[dimension][values[dimension]];
+          groups[dimension] = dimensions.get(dimension).getGroup(values[dimension]);
+        }
+      }
+      for (JointApk jointApk : jointApks) {
+        if (jointApk.matches(values)) {
+          size += jointApk.size;
+        }
+      }
+      int jointCombination = getCombinationIndex(groups, jointGroupCounts);
+      minJointSizes[jointCombination] = Math.min(minJointSizes[jointCombination], size);
+      maxJointSizes[jointCombination] = Math.max(maxJointSizes[jointCombination], size);
+    } while (nextCombination(values, jointValueCounts));
+
+    int[] groupCounts = dimensions.stream().mapToInt(DeviceDimension::getGroupCount).toArray();
+    int[] representativeValues = new int[dimensionCount];
+    Arrays.fill(groups, 0);
+    do {
+      int jointCombination = 0;
+      long minSize = constantSize;
+      long maxSize = constantSize;
+      for (int dimension = 0; dimension < dimensionCount; dimension++) {
+        if (isJointDimension[dimension]) {
+          jointCombination = jointCombination * jointGroupCounts[dimension] + groups[dimension];
+        } else {
+          minSize += minSizeByGroup[dimension][groups[dimension]];
+          maxSize += maxSizeByGroup[dimension][groups[dimension]];
+        }
+        representativeValues[dimension] =
+            dimensions.get(dimension).getRepresentativeValue(groups[dimension]);
+      }
+      minSize += minJointSizes[jointCombination];
+      maxSize += maxJointSizes[jointCombination];
+      sizeConsumer.accept(representativeValues.clone(), minSize, maxSize);
+    } while (nextCombination(groups, groupCounts));
+  }
+
+  private static int countMatches(boolean[] matches) {
+    int count = 0;
+    for (boolean match : matches) {
+      if (match) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static long[] newArray(int length, long initialValue) {
+    long[] array = new long[length];
+    Arrays.fill(array, initialValue);
+    return array;
+  }
+
+  private static int getCombinationCount(int[] counts) {
+    return Arrays.stream(counts).reduce(1, Math::multiplyExact);
+  }
+
+  /** Returns the index of the combination, the first dimension being the most significant. */
+  private static int getCombinationIndex(int[] indices, int[] counts) {
+    int index = 0;
+    for (int i = 0; i < indices.length; i++) {
+      index = index * counts[i] + indices[i];
+    }
+    return index;
+  }
+
+  /**
+   * Moves the indices to the next combination, and returns whether there was one; the indices are
+   * then back to the first combination.
+   */
+  private static boolean nextCombination(int[] indices, int[] counts) {
+    for (int i = indices.length - 1; i >= 0; i--) {
+      if (++indices[i] < counts[i]) {
+        return true;
+      }
+      indices[i] = 0;
+    }
+    return false;
+  }
+
+  /** Receives the min and max total sizes of a combination of groups. */
+  interface SizeConsumer {
+    /**
+     * @param valueIndexByDimension for each dimension, the index of a value of the group
+     * @param minSize the min total size for the devices of the combination of groups
+     * @param maxSize the max total size for the devices of the combination of groups
+     */
+    void accept(int[] valueIndexByDimension, long minSize, long maxSize);
+  }
+
+  /** A device dimension, with the values it takes. */
+  static final class DeviceDimension {
+
+    private final ImmutableList<ImmutableList<TargetingDimensionMatcher<?>>> matchersByValue;
+    private final int[] groupByValue;
+    private final int[] representativeValueByGroup;
+
+    private DeviceDimension(
+        ImmutableList<ImmutableList<TargetingDimensionMatcher<?>>> matchersByValue,
+        int[] groupByValue,
+        int[] representativeValueByGroup) {
+      this.matchersByValue = matchersByValue;
+      this.groupByValue = groupByValue;
+      this.representativeValueByGroup = representativeValueByGroup;
+    }
+
+    /**
+     * Creates a dimension.
+     *
+     * @param matchersByValue for each value, the matchers of the APKs served to a device with the
+     *     value
+     * @param groupKeyByValue for each value, a key which is equal for the values in the same group
+     */
+    static DeviceDimension create(
+        ImmutableList<ImmutableList<TargetingDimensionMatcher<?>>> matchersByValue,
+        ImmutableList<?> groupKeyByValue) {
+      checkArgument(!matchersByValue.isEmpty(), "A dimension must have at least one value.");
+      checkArgument(matchersByValue.size() == groupKeyByValue.size());
+
+      Map<Object, Integer> groupByKey = new HashMap<>();
+      int[] groupByValue = new int[groupKeyByValue.size()];
+      List<Integer> representativeValueByGroup = new ArrayList<>();
+      for (int value = 0; value < groupKeyByValue.size(); value++) {
+        Integer group = groupByKey.get(groupKeyByValue.get(value));
+        if (group == null) {
+          group = representativeValueByGroup.size();
+          groupByKey.put(groupKeyByValue.get(value), group);
+          representativeValueByGroup.add(value);
+        }
+        groupByValue[value] = group;
+      }
+      return new DeviceDimension(
+          matchersByValue,
+          groupByValue,
+          representativeValueByGroup.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    int getValueCount() {
+      return groupByValue.length;
+    }
+
+    int getGroupCount() {
+      return representativeValueByGroup.length;
+    }
+
+    int getGroup(int value) {
+      return groupByValue[value];
+    }
+
+    int getRepresentativeValue(int group) {
+      return representativeValueByGroup[group];
+    }
+
+    /** Returns, for each value, whether an APK with the given targeting is served. */
+    boolean[] matches(ApkTargeting apkTargeting) {
+      boolean[] matches = new boolean[matchersByValue.size()];
+      for (int value = 0; value < matches.length; value++) {
+        matches[value] =
+            matchersByValue.get(value).stream()
+                .allMatch(matcher -> matcher.getApkTargetingPredicate().test(apkTargeting));
+      }
+      return matches;
+    }
+
+    /**
+     * Checks that devices with any of the values are compatible with the given targeting.
+     *
+     * @throws com.android.tools.build.bundletool.model.exceptions.IncompatibleDeviceException
+     */
+    void checkDeviceCompatible(ApkTargeting apkTargeting) {
+      matchersByValue.forEach(
+          matchers -> matchers.forEach(matcher -> checkDeviceCompatible(matcher, apkTargeting)));
+    }
+
+    private static <T> void checkDeviceCompatible(
+        TargetingDimensionMatcher<T> matcher, ApkTargeting apkTargeting) {
+      matcher.checkDeviceCompatible(matcher.getTargetingValue(apkTargeting));
+    }
+  }
+
+  /** An APK targeted at several dimensions. */
+  private static final class JointApk {
+    private final long size;
+    private final int[] targetedDimensions;
+    private final boolean[][] matchesByDimension;
+
+    JointApk(long size, int[] targetedDimensions, boolean[][] matchesByDimension) {
+      this.size = size;
+      this.targetedDimensions = targetedDimensions;
+      this.matchesByDimension = matchesByDimension;
+    }
+
+    /** Returns whether the APK is served to a device with the given value of each dimension. */
+    boolean matches(int[] valueIndexByDimension) {
+      for (int dimension : targetedDimensions) {
+        if (!matchesByDimension[dimension][valueIndexByDimension[dimension]]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -22,6 +22,7 @@ import static com.google.common.collect.ImmutableList.toImmutableList;
 
 import com.android.bundle.Commands.ApkDescription;
 import com.android.bundle.Commands.Variant;
+import com.android.bundle.Devices.DeviceSpec;
 import com.android.bundle.Targeting.AbiTargeting;
 import com.android.bundle.Targeting.DeviceTierTargeting;
 import com.android.bundle.Targeting.LanguageTargeting;
@@ -30,7 +31,6 @@ import com.android.bundle.Targeting.SdkVersionTargeting;
 import com.android.bundle.Targeting.TextureCompressionFormatTargeting;
 import com.android.bundle.Targeting.VariantTargeting;
 import com.android.tools.build.bundletool.commands.GetSizeCommand;
-import com.android.tools.build.bundletool.device.ApkMatcher.GeneratedApk;
 import com.android.tools.build.bundletool.model.ConfigurationSizes;
 import com.android.tools.build.bundletool.model.GetSizeRequest;
 import com.android.tools.build.bundletool.model.SizeConfiguration;
@@ -69,26 +69,21 @@ public class VariantTotalSizeAggregator extends AbstractSizeAggregator {
   }
 
   @Override
-  protected ImmutableList<GeneratedApk> getMatchingApks(
-      SdkVersionTargeting sdkVersionTargeting,
-      AbiTargeting abiTargeting,
-      ScreenDensityTargeting screenDensityTargeting,
-      LanguageTargeting languageTargeting,
-      TextureCompressionFormatTargeting textureTargeting,
-      DeviceTierTargeting deviceTierTargeting) {
+  protected ImmutableList<ApkDescription> getApksOfMatchingModules(DeviceSpec deviceSpec) {
     return new ApkMatcher(
-            getDeviceSpec(
-                getSizeRequest.getDeviceSpec(),
-                sdkVersionTargeting,
-                abiTargeting,
-                screenDensityTargeting,
-                languageTargeting,
-                textureTargeting,
-                deviceTierTargeting),
+            deviceSpec,
             getSizeRequest.getModules(),
             getSizeRequest.getInstant(),
             /* ensureDensityAndAbiApksMatched= */ false)
-        .getMatchingApksFromVariant(variant, bundleVersion);
+        .getMatchingModulesFromVariant(variant, bundleVersion)
+        .stream()
+        .flatMap(apkSet -> apkSet.getApkDescriptionList().stream())
+        .collect(toImmutableList());
+  }
+
+  @Override
+  protected boolean isDeviceCompatibilityChecked() {
+    return true;
   }
 
   private ConfigurationSizes getSizeNonStandaloneVariant() {
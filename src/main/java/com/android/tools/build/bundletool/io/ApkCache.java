@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.io;
+
+import static com.android.tools.build.bundletool.model.utils.files.FileUtils.createDirectories;
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Comparator.comparingLong;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of serialized APKs, keyed by a hash of everything the content of the APK depends
+ * on.
+ *
+ * <p>When the total size of the cached APKs exceeds the maximum size, the least recently used APKs
+ * are evicted. The cached APKs are indexed in memory, in order of last use, when the cache is
+ * created; the last modification time of a cached APK is used as its last use time across runs.
+ *
+ * <p>The cache is best effort: failures to read from or write to the cache are logged and treated
+ * as cache misses, and cached APKs whose size doesn't match the index are considered corrupt and
+ * deleted. The class is thread-safe, and several processes may share the same directory: APKs
+ * cached by other processes are accounted for once read.
+ */
+final class ApkCache {
+
+  private static final Logger logger = Logger.getLogger(ApkCache.class.getName());
+
+  private static final String CACHED_APK_EXTENSION = ".apk";
+  private static final String TEMP_FILE_PREFIX = "tmp-";
+
+  private final Path directory;
+  private final long maxSizeBytes;
+
+  /** Sizes of the cached APKs, from least to most recently used. Guarded by {@code this}. */
+  private final LinkedHashMap<HashCode, Long> cachedApkSizes =
+      new LinkedHashMap<>(
+          /* initialCapacity= */ 16, /* loadFactor= */ 0.75f, /* accessOrder= */ true);
+
+  /** Sum of {@link #cachedApkSizes}. Guarded by {@code this}. */
+  private long totalSizeBytes = 0;
+
+  ApkCache(Path directory, long maxSizeBytes) {
+    checkArgument(maxSizeBytes > 0, "The maximum size of the APK cache must be positive.");
+    createDirectories(directory);
+    this.directory = directory;
+    this.maxSizeBytes = maxSizeBytes;
+    loadIndex();
+  }
+
+  /**
+   * Copies the APK cached for the given key to the given path.
+   *
+   * @return whether an APK was cached for this key
+   */
+  boolean copyTo(HashCode key, Path destination) {
+    Path cachedApk = getCachedApkPath(key);
+    try {
+      Files.copy(cachedApk, destination);
+    } catch (NoSuchFileException e) {
+      // Not cached, or evicted concurrently.
+      synchronized (this) {
+        removeFromIndex(key);
+      }
+      return false;
+    } catch (IOException e) {
+      logger.warning(String.format("Failed to read APK '%s' from cache: %s", cachedApk, e));
+      deleteDestination(destination);
+      evict(key);
+      return false;
+    }
+
+    long size = getSize(destination);
+    synchronized (this) {
+      Long indexedSize = cachedApkSizes.get(key);
+      if (indexedSize == null) {
+        // Cached by another process.
+        addToIndex(key, size);
+      } else if (indexedSize != size) {
+        logger.warning(String.format("Deleting corrupt APK '%s' from cache.", cachedApk));
+        deleteDestination(destination);
+        evict(key);
+        return false;
+      }
+    }
+    try {
+      Files.setLastModifiedTime(cachedApk, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      // Only the order of eviction in later runs is affected.
+    }
+    return true;
+  }
+
+  /** Adds a copy of the given APK to the cache, then evicts APKs if the cache is too large. */
+  void put(HashCode key, Path apk) {
+    Path cachedApk = getCachedApkPath(key);
+    try {
+      // Copy to a temporary file first, so that other users of the cache never see partial APKs.
+      Path tempFile = Files.createTempFile(directory, TEMP_FILE_PREFIX, CACHED_APK_EXTENSION);
+      try {
+        Files.copy(apk, tempFile, REPLACE_EXISTING);
+        long size = Files.size(tempFile);
+        synchronized (this) {
+          Files.move(tempFile, cachedApk, ATOMIC_MOVE, REPLACE_EXISTING);
+          addToIndex(key, size);
+          evictIfNeeded();
+        }
+      } finally {
+        Files.deleteIfExists(tempFile);
+      }
+    } catch (IOException e) {
+      logger.warning(String.format("Failed to add APK '%s' to cache: %s", apk, e));
+    }
+  }
+
+  /** Returns the total size of the cached APKs, as indexed in memory. */
+  @VisibleForTesting
+  synchronized long getTotalSizeBytes() {
+    return totalSizeBytes;
+  }
+
+  private void loadIndex() {
+    ImmutableList<Path> cachedApks;
+    try (Stream<Path> files = Files.list(directory)) {
+      cachedApks =
+          files
+              .filter(path -> parseKey(path).isPresent())
+              .sorted(comparingLong(ApkCache::getLastModifiedMillis))
+              .collect(ImmutableList.toImmutableList());
+    } catch (IOException | UncheckedIOException e) {
+      logger.warning(String.format("Failed to list APK cache '%s': %s", directory, e));
+      return;
+    }
+    synchronized (this) {
+      cachedApks.forEach(cachedApk -> addToIndex(parseKey(cachedApk).get(), getSize(cachedApk)));
+      evictIfNeeded();
+    }
+  }
+
+  private void evictIfNeeded() {
+    Iterator<Map.Entry<HashCode, Long>> leastRecentlyUsed = cachedApkSizes.entrySet().iterator();
+    while (totalSizeBytes > maxSizeBytes && leastRecentlyUsed.hasNext()) {
+      Map.Entry<HashCode, Long> entry = leastRecentlyUsed.next();
+      Path cachedApk = getCachedApkPath(entry.getKey());
+      try {
+        Files.deleteIfExists(cachedApk);
+      } catch (IOException e) {
+        logger.warning(String.format("Failed to evict '%s' from APK cache: %s", cachedApk, e));
+        continue;
+      }
+      totalSizeBytes -= entry.getValue();
+      leastRecentlyUsed.remove();
+    }
+  }
+
+  private synchronized void evict(HashCode key) {
+    Path cachedApk = getCachedApkPath(key);
+    try {
+      Files.deleteIfExists(cachedApk);
+      removeFromIndex(key);
+    } catch (IOException e) {
+      logger.warning(String.format("Failed to evict '%s' from APK cache: %s", cachedApk, e));
+    }
+  }
+
+  private void addToIndex(HashCode key, long size) {
+    Long previousSize = cachedApkSizes.put(key, size);
+    totalSizeBytes += size - (previousSize == null ? 0 : previousSize);
+  }
+
+  private void removeFromIndex(HashCode key) {
+    Long size = cachedApkSizes.remove(key);
+    if (size != null) {
+      totalSizeBytes -= size;
+    }
+  }
+
+  private Path getCachedApkPath(HashCode key) {
+    return directory.resolve(key + CACHED_APK_EXTENSION);
+  }
+
+  private static Optional<HashCode> parseKey(Path path) {
+    String fileName = path.getFileName().toString();
+    if (!fileName.endsWith(CACHED_APK_EXTENSION) || fileName.startsWith(TEMP_FILE_PREFIX)) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(
+          HashCode.fromString(
+              fileName.substring(0, fileName.length() - CACHED_APK_EXTENSION.length())));
+    } catch (IllegalArgumentException e) {
+      return Optional.empty();
+    }
+  }
+
+  private static void deleteDestination(Path destination) {
+    try {
+      Files.deleteIfExists(destination);
+    } catch (IOException ignored) {
+      // The caller will fail to write the APK at this path.
+    }
+  }
+
+  private static long getLastModifiedMillis(Path path) {
+    try {
+      return Files.getLastModifiedTime(path).toMillis();
+    } catch (IOException e) {
+      // Evicted concurrently: sort it first.
+      return 0;
+    }
+  }
+
+  private static long getSize(Path path) {
+    try {
+      return Files.size(path);
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+}
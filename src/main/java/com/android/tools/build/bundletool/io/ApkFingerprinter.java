@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.io;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.android.tools.build.bundletool.model.ModuleEntry;
+import com.android.tools.build.bundletool.model.ModuleSplit;
+import com.android.tools.build.bundletool.model.SigningConfiguration;
+import com.android.zipflinger.Entry;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Optional;
+
+/**
+ * Computes fingerprints of the APKs to be serialized from {@link ModuleSplit}s.
+ *
+ * <p>The fingerprint of an APK is a hash of the {@link ModuleSplit} (entries and their content
+ * digests, manifest, resource table, targeting) and of a fingerprint of the configuration of the
+ * serialization (bundletool version, bundle config, signing certificates, etc.): two splits with
+ * the same fingerprint are serialized to the same APK.
+ *
+ * <p>When the serialized APKs reuse the compressed payloads of the App Bundle, the fingerprint of
+ * an entry coming from the bundle also covers its compression method, compressed size and CRC,
+ * since the same content may be compressed differently in two bundles.
+ *
+ * <p>Fingerprints are computed once per {@link ModuleSplit} instance.
+ */
+final class ApkFingerprinter {
+
+  /** To be incremented whenever the computation of the fingerprints changes. */
+  private static final int FINGERPRINT_VERSION = 2;
+
+  private final HashCode configurationFingerprint;
+
+  /** The App Bundle, if the serialized APKs reuse the compressed payloads of its entries. */
+  private final Optional<ZipReader> bundleWithReusedPayloads;
+
+  private final LoadingCache<ModuleSplit, HashCode> fingerprints =
+      CacheBuilder.newBuilder()
+          // Splits are compared by identity, and not retained once serialized.
+          .weakKeys()
+          .build(CacheLoader.from(this::computeFingerprint));
+
+  ApkFingerprinter(
+      HashCode configurationFingerprint, Optional<ZipReader> bundleWithReusedPayloads) {
+    this.configurationFingerprint = configurationFingerprint;
+    this.bundleWithReusedPayloads = bundleWithReusedPayloads;
+  }
+
+  /** Returns the fingerprint of the APK serialized from the given split. */
+  HashCode fingerprint(ModuleSplit split) {
+    return fingerprints.getUnchecked(split);
+  }
+
+  private HashCode computeFingerprint(ModuleSplit split) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putInt(FINGERPRINT_VERSION);
+    hasher.putBytes(configurationFingerprint.asBytes());
+
+    putString(hasher, split.getModuleName().getName());
+    putString(hasher, split.getSplitType().name());
+    hasher.putBoolean(split.isMasterSplit());
+    putProto(hasher, split.getApkTargeting());
+    putProto(hasher, split.getVariantTargeting());
+    putProto(hasher, split.getAndroidManifest().getManifestRoot().getProto());
+    putOptionalProto(hasher, split.getResourceTable());
+    putOptionalProto(hasher, split.getNativeConfig());
+    putOptionalProto(hasher, split.getAssetsConfig());
+    putOptionalProto(hasher, split.getApexConfig());
+    hasher.putInt(split.getApexEmbeddedApkConfigs().size());
+    split.getApexEmbeddedApkConfigs().forEach(config -> putProto(hasher, config));
+
+    hasher.putInt(split.getEntries().size());
+    for (ModuleEntry entry : split.getEntries()) {
+      putString(hasher, entry.getPath().toString());
+      hasher.putBoolean(entry.getForceUncompressed());
+      hasher.putBoolean(entry.getShouldSign());
+      hasher.putBytes(entry.getContentDigest().asBytes());
+      putBundlePayload(hasher, entry);
+    }
+    return hasher.hash();
+  }
+
+  private void putBundlePayload(Hasher hasher, ModuleEntry entry) {
+    Optional<Entry> bundleEntry =
+        bundleWithReusedPayloads.flatMap(
+            bundle -> entry.getBundlePath().flatMap(path -> bundle.getEntry(path.toString())));
+    hasher.putBoolean(bundleEntry.isPresent());
+    bundleEntry.ifPresent(
+        payload ->
+            hasher
+                .putBoolean(payload.isCompressed())
+                .putLong(payload.getCompressedSize())
+                .putInt(payload.getCrc()));
+  }
+
+  /**
+   * Computes a fingerprint of everything besides the {@link ModuleSplit} the serialized APKs
+   * depend on.
+   *
+   * @param serializerConfiguration protos configuring the serialization, e.g. the bundle config
+   * @param serializerOptions other options of the serialization, e.g. the bundletool version
+   */
+  static HashCode fingerprintConfiguration(
+      Iterable<? extends MessageLite> serializerConfiguration,
+      Iterable<String> serializerOptions,
+      Optional<SigningConfiguration> signingConfiguration,
+      Optional<SigningConfiguration> stampSigningConfiguration) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    serializerConfiguration.forEach(proto -> putProto(hasher, proto));
+    serializerOptions.forEach(option -> putString(hasher, option));
+    putSigningConfiguration(hasher, signingConfiguration);
+    putSigningConfiguration(hasher, stampSigningConfiguration);
+    return hasher.hash();
+  }
+
+  private static void putSigningConfiguration(
+      Hasher hasher, Optional<SigningConfiguration> signingConfiguration) {
+    hasher.putBoolean(signingConfiguration.isPresent());
+    if (!signingConfiguration.isPresent()) {
+      return;
+    }
+    // The certificates identify the signing keys.
+    hasher.putBoolean(signingConfiguration.get().getRestrictV3SigningToRPlus());
+    for (X509Certificate certificate :
+        signingConfiguration.get().getSignerConfig().getCertificates()) {
+      try {
+        byte[] encoded = certificate.getEncoded();
+        hasher.putInt(encoded.length).putBytes(encoded);
+      } catch (CertificateEncodingException e) {
+        throw new IllegalStateException("Unable to encode signing certificate.", e);
+      }
+    }
+  }
+
+  private static void putOptionalProto(Hasher hasher, Optional<? extends MessageLite> proto) {
+    hasher.putBoolean(proto.isPresent());
+    proto.ifPresent(message -> putProto(hasher, message));
+  }
+
+  private static void putProto(Hasher hasher, MessageLite proto) {
+    byte[] bytes = new byte[proto.getSerializedSize()];
+    CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+    // Map fields would otherwise be serialized in an unspecified order.
+    output.useDeterministicSerialization();
+    try {
+      proto.writeTo(output);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    output.checkNoSpaceLeft();
+    hasher.putInt(bytes.length).putBytes(bytes);
+  }
+
+  private static void putString(Hasher hasher, String value) {
+    hasher.putInt(value.length()).putString(value, UTF_8);
+  }
+}
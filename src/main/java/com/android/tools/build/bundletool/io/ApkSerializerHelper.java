@@ -30,6 +30,7 @@ import com.android.tools.build.bundletool.model.ModuleSplit;
 import com.android.tools.build.bundletool.model.ZipPath;
 import com.google.common.collect.ImmutableSet;
 import java.nio.file.Path;
+import java.util.Optional;
 
 /** Serializes APKs to Proto or Binary format. */
 public abstract class ApkSerializerHelper {
@@ -42,6 +43,14 @@ public abstract class ApkSerializerHelper {
 
   public abstract Path writeToZipFile(ModuleSplit split, Path outputPath);
 
+  /**
+   * Returns the fingerprint of the APK serialized from the given split, to be recorded in the
+   * table of contents of the APK Set, or empty if fingerprints are not recorded.
+   */
+  public Optional<String> getFingerprint(ModuleSplit split) {
+    return Optional.empty();
+  }
+
   /**
    * Transforms the entry path in the module to the final path in the module split.
    *
@@ -16,6 +16,7 @@
 package com.android.tools.build.bundletool.io;
 
 import static com.android.tools.build.bundletool.commands.BuildApksCommand.ApkBuildMode.SYSTEM;
+import static com.android.tools.build.bundletool.io.ConcurrencyUtils.waitFor;
 import static com.android.tools.build.bundletool.io.ConcurrencyUtils.waitForAll;
 import static com.android.tools.build.bundletool.model.utils.CollectorUtils.groupingByDeterministic;
 import static com.android.tools.build.bundletool.model.utils.CollectorUtils.groupingBySortedKeys;
@@ -23,6 +24,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Predicates.alwaysTrue;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableMap.toImmutableMap;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static java.util.function.Function.identity;
 import static java.util.stream.Collectors.collectingAndThen;
 import static java.util.stream.Collectors.mapping;
@@ -63,6 +65,9 @@ import com.android.tools.build.bundletool.model.ManifestDeliveryElement;
 import com.android.tools.build.bundletool.model.ModuleSplit;
 import com.android.tools.build.bundletool.model.ModuleSplit.SplitType;
 import com.android.tools.build.bundletool.model.OptimizationDimension;
+import com.android.tools.build.bundletool.model.PhaseTracer;
+import com.android.tools.build.bundletool.model.PhaseTracer.Phase;
+import com.android.tools.build.bundletool.model.PhaseTracer.Span;
 import com.android.tools.build.bundletool.model.VariantKey;
 import com.android.tools.build.bundletool.model.ZipPath;
 import com.android.tools.build.bundletool.model.version.BundleToolVersion;
@@ -72,6 +77,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
@@ -80,6 +87,7 @@ import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
+import java.util.stream.IntStream;
 import javax.inject.Inject;
 
 /** Creates parts of table of contents and writes out APKs. */
@@ -97,6 +105,7 @@ public class ApkSerializerManager {
 
   private final ApkPathManager apkPathManager;
   private final ApkOptimizations apkOptimizations;
+  private final PhaseTracer phaseTracer;
 
   @Inject
   public ApkSerializerManager(
@@ -107,7 +116,8 @@ public class ApkSerializerManager {
       @FirstVariantNumber Optional<Integer> firstVariantNumber,
       @VerboseLogs boolean verbose,
       ApkPathManager apkPathManager,
-      ApkOptimizations apkOptimizations) {
+      ApkOptimizations apkOptimizations,
+      PhaseTracer phaseTracer) {
     this.appBundle = appBundle;
     this.apkListener = apkListener.orElse(ApkListener.NO_OP);
     this.apkModifier = apkModifier.orElse(ApkModifier.NO_OP);
@@ -116,6 +126,7 @@ public class ApkSerializerManager {
     this.verbose = verbose;
     this.apkPathManager = apkPathManager;
     this.apkOptimizations = apkOptimizations;
+    this.phaseTracer = phaseTracer;
   }
 
   public void populateApkSetBuilder(
@@ -129,6 +140,33 @@ public class ApkSerializerManager {
         serializeApks(apkSetBuilder, generatedApks, apkBuildMode, deviceSpec);
     ImmutableList<AssetSliceSet> allAssetSliceSets =
         serializeAssetSlices(apkSetBuilder, generatedAssetSlices, apkBuildMode, deviceSpec);
+    populateApkSetBuilder(
+        apkSetBuilder, allVariantsWithTargeting, allAssetSliceSets, localTestingInfo);
+  }
+
+  /**
+   * Same as {@link #populateApkSetBuilder(ApkSetBuilder, GeneratedApks, GeneratedAssetSlices,
+   * ApkBuildMode, Optional, LocalTestingInfo)} for asset slices whose serialization was already
+   * started with {@link #serializeAssetSlicesAsync}.
+   */
+  public void populateApkSetBuilder(
+      ApkSetBuilder apkSetBuilder,
+      GeneratedApks generatedApks,
+      ListenableFuture<ImmutableList<AssetSliceSet>> assetSliceSets,
+      ApkBuildMode apkBuildMode,
+      Optional<DeviceSpec> deviceSpec,
+      LocalTestingInfo localTestingInfo) {
+    ImmutableList<Variant> allVariantsWithTargeting =
+        serializeApks(apkSetBuilder, generatedApks, apkBuildMode, deviceSpec);
+    populateApkSetBuilder(
+        apkSetBuilder, allVariantsWithTargeting, waitFor(assetSliceSets), localTestingInfo);
+  }
+
+  private void populateApkSetBuilder(
+      ApkSetBuilder apkSetBuilder,
+      ImmutableList<Variant> allVariantsWithTargeting,
+      ImmutableList<AssetSliceSet> allAssetSliceSets,
+      LocalTestingInfo localTestingInfo) {
     // Finalize the output archive.
     BuildApksResult.Builder apksResult =
         BuildApksResult.newBuilder()
@@ -212,18 +250,22 @@ public class ApkSerializerManager {
 
     // After variant targeting of APKs are cleared, there might be duplicate APKs
     // which are removed and the distinct APKs are then serialized in parallel.
-    ImmutableMap<ModuleSplit, ApkDescription> apkDescriptionBySplit =
+    ImmutableMap<ModuleSplit, ZipPath> apkPathBySplit =
         finalSplitsByVariant.values().stream()
             .distinct()
+            .collect(toImmutableMap(identity(), apkPathManager::getApkPath));
+    apkSetBuilder.declareApks(apkPathBySplit.values().asList());
+    ImmutableMap<ModuleSplit, ApkDescription> apkDescriptionBySplit =
+        apkPathBySplit.entrySet().stream()
             .collect(
                 collectingAndThen(
                     toImmutableMap(
-                        identity(),
-                        (ModuleSplit split) -> {
-                          ZipPath apkPath = apkPathManager.getApkPath(split);
-                          return executorService.submit(
-                              () -> apkSerializer.serialize(apkSetBuilder, split, apkPath));
-                        }),
+                        Entry::getKey,
+                        entry ->
+                            executorService.submit(
+                                () ->
+                                    apkSerializer.serialize(
+                                        apkSetBuilder, entry.getKey(), entry.getValue()))),
                     ConcurrencyUtils::waitForAll));
 
     // Build the result proto.
@@ -259,6 +301,22 @@ public class ApkSerializerManager {
       GeneratedAssetSlices generatedAssetSlices,
       ApkBuildMode apkBuildMode,
       Optional<DeviceSpec> deviceSpec) {
+    return waitFor(
+        serializeAssetSlicesAsync(apkSetBuilder, generatedAssetSlices, apkBuildMode, deviceSpec));
+  }
+
+  /**
+   * Starts the serialization of the asset slices without waiting for it to complete.
+   *
+   * <p>Asset slices don't depend on the generated APKs, so they can be serialized while the APKs
+   * are still being generated. The returned future is only done once all the asset slices are,
+   * and fails if any of them failed.
+   */
+  public ListenableFuture<ImmutableList<AssetSliceSet>> serializeAssetSlicesAsync(
+      ApkSetBuilder apkSetBuilder,
+      GeneratedAssetSlices generatedAssetSlices,
+      ApkBuildMode apkBuildMode,
+      Optional<DeviceSpec> deviceSpec) {
 
     Predicate<ModuleSplit> deviceFilter =
         deviceSpec.isPresent()
@@ -268,33 +326,50 @@ public class ApkSerializerManager {
 
     ApkSerializer apkSerializer = new ApkSerializer(apkListener, apkBuildMode);
 
-    ImmutableListMultimap<BundleModuleName, ApkDescription> generatedSlicesByModule =
+    ImmutableList<ModuleSplit> assetSlices =
         generatedAssetSlices.getAssetSlices().stream()
             .filter(deviceFilter)
-            .collect(
-                groupingByDeterministic(
-                    ModuleSplit::getModuleName,
-                    mapping(
-                        assetSlice -> {
-                          ZipPath apkPath = apkPathManager.getApkPath(assetSlice);
-                          return executorService.submit(
-                              () -> apkSerializer.serialize(apkSetBuilder, assetSlice, apkPath));
-                        },
-                        toImmutableList())))
-            .entrySet()
-            .stream()
-            .collect(
-                ImmutableListMultimap.flatteningToImmutableListMultimap(
-                    Entry::getKey, entry -> waitForAll(entry.getValue()).stream()));
-    return generatedSlicesByModule.asMap().entrySet().stream()
-        .map(
-            entry ->
-                AssetSliceSet.newBuilder()
-                    .setAssetModuleMetadata(
-                        getAssetModuleMetadata(appBundle.getModule(entry.getKey())))
-                    .addAllApkDescription(entry.getValue())
-                    .build())
-        .collect(toImmutableList());
+            .collect(toImmutableList());
+    ImmutableList<ZipPath> apkPaths =
+        assetSlices.stream().map(apkPathManager::getApkPath).collect(toImmutableList());
+    apkSetBuilder.declareApks(apkPaths);
+
+    ImmutableListMultimap<BundleModuleName, ListenableFuture<ApkDescription>>
+        generatedSlicesByModule =
+            IntStream.range(0, assetSlices.size())
+                .boxed()
+                .collect(
+                    groupingByDeterministic(
+                        index -> assetSlices.get(index).getModuleName(),
+                        mapping(
+                            index ->
+                                executorService.submit(
+                                    () ->
+                                        apkSerializer.serialize(
+                                            apkSetBuilder,
+                                            assetSlices.get(index),
+                                            apkPaths.get(index))),
+                            toImmutableList())))
+                .entrySet()
+                .stream()
+                .collect(
+                    ImmutableListMultimap.flatteningToImmutableListMultimap(
+                        Entry::getKey, entry -> entry.getValue().stream()));
+    // Unlike Futures.allAsList, only completes once every slice is done, even if some failed, so
+    // that no slice is still being written to the APK Set builder when the build fails.
+    return Futures.whenAllComplete(generatedSlicesByModule.values())
+        .call(
+            () ->
+                generatedSlicesByModule.asMap().entrySet().stream()
+                    .map(
+                        entry ->
+                            AssetSliceSet.newBuilder()
+                                .setAssetModuleMetadata(
+                                    getAssetModuleMetadata(appBundle.getModule(entry.getKey())))
+                                .addAllApkDescription(waitForAll(entry.getValue()))
+                                .build())
+                    .collect(toImmutableList()),
+            directExecutor());
   }
 
   private AssetModuleMetadata getAssetModuleMetadata(BundleModule module) {
@@ -453,31 +528,8 @@ public class ApkSerializerManager {
     public ApkDescription serialize(
         ApkSetBuilder apkSetBuilder, ModuleSplit split, ZipPath apkPath) {
       ApkDescription apkDescription;
-      switch (split.getSplitType()) {
-        case INSTANT:
-          apkDescription = apkSetBuilder.addInstantApk(split, apkPath);
-          break;
-        case SPLIT:
-          apkDescription = apkSetBuilder.addSplitApk(split, apkPath);
-          break;
-        case SYSTEM:
-          if (split.isBaseModuleSplit() && split.isMasterSplit()) {
-            apkDescription = apkSetBuilder.addSystemApk(split, apkPath);
-          } else {
-            apkDescription = apkSetBuilder.addSplitApk(split, apkPath);
-          }
-          break;
-        case STANDALONE:
-          apkDescription =
-              apkBuildMode.equals(ApkBuildMode.UNIVERSAL)
-                  ? apkSetBuilder.addStandaloneUniversalApk(split)
-                  : apkSetBuilder.addStandaloneApk(split, apkPath);
-          break;
-        case ASSET_SLICE:
-          apkDescription = apkSetBuilder.addAssetSliceApk(split, apkPath);
-          break;
-        default:
-          throw new IllegalStateException("Unexpected splitType: " + split.getSplitType());
+      try (Span span = phaseTracer.startPhase(Phase.WRITE_APK, apkPath.toString())) {
+        apkDescription = addApk(apkSetBuilder, split, apkPath);
       }
 
       apkListener.onApkFinalized(apkDescription);
@@ -492,5 +544,28 @@ public class ApkSerializerManager {
 
       return apkDescription;
     }
+
+    private ApkDescription addApk(ApkSetBuilder apkSetBuilder, ModuleSplit split, ZipPath apkPath) {
+      switch (split.getSplitType()) {
+        case INSTANT:
+          return apkSetBuilder.addInstantApk(split, apkPath);
+        case SPLIT:
+          return apkSetBuilder.addSplitApk(split, apkPath);
+        case SYSTEM:
+          if (split.isBaseModuleSplit() && split.isMasterSplit()) {
+            return apkSetBuilder.addSystemApk(split, apkPath);
+          } else {
+            return apkSetBuilder.addSplitApk(split, apkPath);
+          }
+        case STANDALONE:
+          return apkBuildMode.equals(ApkBuildMode.UNIVERSAL)
+              ? apkSetBuilder.addStandaloneUniversalApk(split)
+              : apkSetBuilder.addStandaloneApk(split, apkPath);
+        case ASSET_SLICE:
+          return apkSetBuilder.addAssetSliceApk(split, apkPath);
+        default:
+          throw new IllegalStateException("Unexpected splitType: " + split.getSplitType());
+      }
+    }
   }
 }
@@ -15,23 +15,117 @@
  */
 package com.android.tools.build.bundletool.io;
 
+import com.android.bundle.Config.BundleConfig;
 import com.android.tools.build.bundletool.commands.BuildApksCommand;
+import com.android.tools.build.bundletool.commands.BuildApksManagerComponent.UseBundleCompression;
+import com.android.tools.build.bundletool.commands.BuildApksModule.ApkSigningConfig;
+import com.android.tools.build.bundletool.commands.BuildApksModule.StampSigningConfig;
+import com.android.tools.build.bundletool.commands.CommandScoped;
+import com.android.tools.build.bundletool.model.SigningConfiguration;
+import com.android.tools.build.bundletool.model.version.Version;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
 import dagger.Module;
 import dagger.Provides;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.logging.Logger;
 import javax.inject.Provider;
 
 /** Dagger module responsible for choosing the {@link ApkSerializerHelper}. */
 @Module
 public final class ApkSerializerModule {
 
+  private static final Logger logger = Logger.getLogger(ApkSerializerModule.class.getName());
+
+  @CommandScoped
   @Provides
   static ApkSerializerHelper provideApkSerializerHelper(
       BuildApksCommand command,
       Provider<ZipFlingerApkSerializerHelper> zipFlingerApkSerializerHelper,
-      Provider<ApkzlibApkSerializerHelper> apkzlibApkSerializerHelper) {
-    return command.getEnableNewApkSerializer()
-        ? zipFlingerApkSerializerHelper.get()
-        : apkzlibApkSerializerHelper.get();
+      Provider<ApkzlibApkSerializerHelper> apkzlibApkSerializerHelper,
+      BundleConfig bundleConfig,
+      Version bundletoolVersion,
+      @ApkSigningConfig Optional<SigningConfiguration> signingConfig,
+      @StampSigningConfig Optional<SigningConfiguration> stampSigningConfig,
+      @UseBundleCompression boolean useBundleCompression,
+      ZipReader bundleZipReader) {
+    ApkSerializerHelper apkSerializerHelper =
+        command.getEnableNewApkSerializer()
+            ? zipFlingerApkSerializerHelper.get()
+            : apkzlibApkSerializerHelper.get();
+    boolean recordFingerprints =
+        command.getIncrementalFrom().isPresent() || command.getRecordApkFingerprints();
+    if (!recordFingerprints && !command.getApkCacheDirectory().isPresent()) {
+      // Fingerprinting hashes the content of every APK, so it's skipped when unused.
+      return apkSerializerHelper;
+    }
+    if (command.getAapt2Command().isPresent() && !command.getAapt2ExecutablePath().isPresent()) {
+      // The APKs can't be fingerprinted, so they are never recorded nor reused.
+      logger.warning(
+          "APK cache, incremental build and APK fingerprints disabled: the aapt2 binary of the"
+              + " custom aapt2 command is unknown.");
+      return apkSerializerHelper;
+    }
+
+    ApkFingerprinter fingerprinter =
+        new ApkFingerprinter(
+            ApkFingerprinter.fingerprintConfiguration(
+                ImmutableList.of(bundleConfig),
+                ImmutableList.of(
+                    bundletoolVersion.toString(),
+                    command.getEnableNewApkSerializer() ? "zipflinger" : "apkzlib",
+                    Boolean.toString(useBundleCompression),
+                    Boolean.toString(ZipEntrySource.PARALLEL_COMPRESSION),
+                    command.getResourceConversionMode().name(),
+                    command.getAapt2ExecutablePath().map(ApkSerializerModule::hashFile).orElse("")),
+                signingConfig,
+                stampSigningConfig),
+            // Only the zipflinger serializer copies the compressed payloads of the bundle.
+            command.getEnableNewApkSerializer() && useBundleCompression
+                ? Optional.of(bundleZipReader)
+                : Optional.empty());
+    if (command.getApkCacheDirectory().isPresent()) {
+      apkSerializerHelper =
+          new CachingApkSerializerHelper(
+              apkSerializerHelper,
+              new ApkCache(command.getApkCacheDirectory().get(), command.getApkCacheMaxSizeBytes()),
+              fingerprinter);
+    }
+    if (command.getIncrementalFrom().isPresent()) {
+      apkSerializerHelper =
+          IncrementalApkSerializerHelper.create(
+              apkSerializerHelper, fingerprinter, command.getIncrementalFrom().get());
+    }
+    if (recordFingerprints) {
+      apkSerializerHelper =
+          new FingerprintingApkSerializerHelper(apkSerializerHelper, fingerprinter);
+    }
+    return apkSerializerHelper;
+  }
+
+  @CommandScoped
+  @Provides
+  static CompressedPayloadCache provideCompressedPayloadCache(
+      ZipReader bundleZipReader, TempDirectory tempDirectory) {
+    return CompressedPayloadCache.create(bundleZipReader, tempDirectory);
+  }
+
+  @CommandScoped
+  @Provides
+  static SignedEmbeddedApkCache provideSignedEmbeddedApkCache() {
+    return new SignedEmbeddedApkCache();
+  }
+
+  private static String hashFile(Path path) {
+    try {
+      return MoreFiles.asByteSource(path).hash(Hashing.sha256()).toString();
+    } catch (IOException e) {
+      throw new UncheckedIOException(String.format("Failed to read '%s'.", path), e);
+    }
   }
 
   private ApkSerializerModule() {}
@@ -16,15 +16,21 @@
 
 package com.android.tools.build.bundletool.io;
 
+import static com.android.tools.build.bundletool.model.CompressionLevel.DEFAULT_COMPRESSION;
 import static com.android.tools.build.bundletool.model.utils.FileNames.TABLE_OF_CONTENTS_FILE;
 import static com.android.tools.build.bundletool.model.utils.files.FilePreconditions.checkFileExistsAndReadable;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 
 import com.android.bundle.Commands.ApkDescription;
 import com.android.bundle.Commands.BuildApksResult;
-import com.android.tools.build.bundletool.io.ZipBuilder.EntryOption;
 import com.android.tools.build.bundletool.model.ModuleSplit;
 import com.android.tools.build.bundletool.model.ZipPath;
+import com.android.zipflinger.BytesSource;
+import com.android.zipflinger.ZipArchive;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.errorprone.annotations.concurrent.GuardedBy;
 import com.google.protobuf.Message;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -32,15 +38,25 @@ import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
 
 /** Factory for {@link ApkSetBuilder}. */
 public final class ApkSetBuilderFactory {
 
   /** Handles adding of {@link ModuleSplit} to the APK Set archive. */
-  public interface ApkSetBuilder {
+  public interface ApkSetBuilder extends AutoCloseable {
+    /**
+     * Declares the APKs about to be added, by their path in the APK Set.
+     *
+     * <p>Builders writing each APK as soon as it is added use the order of the declarations, then
+     * the order of the paths, to make the APK Set deterministic.
+     */
+    void declareApks(ImmutableList<ZipPath> apkPaths);
+
     /** Adds a split APK to the APK Set archive. */
     ApkDescription addSplitApk(ModuleSplit split, ZipPath apkPath);
 
@@ -64,6 +80,10 @@ public final class ApkSetBuilderFactory {
 
     /** Writes out the APK Set archive to the specified destination. */
     void writeTo(Path destinationPath);
+
+    /** Releases the resources held by the builder, e.g. a partially written APK Set archive. */
+    @Override
+    void close();
   }
 
   public static ApkSetBuilder createApkSetBuilder(
@@ -73,6 +93,21 @@ public final class ApkSetBuilderFactory {
     return new ApkSetArchiveBuilder(splitApkSerializer, standaloneApkSerializer, tempDir);
   }
 
+  /**
+   * Same as {@link #createApkSetBuilder(SplitApkSerializer, StandaloneApkSerializer, Path)} but
+   * adds each APK to the archive as soon as it and the APKs declared before it are serialized.
+   */
+  public static ApkSetBuilder createPipelinedApkSetBuilder(
+      SplitApkSerializer splitApkSerializer,
+      StandaloneApkSerializer standaloneApkSerializer,
+      Path tempDir) {
+    return new ApkSetArchiveBuilder(
+        splitApkSerializer,
+        standaloneApkSerializer,
+        tempDir,
+        /* appendApksWhenSerialized= */ true);
+  }
+
   public static ApkSetBuilder createApkSetWithoutArchiveBuilder(
       SplitApkSerializer splitApkSerializer,
       StandaloneApkSerializer standaloneApkSerializer,
@@ -80,11 +115,54 @@ public final class ApkSetBuilderFactory {
     return new ApkSetWithoutArchiveBuilder(splitApkSerializer, standaloneApkSerializer, outputDir);
   }
 
-  /** ApkSet builder that stores the generated APKs in the Apk Set archive. */
+  /**
+   * ApkSet builder that stores the generated APKs in the Apk Set archive.
+   *
+   * <p>APKs are stored uncompressed and their bytes are transferred from the serialized APK files
+   * to the archive without being loaded in memory. The CRC of each APK is computed by the thread
+   * which serialized it.
+   *
+   * <p>By default, the APKs are added to the archive when {@link #writeTo(Path)} is called, in
+   * sorted order to make the archive deterministic. When {@code appendApksWhenSerialized} is set,
+   * each APK is instead added to the archive as soon as it and all the APKs declared before it are
+   * serialized, so that writing the archive overlaps with the serialization of the other APKs.
+   * APKs are appended in the order of {@link #declareApks}, which is deterministic; APKs which
+   * weren't declared are appended in sorted order when {@link #writeTo(Path)} is called.
+   */
   public static class ApkSetArchiveBuilder implements ApkSetBuilder {
+    private static final String ARCHIVE_FILE_NAME = "apk-set.apks";
+
     private final SplitApkSerializer splitApkSerializer;
     private final StandaloneApkSerializer standaloneApkSerializer;
-    private final List<String> relativeApkPaths;
+    private final boolean appendApksWhenSerialized;
+
+    /** The serialized APKs not yet added to the archive, keyed by their path in the archive. */
+    private final Map<String, StoredFileSource> apkSources = new ConcurrentHashMap<>();
+
+    /** The paths of the declared APKs, in the order they are appended to the archive. */
+    private final List<String> declaredApkPaths = new CopyOnWriteArrayList<>();
+
+    /**
+     * Lock of the archive.
+     *
+     * <p>Threads serializing APKs never wait for it: when it is held, the APKs they serialized are
+     * appended by the thread holding it.
+     */
+    private final ReentrantLock archiveLock = new ReentrantLock();
+
+    /**
+     * Number of declared APKs appended to the archive, or skipped since never serialized.
+     *
+     * <p>Only modified while holding {@link #archiveLock}.
+     */
+    private volatile int appendedApkCount = 0;
+
+    @GuardedBy("archiveLock")
+    private ZipArchive archive;
+
+    /** Whether {@link #close()} was called, after which nothing may be written to the archive. */
+    @GuardedBy("archiveLock")
+    private boolean closed = false;
 
     private final Path tempDirectory;
 
@@ -94,60 +172,118 @@ public final class ApkSetBuilderFactory {
         SplitApkSerializer splitApkSerializer,
         StandaloneApkSerializer standaloneApkSerializer,
         Path tempDirectory) {
+      this(
+          splitApkSerializer,
+          standaloneApkSerializer,
+          tempDirectory,
+          /* appendApksWhenSerialized= */ false);
+    }
+
+    public ApkSetArchiveBuilder(
+        SplitApkSerializer splitApkSerializer,
+        StandaloneApkSerializer standaloneApkSerializer,
+        Path tempDirectory,
+        boolean appendApksWhenSerialized) {
       this.splitApkSerializer = splitApkSerializer;
       this.standaloneApkSerializer = standaloneApkSerializer;
       this.tempDirectory = tempDirectory;
-      this.relativeApkPaths = Collections.synchronizedList(new ArrayList<>());
+      this.appendApksWhenSerialized = appendApksWhenSerialized;
+    }
+
+    @Override
+    public void declareApks(ImmutableList<ZipPath> apkPaths) {
+      if (!appendApksWhenSerialized) {
+        return;
+      }
+      declaredApkPaths.addAll(
+          apkPaths.stream().map(ZipPath::toString).sorted().collect(toImmutableList()));
+      // Some of the APKs may have been serialized before being declared.
+      appendReadyApks();
     }
 
     @Override
     public ApkDescription addSplitApk(ModuleSplit split, ZipPath apkPath) {
-      ApkDescription apkDescription =
-          splitApkSerializer.writeSplitToDisk(split, tempDirectory, apkPath);
-      relativeApkPaths.add(apkDescription.getPath());
-      return apkDescription;
+      return addApk(splitApkSerializer.writeSplitToDisk(split, tempDirectory, apkPath));
     }
 
     @Override
     public ApkDescription addInstantApk(ModuleSplit split, ZipPath apkPath) {
-      ApkDescription apkDescription =
-          splitApkSerializer.writeInstantSplitToDisk(split, tempDirectory, apkPath);
-      relativeApkPaths.add(apkDescription.getPath());
-      return apkDescription;
+      return addApk(splitApkSerializer.writeInstantSplitToDisk(split, tempDirectory, apkPath));
     }
 
     @Override
     public ApkDescription addAssetSliceApk(ModuleSplit split, ZipPath apkPath) {
-      ApkDescription apkDescription =
-          splitApkSerializer.writeAssetSliceToDisk(split, tempDirectory, apkPath);
-      relativeApkPaths.add(apkDescription.getPath());
-      return apkDescription;
+      return addApk(splitApkSerializer.writeAssetSliceToDisk(split, tempDirectory, apkPath));
     }
 
     @Override
     public ApkDescription addStandaloneApk(ModuleSplit split, ZipPath apkPath) {
-      ApkDescription apkDescription =
-          standaloneApkSerializer.writeToDisk(split, tempDirectory, apkPath);
-      relativeApkPaths.add(apkDescription.getPath());
-      return apkDescription;
+      return addApk(standaloneApkSerializer.writeToDisk(split, tempDirectory, apkPath));
     }
 
     @Override
     public ApkDescription addStandaloneUniversalApk(ModuleSplit split) {
-      ApkDescription apkDescription =
-          standaloneApkSerializer.writeToDiskAsUniversal(split, tempDirectory);
-      relativeApkPaths.add(apkDescription.getPath());
-      return apkDescription;
+      return addApk(standaloneApkSerializer.writeToDiskAsUniversal(split, tempDirectory));
     }
 
     @Override
     public ApkDescription addSystemApk(ModuleSplit split, ZipPath apkPath) {
-      ApkDescription apkDescription =
-          standaloneApkSerializer.writeSystemApkToDisk(split, tempDirectory, apkPath);
-      relativeApkPaths.add(apkDescription.getPath());
+      return addApk(standaloneApkSerializer.writeSystemApkToDisk(split, tempDirectory, apkPath));
+    }
+
+    private ApkDescription addApk(ApkDescription apkDescription) {
+      String relativeApkPath = apkDescription.getPath();
+      Path fullApkPath = tempDirectory.resolve(relativeApkPath);
+      checkFileExistsAndReadable(fullApkPath);
+      try {
+        apkSources.put(
+            relativeApkPath, StoredFileSource.create(fullApkPath, ZipPath.create(relativeApkPath)));
+      } catch (IOException e) {
+        throw new UncheckedIOException(
+            String.format("Error while reading the APK '%s'.", fullApkPath), e);
+      }
+
+      if (appendApksWhenSerialized) {
+        appendReadyApks();
+      }
       return apkDescription;
     }
 
+    /** Appends the next declared APKs to the archive, as long as they are serialized. */
+    private void appendReadyApks() {
+      // The APK may become ready after the thread holding the lock checked it, so check again
+      // once the lock is released.
+      while (isNextDeclaredApkReady() && archiveLock.tryLock()) {
+        try {
+          while (isNextDeclaredApkReady()) {
+            appendToArchive(apkSources.remove(declaredApkPaths.get(appendedApkCount)));
+            appendedApkCount++;
+          }
+        } finally {
+          archiveLock.unlock();
+        }
+      }
+    }
+
+    private boolean isNextDeclaredApkReady() {
+      int nextApkIndex = appendedApkCount;
+      return nextApkIndex < declaredApkPaths.size()
+          && apkSources.containsKey(declaredApkPaths.get(nextApkIndex));
+    }
+
+    @GuardedBy("archiveLock")
+    private void appendToArchive(StoredFileSource apkSource) {
+      try {
+        openArchiveIfNeeded();
+        archive.add(apkSource);
+        // The APK is in a temp directory so will be deleted regardless, but this is an attempt at
+        // freeing up disk space earlier.
+        Files.delete(apkSource.getFile());
+      } catch (IOException e) {
+        throw new UncheckedIOException("Error while writing the APK Set archive.", e);
+      }
+    }
+
     @Override
     public void setTableOfContentsFile(BuildApksResult tableOfContentsProto) {
       tableOfContents = tableOfContentsProto;
@@ -155,25 +291,81 @@ public final class ApkSetBuilderFactory {
 
     @Override
     public void writeTo(Path destinationPath) {
-      ZipBuilder apkSetZipBuilder = new ZipBuilder();
-      if (tableOfContents != null) {
-        apkSetZipBuilder.addFileWithProtoContent(
-            ZipPath.create(TABLE_OF_CONTENTS_FILE), tableOfContents);
-      }
-      // Sort APKs to make ordering deterministic.
-      for (String relativeApkPath : ImmutableList.sortedCopyOf(relativeApkPaths)) {
-        Path fullApkPath = tempDirectory.resolve(relativeApkPath);
-        checkFileExistsAndReadable(fullApkPath);
-        apkSetZipBuilder.addFileFromDisk(
-            ZipPath.create(relativeApkPath), fullApkPath.toFile(), EntryOption.UNCOMPRESSED);
-      }
+      Path archivePath = getArchivePath();
+      archiveLock.lock();
       try {
-        apkSetZipBuilder.writeTo(destinationPath);
+        openArchiveIfNeeded();
+        try (ZipArchive apkSetArchive = archive) {
+          if (appendApksWhenSerialized) {
+            // Declared APKs which were never serialized are skipped.
+            while (appendedApkCount < declaredApkPaths.size()) {
+              String relativeApkPath = declaredApkPaths.get(appendedApkCount);
+              if (apkSources.containsKey(relativeApkPath)) {
+                appendToArchive(apkSources.remove(relativeApkPath));
+              }
+              appendedApkCount++;
+            }
+          } else {
+            addTableOfContents(apkSetArchive);
+          }
+          // Sort APKs to make ordering deterministic.
+          for (String relativeApkPath : ImmutableSortedSet.copyOf(apkSources.keySet())) {
+            apkSetArchive.add(apkSources.remove(relativeApkPath));
+          }
+          if (appendApksWhenSerialized) {
+            addTableOfContents(apkSetArchive);
+          }
+        } finally {
+          archive = null;
+        }
+        // Only move the archive once completely written, so that no partial output is generated
+        // at the user-specified location. Fails if the destination file exists.
+        Files.move(archivePath, destinationPath);
       } catch (IOException e) {
         throw new UncheckedIOException(
             String.format("Error while writing the APK Set archive to '%s'.", destinationPath), e);
+      } finally {
+        archiveLock.unlock();
+      }
+    }
+
+    @GuardedBy("archiveLock")
+    private void openArchiveIfNeeded() throws IOException {
+      checkState(!closed, "The APK Set archive cannot be written once the builder is closed.");
+      if (archive == null) {
+        archive = new ZipArchive(getArchivePath().toFile());
+      }
+    }
+
+    private void addTableOfContents(ZipArchive apkSetArchive) throws IOException {
+      if (tableOfContents != null) {
+        apkSetArchive.add(
+            new BytesSource(
+                tableOfContents.toByteArray(),
+                TABLE_OF_CONTENTS_FILE,
+                DEFAULT_COMPRESSION.getValue()));
+      }
+    }
+
+    @Override
+    public void close() {
+      archiveLock.lock();
+      try {
+        closed = true;
+        if (archive != null) {
+          archive.close();
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException("Error while closing the APK Set archive.", e);
+      } finally {
+        archive = null;
+        archiveLock.unlock();
       }
     }
+
+    private Path getArchivePath() {
+      return tempDirectory.resolve(ARCHIVE_FILE_NAME);
+    }
   }
 
   /** ApkSet builder that stores the generated APKs directly in the output directory. */
@@ -192,6 +384,11 @@ public final class ApkSetBuilderFactory {
       this.standaloneApkSerializer = standaloneApkSerializer;
     }
 
+    @Override
+    public void declareApks(ImmutableList<ZipPath> apkPaths) {
+      // APKs are written directly in the output directory.
+    }
+
     @Override
     public ApkDescription addInstantApk(ModuleSplit split, ZipPath apkPath) {
       return splitApkSerializer.writeInstantSplitToDisk(split, outputDirectory, apkPath);
@@ -232,6 +429,11 @@ public final class ApkSetBuilderFactory {
       // No-op.
     }
 
+    @Override
+    public void close() {
+      // No-op.
+    }
+
     private void writeProtoFile(Message proto, Path outputFile) {
       try (OutputStream outputStream = Files.newOutputStream(outputFile)) {
         proto.writeTo(outputStream);
@@ -17,14 +17,26 @@ package com.android.tools.build.bundletool.io;
 
 import static com.android.tools.build.bundletool.model.utils.Versions.ANDROID_R_API_VERSION;
 import static java.lang.Math.max;
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
 import com.android.apksig.ApkSigner.SignerConfig;
+import com.android.apksig.ApkSignerEngine;
+import com.android.apksig.ApkSignerEngine.OutputApkSigningBlockRequest2;
+import com.android.apksig.DefaultApkSignerEngine;
 import com.android.apksig.apk.ApkFormatException;
+import com.android.apksig.apk.ApkUtils;
+import com.android.apksig.apk.ApkUtils.ZipSections;
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+import com.android.apksig.zip.ZipFormatException;
 import com.android.tools.build.bundletool.commands.BuildApksModule.ApkSigningConfig;
 import com.android.tools.build.bundletool.commands.BuildApksModule.StampSigningConfig;
 import com.android.tools.build.bundletool.model.ModuleEntry;
 import com.android.tools.build.bundletool.model.ModuleSplit;
+import com.android.tools.build.bundletool.model.PhaseTracer;
+import com.android.tools.build.bundletool.model.PhaseTracer.Phase;
+import com.android.tools.build.bundletool.model.PhaseTracer.Span;
 import com.android.tools.build.bundletool.model.SigningConfiguration;
 import com.android.tools.build.bundletool.model.WearApkLocator;
 import com.android.tools.build.bundletool.model.ZipPath;
@@ -38,7 +50,9 @@ import com.google.common.collect.ImmutableSet;
 import com.google.errorprone.annotations.CheckReturnValue;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.InvalidKeyException;
@@ -53,21 +67,30 @@ class ApkSigner {
   /** Name identifying uniquely the {@link SignerConfig} passed to the engine. */
   private static final String SIGNER_CONFIG_NAME = "BNDLTOOL";
 
+  /** Offset of the "offset of the central directory" field in the End of Central Directory. */
+  private static final int EOCD_CENTRAL_DIRECTORY_OFFSET_FIELD_OFFSET = 16;
+
   private final Optional<SigningConfiguration> optSigningConfig;
   private final Optional<SigningConfiguration> optStampSigningConfig;
   private final Version bundletoolVersion;
   private final TempDirectory tempDirectory;
+  private final SignedEmbeddedApkCache signedEmbeddedApkCache;
+  private final PhaseTracer phaseTracer;
 
   @Inject
   ApkSigner(
       @ApkSigningConfig Optional<SigningConfiguration> signingConfig,
       @StampSigningConfig Optional<SigningConfiguration> stampSigningConfig,
       Version bundletoolVersion,
-      TempDirectory tempDirectory) {
+      TempDirectory tempDirectory,
+      SignedEmbeddedApkCache signedEmbeddedApkCache,
+      PhaseTracer phaseTracer) {
     this.optSigningConfig = signingConfig;
     this.optStampSigningConfig = stampSigningConfig;
     this.bundletoolVersion = bundletoolVersion;
     this.tempDirectory = tempDirectory;
+    this.signedEmbeddedApkCache = signedEmbeddedApkCache;
+    this.phaseTracer = phaseTracer;
   }
 
   public void signApk(Path apkPath, ModuleSplit split) {
@@ -80,7 +103,8 @@ class ApkSigner {
     boolean signWithV3 = shouldSignWithV3Scheme(split);
     int minSdkVersion = split.getAndroidManifest().getEffectiveMinSdkVersion();
 
-    try (TempDirectory tempDirectory = new TempDirectory(getClass().getSimpleName())) {
+    try (Span span = phaseTracer.startPhase(Phase.SIGN_APK, apkPath.toString());
+        TempDirectory tempDirectory = new TempDirectory(getClass().getSimpleName())) {
       Path signedApkPath = tempDirectory.getPath().resolve("signed.apk");
       com.android.apksig.ApkSigner.Builder apkSigner =
           new com.android.apksig.ApkSigner.Builder(
@@ -99,6 +123,7 @@ class ApkSigner {
           });
       apkSigner.build().sign();
       Files.move(signedApkPath, apkPath, REPLACE_EXISTING);
+      span.addBytes(Files.size(apkPath));
     } catch (IOException
         | ApkFormatException
         | NoSuchAlgorithmException
@@ -111,6 +136,88 @@ class ApkSigner {
     }
   }
 
+  /**
+   * Signs an unsigned APK which was just written, by inserting the APK Signing Block in the file.
+   *
+   * <p>Unlike {@link #signApk}, the entries of the APK are only read once to compute their digests,
+   * and only the central directory is rewritten. This requires that the APK has no signature yet
+   * and that no entry needs to be added, so APKs which need a v1 signature or a source stamp are
+   * signed with {@link #signApk}.
+   */
+  public void signApkInPlace(Path apkPath, ModuleSplit split) {
+    if (!optSigningConfig.isPresent()) {
+      return;
+    }
+    if (shouldSignWithV1Scheme(split) || optStampSigningConfig.isPresent()) {
+      signApk(apkPath, split);
+      return;
+    }
+    SigningConfiguration signingConfiguration = optSigningConfig.get();
+
+    boolean signWithV3 = shouldSignWithV3Scheme(split);
+    int minSdkVersion = split.getAndroidManifest().getEffectiveMinSdkVersion();
+
+    try (Span span = phaseTracer.startPhase(Phase.SIGN_APK, apkPath.toString());
+        RandomAccessFile apkFile = new RandomAccessFile(apkPath.toFile(), "rw");
+        ApkSignerEngine signerEngine =
+            new DefaultApkSignerEngine.Builder(
+                    extractEngineSignerConfigs(signingConfiguration, signWithV3), minSdkVersion)
+                .setV1SigningEnabled(false)
+                .setV2SigningEnabled(true)
+                .setV3SigningEnabled(signWithV3)
+                .setOtherSignersSignaturesPreserved(false)
+                .build()) {
+      DataSource apk = DataSources.asDataSource(apkFile);
+      ZipSections zipSections = ApkUtils.findZipSections(apk);
+      long centralDirectoryOffset = zipSections.getZipCentralDirectoryOffset();
+      byte[] centralDirectory =
+          toByteArray(
+              apk.getByteBuffer(
+                  centralDirectoryOffset,
+                  Math.toIntExact(zipSections.getZipCentralDirectorySizeBytes())));
+      byte[] endOfCentralDirectory = toByteArray(zipSections.getZipEndOfCentralDirectory());
+
+      OutputApkSigningBlockRequest2 signingBlockRequest =
+          signerEngine.outputZipSections2(
+              DataSources.asDataSource(apkFile, 0, centralDirectoryOffset),
+              DataSources.asDataSource(ByteBuffer.wrap(centralDirectory)),
+              DataSources.asDataSource(ByteBuffer.wrap(endOfCentralDirectory)));
+      int paddingSize = signingBlockRequest.getPaddingSizeBeforeApkSigningBlock();
+      byte[] signingBlock = signingBlockRequest.getApkSigningBlock();
+      ByteBuffer.wrap(endOfCentralDirectory)
+          .order(LITTLE_ENDIAN)
+          .putInt(
+              EOCD_CENTRAL_DIRECTORY_OFFSET_FIELD_OFFSET,
+              Math.toIntExact(centralDirectoryOffset + paddingSize + signingBlock.length));
+      signingBlockRequest.done();
+      signerEngine.outputDone();
+
+      // The signing block goes between the last entry and the central directory. The new tail of
+      // the file is built before anything is written, so that a failure leaves the APK untouched.
+      ByteBuffer tail =
+          ByteBuffer.allocate(
+              paddingSize
+                  + signingBlock.length
+                  + centralDirectory.length
+                  + endOfCentralDirectory.length);
+      tail.position(paddingSize);
+      tail.put(signingBlock).put(centralDirectory).put(endOfCentralDirectory);
+      apkFile.seek(centralDirectoryOffset);
+      apkFile.write(tail.array());
+      apkFile.setLength(centralDirectoryOffset + tail.capacity());
+      span.addBytes(apkFile.length());
+    } catch (IOException
+        | ZipFormatException
+        | NoSuchAlgorithmException
+        | InvalidKeyException
+        | SignatureException e) {
+      throw CommandExecutionException.builder()
+          .withCause(e)
+          .withInternalMessage("Unable to sign APK.")
+          .build();
+    }
+  }
+
   /**
    * Returns a new {@link ModuleSplit} with the same entries as the one given as parameter but with
    * embedded APKs signed.
@@ -132,10 +239,24 @@ class ApkSigner {
   }
 
   /**
-   * Extracts the given {@link ModuleEntry} to the filesystem then signs the file as an APK and
-   * returns a new ModuleEntry with the signed APK as content.
+   * Returns a new {@link ModuleEntry} with the signed APK as content.
+   *
+   * <p>Embedded APKs are identical in all the splits and standalone APKs containing them, so they
+   * are only signed once per signature scheme and kept in the {@link SignedEmbeddedApkCache}.
    */
   private ModuleEntry signModuleEntry(ModuleSplit split, ModuleEntry entry) {
+    SignedEmbeddedApkCache.Key key =
+        SignedEmbeddedApkCache.Key.create(
+            entry.getContentDigest(),
+            split.getAndroidManifest().getEffectiveMinSdkVersion(),
+            shouldSignWithV1Scheme(split),
+            shouldSignWithV3Scheme(split));
+    Path signedApk = signedEmbeddedApkCache.getOrSign(key, () -> extractAndSign(split, entry));
+    return entry.toBuilder().setContent(signedApk).setShouldSign(false).build();
+  }
+
+  /** Extracts the given {@link ModuleEntry} to the filesystem then signs the file as an APK. */
+  private Path extractAndSign(ModuleSplit split, ModuleEntry entry) {
     try {
       // Creating a new temp directory to ensure unicity of APK name in the temp directory..
       Path tempDir = Files.createTempDirectory(tempDirectory.getPath(), getClass().getSimpleName());
@@ -144,7 +265,7 @@ class ApkSigner {
         Files.copy(entryContent, embeddedApk);
       }
       signApk(embeddedApk, split);
-      return entry.toBuilder().setContent(embeddedApk).setShouldSign(false).build();
+      return embeddedApk;
     } catch (IOException e) {
       throw new UncheckedIOException(e);
     }
@@ -162,6 +283,18 @@ class ApkSigner {
     return signerConfigs.build();
   }
 
+  private static ImmutableList<DefaultApkSignerEngine.SignerConfig> extractEngineSignerConfigs(
+      SigningConfiguration signingConfiguration, boolean signWithV3) {
+    com.android.tools.build.bundletool.model.SignerConfig signerConfig =
+        signWithV3
+            ? signingConfiguration.getSignerConfig()
+            : signingConfiguration.getSignerConfigForV1AndV2();
+    return ImmutableList.of(
+        new DefaultApkSignerEngine.SignerConfig.Builder(
+                SIGNER_CONFIG_NAME, signerConfig.getPrivateKey(), signerConfig.getCertificates())
+            .build());
+  }
+
   private static SignerConfig convertToApksigSignerConfig(
       com.android.tools.build.bundletool.model.SignerConfig signerConfig) {
     return new SignerConfig.Builder(
@@ -185,4 +318,10 @@ class ApkSigner {
         max(minManifestSdkVersion, minApkTargetingSdkVersion) >= ANDROID_R_API_VERSION;
     return splitIsTargetedAtRPlus || !optSigningConfig.get().getRestrictV3SigningToRPlus();
   }
+
+  private static byte[] toByteArray(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
 }
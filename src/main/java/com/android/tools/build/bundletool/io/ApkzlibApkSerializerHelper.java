@@ -33,6 +33,9 @@ import com.android.tools.build.bundletool.model.Aapt2Command;
 import com.android.tools.build.bundletool.model.BundleModule.SpecialModuleEntry;
 import com.android.tools.build.bundletool.model.ModuleEntry;
 import com.android.tools.build.bundletool.model.ModuleSplit;
+import com.android.tools.build.bundletool.model.PhaseTracer;
+import com.android.tools.build.bundletool.model.PhaseTracer.Phase;
+import com.android.tools.build.bundletool.model.PhaseTracer.Span;
 import com.android.tools.build.bundletool.model.ZipPath;
 import com.android.tools.build.bundletool.model.utils.PathMatcher;
 import com.android.tools.build.bundletool.model.utils.files.FileUtils;
@@ -79,13 +82,15 @@ final class ApkzlibApkSerializerHelper extends ApkSerializerHelper {
   private final Version bundletoolVersion;
   private final ImmutableList<PathMatcher> uncompressedPathMatchers;
   private final ApkSigner apkSigner;
+  private final PhaseTracer phaseTracer;
 
   @Inject
   ApkzlibApkSerializerHelper(
       Aapt2Command aapt2Command,
       Version bundletoolVersion,
       BundleConfig bundleConfig,
-      ApkSigner apkSigner) {
+      ApkSigner apkSigner,
+      PhaseTracer phaseTracer) {
     this.aapt2Command = aapt2Command;
     this.bundletoolVersion = bundletoolVersion;
     this.uncompressedPathMatchers =
@@ -93,6 +98,7 @@ final class ApkzlibApkSerializerHelper extends ApkSerializerHelper {
             .map(PathMatcher::createFromGlob)
             .collect(toImmutableList());
     this.apkSigner = apkSigner;
+    this.phaseTracer = phaseTracer;
   }
 
   @Override
@@ -119,11 +125,15 @@ final class ApkzlibApkSerializerHelper extends ApkSerializerHelper {
 
     // Have aapt2 convert the Proto-APK to a Binary-APK.
     Path binaryApk = tempDir.getPath().resolve("binary.apk");
-    aapt2Command.convertApkProtoToBinary(partialProtoApk, binaryApk);
-    checkState(Files.exists(binaryApk), "No APK created by aapt2 convert command.");
+    try (Span span = phaseTracer.startPhase(Phase.AAPT2_CONVERT, outputPath.toString())) {
+      aapt2Command.convertApkProtoToBinary(partialProtoApk, binaryApk);
+      checkState(Files.exists(binaryApk), "No APK created by aapt2 convert command.");
+      span.addBytes(Files.size(binaryApk));
+    }
 
     // Create a new APK that includes files processed by aapt2 and the other ones.
-    try (ZFile zOutputApk =
+    try (Span span = phaseTracer.startPhase(Phase.COMPRESS_ENTRIES, outputPath.toString());
+        ZFile zOutputApk =
             ZFiles.apk(
                 outputPath.toFile(),
                 createZFileOptions(tempDir.getPath())
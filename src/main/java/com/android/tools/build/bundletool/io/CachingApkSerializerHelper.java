@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.io;
+
+import static com.android.tools.build.bundletool.model.utils.files.FilePreconditions.checkFileDoesNotExist;
+import static com.android.tools.build.bundletool.model.utils.files.FileUtils.createParentDirectories;
+
+import com.android.tools.build.bundletool.model.ModuleSplit;
+import com.google.common.hash.HashCode;
+import java.nio.file.Path;
+
+/**
+ * {@link ApkSerializerHelper} reusing the APKs serialized by previous runs from an {@link
+ * ApkCache}, and delegating to another {@link ApkSerializerHelper} on cache misses.
+ *
+ * <p>APKs are cached by their fingerprint, see {@link ApkFingerprinter}.
+ */
+final class CachingApkSerializerHelper extends ApkSerializerHelper {
+
+  private final ApkSerializerHelper delegate;
+  private final ApkCache cache;
+  private final ApkFingerprinter fingerprinter;
+
+  CachingApkSerializerHelper(
+      ApkSerializerHelper delegate, ApkCache cache, ApkFingerprinter fingerprinter) {
+    this.delegate = delegate;
+    this.cache = cache;
+    this.fingerprinter = fingerprinter;
+  }
+
+  @Override
+  public Path writeToZipFile(ModuleSplit split, Path outputPath) {
+    HashCode key = fingerprinter.fingerprint(split);
+
+    checkFileDoesNotExist(outputPath);
+    createParentDirectories(outputPath);
+    if (cache.copyTo(key, outputPath)) {
+      return outputPath;
+    }
+
+    delegate.writeToZipFile(split, outputPath);
+    cache.put(key, outputPath);
+    return outputPath;
+  }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.file.StandardOpenOption.READ;
+
+import com.android.tools.build.bundletool.model.CompressionLevel;
+import com.android.tools.build.bundletool.model.utils.SystemEnvironmentProvider;
+import com.android.zipflinger.Entry;
+import com.android.zipflinger.ZipWriter;
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Cache of the compressed payloads of the entries of a zip file, so that an entry present in many
+ * APKs is only compressed once.
+ *
+ * <p>Payloads are kept in memory or on disk depending on their size, and the least recently used
+ * payloads are evicted when either the memory or the disk limit is exceeded.
+ *
+ * <p>A payload evicted while still in use is only deleted once it is released.
+ */
+final class CompressedPayloadCache {
+
+  /**
+   * Maximum total size of the payloads kept in memory.
+   *
+   * <p>Can be overridden using the system property "bundletool.compression.cache.memorysize".
+   */
+  private static final long DEFAULT_MAX_MEMORY_BYTES =
+      SystemEnvironmentProvider.DEFAULT_PROVIDER
+          .getProperty("bundletool.compression.cache.memorysize")
+          .map(Long::parseLong)
+          .orElse(64L * 1024 * 1024); // 64 MB
+
+  /**
+   * Maximum total size of the payloads kept on disk.
+   *
+   * <p>Can be overridden using the system property "bundletool.compression.cache.disksize".
+   */
+  private static final long DEFAULT_MAX_DISK_BYTES =
+      SystemEnvironmentProvider.DEFAULT_PROVIDER
+          .getProperty("bundletool.compression.cache.disksize")
+          .map(Long::parseLong)
+          .orElse(1024L * 1024 * 1024); // 1 GB
+
+  private final ZipReader zipReader;
+  private final TempDirectory tempDirectory;
+  private final long maxMemoryBytes;
+  private final long maxDiskBytes;
+
+  /** The cached payloads, in access order. */
+  @GuardedBy("this")
+  private final LinkedHashMap<PayloadKey, CachedPayload> payloads =
+      new LinkedHashMap<>(
+          /* initialCapacity= */ 16, /* loadFactor= */ 0.75f, /* accessOrder= */ true);
+
+  @GuardedBy("this")
+  private long memoryBytes = 0;
+
+  @GuardedBy("this")
+  private long diskBytes = 0;
+
+  CompressedPayloadCache(
+      ZipReader zipReader, TempDirectory tempDirectory, long maxMemoryBytes, long maxDiskBytes) {
+    checkArgument(maxMemoryBytes >= 0 && maxDiskBytes >= 0, "Cache limits must not be negative.");
+    this.zipReader = zipReader;
+    this.tempDirectory = tempDirectory;
+    this.maxMemoryBytes = maxMemoryBytes;
+    this.maxDiskBytes = maxDiskBytes;
+  }
+
+  /** Creates a cache for the given zip file, with the default limits. */
+  static CompressedPayloadCache create(ZipReader zipReader, TempDirectory tempDirectory) {
+    return new CompressedPayloadCache(
+        zipReader, tempDirectory, DEFAULT_MAX_MEMORY_BYTES, DEFAULT_MAX_DISK_BYTES);
+  }
+
+  boolean isEnabled() {
+    return maxMemoryBytes > 0 || maxDiskBytes > 0;
+  }
+
+  /** Returns whether the cache stores the payloads of entries of the given zip file. */
+  boolean isCaching(ZipReader zipReader) {
+    return isEnabled() && this.zipReader == zipReader;
+  }
+
+  /**
+   * Returns the payload of the given entry compressed with the given compression level, compressing
+   * it if it isn't cached.
+   *
+   * <p>The returned payload must be released once written, so that it can be deleted if evicted.
+   */
+  CachedPayload acquire(Entry entry, CompressionLevel compressionLevel) throws IOException {
+    checkArgument(compressionLevel.isCompressed(), "Only compressed payloads are cached.");
+    PayloadKey key = PayloadKey.create(entry.getName(), compressionLevel);
+    CachedPayload payload;
+    synchronized (this) {
+      payload = payloads.computeIfAbsent(key, unused -> new CachedPayload());
+      payload.users++;
+    }
+
+    boolean computed;
+    try {
+      computed = payload.computeIfNeeded(entry, compressionLevel);
+    } catch (IOException | RuntimeException e) {
+      synchronized (this) {
+        payloads.remove(key, payload);
+        payload.users--;
+      }
+      throw e;
+    }
+
+    if (computed) {
+      synchronized (this) {
+        if (payloads.get(key) != payload) {
+          // Removed after a failure of another thread, so not accounted for: don't share it.
+          payload.evicted = true;
+          return payload;
+        }
+        if (payload.isOnDisk()) {
+          diskBytes += payload.size();
+        } else {
+          memoryBytes += payload.size();
+        }
+        payload.accounted = true;
+        evictIfNeeded();
+      }
+    }
+    return payload;
+  }
+
+  @GuardedBy("this")
+  private void evictIfNeeded() {
+    Iterator<CachedPayload> leastRecentlyUsed = payloads.values().iterator();
+    while ((memoryBytes > maxMemoryBytes || diskBytes > maxDiskBytes)
+        && leastRecentlyUsed.hasNext()) {
+      CachedPayload payload = leastRecentlyUsed.next();
+      if (!payload.accounted) {
+        // Still being compressed, or not yet added to the cache size.
+        continue;
+      }
+      boolean overLimit =
+          payload.isOnDisk() ? diskBytes > maxDiskBytes : memoryBytes > maxMemoryBytes;
+      if (!overLimit) {
+        continue;
+      }
+      leastRecentlyUsed.remove();
+      if (payload.isOnDisk()) {
+        diskBytes -= payload.size();
+      } else {
+        memoryBytes -= payload.size();
+      }
+      payload.evicted = true;
+      if (payload.users == 0) {
+        payload.free();
+      }
+    }
+  }
+
+  /** A compressed payload, shared by all the APKs containing the entry. */
+  final class CachedPayload {
+    @GuardedBy("CompressedPayloadCache.this")
+    private int users = 0;
+
+    @GuardedBy("CompressedPayloadCache.this")
+    private boolean evicted = false;
+
+    @GuardedBy("CompressedPayloadCache.this")
+    private boolean accounted = false;
+
+    private volatile byte[] bytes;
+    private volatile Path file;
+    private volatile long size = -1;
+
+    /** Compresses the payload if not done already, and returns whether it was compressed. */
+    private synchronized boolean computeIfNeeded(Entry entry, CompressionLevel compressionLevel)
+        throws IOException {
+      if (isComputed()) {
+        return false;
+      }
+      if (entry.getUncompressedSize() <= ZipEntrySource.STORE_ON_DISK_THRESHOLD_BYTES
+          && maxMemoryBytes > 0) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ZipEntrySource.compressPayload(zipReader, entry, compressionLevel, out);
+        bytes = out.toByteArray();
+        size = bytes.length;
+      } else {
+        Path payloadFile = Files.createTempFile(tempDirectory.getPath(), "cached", ".payload");
+        try (OutputStream out = Files.newOutputStream(payloadFile)) {
+          ZipEntrySource.compressPayload(zipReader, entry, compressionLevel, out);
+        } catch (IOException | RuntimeException e) {
+          Files.deleteIfExists(payloadFile);
+          throw e;
+        }
+        file = payloadFile;
+        size = Files.size(payloadFile);
+      }
+      return true;
+    }
+
+    private boolean isComputed() {
+      return size >= 0;
+    }
+
+    private boolean isOnDisk() {
+      return file != null;
+    }
+
+    /** Returns the size of the compressed payload. */
+    long size() {
+      checkState(isComputed(), "Payload not computed.");
+      return size;
+    }
+
+    /** Writes the payload to the given zip. */
+    long writeTo(ZipWriter writer) throws IOException {
+      if (isOnDisk()) {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+          writer.transferFrom(channel, 0, size);
+        }
+      } else {
+        writer.write(ByteBuffer.wrap(bytes));
+      }
+      return size;
+    }
+
+    /** Opens a stream reading the payload. */
+    @VisibleForTesting
+    InputStream openStream() throws IOException {
+      return isOnDisk() ? Files.newInputStream(file) : new ByteArrayInputStream(bytes);
+    }
+
+    /** Signals that the payload is no longer used by the caller of {@link #acquire}. */
+    void release() {
+      synchronized (CompressedPayloadCache.this) {
+        checkState(users > 0, "Payload released more times than acquired.");
+        users--;
+        if (users == 0 && evicted) {
+          free();
+        }
+      }
+    }
+
+    private void free() {
+      bytes = null;
+      if (file != null) {
+        try {
+          Files.deleteIfExists(file);
+        } catch (IOException e) {
+          // The file is in a temp directory so will be deleted regardless.
+        }
+      }
+    }
+  }
+
+  /** Key of a cached payload. */
+  @AutoValue
+  abstract static class PayloadKey {
+    abstract String getEntryName();
+
+    abstract CompressionLevel getCompressionLevel();
+
+    static PayloadKey create(String entryName, CompressionLevel compressionLevel) {
+      return new AutoValue_CompressedPayloadCache_PayloadKey(entryName, compressionLevel);
+    }
+  }
+}
@@ -29,7 +29,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 /** Utility methods for working with concurrent code. */
-final class ConcurrencyUtils {
+public final class ConcurrencyUtils {
 
   /** Retrieves results of all futures, if they succeed. If any fails, eagerly throws. */
   public static <T> ImmutableList<T> waitForAll(Iterable<ListenableFuture<T>> futures) {
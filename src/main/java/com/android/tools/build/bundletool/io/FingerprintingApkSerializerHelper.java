@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.io;
+
+import com.android.tools.build.bundletool.model.ModuleSplit;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * {@link ApkSerializerHelper} recording the fingerprint of each APK in the table of contents, and
+ * delegating the serialization to another {@link ApkSerializerHelper}.
+ *
+ * <p>Only used by incremental builds, or when the fingerprints are explicitly requested with
+ * {@code --record-apk-fingerprints}, so that an APK Set built from scratch can be passed to the
+ * next incremental build and is identical to the one built incrementally.
+ */
+final class FingerprintingApkSerializerHelper extends ApkSerializerHelper {
+
+  private final ApkSerializerHelper delegate;
+  private final ApkFingerprinter fingerprinter;
+
+  FingerprintingApkSerializerHelper(ApkSerializerHelper delegate, ApkFingerprinter fingerprinter) {
+    this.delegate = delegate;
+    this.fingerprinter = fingerprinter;
+  }
+
+  @Override
+  public Path writeToZipFile(ModuleSplit split, Path outputPath) {
+    return delegate.writeToZipFile(split, outputPath);
+  }
+
+  @Override
+  public Optional<String> getFingerprint(ModuleSplit split) {
+    return Optional.of(fingerprinter.fingerprint(split).toString());
+  }
+}
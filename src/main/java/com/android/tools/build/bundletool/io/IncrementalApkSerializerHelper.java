@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.io;
+
+import static com.android.tools.build.bundletool.model.utils.FileNames.TABLE_OF_CONTENTS_FILE;
+import static com.android.tools.build.bundletool.model.utils.files.FilePreconditions.checkFileDoesNotExist;
+import static com.android.tools.build.bundletool.model.utils.files.FileUtils.createParentDirectories;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import com.android.bundle.Commands.ApkDescription;
+import com.android.bundle.Commands.ApkSet;
+import com.android.bundle.Commands.AssetSliceSet;
+import com.android.bundle.Commands.BuildApksResult;
+import com.android.bundle.Commands.Variant;
+import com.android.tools.build.bundletool.model.ModuleSplit;
+import com.android.tools.build.bundletool.model.exceptions.InvalidCommandException;
+import com.android.zipflinger.Entry;
+import com.android.zipflinger.Location;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+/**
+ * {@link ApkSerializerHelper} reusing the APKs of a previous APK Set whose fingerprint didn't
+ * change. The fingerprints are recorded by {@link FingerprintingApkSerializerHelper}.
+ *
+ * <p>Reused APKs are copied from the previous APK Set with {@link FileChannel#transferTo}, without
+ * being converted, compressed nor signed again. Other APKs are serialized by the delegate.
+ */
+final class IncrementalApkSerializerHelper extends ApkSerializerHelper {
+
+  private static final Logger logger =
+      Logger.getLogger(IncrementalApkSerializerHelper.class.getName());
+
+  private final ApkSerializerHelper delegate;
+  private final ApkFingerprinter fingerprinter;
+  private final Path previousApkSet;
+
+  /** Location of the APKs of the previous APK Set in the archive, keyed by their fingerprint. */
+  private final ImmutableMap<HashCode, Location> previousApks;
+
+  private IncrementalApkSerializerHelper(
+      ApkSerializerHelper delegate,
+      ApkFingerprinter fingerprinter,
+      Path previousApkSet,
+      ImmutableMap<HashCode, Location> previousApks) {
+    this.delegate = delegate;
+    this.fingerprinter = fingerprinter;
+    this.previousApkSet = previousApkSet;
+    this.previousApks = previousApks;
+  }
+
+  /**
+   * Creates an instance reusing the APKs of the given APK Set archive.
+   *
+   * <p>If the previous APK Set doesn't exist, all APKs are serialized by the delegate.
+   */
+  static IncrementalApkSerializerHelper create(
+      ApkSerializerHelper delegate, ApkFingerprinter fingerprinter, Path previousApkSet) {
+    if (!Files.exists(previousApkSet)) {
+      logger.info(
+          String.format(
+              "Previous APK Set '%s' not found, all APKs will be generated.", previousApkSet));
+      return new IncrementalApkSerializerHelper(
+          delegate, fingerprinter, previousApkSet, ImmutableMap.of());
+    }
+    return new IncrementalApkSerializerHelper(
+        delegate, fingerprinter, previousApkSet, readPreviousApks(previousApkSet));
+  }
+
+  @Override
+  public Path writeToZipFile(ModuleSplit split, Path outputPath) {
+    Location previousApk = previousApks.get(fingerprinter.fingerprint(split));
+    if (previousApk == null) {
+      return delegate.writeToZipFile(split, outputPath);
+    }
+
+    checkFileDoesNotExist(outputPath);
+    createParentDirectories(outputPath);
+    try (FileChannel input = FileChannel.open(previousApkSet, READ);
+        FileChannel output = FileChannel.open(outputPath, CREATE_NEW, WRITE)) {
+      long position = previousApk.first;
+      long end = previousApk.first + previousApk.size();
+      while (position < end) {
+        position += input.transferTo(position, end - position, output);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(
+          String.format("Failed to copy APK from the previous APK Set '%s'.", previousApkSet), e);
+    }
+    return outputPath;
+  }
+
+  private static ImmutableMap<HashCode, Location> readPreviousApks(Path previousApkSet) {
+    try (ZipReader zipReader = ZipReader.createFromFile(previousApkSet)) {
+      if (!zipReader.getEntry(TABLE_OF_CONTENTS_FILE).isPresent()) {
+        throw InvalidCommandException.builder()
+            .withInternalMessage(
+                "The previous APK Set '%s' doesn't contain a table of contents.", previousApkSet)
+            .build();
+      }
+      BuildApksResult tableOfContents;
+      try (InputStream tocStream = zipReader.getUncompressedPayload(TABLE_OF_CONTENTS_FILE)) {
+        tableOfContents = BuildApksResult.parseFrom(tocStream);
+      }
+
+      Map<HashCode, Location> previousApks = new HashMap<>();
+      for (ApkDescription apkDescription : getApkDescriptions(tableOfContents)) {
+        if (apkDescription.getFingerprint().isEmpty()) {
+          continue;
+        }
+        Optional<Entry> entry = zipReader.getEntry(apkDescription.getPath());
+        // APKs are stored uncompressed in APK Sets, so their payload is the APK itself.
+        if (entry.isPresent() && !entry.get().isCompressed()) {
+          previousApks.put(
+              HashCode.fromString(apkDescription.getFingerprint()),
+              entry.get().getPayloadLocation());
+        }
+      }
+      logger.info(
+          String.format(
+              "%d APKs of the previous APK Set '%s' can be reused.",
+              previousApks.size(), previousApkSet));
+      return ImmutableMap.copyOf(previousApks);
+    } catch (IOException e) {
+      throw new UncheckedIOException(
+          String.format("Failed to read the previous APK Set '%s'.", previousApkSet), e);
+    }
+  }
+
+  private static ImmutableList<ApkDescription> getApkDescriptions(BuildApksResult tableOfContents) {
+    ImmutableList.Builder<ApkDescription> apkDescriptions = ImmutableList.builder();
+    for (Variant variant : tableOfContents.getVariantList()) {
+      for (ApkSet apkSet : variant.getApkSetList()) {
+        apkDescriptions.addAll(apkSet.getApkDescriptionList());
+      }
+    }
+    for (AssetSliceSet assetSliceSet : tableOfContents.getAssetSliceSetList()) {
+      apkDescriptions.addAll(assetSliceSet.getApkDescriptionList());
+    }
+    return apkDescriptions.build();
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+/**
+ * Deflates a stream by compressing chunks of it in parallel, in the manner of pigz.
+ *
+ * <p>Each chunk is compressed with its own {@link Deflater}, primed with the last 32 KB of the
+ * previous chunk as dictionary, and all chunks but the last are terminated with a sync flush so
+ * that their concatenation is a single valid raw deflate stream. The output only depends on the
+ * input and the compression level, not on the number of threads, but differs from the output of a
+ * single {@link Deflater}.
+ *
+ * <p>Chunks are compressed in the common {@link ForkJoinPool}, so that callers running in other
+ * executors never wait for tasks queued behind them.
+ */
+final class ParallelDeflater {
+
+  /** Size of the chunks compressed independently. */
+  static final int CHUNK_SIZE_BYTES = 1024 * 1024;
+
+  /** Size of the deflate window, i.e. the maximum size of a dictionary. */
+  private static final int DICTIONARY_SIZE_BYTES = 32 * 1024;
+
+  private static final int OUTPUT_BUFFER_SIZE_BYTES = 64 * 1024;
+
+  private ParallelDeflater() {}
+
+  /**
+   * Writes to {@code out} the raw deflate (no zlib header) of the bytes read from {@code in}.
+   *
+   * @return the number of compressed bytes written
+   */
+  static long deflate(InputStream in, int compressionLevel, OutputStream out) throws IOException {
+    checkArgument(compressionLevel >= 0 && compressionLevel <= 9, "Invalid compression level.");
+    // Bound the number of chunks in memory.
+    int maxChunksInFlight = 2 * ForkJoinPool.getCommonPoolParallelism();
+    Deque<CompletableFuture<byte[]>> pendingChunks = new ArrayDeque<>();
+    long compressedSize = 0;
+
+    byte[] previousChunk = null;
+    byte[] chunk = readChunk(in);
+    do {
+      byte[] nextChunk = readChunk(in);
+      boolean lastChunk = nextChunk.length == 0;
+      byte[] dictionary = previousChunk == null ? null : tail(previousChunk);
+      byte[] input = chunk;
+      pendingChunks.add(
+          CompletableFuture.supplyAsync(
+              () -> deflateChunk(input, dictionary, compressionLevel, lastChunk)));
+
+      while (pendingChunks.size() >= maxChunksInFlight || (lastChunk && !pendingChunks.isEmpty())) {
+        byte[] compressedChunk = await(pendingChunks.remove());
+        out.write(compressedChunk);
+        compressedSize += compressedChunk.length;
+      }
+
+      previousChunk = chunk;
+      chunk = nextChunk;
+    } while (chunk.length > 0);
+
+    return compressedSize;
+  }
+
+  private static byte[] readChunk(InputStream in) throws IOException {
+    byte[] chunk = new byte[CHUNK_SIZE_BYTES];
+    int read = ByteStreams.read(in, chunk, 0, chunk.length);
+    return read == chunk.length ? chunk : Arrays.copyOf(chunk, read);
+  }
+
+  private static byte[] tail(byte[] chunk) {
+    return Arrays.copyOfRange(
+        chunk, Math.max(0, chunk.length - DICTIONARY_SIZE_BYTES), chunk.length);
+  }
+
+  private static byte[] deflateChunk(
+      byte[] input, byte[] dictionary, int compressionLevel, boolean lastChunk) {
+    Deflater deflater = new Deflater(compressionLevel, /* nowrap= */ true);
+    try {
+      if (dictionary != null) {
+        deflater.setDictionary(dictionary);
+      }
+      deflater.setInput(input);
+      ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2);
+      byte[] buffer = new byte[OUTPUT_BUFFER_SIZE_BYTES];
+      if (lastChunk) {
+        deflater.finish();
+        while (!deflater.finished()) {
+          output.write(buffer, 0, deflater.deflate(buffer));
+        }
+      } else {
+        // A sync flush ends the chunk on a byte boundary, without marking the end of the stream.
+        int length;
+        do {
+          length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+          output.write(buffer, 0, length);
+        } while (length == buffer.length);
+      }
+      return output.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static byte[] await(CompletableFuture<byte[]> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while compressing.", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to compress.", e.getCause());
+    }
+  }
+}
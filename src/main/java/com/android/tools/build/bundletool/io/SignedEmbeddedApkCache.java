@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.io;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.hash.HashCode;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cache of the signed embedded APKs of a command, so that an embedded APK present in many splits
+ * or standalone APKs is only signed once.
+ *
+ * <p>The signing configurations don't change during a command, so the signed APK only depends on
+ * the content of the embedded APK and on the signature schemes chosen for the split.
+ */
+final class SignedEmbeddedApkCache {
+
+  private final ConcurrentMap<Key, Supplier<Path>> signedApks = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the path of the signed APK for the given key, signing it with the given supplier if it
+   * isn't cached.
+   *
+   * <p>Concurrent calls with the same key sign the APK only once. A failure isn't cached.
+   */
+  Path getOrSign(Key key, Supplier<Path> signer) {
+    return signedApks.computeIfAbsent(key, unused -> Suppliers.memoize(signer)).get();
+  }
+
+  /** Key of a signed embedded APK. */
+  @AutoValue
+  abstract static class Key {
+    /** SHA-256 of the unsigned embedded APK. */
+    abstract HashCode getContentDigest();
+
+    abstract int getMinSdkVersion();
+
+    abstract boolean getSignWithV1();
+
+    abstract boolean getSignWithV3();
+
+    static Key create(
+        HashCode contentDigest, int minSdkVersion, boolean signWithV1, boolean signWithV3) {
+      return new AutoValue_SignedEmbeddedApkCache_Key(
+          contentDigest, minSdkVersion, signWithV1, signWithV3);
+    }
+  }
+}
@@ -21,8 +21,10 @@ import static java.nio.file.Files.isDirectory;
 
 import com.android.bundle.Commands.ApkDescription;
 import com.android.bundle.Commands.SplitApkMetadata;
+import com.android.tools.build.bundletool.commands.BuildApksModule.RecordApkSizes;
 import com.android.tools.build.bundletool.model.ModuleSplit;
 import com.android.tools.build.bundletool.model.ZipPath;
+import com.android.tools.build.bundletool.model.utils.ApkSizeUtils;
 import java.nio.file.Path;
 import java.util.function.BiFunction;
 import javax.inject.Inject;
@@ -31,10 +33,13 @@ import javax.inject.Inject;
 public class SplitApkSerializer {
 
   private final ApkSerializerHelper apkSerializerHelper;
+  private final boolean recordApkSizes;
 
   @Inject
-  public SplitApkSerializer(ApkSerializerHelper apkSerializerHelper) {
+  public SplitApkSerializer(
+      ApkSerializerHelper apkSerializerHelper, @RecordApkSizes boolean recordApkSizes) {
     this.apkSerializerHelper = apkSerializerHelper;
+    this.recordApkSizes = recordApkSizes;
   }
 
   /** Writes the installable split to disk. */
@@ -65,11 +70,16 @@ public class SplitApkSerializer {
       ZipPath apkPath) {
     checkState(isDirectory(outputDirectory), "Output directory does not exist.");
 
-    apkSerializerHelper.writeToZipFile(split, outputDirectory.resolve(apkPath.toString()));
+    Path apkFile =
+        apkSerializerHelper.writeToZipFile(split, outputDirectory.resolve(apkPath.toString()));
     ApkDescription.Builder builder =
         ApkDescription.newBuilder()
             .setPath(apkPath.toString())
             .setTargeting(split.getApkTargeting());
+    apkSerializerHelper.getFingerprint(split).ifPresent(builder::setFingerprint);
+    if (recordApkSizes) {
+      builder.setFileInfo(ApkSizeUtils.computeApkFileInfo(apkFile));
+    }
     return setApkMetadata
         .apply(
             builder,
@@ -22,8 +22,10 @@ import com.android.bundle.Commands.ApkDescription;
 import com.android.bundle.Commands.SplitApkMetadata;
 import com.android.bundle.Commands.StandaloneApkMetadata;
 import com.android.bundle.Commands.SystemApkMetadata;
+import com.android.tools.build.bundletool.commands.BuildApksModule.RecordApkSizes;
 import com.android.tools.build.bundletool.model.ModuleSplit;
 import com.android.tools.build.bundletool.model.ZipPath;
+import com.android.tools.build.bundletool.model.utils.ApkSizeUtils;
 import com.google.common.annotations.VisibleForTesting;
 import java.nio.file.Path;
 import javax.inject.Inject;
@@ -32,10 +34,13 @@ import javax.inject.Inject;
 public class StandaloneApkSerializer {
 
   private final ApkSerializerHelper apkSerializerHelper;
+  private final boolean recordApkSizes;
 
   @Inject
-  public StandaloneApkSerializer(ApkSerializerHelper apkSerializerHelper) {
+  public StandaloneApkSerializer(
+      ApkSerializerHelper apkSerializerHelper, @RecordApkSizes boolean recordApkSizes) {
     this.apkSerializerHelper = apkSerializerHelper;
+    this.recordApkSizes = recordApkSizes;
   }
 
   public ApkDescription writeToDisk(
@@ -49,12 +54,18 @@ public class StandaloneApkSerializer {
 
   public ApkDescription writeSystemApkToDisk(
       ModuleSplit systemSplit, Path outputDirectory, ZipPath apkPath) {
-    apkSerializerHelper.writeToZipFile(systemSplit, outputDirectory.resolve(apkPath.toString()));
+    Path apkFile =
+        apkSerializerHelper.writeToZipFile(
+            systemSplit, outputDirectory.resolve(apkPath.toString()));
 
     ApkDescription.Builder apkDescription =
         ApkDescription.newBuilder()
             .setPath(apkPath.toString())
             .setTargeting(systemSplit.getApkTargeting());
+    apkSerializerHelper.getFingerprint(systemSplit).ifPresent(apkDescription::setFingerprint);
+    if (recordApkSizes) {
+      apkDescription.setFileInfo(ApkSizeUtils.computeApkFileInfo(apkFile));
+    }
 
     if (systemSplit.isBaseModuleSplit() && systemSplit.isMasterSplit()) {
       apkDescription.setSystemApkMetadata(
@@ -73,13 +84,18 @@ public class StandaloneApkSerializer {
   @VisibleForTesting
   ApkDescription writeToDiskInternal(
       ModuleSplit standaloneSplit, Path outputDirectory, ZipPath apkPath) {
-    apkSerializerHelper.writeToZipFile(
-        standaloneSplit, outputDirectory.resolve(apkPath.toString()));
+    Path apkFile =
+        apkSerializerHelper.writeToZipFile(
+            standaloneSplit, outputDirectory.resolve(apkPath.toString()));
 
     ApkDescription.Builder apkDescription =
         ApkDescription.newBuilder()
             .setPath(apkPath.toString())
             .setTargeting(standaloneSplit.getApkTargeting());
+    apkSerializerHelper.getFingerprint(standaloneSplit).ifPresent(apkDescription::setFingerprint);
+    if (recordApkSizes) {
+      apkDescription.setFileInfo(ApkSizeUtils.computeApkFileInfo(apkFile));
+    }
 
     if (standaloneSplit.isApex()) {
       apkDescription.setApexApkMetadata(
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.io;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+import com.android.tools.build.bundletool.model.ZipPath;
+import com.android.zipflinger.Source;
+import com.android.zipflinger.ZipWriter;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+
+/**
+ * A {@link Source} storing the content of a file uncompressed.
+ *
+ * <p>The bytes of the file are transferred directly from the file to the zip, without being loaded
+ * in memory. The CRC of the file is computed when the source is created, so that it can be done
+ * ahead of time, in parallel with other work.
+ */
+final class StoredFileSource extends Source {
+
+  private final Path file;
+
+  private StoredFileSource(Path file, ZipPath entryName, long size, long crc) {
+    super(entryName.toString());
+    this.file = file;
+    this.crc = crc;
+    this.uncompressedSize = size;
+    this.compressedSize = size;
+    this.compressionFlag = (short) ZipEntry.STORED;
+  }
+
+  /** Creates a {@link StoredFileSource} for the given file, reading it once to compute its CRC. */
+  static StoredFileSource create(Path file, ZipPath entryName) throws IOException {
+    long size = Files.size(file);
+    long crc = MoreFiles.asByteSource(file).hash(Hashing.crc32()).padToLong();
+    return new StoredFileSource(file, entryName, size, crc);
+  }
+
+  Path getFile() {
+    return file;
+  }
+
+  @Override
+  public void prepare() {}
+
+  @Override
+  public long writeTo(ZipWriter writer) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, READ)) {
+      writer.transferFrom(channel, 0, uncompressedSize);
+    }
+    return uncompressedSize;
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.io;
+
+import static com.android.tools.build.bundletool.model.utils.files.FileUtils.createParentDirectories;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.android.tools.build.bundletool.model.PhaseTracer;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link PhaseTracer} recording all the phases, to write them as a trace and as a summary.
+ *
+ * <p>The trace is in the Chrome trace event format, which can be opened with Perfetto or
+ * chrome://tracing. The summary gives, for each phase, the number of spans, the bytes processed,
+ * the total wall-clock and CPU time, and the median and 99th percentile of the span durations.
+ */
+public final class TraceRecorder extends PhaseTracer {
+
+  private final PhaseTracer delegate;
+  private final ThreadMXBean threadMxBean = ManagementFactory.getThreadMXBean();
+  private final boolean cpuTimeSupported = threadMxBean.isCurrentThreadCpuTimeSupported();
+  private final long startNanos = System.nanoTime();
+
+  private final Queue<Event> events = new ConcurrentLinkedQueue<>();
+  private final Map<Long, String> threadNames = new ConcurrentHashMap<>();
+
+  public TraceRecorder() {
+    this(PhaseTracer.NO_OP);
+  }
+
+  /** Creates a recorder which also forwards all the phases to the given tracer. */
+  public TraceRecorder(PhaseTracer delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public Span startPhase(Phase phase, String detail) {
+    Span delegateSpan = delegate.startPhase(phase, detail);
+    Thread thread = Thread.currentThread();
+    threadNames.putIfAbsent(thread.getId(), thread.getName());
+    long spanStartNanos = System.nanoTime();
+    long spanStartCpuNanos = currentThreadCpuNanos();
+    AtomicLong bytes = new AtomicLong();
+    return new Span() {
+      @Override
+      public void addBytes(long count) {
+        bytes.addAndGet(count);
+        delegateSpan.addBytes(count);
+      }
+
+      @Override
+      public void close() {
+        long durationNanos = System.nanoTime() - spanStartNanos;
+        long cpuNanos = cpuTimeSupported ? currentThreadCpuNanos() - spanStartCpuNanos : -1;
+        events.add(
+            new Event(
+                phase,
+                detail,
+                thread.getId(),
+                spanStartNanos - startNanos,
+                durationNanos,
+                cpuNanos,
+                bytes.get()));
+        delegateSpan.close();
+      }
+    };
+  }
+
+  /** Writes all the phases recorded so far in the Chrome trace event format. */
+  public void writeTrace(Path traceFile) {
+    StringBuilder json = new StringBuilder("{\"displayTimeUnit\": \"ms\", \"traceEvents\": [\n");
+    String separator = "";
+    for (Map.Entry<Long, String> thread : threadNames.entrySet()) {
+      json.append(separator)
+          .append(
+              String.format(
+                  Locale.ROOT,
+                  "{\"ph\": \"M\", \"name\": \"thread_name\", \"pid\": 1, \"tid\": %d,"
+                      + " \"args\": {\"name\": %s}}",
+                  thread.getKey(),
+                  quote(thread.getValue())));
+      separator = ",\n";
+    }
+    for (Event event : events) {
+      json.append(separator)
+          .append(
+              String.format(
+                  Locale.ROOT,
+                  "{\"ph\": \"X\", \"cat\": \"bundletool\", \"name\": %s, \"pid\": 1, \"tid\": %d,"
+                      + " \"ts\": %.3f, \"dur\": %.3f,%s \"args\": {\"detail\": %s,"
+                      + " \"bytes\": %d}}",
+                  quote(event.phase.getName()),
+                  event.threadId,
+                  event.startNanos / 1e3,
+                  event.durationNanos / 1e3,
+                  event.cpuNanos >= 0 ? String.format(" \"tdur\": %d,", event.cpuNanos / 1000) : "",
+                  quote(event.detail),
+                  event.bytes));
+      separator = ",\n";
+    }
+    json.append("\n]}\n");
+    write(traceFile, json.toString());
+  }
+
+  /** Writes a summary of the phases recorded so far in JSON. */
+  public void writeSummary(Path summaryFile) {
+    ImmutableList<Event> allEvents = ImmutableList.copyOf(events);
+    long wallNanos =
+        allEvents.stream()
+            .mapToLong(event -> event.startNanos + event.durationNanos)
+            .max()
+            .orElse(0);
+
+    StringBuilder json =
+        new StringBuilder(
+            String.format(
+                Locale.ROOT, "{\n  \"wallMillis\": %.3f,\n  \"phases\": [", wallNanos / 1e6));
+    String separator = "\n";
+    for (Phase phase : Phase.values()) {
+      ImmutableList<Event> phaseEvents =
+          allEvents.stream().filter(event -> event.phase.equals(phase)).collect(toImmutableList());
+      if (phaseEvents.isEmpty()) {
+        continue;
+      }
+      long[] durations =
+          phaseEvents.stream().mapToLong(event -> event.durationNanos).sorted().toArray();
+      json.append(separator)
+          .append(
+              String.format(
+                  Locale.ROOT,
+                  "    {\"phase\": %s, \"count\": %d, \"bytes\": %d, \"totalMillis\": %.3f,"
+                      + " \"cpuMillis\": %.3f, \"p50Millis\": %.3f, \"p99Millis\": %.3f}",
+                  quote(phase.getName()),
+                  phaseEvents.size(),
+                  phaseEvents.stream().mapToLong(event -> event.bytes).sum(),
+                  phaseEvents.stream().mapToLong(event -> event.durationNanos).sum() / 1e6,
+                  phaseEvents.stream().mapToLong(event -> Math.max(event.cpuNanos, 0)).sum() / 1e6,
+                  percentile(durations, 50) / 1e6,
+                  percentile(durations, 99) / 1e6));
+      separator = ",\n";
+    }
+    json.append("\n  ]\n}\n");
+    write(summaryFile, json.toString());
+  }
+
+  private long currentThreadCpuNanos() {
+    return cpuTimeSupported ? threadMxBean.getCurrentThreadCpuTime() : 0;
+  }
+
+  /** Returns the given percentile of the sorted values, using the nearest-rank method. */
+  private static long percentile(long[] sortedValues, int percentile) {
+    int rank = (int) Math.ceil(percentile / 100.0 * sortedValues.length);
+    return sortedValues[Math.max(rank, 1) - 1];
+  }
+
+  private static String quote(String value) {
+    StringBuilder quoted = new StringBuilder("\"");
+    for (char c : value.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        quoted.append('\\').append(c);
+      } else if (c < 0x20) {
+        quoted.append(String.format("\\u%04x", (int) c));
+      } else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+
+  private static void write(Path path, String content) {
+    try {
+      createParentDirectories(path);
+      Files.write(path, content.getBytes(UTF_8));
+    } catch (IOException e) {
+      throw new UncheckedIOException(String.format("Failed to write '%s'.", path), e);
+    }
+  }
+
+  private static final class Event {
+    private final Phase phase;
+    private final String detail;
+    private final long threadId;
+    private final long startNanos;
+    private final long durationNanos;
+    private final long cpuNanos;
+    private final long bytes;
+
+    Event(
+        Phase phase,
+        String detail,
+        long threadId,
+        long startNanos,
+        long durationNanos,
+        long cpuNanos,
+        long bytes) {
+      this.phase = phase;
+      this.detail = detail;
+      this.threadId = threadId;
+      this.startNanos = startNanos;
+      this.durationNanos = durationNanos;
+      this.cpuNanos = cpuNanos;
+      this.bytes = bytes;
+    }
+  }
+}
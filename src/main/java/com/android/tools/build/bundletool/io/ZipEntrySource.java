@@ -20,7 +20,6 @@ import static com.android.tools.build.bundletool.model.CompressionLevel.SAME_AS_
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
-import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static java.nio.file.StandardOpenOption.READ;
 
 import com.android.tools.build.bundletool.model.CompressionLevel;
@@ -33,18 +32,26 @@ import com.android.zipflinger.ZipWriter;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.io.ByteStreams;
 import com.google.errorprone.annotations.MustBeClosed;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterInputStream;
 import java.util.zip.ZipEntry;
 
-/** A {@link Source} which can change the compression of an entry. */
-public final class ZipEntrySource extends Source {
+/**
+ * A {@link Source} which can change the compression of an entry.
+ *
+ * <p>A source reusing a payload of a {@link CompressedPayloadCache} holds it until it is written or
+ * closed, which prevents the cache from deleting it, so it must be closed if it may not be written.
+ */
+public final class ZipEntrySource extends Source implements AutoCloseable {
 
   /**
    * Threshold of the size of APK entries above which the compressed bytes will be stored on disk
@@ -60,6 +67,18 @@ public final class ZipEntrySource extends Source {
           .map(Integer::parseInt)
           .orElse(1024 * 1024); // 1 MB
 
+  /**
+   * Whether entries larger than a few chunks are compressed by chunks in parallel.
+   *
+   * <p>This changes the compressed bytes of these entries. Can be enabled using the system property
+   * "bundletool.compression.parallel" set to "true".
+   */
+  static final boolean PARALLEL_COMPRESSION =
+      SystemEnvironmentProvider.DEFAULT_PROVIDER
+          .getProperty("bundletool.compression.parallel")
+          .map(Boolean::parseBoolean)
+          .orElse(false);
+
   private final Entry entry;
   private final Payload payload;
   private final CompressionLevel compressionLevel;
@@ -111,6 +130,25 @@ public final class ZipEntrySource extends Source {
     return new ZipEntrySource(entry, newEntryName, payload, compressionLevel);
   }
 
+  /**
+   * Same as {@link #create(ZipReader, Entry, ZipPath, CompressionLevel, TempDirectory)} but reuses
+   * the compressed payload from the given cache when the entry needs to be compressed.
+   */
+  static ZipEntrySource create(
+      ZipReader zipReader,
+      Entry entry,
+      ZipPath newEntryName,
+      CompressionLevel compressionLevel,
+      TempDirectory tempDirectory,
+      CompressedPayloadCache payloadCache)
+      throws IOException {
+    if (!compressionLevel.isCompressed() || !payloadCache.isCaching(zipReader)) {
+      return create(zipReader, entry, newEntryName, compressionLevel, tempDirectory);
+    }
+    Payload payload = new CachedPayload(payloadCache.acquire(entry, compressionLevel));
+    return new ZipEntrySource(entry, newEntryName, payload, compressionLevel);
+  }
+
   private static Payload buildPayload(
       ZipReader zipReader,
       Entry entry,
@@ -146,19 +184,33 @@ public final class ZipEntrySource extends Source {
       TempDirectory tempDirectory)
       throws IOException {
     Path payloadFile = Files.createTempFile(tempDirectory.getPath(), "entry", ".payload");
-    try (InputStream in = recompressedPayloadInputStream(zipReader, entry, compressionLevel)) {
-      Files.copy(in, payloadFile, REPLACE_EXISTING);
+    try (OutputStream out = Files.newOutputStream(payloadFile)) {
+      compressPayload(zipReader, entry, compressionLevel, out);
     }
     return payloadFile;
   }
 
   private static ByteBuffer extractPayloadToByteBuffer(
       ZipReader zipReader, Entry entry, CompressionLevel compressionLevel) throws IOException {
-    byte[] payloadBytes;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    compressPayload(zipReader, entry, compressionLevel, out);
+    return ByteBuffer.wrap(out.toByteArray());
+  }
+
+  /** Writes the payload of the entry recompressed with the given compression level. */
+  static void compressPayload(
+      ZipReader zipReader, Entry entry, CompressionLevel compressionLevel, OutputStream out)
+      throws IOException {
+    if (PARALLEL_COMPRESSION
+        && entry.getUncompressedSize() > 2L * ParallelDeflater.CHUNK_SIZE_BYTES) {
+      try (InputStream in = zipReader.getUncompressedPayload(entry.getName())) {
+        ParallelDeflater.deflate(in, compressionLevel.getValue(), out);
+      }
+      return;
+    }
     try (InputStream in = recompressedPayloadInputStream(zipReader, entry, compressionLevel)) {
-      payloadBytes = ByteStreams.toByteArray(in);
+      ByteStreams.copy(in, out);
     }
-    return ByteBuffer.wrap(payloadBytes);
   }
 
   @SuppressWarnings("MustBeClosedChecker") // Stream will be closed when the return value is closed.
@@ -179,6 +231,12 @@ public final class ZipEntrySource extends Source {
     return payload.writeTo(writer);
   }
 
+  /** Releases the payload shared through a {@link CompressedPayloadCache}, if any. */
+  @Override
+  public void close() {
+    payload.release();
+  }
+
   public Entry getEntry() {
     return entry;
   }
@@ -211,6 +269,9 @@ public final class ZipEntrySource extends Source {
 
     /** Returns the size of the payload (equivalent to the compressed size). */
     public abstract long size();
+
+    /** Releases the resources shared with other sources. Can be called several times. */
+    public void release() {}
   }
 
   /** A {@link Payload} whose bytes are kept in-memory. */
@@ -261,6 +322,40 @@ public final class ZipEntrySource extends Source {
     }
   }
 
+  /** A {@link Payload} shared with other sources through a {@link CompressedPayloadCache}. */
+  private static final class CachedPayload extends Payload {
+
+    private final CompressedPayloadCache.CachedPayload cachedPayload;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    CachedPayload(CompressedPayloadCache.CachedPayload cachedPayload) {
+      this.cachedPayload = cachedPayload;
+    }
+
+    @Override
+    public long writeTo(ZipWriter writer) throws IOException {
+      checkState(!released.get(), "Payload already released.");
+      try {
+        return cachedPayload.writeTo(writer);
+      } finally {
+        // Released as soon as written, so that the cache can evict it.
+        release();
+      }
+    }
+
+    @Override
+    public long size() {
+      return cachedPayload.size();
+    }
+
+    @Override
+    public void release() {
+      if (released.compareAndSet(false, true)) {
+        cachedPayload.release();
+      }
+    }
+  }
+
   /** A {@link Payload} whose bytes are the same as from another zip file. */
   private static final class FromZipPayload extends Payload {
 
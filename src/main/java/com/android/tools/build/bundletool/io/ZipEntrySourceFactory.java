@@ -19,6 +19,7 @@ import com.android.tools.build.bundletool.model.CompressionLevel;
 import com.android.tools.build.bundletool.model.ZipPath;
 import com.android.zipflinger.Entry;
 import java.io.IOException;
+import java.util.Optional;
 
 /**
  * Factory to build {@link ZipEntrySource} for a given zip file.
@@ -30,6 +31,7 @@ public final class ZipEntrySourceFactory {
 
   private final ZipReader zipReader;
   private final TempDirectory tempDirectory;
+  private final Optional<CompressedPayloadCache> payloadCache;
 
   /**
    * Builds a factory of {@link ZipEntrySource} where all created objects will share the given zip
@@ -38,6 +40,18 @@ public final class ZipEntrySourceFactory {
   public ZipEntrySourceFactory(ZipReader zipReader, TempDirectory tempDirectory) {
     this.zipReader = zipReader;
     this.tempDirectory = tempDirectory;
+    this.payloadCache = Optional.empty();
+  }
+
+  /**
+   * Same as {@link #ZipEntrySourceFactory(ZipReader, TempDirectory)} but reuses the compressed
+   * payloads of the given cache, shared with other factories.
+   */
+  ZipEntrySourceFactory(
+      ZipReader zipReader, TempDirectory tempDirectory, CompressedPayloadCache payloadCache) {
+    this.zipReader = zipReader;
+    this.tempDirectory = tempDirectory;
+    this.payloadCache = Optional.of(payloadCache);
   }
 
   /**
@@ -56,6 +70,10 @@ public final class ZipEntrySourceFactory {
    */
   public ZipEntrySource create(Entry entry, ZipPath newEntryName, CompressionLevel compressionLevel)
       throws IOException {
+    if (payloadCache.isPresent()) {
+      return ZipEntrySource.create(
+          zipReader, entry, newEntryName, compressionLevel, tempDirectory, payloadCache.get());
+    }
     return ZipEntrySource.create(zipReader, entry, newEntryName, compressionLevel, tempDirectory);
   }
 }
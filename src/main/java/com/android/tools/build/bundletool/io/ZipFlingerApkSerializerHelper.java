@@ -37,6 +37,9 @@ import com.android.tools.build.bundletool.model.BundleModule.SpecialModuleEntry;
 import com.android.tools.build.bundletool.model.CompressionLevel;
 import com.android.tools.build.bundletool.model.ModuleEntry;
 import com.android.tools.build.bundletool.model.ModuleSplit;
+import com.android.tools.build.bundletool.model.PhaseTracer;
+import com.android.tools.build.bundletool.model.PhaseTracer.Phase;
+import com.android.tools.build.bundletool.model.PhaseTracer.Span;
 import com.android.tools.build.bundletool.model.ZipPath;
 import com.android.tools.build.bundletool.model.utils.PathMatcher;
 import com.android.tools.build.bundletool.model.utils.files.FileUtils;
@@ -68,6 +71,8 @@ final class ZipFlingerApkSerializerHelper extends ApkSerializerHelper {
   private final ApkSigner apkSigner;
   private final Aapt2Command aapt2;
   private final Version bundletoolVersion;
+  private final CompressedPayloadCache payloadCache;
+  private final PhaseTracer phaseTracer;
 
   /**
    * Whether to re-use the compression of the entries in the App Bundle.
@@ -84,13 +89,17 @@ final class ZipFlingerApkSerializerHelper extends ApkSerializerHelper {
       Aapt2Command aapt2,
       Version bundletoolVersion,
       ApkSigner apkSigner,
-      @UseBundleCompression boolean useBundleCompression) {
+      CompressedPayloadCache payloadCache,
+      @UseBundleCompression boolean useBundleCompression,
+      PhaseTracer phaseTracer) {
     this.bundleZipReader = bundleZipReader;
     this.bundleConfig = bundleConfig;
     this.aapt2 = aapt2;
     this.bundletoolVersion = bundletoolVersion;
     this.apkSigner = apkSigner;
+    this.payloadCache = payloadCache;
     this.useBundleCompression = useBundleCompression;
+    this.phaseTracer = phaseTracer;
   }
 
   @Override
@@ -116,17 +125,23 @@ final class ZipFlingerApkSerializerHelper extends ApkSerializerHelper {
 
     // Invoke aapt2 to convert files from proto to binary format.
     Path binaryApkPath = tempDir.getPath().resolve("binary.apk");
-    aapt2.convertApkProtoToBinary(partialProtoApk, binaryApkPath);
-    checkState(Files.exists(binaryApkPath), "No APK created by aapt2 convert command.");
+    try (Span span = phaseTracer.startPhase(Phase.AAPT2_CONVERT, outputPath.toString())) {
+      aapt2.convertApkProtoToBinary(partialProtoApk, binaryApkPath);
+      checkState(Files.exists(binaryApkPath), "No APK created by aapt2 convert command.");
+      span.addBytes(Files.size(binaryApkPath));
+    }
 
     CompressionManager compressionManager = new CompressionManager(split, bundleConfig);
 
-    try (ZipArchive apkWriter = new ZipArchive(outputPath.toFile())) {
-      addEntriesConvertedByAapt2(apkWriter, binaryApkPath, compressionManager, tempDir);
-      addRemainingEntries(apkWriter, split, compressionManager, tempDir);
+    try (Span span = phaseTracer.startPhase(Phase.COMPRESS_ENTRIES, outputPath.toString())) {
+      try (ZipArchive apkWriter = new ZipArchive(outputPath.toFile())) {
+        addEntriesConvertedByAapt2(apkWriter, binaryApkPath, compressionManager, tempDir);
+        addRemainingEntries(apkWriter, split, compressionManager, tempDir);
+      }
+      span.addBytes(Files.size(outputPath));
     }
 
-    apkSigner.signApk(outputPath, split);
+    apkSigner.signApkInPlace(outputPath, split);
   }
 
   @SuppressWarnings("MethodCanBeStatic")
@@ -173,7 +188,9 @@ final class ZipFlingerApkSerializerHelper extends ApkSerializerHelper {
             comparing(entry -> ApkSerializerHelper.toApkEntryPath(entry.getPath())),
             split.getEntries());
 
-    ZipEntrySourceFactory sourceFactory = new ZipEntrySourceFactory(bundleZipReader, tempDir);
+    // Entries present in several APKs are only compressed once.
+    ZipEntrySourceFactory sourceFactory =
+        new ZipEntrySourceFactory(bundleZipReader, tempDir, payloadCache);
     ImmutableMap<String, Entry> bundleEntries = bundleZipReader.getEntries();
 
     for (ModuleEntry moduleEntry : sortedEntries) {
@@ -195,10 +212,10 @@ final class ZipFlingerApkSerializerHelper extends ApkSerializerHelper {
         } else {
           compressionLevel = NO_COMPRESSION;
         }
-        apkWriter.add(
-            sourceFactory
-                .create(entry, pathInApk, compressionLevel)
-                .setAlignment(getEntryAlignment(pathInApk, shouldCompress)));
+        // Releases the cached payload even if the source is never written.
+        try (ZipEntrySource source = sourceFactory.create(entry, pathInApk, compressionLevel)) {
+          apkWriter.add(source.setAlignment(getEntryAlignment(pathInApk, shouldCompress)));
+        }
       } else {
         BytesSource bytesSource =
             new BytesSource(
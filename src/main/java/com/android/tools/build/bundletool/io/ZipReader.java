@@ -17,35 +17,68 @@ package com.android.tools.build.bundletool.io;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
 import static java.nio.file.StandardOpenOption.READ;
+import static java.util.Comparator.comparingLong;
 
 import com.android.tools.build.bundletool.io.ZipReader.EntryNotFoundException;
+import com.android.tools.build.bundletool.model.ZipPath;
 import com.android.tools.build.bundletool.model.exceptions.CommandExecutionException;
 import com.android.tools.build.bundletool.model.exceptions.InvalidBundleException;
+import com.android.tools.build.bundletool.model.utils.SystemEnvironmentProvider;
+import com.android.tools.build.bundletool.model.utils.ZipUtils;
 import com.android.zipflinger.Entry;
 import com.android.zipflinger.Location;
 import com.android.zipflinger.PayloadInputStream;
 import com.android.zipflinger.ZipMap;
 import com.android.zipflinger.ZipWriter;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteSource;
+import com.google.common.primitives.Ints;
 import com.google.errorprone.annotations.MustBeClosed;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Optional;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
-/** Parses a zip file, and allows to read entries and their content. */
+/**
+ * Parses a zip file, and allows to read entries and their content.
+ *
+ * <p>The content of the entries is read with positioned reads, so it can be read concurrently from
+ * multiple threads. In memory-mapped mode, the zip file is mapped in memory and the payloads are
+ * served from slices of the mapping, avoiding a system call per read.
+ */
 public final class ZipReader implements AutoCloseable {
 
+  /**
+   * Whether zip files are memory-mapped by default.
+   *
+   * <p>Can be overridden using the system property "bundletool.zipreader.mmap" set to "true".
+   * Disabled by default since mapped files can't be deleted on Windows until garbage collected.
+   */
+  private static final boolean MEMORY_MAP_BY_DEFAULT =
+      SystemEnvironmentProvider.DEFAULT_PROVIDER
+          .getProperty("bundletool.zipreader.mmap")
+          .map(Boolean::parseBoolean)
+          .orElse(false);
+
   /** The parsed map of the zip file. */
   private final ZipMap zipMap;
 
+  /** The entries of the zip file keyed by their name, shared by all callers. */
+  private final ImmutableMap<String, Entry> entries;
+
   /**
    * The file channel to the zip file.
    *
@@ -53,18 +86,65 @@ public final class ZipReader implements AutoCloseable {
    */
   private final FileChannel fileChannel;
 
-  private ZipReader(ZipMap zipMap, FileChannel fileChannel) {
+  /** The memory-mapped zip file, in memory-mapped mode. */
+  private final Optional<MappedFile> mappedFile;
+
+  private ZipReader(ZipMap zipMap, FileChannel fileChannel, Optional<MappedFile> mappedFile) {
     this.zipMap = zipMap;
+    this.entries = ImmutableMap.copyOf(zipMap.getEntries());
     this.fileChannel = fileChannel;
+    this.mappedFile = mappedFile;
   }
 
   /** Creates an instance of {@link ZipReader} for the given zip file. */
   @MustBeClosed
   public static ZipReader createFromFile(Path zipFile) {
+    return createFromFile(zipFile, MEMORY_MAP_BY_DEFAULT);
+  }
+
+  /**
+   * Creates an instance of {@link ZipReader} for the given zip file.
+   *
+   * @param memoryMapped whether the zip file is memory-mapped to serve the payloads of its entries
+   */
+  @MustBeClosed
+  public static ZipReader createFromFile(Path zipFile, boolean memoryMapped) {
+    return createFromFile(
+        zipFile,
+        memoryMapped,
+        MappedFile.DEFAULT_WINDOW_SIZE,
+        MappedFile.DEFAULT_WINDOW_OVERLAP);
+  }
+
+  /**
+   * Creates a memory-mapped instance of {@link ZipReader} for the given zip file, mapping the file
+   * by windows of the given size.
+   */
+  @VisibleForTesting
+  @MustBeClosed
+  static ZipReader createMemoryMappedFromFile(Path zipFile, long windowSize, long windowOverlap) {
+    return createFromFile(zipFile, /* memoryMapped= */ true, windowSize, windowOverlap);
+  }
+
+  @MustBeClosed
+  private static ZipReader createFromFile(
+      Path zipFile, boolean memoryMapped, long windowSize, long windowOverlap) {
     checkNotNull(zipFile);
     checkArgument(Files.exists(zipFile));
     try {
-      return new ZipReader(ZipMap.from(zipFile.toFile()), FileChannel.open(zipFile, READ));
+      ZipMap zipMap = ZipMap.from(zipFile.toFile());
+      FileChannel fileChannel = FileChannel.open(zipFile, READ);
+      try {
+        return new ZipReader(
+            zipMap,
+            fileChannel,
+            memoryMapped
+                ? Optional.of(MappedFile.map(fileChannel, windowSize, windowOverlap))
+                : Optional.empty());
+      } catch (IOException | RuntimeException e) {
+        fileChannel.close();
+        throw e;
+      }
     } catch (IllegalStateException e) {
       // Zipflinger library throws IllegalStateExceptions when the zip has a bad format.
       throw InvalidBundleException.builder()
@@ -78,12 +158,34 @@ public final class ZipReader implements AutoCloseable {
 
   /** Returns the map of entries inside the zip file (per the CD) keyed by their name. */
   public ImmutableMap<String, Entry> getEntries() {
-    return ImmutableMap.copyOf(zipMap.getEntries());
+    return entries;
+  }
+
+  /**
+   * Returns the uncompressed content of each file entry of the zip file, keyed by their path, in
+   * the order in which they are stored in the zip file.
+   *
+   * <p>The returned {@link ByteSource}s can be read concurrently, but only until {@code this} is
+   * closed. The CRC-32 and size of the entries are exposed through {@link
+   * ZipUtils#getCrc32IfKnown(ByteSource)} and {@link ByteSource#sizeIfKnown()}.
+   */
+  public ImmutableMap<ZipPath, ByteSource> getFileEntryContents() {
+    return entries.values().stream()
+        .filter(entry -> !entry.getName().endsWith("/"))
+        .sorted(comparingLong(entry -> entry.getPayloadLocation().first))
+        .collect(
+            toImmutableMap(
+                entry -> ZipPath.create(entry.getName()),
+                entry ->
+                    ZipUtils.asByteSource(
+                        new EntryByteSource(entry),
+                        entry.getUncompressedSize(),
+                        entry.getCrc() & 0xFFFFFFFFL)));
   }
 
   /** Returns the metadata about a zip entry from its name. */
   public Optional<Entry> getEntry(String entryName) {
-    return Optional.ofNullable(zipMap.getEntries().get(entryName));
+    return Optional.ofNullable(entries.get(entryName));
   }
 
   /**
@@ -104,15 +206,36 @@ public final class ZipReader implements AutoCloseable {
     Entry entry =
         getEntry(entryName)
             .orElseThrow(() -> new EntryNotFoundException(zipMap.getFile(), entryName));
+    return getUncompressedPayload(entry);
+  }
+
+  @MustBeClosed
+  private InputStream getUncompressedPayload(Entry entry) {
     InputStream entryPayload = getEntryPayload(entry);
     if (!entry.isCompressed()) {
       return entryPayload;
     }
     Inflater inflater = new Inflater(/* nowrap= */ true); // nowrap = gzip compatible
-    return new InflaterInputStream(entryPayload, inflater);
+    return new InflaterInputStream(entryPayload, inflater) {
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        } finally {
+          // Release the native memory of the inflater without waiting for garbage collection.
+          inflater.end();
+        }
+      }
+    };
   }
 
   private InputStream getEntryPayload(Entry entry) {
+    if (mappedFile.isPresent()) {
+      Optional<ByteBuffer> payload = mappedFile.get().slice(entry.getPayloadLocation());
+      if (payload.isPresent()) {
+        return new ByteBufferInputStream(payload.get());
+      }
+    }
     try {
       return new PayloadInputStream(fileChannel, entry.getPayloadLocation());
     } catch (IOException e) {
@@ -143,6 +266,120 @@ public final class ZipReader implements AutoCloseable {
     fileChannel.close();
   }
 
+  /**
+   * A file mapped in memory by windows, since a single mapping is limited to 2 GB.
+   *
+   * <p>Consecutive windows overlap so that any range smaller than the overlap is contained in a
+   * single window. Larger ranges spanning two windows are not served from the mapping.
+   */
+  private static final class MappedFile {
+    static final long DEFAULT_WINDOW_SIZE = 1L << 30; // 1 GB
+    static final long DEFAULT_WINDOW_OVERLAP = 1L << 28; // 256 MB
+
+    private final ImmutableList<MappedByteBuffer> windows;
+    private final long windowSize;
+
+    private MappedFile(ImmutableList<MappedByteBuffer> windows, long windowSize) {
+      this.windows = windows;
+      this.windowSize = windowSize;
+    }
+
+    static MappedFile map(FileChannel fileChannel, long windowSize, long windowOverlap)
+        throws IOException {
+      checkArgument(windowSize > 0, "The size of the mapping windows must be positive.");
+      checkArgument(
+          windowOverlap >= 0 && windowSize + windowOverlap <= Integer.MAX_VALUE,
+          "The mapping windows must be smaller than 2 GB.");
+      long fileSize = fileChannel.size();
+      ImmutableList.Builder<MappedByteBuffer> windows = ImmutableList.builder();
+      for (long start = 0; start < fileSize; start += windowSize) {
+        long size = Math.min(windowSize + windowOverlap, fileSize - start);
+        windows.add(fileChannel.map(MapMode.READ_ONLY, start, size));
+      }
+      return new MappedFile(windows.build(), windowSize);
+    }
+
+    /**
+     * Returns a read-only buffer with the bytes at the given location, or empty if the location
+     * isn't contained in a single window.
+     */
+    Optional<ByteBuffer> slice(Location location) {
+      int windowIndex = Ints.checkedCast(location.first / windowSize);
+      if (windowIndex >= windows.size()) {
+        return Optional.empty();
+      }
+      long windowStart = windowIndex * windowSize;
+      ByteBuffer window = windows.get(windowIndex);
+      long end = location.first + location.size() - windowStart;
+      if (end > window.capacity()) {
+        return Optional.empty();
+      }
+      // Each caller gets its own duplicate, so that positions aren't shared across threads.
+      ByteBuffer slice = window.asReadOnlyBuffer();
+      slice.position(Ints.checkedCast(location.first - windowStart));
+      slice.limit(Ints.checkedCast(end));
+      return Optional.of(slice.slice());
+    }
+  }
+
+  /** An {@link InputStream} reading the remaining bytes of a {@link ByteBuffer}. */
+  private static final class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int read = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, read);
+      return read;
+    }
+
+    @Override
+    public long skip(long n) {
+      int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+      buffer.position(buffer.position() + skipped);
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+
+  /** {@link ByteSource} of the uncompressed content of a zip entry. */
+  private final class EntryByteSource extends ByteSource {
+    private final Entry entry;
+
+    EntryByteSource(Entry entry) {
+      this.entry = entry;
+    }
+
+    @Override
+    public InputStream openStream() {
+      return getUncompressedPayload(entry);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("ZipReader.asByteSource(%s, %s)", zipMap.getFile(), entry.getName());
+    }
+  }
+
   /** Exception thrown when an entry is searched for but not found in a zip file. */
   static class EntryNotFoundException extends CommandExecutionException {
     EntryNotFoundException(File zipFile, String entryName) {
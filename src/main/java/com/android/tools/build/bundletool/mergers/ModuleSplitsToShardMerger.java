@@ -67,6 +67,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 import javax.inject.Inject;
 
@@ -83,6 +84,14 @@ public class ModuleSplitsToShardMerger {
   private final DexMerger dexMerger;
   private final AppBundle appBundle;
 
+  /**
+   * Merged resource tables, keyed by the resource tables they were merged from.
+   *
+   * <p>Resource tables are mostly shared by reference between splits, so looking them up is cheap.
+   */
+  private final Map<ImmutableList<ResourceTable>, ResourceTable> mergedResourceTableCache =
+      new ConcurrentHashMap<>();
+
   @Inject
   public ModuleSplitsToShardMerger(
       Version bundletoolVersion,
@@ -131,13 +140,11 @@ public class ModuleSplitsToShardMerger {
         HashMultimap.create();
 
     Map<ZipPath, ModuleEntry> mergedEntriesByPath = new HashMap<>();
-    Optional<ResourceTable> mergedResourceTable = Optional.empty();
     Map<String, TargetedAssetsDirectory> mergedAssetsConfig = new HashMap<>();
     ApkTargeting mergedSplitTargeting = ApkTargeting.getDefaultInstance();
 
     for (ModuleSplit split : splitsOfShard) {
-      // Resource tables and Split targetings can be merged for each split individually as we go.
-      mergedResourceTable = mergeResourceTables(mergedResourceTable, split);
+      // Split targetings can be merged for each split individually as we go.
       mergedSplitTargeting = mergeSplitTargetings(mergedSplitTargeting, split);
 
       // Android manifests need to be merged later, globally for all splits.
@@ -160,6 +167,9 @@ public class ModuleSplitsToShardMerger {
               });
     }
 
+    // Resource tables are merged all at once.
+    Optional<ResourceTable> mergedResourceTable = mergeResourceTables(splitsOfShard);
+
     AndroidManifest mergedAndroidManifest = manifestMerger.merge(androidManifestsToMergeByModule);
 
     Collection<ModuleEntry> mergedDexFiles =
@@ -373,23 +383,33 @@ public class ModuleSplitsToShardMerger {
   }
 
   private Optional<ResourceTable> mergeResourceTables(
-      Optional<ResourceTable> merged, ModuleSplit split) {
-    if (!merged.isPresent()) {
-      return split.getResourceTable();
+      ImmutableCollection<ModuleSplit> splitsOfShard) {
+    ImmutableList<ResourceTable> resourceTables =
+        splitsOfShard.stream()
+            .map(ModuleSplit::getResourceTable)
+            .flatMap(Streams::stream)
+            .collect(toImmutableList());
+    if (resourceTables.isEmpty()) {
+      return Optional.empty();
     }
-    if (split.getResourceTable().isPresent()) {
-      try {
-        return Optional.of(
-            new ResourceTableMerger().merge(merged.get(), split.getResourceTable().get()));
-      } catch (CommandExecutionException | IllegalStateException e) {
-        throw CommandExecutionException.builder()
-            .withCause(e)
-            .withInternalMessage(
-                "Failed to merge with resource table of module '%s'.", split.getModuleName())
-            .build();
-      }
+
+    // Shards often share all their resource tables, e.g. shards which only differ by ABI.
+    ResourceTable cachedResourceTable = mergedResourceTableCache.get(resourceTables);
+    if (cachedResourceTable != null) {
+      return Optional.of(cachedResourceTable);
+    }
+    try {
+      ResourceTable mergedResourceTable = new ResourceTableMerger().merge(resourceTables);
+      mergedResourceTableCache.put(resourceTables, mergedResourceTable);
+      return Optional.of(mergedResourceTable);
+    } catch (CommandExecutionException | IllegalStateException | IllegalArgumentException e) {
+      throw CommandExecutionException.builder()
+          .withCause(e)
+          .withInternalMessage(
+              "Failed to merge the resource tables of modules %s.",
+              getUniqueModuleNames(splitsOfShard))
+          .build();
     }
-    return merged;
   }
 
   private ApkTargeting mergeSplitTargetings(ApkTargeting merged, ModuleSplit split) {
@@ -16,6 +16,7 @@
 
 package com.android.tools.build.bundletool.mergers;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Predicates.not;
 import static com.google.common.collect.ImmutableList.toImmutableList;
@@ -32,6 +33,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Streams;
@@ -40,15 +42,16 @@ import com.google.protobuf.Descriptors.FieldDescriptor;
 import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
 import com.google.protobuf.Message;
 import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.function.BiFunction;
 import java.util.function.Function;
 import javax.annotation.CheckReturnValue;
 
 /**
- * Recursively merges two resource tables.
+ * Recursively merges resource tables.
  *
  * <p>Many fields are just asserted to be equal, actual merging affects only the following repeated
  * fields:
@@ -60,16 +63,16 @@ import javax.annotation.CheckReturnValue;
  *   <li>{@code ResourceTable.package[*].type[*].entry[*].config_value}
  * </ul>
  *
- * When merging repeated fields of {@link Package}, {@link Type} or {@link Entry}, protos in the two
+ * When merging repeated fields of {@link Package}, {@link Type} or {@link Entry}, protos in the
  * fields are paired based on an ID field. For two paired protos, their non-repeated fields are
  * asserted to be equal (eg. ResourceTable.source_pool) and selected repeated fields are merged
- * recursively by the same-ID principle. Two repeated fields of {@link ConfigValue}s are merged just
+ * recursively by the same-ID principle. Repeated fields of {@link ConfigValue}s are merged just
  * based on {@link Object#equals(Object)} in the sense that if the config values are equal, the
  * merged resource table contains the config value only once (no duplicates).
  *
  * <p>Because {@code source_pool} messages cannot be easily merged yet, the implementation chooses
- * to preserve source pool of the first input table, and strip all source references in the second
- * input table unless the tables have identical source pools.
+ * to preserve source pool of the first input table, and strip all source references in the other
+ * input tables unless they have the same source pool as the first table.
  *
  * <p>Implementation note: All of the "merge*" methods use pattern {@code .toBuilder() -> <modify>
  * -> .build()}. This way we preserve the property of whether a field is set or not set for the
@@ -78,20 +81,41 @@ import javax.annotation.CheckReturnValue;
 public class ResourceTableMerger {
 
   public ResourceTable merge(ResourceTable table1, ResourceTable table2) {
-    if (!table1.getSourcePool().equals(table2.getSourcePool())) {
-      // The source_pool in ResourceTable is opaque and cannot be easily manipulated. Therefore
-      // if the source pools aren't exactly the same, we choose to adopt source pool of table1 and
-      // to invalidate source references in table2.
-      ResourceTable.Builder table2Builder = table2.toBuilder();
-      stripSourceReferences(table2Builder);
-      table2 = table2Builder.build();
+    return merge(ImmutableList.of(table1, table2));
+  }
+
+  /**
+   * Merges all the given resource tables at once.
+   *
+   * <p>The result is the same as merging the tables two by two from first to last, but the tables
+   * are only traversed once and the merged table is only built once. A single table is returned
+   * unchanged.
+   */
+  public ResourceTable merge(List<ResourceTable> tables) {
+    checkArgument(!tables.isEmpty(), "Expected at least one resource table to merge.");
+    if (tables.size() == 1) {
+      return tables.get(0);
+    }
+
+    ResourceTable firstTable = tables.get(0);
+    List<ResourceTable> tablesToMerge = new ArrayList<>(tables.size());
+    tablesToMerge.add(firstTable);
+    for (ResourceTable table : tables.subList(1, tables.size())) {
+      if (!firstTable.getSourcePool().equals(table.getSourcePool())) {
+        // The source_pool in ResourceTable is opaque and cannot be easily manipulated. Therefore
+        // if the source pools aren't exactly the same, we choose to adopt source pool of the first
+        // table and to invalidate source references in the other tables.
+        ResourceTable.Builder tableBuilder = table.toBuilder();
+        stripSourceReferences(tableBuilder);
+        table = tableBuilder.build();
+      }
+      tablesToMerge.add(table);
     }
 
     // Merge the overlayables using the name as an id
     ImmutableList<Overlayable> mergedOverlayables =
         mergeRepeatedValues(
-            table1.getOverlayableList(),
-            table2.getOverlayableList(),
+            Lists.transform(tablesToMerge, ResourceTable::getOverlayableList),
             Overlayable::getName,
             this::mergeOverlayables);
 
@@ -102,19 +126,18 @@ public class ResourceTableMerger {
           toIndexMap(mergedOverlayables, Overlayable::getName);
       ImmutableMap<String, Integer> idxByOverlayableName =
           ImmutableBiMap.copyOf(idxToOverlayableName).inverse();
-      table1 = reIndexOverlayables(table1, idxByOverlayableName);
-      table2 = reIndexOverlayables(table2, idxByOverlayableName);
+      tablesToMerge.replaceAll(table -> reIndexOverlayables(table, idxByOverlayableName));
     }
 
-    return table1
+    return tablesToMerge
+        .get(0)
         .toBuilder()
         .clearOverlayable()
         .addAllOverlayable(mergedOverlayables)
         .clearPackage()
         .addAllPackage(
             mergeRepeatedValues(
-                table1.getPackageList(),
-                table2.getPackageList(),
+                Lists.transform(tablesToMerge, ResourceTable::getPackageList),
                 pkg -> pkg.getPackageId().getId(),
                 this::mergePackages))
         .build();
@@ -152,103 +175,117 @@ public class ResourceTableMerger {
     return ImmutableMap.copyOf(Maps.transformValues(map, valueFn::apply));
   }
 
-  private Overlayable mergeOverlayables(Overlayable overlayable1, Overlayable overlayable2) {
-    assertEqualFields(overlayable1, overlayable2, Overlayable::getName, /* fieldName= */ "name");
-    assertEqualFields(overlayable1, overlayable2, Overlayable::getActor, /* fieldName= */ "actor");
+  private Overlayable mergeOverlayables(List<Overlayable> overlayables) {
+    Overlayable overlayable1 = overlayables.get(0);
+    for (Overlayable overlayable2 : overlayables.subList(1, overlayables.size())) {
+      assertEqualFields(overlayable1, overlayable2, Overlayable::getName, /* fieldName= */ "name");
+      assertEqualFields(
+          overlayable1, overlayable2, Overlayable::getActor, /* fieldName= */ "actor");
+    }
     return overlayable1;
   }
 
-  private Package mergePackages(Package pkg1, Package pkg2) {
-    assertEqualFields(pkg1, pkg2, Package::getPackageId, /* fieldName= */ "package_id");
-    assertEqualFields(pkg1, pkg2, Package::getPackageName, /* fieldName= */ "package_name");
+  private Package mergePackages(List<Package> pkgs) {
+    Package pkg1 = pkgs.get(0);
+    for (Package pkg2 : pkgs.subList(1, pkgs.size())) {
+      assertEqualFields(pkg1, pkg2, Package::getPackageId, /* fieldName= */ "package_id");
+      assertEqualFields(pkg1, pkg2, Package::getPackageName, /* fieldName= */ "package_name");
+    }
 
     return pkg1.toBuilder()
         .clearType()
         .addAllType(
             mergeRepeatedValues(
-                pkg1.getTypeList(),
-                pkg2.getTypeList(),
+                Lists.transform(pkgs, Package::getTypeList),
                 type -> type.getTypeId().getId(),
                 this::mergeTypes))
         .build();
   }
 
-  private Type mergeTypes(Type type1, Type type2) {
-    assertEqualFields(type1, type2, Type::getTypeId, /* fieldName= */ "type_id");
-    assertEqualFields(type1, type2, Type::getName, /* fieldName= */ "name");
+  private Type mergeTypes(List<Type> types) {
+    Type type1 = types.get(0);
+    for (Type type2 : types.subList(1, types.size())) {
+      assertEqualFields(type1, type2, Type::getTypeId, /* fieldName= */ "type_id");
+      assertEqualFields(type1, type2, Type::getName, /* fieldName= */ "name");
+    }
 
     return type1
         .toBuilder()
         .clearEntry()
         .addAllEntry(
             mergeRepeatedValues(
-                type1.getEntryList(),
-                type2.getEntryList(),
+                Lists.transform(types, Type::getEntryList),
                 entry -> entry.getEntryId().getId(),
                 this::mergeEntries))
         .build();
   }
 
-  private Entry mergeEntries(Entry entry1, Entry entry2) {
-    assertEqualFields(entry1, entry2, Entry::getEntryId, /* fieldName= */ "entry_id");
-    assertEqualFields(entry1, entry2, Entry::getName, /* fieldName= */ "name");
-    assertEqualFields(entry1, entry2, Entry::getVisibility, /* fieldName= */ "visibility");
-    assertEqualFields(entry1, entry2, Entry::getAllowNew, /* fieldName= */ "allow_new");
-    assertEqualFields(
-        entry1, entry2, Entry::getOverlayableItem, /* fieldName= */ "overlayable_item");
+  private Entry mergeEntries(List<Entry> entries) {
+    Entry entry1 = entries.get(0);
+    for (Entry entry2 : entries.subList(1, entries.size())) {
+      assertEqualFields(entry1, entry2, Entry::getEntryId, /* fieldName= */ "entry_id");
+      assertEqualFields(entry1, entry2, Entry::getName, /* fieldName= */ "name");
+      assertEqualFields(entry1, entry2, Entry::getVisibility, /* fieldName= */ "visibility");
+      assertEqualFields(entry1, entry2, Entry::getAllowNew, /* fieldName= */ "allow_new");
+      assertEqualFields(
+          entry1, entry2, Entry::getOverlayableItem, /* fieldName= */ "overlayable_item");
+    }
 
     return entry1
         .toBuilder()
         .clearConfigValue()
         .addAllConfigValue(
-            mergeConfigValueLists(entry1.getConfigValueList(), entry2.getConfigValueList()))
+            mergeConfigValueLists(Lists.transform(entries, Entry::getConfigValueList)))
         .build();
   }
 
-  private List<ConfigValue> mergeConfigValueLists(
-      List<ConfigValue> configValues1, List<ConfigValue> configValues2) {
-    HashSet<ConfigValue> configValues1Set = Sets.newHashSet(configValues1);
-    return ImmutableList.<ConfigValue>builder()
-        .addAll(configValues1)
-        .addAll(
-            configValues2.stream()
-                .filter(not(configValues1Set::contains))
-                .collect(toImmutableList()))
-        .build();
+  /**
+   * Concatenates the lists of config values, skipping the values of each list which are already in
+   * one of the previous lists.
+   */
+  private List<ConfigValue> mergeConfigValueLists(List<List<ConfigValue>> configValueLists) {
+    List<ConfigValue> mergedConfigValues = new ArrayList<>(configValueLists.get(0));
+    HashSet<ConfigValue> mergedConfigValuesSet = Sets.newHashSet(mergedConfigValues);
+    for (List<ConfigValue> configValues : configValueLists.subList(1, configValueLists.size())) {
+      ImmutableList<ConfigValue> newConfigValues =
+          configValues.stream()
+              .filter(not(mergedConfigValuesSet::contains))
+              .collect(toImmutableList());
+      mergedConfigValues.addAll(newConfigValues);
+      mergedConfigValuesSet.addAll(newConfigValues);
+    }
+    return mergedConfigValues;
   }
 
   /**
-   * Merges values of two 'repeated' proto fields.
+   * Merges values of 'repeated' proto fields.
    *
    * <p>Each value within a value list has an ID, computed by applying {@code getIdFn}. Values of
-   * both lists are paired by matching IDs. Paired values are merged by applying {@code
-   * mergeValuesFn}. Unpaired values are inserted to the result unmodified.
+   * all lists are paired by matching IDs. Paired values are merged by applying {@code
+   * mergeValuesFn} to them, in the order of the lists. Unpaired values are inserted to the result
+   * unmodified.
    */
   private <V, I extends Comparable<?>> ImmutableList<V> mergeRepeatedValues(
-      List<V> values1, List<V> values2, Function<V, I> getIdFn, BiFunction<V, V, V> mergeValuesFn) {
+      List<List<V>> valueLists, Function<V, I> getIdFn, Function<List<V>, V> mergeValuesFn) {
 
     ImmutableList.Builder<V> result = ImmutableList.builder();
 
-    Map<I, V> idToValue1 = Maps.uniqueIndex(values1, getIdFn::apply);
-    Map<I, V> idToValue2 = Maps.uniqueIndex(values2, getIdFn::apply);
+    Map<I, List<V>> idToValues = new HashMap<>();
+    for (List<V> values : valueLists) {
+      // IDs must be unique within each list.
+      for (Map.Entry<I, V> idAndValue : Maps.uniqueIndex(values, getIdFn::apply).entrySet()) {
+        idToValues
+            .computeIfAbsent(idAndValue.getKey(), id -> new ArrayList<>())
+            .add(idAndValue.getValue());
+      }
+    }
 
     // Order the IDs (for better debugging of merged resource tables).
-    ImmutableList<I> allIds =
-        Sets.union(idToValue1.keySet(), idToValue2.keySet()).stream()
-            .sorted()
-            .collect(toImmutableList());
+    ImmutableList<I> allIds = idToValues.keySet().stream().sorted().collect(toImmutableList());
 
     for (I id : allIds) {
-      V value1 = idToValue1.get(id);
-      V value2 = idToValue2.get(id);
-
-      if (value1 != null && value2 != null) {
-        result.add(mergeValuesFn.apply(value1, value2));
-      } else if (value1 != null) {
-        result.add(value1);
-      } else {
-        result.add(value2);
-      }
+      List<V> values = idToValues.get(id);
+      result.add(values.size() == 1 ? values.get(0) : mergeValuesFn.apply(values));
     }
 
     return result.build();
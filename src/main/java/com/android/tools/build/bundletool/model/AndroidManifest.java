@@ -20,6 +20,7 @@ import static com.android.tools.build.bundletool.model.version.VersionGuardedFea
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableListMultimap.toImmutableListMultimap;
 import static com.google.common.collect.ImmutableMap.toImmutableMap;
 import static com.google.common.collect.Streams.stream;
 import static java.util.function.Function.identity;
@@ -39,6 +40,7 @@ import com.google.auto.value.extension.memoized.Memoized;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Range;
 import com.google.errorprone.annotations.Immutable;
@@ -49,6 +51,9 @@ import javax.annotation.CheckReturnValue;
 /**
  * Represents Android manifest.
  *
+ * <p>Values read from the manifest are computed on first access and memoized, so that repeated
+ * queries don't walk the XML tree again.
+ *
  * <p>Implementations may be not thread safe.
  */
 @Immutable
@@ -143,6 +148,30 @@ public abstract class AndroidManifest {
     return getManifestRoot().getElement();
   }
 
+  @Memoized
+  Optional<XmlProtoElement> getApplicationElement() {
+    return getManifestElement().getOptionalChildElement(APPLICATION_ELEMENT_NAME);
+  }
+
+  @Memoized
+  Optional<XmlProtoElement> getModuleElement() {
+    return getManifestElement().getOptionalChildElement(DISTRIBUTION_NAMESPACE_URI, "module");
+  }
+
+  /** The <meta-data> elements under the <application> tag, by their "android:name" attribute. */
+  @Memoized
+  ImmutableListMultimap<String, XmlProtoElement> getMetadataElementsByName() {
+    return getMetadataElements()
+        .collect(
+            toImmutableListMultimap(
+                metadataElement ->
+                    metadataElement
+                        .getAndroidAttribute(NAME_RESOURCE_ID)
+                        .map(XmlProtoAttribute::getValueAsString)
+                        .orElse(""),
+                identity()));
+  }
+
   @Memoized
   public Optional<ManifestDeliveryElement> getManifestDeliveryElement() {
     return ManifestDeliveryElement.fromManifestElement(
@@ -190,6 +219,25 @@ public abstract class AndroidManifest {
       String splitId,
       String featureSplitId,
       Optional<Boolean> extractNativeLibs) {
+    return createForConfigSplit(
+        packageName,
+        versionCode,
+        splitId,
+        featureSplitId,
+        extractNativeLibs,
+        /* manifestMutators= */ ImmutableList.of());
+  }
+
+  /**
+   * Creates a minimal config split manifest, and applies the given mutators to it before saving it.
+   */
+  static AndroidManifest createForConfigSplit(
+      String packageName,
+      Optional<Integer> versionCode,
+      String splitId,
+      String featureSplitId,
+      Optional<Boolean> extractNativeLibs,
+      ImmutableList<ManifestMutator> manifestMutators) {
     checkNotNull(splitId);
     checkArgument(!splitId.isEmpty(), "Split Id cannot be empty for config split.");
     checkNotNull(featureSplitId);
@@ -207,6 +255,7 @@ public abstract class AndroidManifest {
 
     versionCode.ifPresent(editor::setVersionCode);
     extractNativeLibs.ifPresent(editor::setExtractNativeLibsValue);
+    manifestMutators.forEach(manifestMutator -> manifestMutator.accept(editor));
 
     return editor.save();
   }
@@ -237,15 +286,16 @@ public abstract class AndroidManifest {
    * @return An optional containing the value of the {@code debuggable} attribute if set, or an
    *     empty optional if not set.
    */
+  @Memoized
   public Optional<Boolean> getApplicationDebuggable() {
-    return getManifestElement()
-        .getOptionalChildElement(APPLICATION_ELEMENT_NAME)
+    return getApplicationElement()
         .flatMap(app -> app.getAndroidAttribute(DEBUGGABLE_RESOURCE_ID))
         .map(attr -> attr.getValueAsBoolean());
   }
 
+  @Memoized
   public ImmutableMap<String, XmlProtoElement> getActivitiesByName() {
-    return stream(getManifestElement().getOptionalChildElement(APPLICATION_ELEMENT_NAME))
+    return stream(getApplicationElement())
         .flatMap(app -> app.getChildrenElements(ACTIVITY_ELEMENT_NAME))
         .filter(activity -> activity.getAndroidAttribute(NAME_RESOURCE_ID).isPresent())
         .collect(
@@ -254,19 +304,23 @@ public abstract class AndroidManifest {
                 identity()));
   }
 
+  @Memoized
   public Optional<Integer> getMinSdkVersion() {
     return getUsesSdkAttribute(MIN_SDK_VERSION_RESOURCE_ID);
   }
 
+  @Memoized
   public int getEffectiveMinSdkVersion() {
     return getMinSdkVersion().orElse(1);
   }
 
+  @Memoized
   public Optional<Integer> getMaxSdkVersion() {
     return getUsesSdkAttribute(MAX_SDK_VERSION_RESOURCE_ID);
   }
 
   /** Returns SDK level range this {@link AndroidManifest} declares as supported. */
+  @Memoized
   public Range<Integer> getSdkRange() {
     Optional<Integer> maxSdkVersion = getMaxSdkVersion();
     if (maxSdkVersion.isPresent()) {
@@ -276,6 +330,7 @@ public abstract class AndroidManifest {
     }
   }
 
+  @Memoized
   public Optional<Integer> getTargetSandboxVersion() {
     return getManifestElement()
         .getAndroidAttribute(TARGET_SANDBOX_VERSION_RESOURCE_ID)
@@ -293,6 +348,7 @@ public abstract class AndroidManifest {
                     : attribute.getValueAsDecimalInteger());
   }
 
+  @Memoized
   public ImmutableList<String> getSupportsGlTextures() {
     return getManifestElement()
         .getChildrenElements("supports-gl-texture")
@@ -317,12 +373,12 @@ public abstract class AndroidManifest {
   }
 
   public boolean hasApplicationElement() {
-    return getManifestElement().getOptionalChildElement(APPLICATION_ELEMENT_NAME).isPresent();
+    return getApplicationElement().isPresent();
   }
 
+  @Memoized
   public Optional<Boolean> getHasCode() {
-    return getManifestElement()
-        .getOptionalChildElement(APPLICATION_ELEMENT_NAME)
+    return getApplicationElement()
         .flatMap(application -> application.getAndroidAttribute(HAS_CODE_RESOURCE_ID))
         .map(XmlProtoAttribute::getValueAsBoolean);
   }
@@ -331,6 +387,7 @@ public abstract class AndroidManifest {
     return getHasCode().orElse(true);
   }
 
+  @Memoized
   public Optional<Boolean> getIsFeatureSplit() {
     return getManifestElement()
         .getAndroidAttribute(IS_FEATURE_SPLIT_RESOURCE_ID)
@@ -350,24 +407,25 @@ public abstract class AndroidManifest {
     }
   }
 
+  @Memoized
   public Optional<ModuleType> getOptionalModuleType() {
     Optional<String> typeAttributeValue =
-        getManifestElement()
-            .getOptionalChildElement(DISTRIBUTION_NAMESPACE_URI, "module")
+        getModuleElement()
             .flatMap(module -> module.getAttribute(DISTRIBUTION_NAMESPACE_URI, "type"))
             .map(XmlProtoAttribute::getValueAsString);
     return typeAttributeValue.map(AndroidManifest::getModuleTypeFromAttributeValue);
   }
 
+  @Memoized
   public ModuleType getModuleType() {
     // If the module type is not defined in the manifest, default to feature module for backwards
     // compatibility.
     return getOptionalModuleType().orElse(ModuleType.FEATURE_MODULE);
   }
 
+  @Memoized
   public Optional<Boolean> getIsModuleIncludedInFusing() {
-    return getManifestElement()
-        .getOptionalChildElement(DISTRIBUTION_NAMESPACE_URI, "module")
+    return getModuleElement()
         .flatMap(module -> module.getOptionalChildElement(DISTRIBUTION_NAMESPACE_URI, "fusing"))
         .map(
             fusing -> {
@@ -385,12 +443,14 @@ public abstract class AndroidManifest {
         .map(XmlProtoAttribute::getValueAsBoolean);
   }
 
+  @Memoized
   public Optional<String> getConfigForSplit() {
     return getManifestElement()
         .getAttribute("configForSplit")
         .map(XmlProtoAttribute::getValueAsString);
   }
 
+  @Memoized
   public String getPackageName() {
     return getManifestElement()
         .getAttribute("package")
@@ -406,6 +466,7 @@ public abstract class AndroidManifest {
    *
    * <p>Note: Version code is not present for non-upfront asset slices.
    */
+  @Memoized
   public Optional<Integer> getVersionCode() {
     return getManifestElement()
         .getAndroidAttribute(VERSION_CODE_RESOURCE_ID)
@@ -413,6 +474,7 @@ public abstract class AndroidManifest {
   }
 
   /** Returns the version name. */
+  @Memoized
   public Optional<String> getVersionName() {
     return getManifestElement()
         .getAndroidAttribute(VERSION_NAME_RESOURCE_ID)
@@ -420,23 +482,26 @@ public abstract class AndroidManifest {
   }
 
   /** Returns the value of isolatedSplits attribute. */
+  @Memoized
   public Optional<Boolean> getIsolatedSplits() {
     return getManifestElement()
         .getAndroidAttribute(ISOLATED_SPLITS_ID)
         .map(XmlProtoAttribute::getValueAsBoolean);
   }
 
+  @Memoized
   public Optional<String> getSplitId() {
     return getManifestElement().getAttribute("split").map(XmlProtoAttribute::getValueAsString);
   }
 
+  @Memoized
   public Optional<Integer> getTitleRefId() {
-    return getManifestElement()
-        .getOptionalChildElement(DISTRIBUTION_NAMESPACE_URI, "module")
+    return getModuleElement()
         .flatMap(module -> module.getAttribute(DISTRIBUTION_NAMESPACE_URI, "title"))
         .map(XmlProtoAttribute::getValueAsRefId);
   }
 
+  @Memoized
   public ImmutableList<String> getUsesSplits() {
     return getManifestElement()
         .getChildrenElements("uses-split")
@@ -452,9 +517,9 @@ public abstract class AndroidManifest {
         .collect(toImmutableList());
   }
 
+  @Memoized
   public Optional<XmlProtoAttribute> getOnDemandAttribute() {
-    return getManifestElement()
-        .getOptionalChildElement(DISTRIBUTION_NAMESPACE_URI, "module")
+    return getModuleElement()
         .flatMap(
             module -> {
               if (VersionGuardedFeature.NAMESPACE_ON_INCLUDE_ATTRIBUTE_REQUIRED.enabledForVersion(
@@ -472,6 +537,7 @@ public abstract class AndroidManifest {
    * <p>This can be done either in the old syntax by specifying dist:onDemand attribute value, or in
    * the new syntax by populating the <dist:delivery> element.
    */
+  @Memoized
   public boolean isDeliveryTypeDeclared() {
     if (getManifestDeliveryElement().isPresent()) {
       return getManifestDeliveryElement().get().isWellFormed();
@@ -481,6 +547,7 @@ public abstract class AndroidManifest {
     return getOnDemandAttribute().isPresent();
   }
 
+  @Memoized
   public Optional<Boolean> isInstantModule() {
     if (getInstantManifestDeliveryElement().isPresent()) {
       if (!getModuleType().equals(ModuleType.ASSET_MODULE)) {
@@ -493,9 +560,9 @@ public abstract class AndroidManifest {
     return getInstantAttribute();
   }
 
+  @Memoized
   public Optional<Boolean> getInstantAttribute() {
-    return getManifestElement()
-        .getOptionalChildElement(DISTRIBUTION_NAMESPACE_URI, "module")
+    return getModuleElement()
         .flatMap(module -> module.getAttribute(DISTRIBUTION_NAMESPACE_URI, "instant"))
         .map(XmlProtoAttribute::getValueAsBoolean);
   }
@@ -506,14 +573,15 @@ public abstract class AndroidManifest {
    * @return An optional containing the value of the 'extractNativeLibs' attribute if set, or an
    *     empty optional if not set.
    */
+  @Memoized
   public Optional<Boolean> getExtractNativeLibsValue() {
-    return getManifestElement()
-        .getOptionalChildElement(APPLICATION_ELEMENT_NAME)
+    return getApplicationElement()
         .flatMap(app -> app.getAndroidAttribute(EXTRACT_NATIVE_LIBS_RESOURCE_ID))
         .map(XmlProtoAttribute::getValueAsBoolean);
   }
 
   /** Returns the string value of the 'installLocation' attribute if set. */
+  @Memoized
   public Optional<String> getInstallLocationValue() {
     return getManifestElement()
         .getAndroidAttribute(INSTALL_LOCATION_RESOURCE_ID)
@@ -524,8 +592,9 @@ public abstract class AndroidManifest {
    * Returns whether the app explicitly defined native activities via searching for all activities
    * that have 'android.app.lib_name' <meta-data>.
    */
+  @Memoized
   public boolean hasExplicitlyDefinedNativeActivities() {
-    return stream(getManifestElement().getOptionalChildElement(APPLICATION_ELEMENT_NAME))
+    return stream(getApplicationElement())
         .flatMap(app -> app.getChildrenElements(ACTIVITY_ELEMENT_NAME))
         .flatMap(activity -> activity.getChildrenElements(META_DATA_ELEMENT_NAME))
         .anyMatch(
@@ -541,6 +610,7 @@ public abstract class AndroidManifest {
    * @return names of the fused modules, or empty list if the information is not present in the
    *     manifest
    */
+  @Memoized
   public ImmutableList<String> getFusedModuleNames() {
     return getMetadataValue(META_DATA_KEY_FUSED_MODULE_NAMES)
         .map(rawValue -> ImmutableList.copyOf(COMMA_SPLITTER.split(rawValue)))
@@ -599,16 +669,7 @@ public abstract class AndroidManifest {
    * name.
    */
   private Optional<XmlProtoElement> getMetadataElement(String name) {
-    ImmutableList<XmlProtoElement> metadataElements =
-        getMetadataElements()
-            .filter(
-                metadataElement ->
-                    metadataElement
-                        .getAndroidAttribute(NAME_RESOURCE_ID)
-                        .map(XmlProtoAttribute::getValueAsString)
-                        .orElse("")
-                        .equals(name))
-            .collect(toImmutableList());
+    ImmutableList<XmlProtoElement> metadataElements = getMetadataElementsByName().get(name);
 
     switch (metadataElements.size()) {
       case 0:
@@ -625,8 +686,7 @@ public abstract class AndroidManifest {
 
   /** Returns a stream of the <meta-data> XML elements under the <application> tag. */
   private Stream<XmlProtoElement> getMetadataElements() {
-    return getManifestElement()
-        .getOptionalChildElement(APPLICATION_ELEMENT_NAME)
+    return getApplicationElement()
         .map(applicationElement -> applicationElement.getChildrenElements(META_DATA_ELEMENT_NAME))
         .orElse(Stream.of());
   }
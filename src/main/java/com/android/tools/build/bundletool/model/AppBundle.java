@@ -37,12 +37,12 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import com.google.common.io.ByteSource;
 import com.google.errorprone.annotations.Immutable;
 import com.google.protobuf.InvalidProtocolBufferException;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.util.Collection;
-import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -67,11 +67,27 @@ public abstract class AppBundle {
 
   /** Builds an {@link AppBundle} from an App Bundle on disk. */
   public static AppBundle buildFromZip(ZipFile bundleFile) {
-    BundleConfig bundleConfig = readBundleConfig(bundleFile);
+    return buildFromZipEntries(
+        ZipUtils.allFileEntries(bundleFile)
+            .collect(
+                toImmutableMap(
+                    entry -> ZipPath.create(entry.getName()),
+                    entry -> ZipUtils.asByteSource(bundleFile, entry))));
+  }
+
+  /**
+   * Builds an {@link AppBundle} from the content of the file entries of an App Bundle, keyed by
+   * their path in the App Bundle.
+   *
+   * <p>Allows to build the {@link AppBundle} from any zip reader, as long as the content of the
+   * entries remains readable for the lifetime of the {@link AppBundle}.
+   */
+  public static AppBundle buildFromZipEntries(ImmutableMap<ZipPath, ByteSource> fileEntries) {
+    BundleConfig bundleConfig = readBundleConfig(fileEntries);
     return buildFromModules(
-        sanitize(extractModules(bundleFile, bundleConfig)),
+        sanitize(extractModules(fileEntries, bundleConfig)),
         bundleConfig,
-        readBundleMetadata(bundleFile));
+        readBundleMetadata(fileEntries));
   }
 
   public static AppBundle buildFromModules(
@@ -178,8 +194,10 @@ public abstract class AppBundle {
    * does not belong to a module, a null {@link BundleModuleName} is returned.
    */
   public static Optional<BundleModuleName> extractModuleName(ZipEntry entry) {
-    ZipPath path = ZipPath.create(entry.getName());
+    return extractModuleName(ZipPath.create(entry.getName()));
+  }
 
+  private static Optional<BundleModuleName> extractModuleName(ZipPath path) {
     // Ignoring bundle metadata files.
     if (path.startsWith(METADATA_DIRECTORY)) {
       return Optional.empty();
@@ -218,16 +236,11 @@ public abstract class AppBundle {
   }
 
   private static ImmutableList<BundleModule> extractModules(
-      ZipFile bundleFile, BundleConfig bundleConfig) {
+      ImmutableMap<ZipPath, ByteSource> fileEntries, BundleConfig bundleConfig) {
     Map<BundleModuleName, BundleModule.Builder> moduleBuilders = new HashMap<>();
-    Enumeration<? extends ZipEntry> entries = bundleFile.entries();
-    while (entries.hasMoreElements()) {
-      ZipEntry entry = entries.nextElement();
-      if (entry.isDirectory()) {
-        continue;
-      }
-
-      Optional<BundleModuleName> moduleName = extractModuleName(entry);
+    for (Map.Entry<ZipPath, ByteSource> entry : fileEntries.entrySet()) {
+      ZipPath bundlePath = entry.getKey();
+      Optional<BundleModuleName> moduleName = extractModuleName(bundlePath);
       if (!moduleName.isPresent()) {
         continue;
       }
@@ -239,9 +252,9 @@ public abstract class AppBundle {
 
       moduleBuilder.addEntry(
           ModuleEntry.builder()
-              .setBundlePath(ZipPath.create(entry.getName()))
-              .setPath(ZipUtils.convertBundleToModulePath(ZipPath.create(entry.getName())))
-              .setContent(ZipUtils.asByteSource(bundleFile, entry))
+              .setBundlePath(bundlePath)
+              .setPath(ZipUtils.convertBundleToModulePath(bundlePath))
+              .setContent(entry.getValue())
               .build());
     }
     return moduleBuilders.values().stream()
@@ -249,16 +262,16 @@ public abstract class AppBundle {
         .collect(toImmutableList());
   }
 
-  private static BundleConfig readBundleConfig(ZipFile bundleFile) {
-    ZipEntry bundleConfigEntry = bundleFile.getEntry(BUNDLE_CONFIG_FILE_NAME);
-    if (bundleConfigEntry == null) {
+  private static BundleConfig readBundleConfig(ImmutableMap<ZipPath, ByteSource> fileEntries) {
+    ByteSource bundleConfigContent = fileEntries.get(ZipPath.create(BUNDLE_CONFIG_FILE_NAME));
+    if (bundleConfigContent == null) {
       throw InvalidBundleException.builder()
           .withUserMessage("File '%s' was not found.", BUNDLE_CONFIG_FILE_NAME)
           .build();
     }
 
     try {
-      return BundleConfig.parseFrom(ZipUtils.asByteSource(bundleFile, bundleConfigEntry).read());
+      return BundleConfig.parseFrom(bundleConfigContent.read());
     } catch (InvalidProtocolBufferException e) {
       throw InvalidBundleException.builder()
           .withCause(e)
@@ -270,17 +283,16 @@ public abstract class AppBundle {
     }
   }
 
-  private static BundleMetadata readBundleMetadata(ZipFile bundleFile) {
+  private static BundleMetadata readBundleMetadata(ImmutableMap<ZipPath, ByteSource> fileEntries) {
     BundleMetadata.Builder metadata = BundleMetadata.builder();
-    ZipUtils.allFileEntries(bundleFile)
-        .filter(entry -> ZipPath.create(entry.getName()).startsWith(METADATA_DIRECTORY))
-        .forEach(
-            zipEntry -> {
-              ZipPath bundlePath = ZipPath.create(zipEntry.getName());
-              // Strip the top-level metadata directory.
-              ZipPath metadataPath = bundlePath.subpath(1, bundlePath.getNameCount());
-              metadata.addFile(metadataPath, ZipUtils.asByteSource(bundleFile, zipEntry));
-            });
+    fileEntries.forEach(
+        (bundlePath, content) -> {
+          if (bundlePath.startsWith(METADATA_DIRECTORY)) {
+            // Strip the top-level metadata directory.
+            ZipPath metadataPath = bundlePath.subpath(1, bundlePath.getNameCount());
+            metadata.addFile(metadataPath, content);
+          }
+        });
     return metadata.build();
   }
 
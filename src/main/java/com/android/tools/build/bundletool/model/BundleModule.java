@@ -122,6 +122,16 @@ public abstract class BundleModule {
 
   public abstract Optional<ResourceTable> getResourceTable();
 
+  /**
+   * Returns the index of the resource table of the module, for fast lookups of its entries.
+   *
+   * <p>The index is empty if the module has no resource table.
+   */
+  @Memoized
+  public ResourceTableIndex getResourceTableIndex() {
+    return ResourceTableIndex.create(getResourceTable().orElse(ResourceTable.getDefaultInstance()));
+  }
+
   public abstract Optional<Assets> getAssetsConfig();
 
   public abstract Optional<NativeLibraries> getNativeConfig();
@@ -16,7 +16,11 @@
 package com.android.tools.build.bundletool.model;
 
 import com.android.tools.build.bundletool.model.BundleModule.SpecialModuleEntry;
+import com.android.tools.build.bundletool.model.utils.ZipUtils;
 import com.google.auto.value.AutoValue;
+import com.google.auto.value.extension.memoized.Memoized;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.google.common.io.ByteSource;
 import com.google.common.io.Files;
 import com.google.common.io.MoreFiles;
@@ -27,6 +31,7 @@ import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.OptionalLong;
 
 /**
  * Represents an entry in an App Bundle's module.
@@ -60,6 +65,22 @@ public abstract class ModuleEntry {
   /** Returns data source for this entry. */
   public abstract ByteSource getContent();
 
+  /**
+   * Returns the SHA-256 digest of the content of the entry.
+   *
+   * <p>Computed on first use, so the content is read at most once however many times the entry is
+   * compared.
+   */
+  @Memoized
+  public HashCode getContentDigest() {
+    try {
+      return getContent().hash(Hashing.sha256());
+    } catch (IOException e) {
+      throw new UncheckedIOException(
+          String.format("Failed to compute the digest of module entry '%s'.", this), e);
+    }
+  }
+
   /** Checks whether the given entries are identical. */
   @Override
   public final boolean equals(Object obj2) {
@@ -86,14 +107,26 @@ public abstract class ModuleEntry {
       return false;
     }
 
-    try {
-      return entry1.getContent().contentEquals(entry2.getContent());
-    } catch (IOException e) {
-      throw new UncheckedIOException(
-          String.format(
-              "Failed to compare contents of module entries '%s' and '%s'.", entry1, entry2),
-          e);
+    ByteSource content1 = entry1.getContent();
+    ByteSource content2 = entry2.getContent();
+    if (content1 == content2) {
+      return true;
     }
+
+    // Entries read from a zip file have their size and CRC-32 recorded, which allows to tell most
+    // different entries apart without reading them.
+    if (content1.sizeIfKnown().isPresent()
+        && content2.sizeIfKnown().isPresent()
+        && !content1.sizeIfKnown().get().equals(content2.sizeIfKnown().get())) {
+      return false;
+    }
+    OptionalLong crc1 = ZipUtils.getCrc32IfKnown(content1);
+    OptionalLong crc2 = ZipUtils.getCrc32IfKnown(content2);
+    if (crc1.isPresent() && crc2.isPresent() && crc1.getAsLong() != crc2.getAsLong()) {
+      return false;
+    }
+
+    return entry1.getContentDigest().equals(entry2.getContentDigest());
   }
 
   @Override
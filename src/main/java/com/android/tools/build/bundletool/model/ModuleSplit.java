@@ -116,6 +116,16 @@ public abstract class ModuleSplit {
 
   public abstract Optional<ResourceTable> getResourceTable();
 
+  /**
+   * Returns the index of the resource table of the split, for fast lookups of its entries.
+   *
+   * <p>The index is empty if the split has no resource table.
+   */
+  @Memoized
+  public ResourceTableIndex getResourceTableIndex() {
+    return ResourceTableIndex.create(getResourceTable().orElse(ResourceTable.getDefaultInstance()));
+  }
+
   public abstract AndroidManifest getAndroidManifest();
 
   public abstract ImmutableList<ManifestMutator> getMasterManifestMutators();
@@ -243,19 +253,42 @@ public abstract class ModuleSplit {
 
   /** Writes the source stamp in the split manifest. */
   public ModuleSplit writeSourceStampInManifest(String stampSource, StampType stampType) {
+    return applyManifestMutators(getSourceStampManifestMutators(stampSource, stampType));
+  }
+
+  /**
+   * Returns the mutators writing the source stamp in the split manifest, or an empty list if the
+   * split isn't eligible for source stamp.
+   */
+  public ImmutableList<ManifestMutator> getSourceStampManifestMutators(
+      String stampSource, StampType stampType) {
     if (!isEligibleForSourceStamp()) {
-      return this;
+      return ImmutableList.of();
     }
 
     checkStampSource(stampSource);
 
-    AndroidManifest apkManifest =
-        getAndroidManifest()
-            .toEditor()
-            .addMetaDataString(STAMP_SOURCE_METADATA_KEY, stampSource)
-            .addMetaDataString(STAMP_TYPE_METADATA_KEY, stampType.toString())
-            .save();
-    return toBuilder().setAndroidManifest(apkManifest).build();
+    return ImmutableList.of(
+        editor ->
+            editor
+                .addMetaDataString(STAMP_SOURCE_METADATA_KEY, stampSource)
+                .addMetaDataString(STAMP_TYPE_METADATA_KEY, stampType.toString()));
+  }
+
+  /**
+   * Applies the given mutators to the split manifest.
+   *
+   * <p>All the mutators are applied to the same copy of the manifest, so this is cheaper than
+   * editing the manifest once per mutator.
+   */
+  @CheckReturnValue
+  public ModuleSplit applyManifestMutators(ImmutableList<ManifestMutator> manifestMutators) {
+    if (manifestMutators.isEmpty()) {
+      return this;
+    }
+    return toBuilder()
+        .setAndroidManifest(getAndroidManifest().applyMutators(manifestMutators))
+        .build();
   }
 
   private boolean isEligibleForSourceStamp() {
@@ -281,11 +314,27 @@ public abstract class ModuleSplit {
   /** Writes the final manifest that reflects the Split ID. */
   @CheckReturnValue
   public ModuleSplit writeSplitIdInManifest(String resolvedSplitIdSuffix) {
+    return writeSplitIdInManifest(resolvedSplitIdSuffix, ImmutableList.of());
+  }
+
+  /**
+   * Writes the final manifest that reflects the Split ID, and applies the given mutators to it.
+   *
+   * <p>The Split ID and the mutators are written in a single edit of the manifest.
+   */
+  @CheckReturnValue
+  public ModuleSplit writeSplitIdInManifest(
+      String resolvedSplitIdSuffix, ImmutableList<ManifestMutator> manifestMutators) {
     AndroidManifest moduleManifest = getAndroidManifest();
     String splitId = generateSplitId(resolvedSplitIdSuffix);
     AndroidManifest apkManifest;
     if (isMasterSplit()) {
-      apkManifest = moduleManifest.toEditor().setSplitIdForFeatureSplit(splitId).save();
+      apkManifest =
+          moduleManifest.applyMutators(
+              ImmutableList.<ManifestMutator>builder()
+                  .add(editor -> editor.setSplitIdForFeatureSplit(splitId))
+                  .addAll(manifestMutators)
+                  .build());
     } else {
       apkManifest =
           AndroidManifest.createForConfigSplit(
@@ -293,7 +342,8 @@ public abstract class ModuleSplit {
               moduleManifest.getVersionCode(),
               splitId,
               getSplitIdForMasterSplit(),
-              moduleManifest.getExtractNativeLibsValue());
+              moduleManifest.getExtractNativeLibsValue(),
+              manifestMutators);
     }
     return toBuilder().setAndroidManifest(apkManifest).build();
   }
@@ -604,6 +654,9 @@ public abstract class ModuleSplit {
 
     public abstract Builder setAndroidManifest(AndroidManifest androidManifest);
 
+    public abstract Builder setMasterManifestMutators(
+        ImmutableList<ManifestMutator> manifestMutators);
+
     abstract ImmutableList.Builder<ManifestMutator> masterManifestMutatorsBuilder();
 
     public Builder addMasterManifestMutator(ManifestMutator manifestMutator) {
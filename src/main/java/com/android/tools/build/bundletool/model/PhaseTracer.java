@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.tools.build.bundletool.model;
+
+/**
+ * Allows to measure the phases of the generation of APKs.
+ *
+ * <p>Phases may run concurrently, so implementations must be thread-safe.
+ */
+public class PhaseTracer {
+
+  public static final PhaseTracer NO_OP = new PhaseTracer() {};
+
+  /**
+   * Invoked when a phase starts on the current thread.
+   *
+   * <p>The returned span is closed on the same thread when the phase ends.
+   *
+   * @param phase the phase which starts
+   * @param detail what the phase is working on, e.g. the name of a module or the path of an APK
+   */
+  public Span startPhase(Phase phase, String detail) {
+    return Span.NO_OP;
+  }
+
+  /** Phases of the generation of APKs. */
+  public enum Phase {
+    /** Reading (and re-compressing if needed) the App Bundle. */
+    READ_BUNDLE("read-bundle"),
+    /** Validating the App Bundle. */
+    VALIDATE_BUNDLE("validate-bundle"),
+    /** Running one of the pre-processors of the App Bundle. */
+    PREPROCESS_BUNDLE("preprocess-bundle"),
+    /** Splitting a module for a variant. */
+    SPLIT_MODULE("split-module"),
+    /** Converting the resources and manifest of an APK to binary format with aapt2. */
+    AAPT2_CONVERT("aapt2-convert"),
+    /** Compressing and writing the entries of an APK. */
+    COMPRESS_ENTRIES("compress-entries"),
+    /** Signing an APK, or an APK embedded in another APK. */
+    SIGN_APK("sign-apk"),
+    /** Writing an APK and adding it to the APK Set. */
+    WRITE_APK("write-apk"),
+    /** Writing the APK Set archive. */
+    ASSEMBLE_APK_SET("assemble-apk-set");
+
+    private final String name;
+
+    Phase(String name) {
+      this.name = name;
+    }
+
+    /** Name of the phase as it appears in the traces. */
+    public String getName() {
+      return name;
+    }
+  }
+
+  /** Execution of a phase. */
+  public interface Span extends AutoCloseable {
+
+    Span NO_OP = new Span() {};
+
+    /** Records that the given number of bytes were processed during this span. */
+    default void addBytes(long bytes) {
+      // no-op by default
+    }
+
+    /** Invoked when the phase ends. */
+    @Override
+    default void close() {
+      // no-op by default
+    }
+  }
+}
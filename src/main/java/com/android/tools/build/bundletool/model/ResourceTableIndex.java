@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.model;
+
+import com.android.aapt.Resources.Entry;
+import com.android.aapt.Resources.Package;
+import com.android.aapt.Resources.ResourceTable;
+import com.android.aapt.Resources.Type;
+import com.google.common.collect.ImmutableMap;
+import com.google.errorprone.annotations.Immutable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Index of the entries of a {@link ResourceTable}, by resource ID and by resource type and name.
+ *
+ * <p>Lookups take constant time and don't allocate, except for the returned value. The index only
+ * stores the positions of the entries in the table, so it is cheap to build and to keep around.
+ */
+@Immutable
+@SuppressWarnings("Immutable") // The arrays are never modified after construction.
+public final class ResourceTableIndex {
+
+  private static final int EMPTY_SLOT = 0;
+  private static final int NOT_FOUND = -1;
+  private static final int AMBIGUOUS = -2;
+
+  private final ResourceTable resourceTable;
+
+  /** Position of each entry in the table, as indices in the package, type and entry lists. */
+  private final int[] packageIndices;
+
+  private final int[] typeIndices;
+  private final int[] entryIndices;
+
+  /**
+   * Open-addressing hash table from resource ID to the ordinal of the entry in the arrays above.
+   *
+   * <p>Resource IDs are never 0 because the type ID is strictly positive, so 0 marks empty slots.
+   */
+  private final int[] resourceIdSlots;
+
+  private final int[] ordinalSlots;
+
+  private final ImmutableMap<String, ImmutableMap<String, Integer>> ordinalByTypeAndName;
+
+  private ResourceTableIndex(ResourceTable resourceTable) {
+    this.resourceTable = resourceTable;
+
+    int entryCount = 0;
+    for (Package pkg : resourceTable.getPackageList()) {
+      for (Type type : pkg.getTypeList()) {
+        entryCount += type.getEntryCount();
+      }
+    }
+    this.packageIndices = new int[entryCount];
+    this.typeIndices = new int[entryCount];
+    this.entryIndices = new int[entryCount];
+    // Load factor of at most 0.5, so that probe sequences stay short.
+    int capacity = Integer.highestOneBit(Math.max(2 * entryCount, 1)) * 2;
+    this.resourceIdSlots = new int[capacity];
+    this.ordinalSlots = new int[capacity];
+    Map<String, Map<String, Integer>> ordinalByTypeAndName = new HashMap<>();
+
+    int ordinal = 0;
+    for (int pkgIdx = 0; pkgIdx < resourceTable.getPackageCount(); pkgIdx++) {
+      Package pkg = resourceTable.getPackage(pkgIdx);
+      for (int typeIdx = 0; typeIdx < pkg.getTypeCount(); typeIdx++) {
+        Type type = pkg.getType(typeIdx);
+        Map<String, Integer> ordinalByName =
+            ordinalByTypeAndName.computeIfAbsent(type.getName(), name -> new HashMap<>());
+        for (int entryIdx = 0; entryIdx < type.getEntryCount(); entryIdx++) {
+          Entry entry = type.getEntry(entryIdx);
+          packageIndices[ordinal] = pkgIdx;
+          typeIndices[ordinal] = typeIdx;
+          entryIndices[ordinal] = entryIdx;
+          putResourceId(
+              toFullResourceId(
+                  pkg.getPackageId().getId(), type.getTypeId().getId(), entry.getEntryId().getId()),
+              ordinal);
+          ordinalByName.merge(entry.getName(), ordinal, (first, second) -> AMBIGUOUS);
+          ordinal++;
+        }
+      }
+    }
+
+    ImmutableMap.Builder<String, ImmutableMap<String, Integer>> immutableOrdinalByTypeAndName =
+        ImmutableMap.builder();
+    ordinalByTypeAndName.forEach(
+        (type, ordinalByName) ->
+            immutableOrdinalByTypeAndName.put(type, ImmutableMap.copyOf(ordinalByName)));
+    this.ordinalByTypeAndName = immutableOrdinalByTypeAndName.build();
+  }
+
+  /** Creates the index of the given resource table. */
+  public static ResourceTableIndex create(ResourceTable resourceTable) {
+    return new ResourceTableIndex(resourceTable);
+  }
+
+  public ResourceTable getResourceTable() {
+    return resourceTable;
+  }
+
+  /** Returns whether the table contains an entry with the given resource ID. */
+  public boolean containsResourceId(int resourceId) {
+    return findOrdinal(resourceId) != NOT_FOUND;
+  }
+
+  /**
+   * Returns the entry with the given resource ID.
+   *
+   * @throws IllegalArgumentException if several entries have this resource ID
+   */
+  public Optional<Entry> lookupEntryByResourceId(int resourceId) {
+    return getEntry(checkNotAmbiguous(findOrdinal(resourceId), resourceId));
+  }
+
+  /**
+   * Returns the entry with the given resource ID, along with its package and type.
+   *
+   * @throws IllegalArgumentException if several entries have this resource ID
+   */
+  public Optional<ResourceTableEntry> lookupTableEntryByResourceId(int resourceId) {
+    int ordinal = checkNotAmbiguous(findOrdinal(resourceId), resourceId);
+    if (ordinal == NOT_FOUND) {
+      return Optional.empty();
+    }
+    Package pkg = resourceTable.getPackage(packageIndices[ordinal]);
+    Type type = pkg.getType(typeIndices[ordinal]);
+    return Optional.of(ResourceTableEntry.create(pkg, type, type.getEntry(entryIndices[ordinal])));
+  }
+
+  /**
+   * Returns the entry with the given type and name.
+   *
+   * @throws IllegalArgumentException if several entries have this type and name
+   */
+  public Optional<Entry> lookupEntryByResourceTypeAndName(
+      String resourceType, String resourceName) {
+    ImmutableMap<String, Integer> ordinalByName = ordinalByTypeAndName.get(resourceType);
+    Integer ordinal = ordinalByName == null ? null : ordinalByName.get(resourceName);
+    if (ordinal != null && ordinal == AMBIGUOUS) {
+      throw new IllegalArgumentException(
+          String.format("Multiple entries named '%s/%s'.", resourceType, resourceName));
+    }
+    return getEntry(ordinal == null ? NOT_FOUND : ordinal);
+  }
+
+  private Optional<Entry> getEntry(int ordinal) {
+    if (ordinal == NOT_FOUND) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        resourceTable
+            .getPackage(packageIndices[ordinal])
+            .getType(typeIndices[ordinal])
+            .getEntry(entryIndices[ordinal]));
+  }
+
+  private static int checkNotAmbiguous(int ordinal, int resourceId) {
+    if (ordinal == AMBIGUOUS) {
+      throw new IllegalArgumentException(
+          String.format("Multiple entries with resource ID 0x%08x.", resourceId));
+    }
+    return ordinal;
+  }
+
+  private void putResourceId(int resourceId, int ordinal) {
+    int mask = resourceIdSlots.length - 1;
+    int slot = hash(resourceId) & mask;
+    while (resourceIdSlots[slot] != EMPTY_SLOT) {
+      if (resourceIdSlots[slot] == resourceId) {
+        ordinalSlots[slot] = AMBIGUOUS;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    resourceIdSlots[slot] = resourceId;
+    ordinalSlots[slot] = ordinal;
+  }
+
+  private int findOrdinal(int resourceId) {
+    if (resourceId == EMPTY_SLOT) {
+      return NOT_FOUND;
+    }
+    int mask = resourceIdSlots.length - 1;
+    int slot = hash(resourceId) & mask;
+    while (resourceIdSlots[slot] != EMPTY_SLOT) {
+      if (resourceIdSlots[slot] == resourceId) {
+        return ordinalSlots[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    return NOT_FOUND;
+  }
+
+  /** Spreads the bits of the resource ID, whose low bits are mostly sequential entry IDs. */
+  private static int hash(int resourceId) {
+    int h = resourceId * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private static int toFullResourceId(int packageId, int typeId, int entryId) {
+    return (packageId << 24) | (typeId << 16) | entryId;
+  }
+}
@@ -21,10 +21,8 @@ import static com.google.common.collect.ImmutableList.toImmutableList;
 
 import com.android.aapt.Resources.ConfigValue;
 import com.android.aapt.Resources.Entry;
-import com.android.aapt.Resources.ResourceTable;
 import com.android.aapt.Resources.XmlNode;
 import com.android.tools.build.bundletool.model.exceptions.InvalidBundleException;
-import com.android.tools.build.bundletool.model.utils.ResourcesUtils;
 import com.android.tools.build.bundletool.model.utils.xmlproto.XmlProtoElement;
 import com.android.tools.build.bundletool.model.utils.xmlproto.XmlProtoNode;
 import com.google.common.collect.ImmutableCollection;
@@ -56,20 +54,20 @@ public final class WearApkLocator {
       return ImmutableList.of();
     }
 
-    ResourceTable resourceTable = split.getResourceTable().get();
+    ResourceTableIndex resourceTableIndex = split.getResourceTableIndex();
     AndroidManifest manifest = split.getAndroidManifest();
 
     ImmutableCollection<ZipPath> embeddedWearApkPaths =
         manifest
             .getMetadataResourceId(WEAR_APK_1_0_METADATA_KEY)
-            .map(resourceId -> findXmlDescriptionResourceEntry(resourceTable, resourceId))
+            .map(resourceId -> findXmlDescriptionResourceEntry(resourceTableIndex, resourceId))
             .map(entry -> getXmlDescriptionPath(entry))
             .map(xmlDescriptionPath -> findXmlDescriptionZipEntry(split, xmlDescriptionPath))
             .flatMap(xmlDescriptionEntry -> extractWearApkName(xmlDescriptionEntry))
             .flatMap(
                 resourceName ->
-                    ResourcesUtils.lookupEntryByResourceTypeAndName(
-                        resourceTable, /* resourceType= */ "raw", /* resourceName= */ resourceName))
+                    resourceTableIndex.lookupEntryByResourceTypeAndName(
+                        /* resourceType= */ "raw", /* resourceName= */ resourceName))
             .map(
                 entry ->
                     entry.getConfigValueList().stream()
@@ -93,8 +91,9 @@ public final class WearApkLocator {
   }
 
   private static Entry findXmlDescriptionResourceEntry(
-      ResourceTable resourceTable, int resourceId) {
-    return ResourcesUtils.lookupEntryByResourceId(resourceTable, resourceId)
+      ResourceTableIndex resourceTableIndex, int resourceId) {
+    return resourceTableIndex
+        .lookupEntryByResourceId(resourceId)
         .orElseThrow(
             () ->
                 InvalidBundleException.builder()
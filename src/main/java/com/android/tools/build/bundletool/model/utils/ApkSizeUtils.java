@@ -17,15 +17,32 @@
 package com.android.tools.build.bundletool.model.utils;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Throwables.throwIfUnchecked;
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
+import static java.util.function.Function.identity;
 
 import com.android.bundle.Commands.ApkDescription;
+import com.android.bundle.Commands.ApkFileInfo;
 import com.android.bundle.Commands.Variant;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.Uninterruptibles;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -38,35 +55,157 @@ public class ApkSizeUtils {
    */
   public static ImmutableMap<String, Long> getVariantCompressedSizeByApkPaths(
       ImmutableList<Variant> variants, Path apksArchive) {
-    ImmutableList<String> apkPaths =
+    ImmutableList<ApkDescription> apkDescriptions =
         variants.stream()
             .flatMap(variant -> variant.getApkSetList().stream())
             .flatMap(apkSet -> apkSet.getApkDescriptionList().stream())
+            .collect(toImmutableList());
+    return getCompressedSizeByApkDescriptions(apkDescriptions, apksArchive);
+  }
+
+  /**
+   * Returns a map of APK Paths inside the APK Set with the sizes, for the APKs described.
+   *
+   * <p>The sizes recorded in the table of contents are used when present, so that only the APKs
+   * whose sizes weren't recorded are compressed.
+   */
+  public static ImmutableMap<String, Long> getCompressedSizeByApkDescriptions(
+      ImmutableList<ApkDescription> apkDescriptions, Path apksArchive) {
+    return getCompressedSizeByApkDescriptions(
+        apkDescriptions, apksArchive, newDirectExecutorService());
+  }
+
+  /**
+   * Returns a map of APK Paths inside the APK Set with the sizes, for the APKs described.
+   *
+   * <p>The APKs whose sizes weren't recorded are compressed concurrently on the given executor.
+   */
+  public static ImmutableMap<String, Long> getCompressedSizeByApkDescriptions(
+      ImmutableList<ApkDescription> apkDescriptions,
+      Path apksArchive,
+      ListeningExecutorService executorService) {
+    ImmutableMap<String, ApkDescription> apkDescriptionByPath =
+        apkDescriptions.stream()
+            .collect(toImmutableMap(ApkDescription::getPath, identity(), (first, second) -> first));
+    ImmutableList<String> apkPathsWithoutFileInfo =
+        apkDescriptionByPath.values().stream()
+            .filter(apkDescription -> !apkDescription.hasFileInfo())
             .map(ApkDescription::getPath)
-            .distinct()
             .collect(toImmutableList());
-    return getCompressedSizeByApkPaths(apkPaths, apksArchive);
+    ImmutableMap<String, Long> computedSizeByApkPath =
+        apkPathsWithoutFileInfo.isEmpty()
+            ? ImmutableMap.of()
+            : getCompressedSizeByApkPaths(apkPathsWithoutFileInfo, apksArchive, executorService);
+    return apkDescriptionByPath.values().stream()
+        .collect(
+            toImmutableMap(
+                ApkDescription::getPath,
+                apkDescription ->
+                    apkDescription.hasFileInfo()
+                        ? getCompressedSize(apkDescription.getFileInfo())
+                        : computedSizeByApkPath.get(apkDescription.getPath())));
   }
 
   public static ImmutableMap<String, Long> getCompressedSizeByApkPaths(
       ImmutableList<String> apkPaths, Path apksArchive) {
-    ImmutableMap.Builder<String, Long> sizeByApkPath = ImmutableMap.builder();
+    return getCompressedSizeByApkPaths(apkPaths, apksArchive, newDirectExecutorService());
+  }
+
+  /**
+   * Returns a map of APK Paths inside the APK Set with the sizes, for the APKs at the given paths.
+   *
+   * <p>The APKs are compressed concurrently on the given executor, each once even if its path is
+   * given several times. Each task reads its APK through its own stream, so at most as many APKs
+   * are open at the same time as the executor has threads.
+   */
+  public static ImmutableMap<String, Long> getCompressedSizeByApkPaths(
+      ImmutableList<String> apkPaths, Path apksArchive, ListeningExecutorService executorService) {
     try (ZipFile apksZip = new ZipFile(apksArchive.toFile())) {
-      for (String apkPath : apkPaths) {
-        ZipEntry entry = checkNotNull(apksZip.getEntry(apkPath));
-        // It's possible that the compressed size is larger than the uncompressed one, but the
-        // smallest APK is the one that is actually served.
-        long size =
-            Math.min(
-                entry.getSize(),
-                GZipUtils.calculateGzipCompressedSize(ZipUtils.asByteSource(apksZip, entry)));
-        sizeByApkPath.put(apkPath, size);
+      // Set on failure, so that the tasks not started yet are skipped.
+      AtomicBoolean failed = new AtomicBoolean(false);
+      ImmutableMap<String, ListenableFuture<Long>> sizeFutureByApkPath =
+          apkPaths.stream()
+              .distinct()
+              .collect(
+                  toImmutableMap(
+                      identity(),
+                      apkPath ->
+                          executorService.submit(
+                              () -> {
+                                if (failed.get()) {
+                                  throw new CancellationException("Another APK failed.");
+                                }
+                                return getCompressedSize(apksZip, apkPath, apksArchive);
+                              })));
+      try {
+        Futures.allAsList(sizeFutureByApkPath.values()).get();
+      } catch (ExecutionException e) {
+        failed.set(true);
+        // The archive must stay open until the running tasks are done.
+        awaitCompletion(sizeFutureByApkPath.values());
+        throwIfUnchecked(e.getCause());
+        throw new IllegalStateException(e.getCause());
+      } catch (InterruptedException e) {
+        failed.set(true);
+        awaitCompletion(sizeFutureByApkPath.values());
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while computing the sizes of the APKs.", e);
       }
+      return ImmutableMap.copyOf(Maps.transformValues(sizeFutureByApkPath, Futures::getUnchecked));
+    } catch (IOException e) {
+      throw new UncheckedIOException(
+          String.format("Error while processing the APK Set archive '%s'.", apksArchive), e);
+    }
+  }
+
+  /** Waits until all the given futures are done, whether they succeeded or not. */
+  private static void awaitCompletion(Collection<ListenableFuture<Long>> futures) {
+    try {
+      Uninterruptibles.getUninterruptibly(Futures.successfulAsList(futures));
+    } catch (ExecutionException e) {
+      // Can't happen: the future of successfulAsList doesn't fail.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Computes the size, gzip-compressed size and SHA-256 digest of the given APK, reading it once.
+   */
+  public static ApkFileInfo computeApkFileInfo(Path apkFile) {
+    try (HashingInputStream apkContent =
+        new HashingInputStream(Hashing.sha256(), Files.newInputStream(apkFile))) {
+      long gzipSize = GZipUtils.calculateGzipCompressedSize(apkContent);
+      return ApkFileInfo.newBuilder()
+          .setSizeBytes(Files.size(apkFile))
+          .setGzipSizeBytes(gzipSize)
+          .setSha256(apkContent.hash().toString())
+          .build();
+    } catch (IOException e) {
+      throw new UncheckedIOException(
+          String.format("Error while reading the APK '%s'.", apkFile), e);
+    }
+  }
+
+  private static long getCompressedSize(ZipFile apksZip, String apkPath, Path apksArchive) {
+    ZipEntry entry = checkNotNull(apksZip.getEntry(apkPath));
+    try {
+      // It's possible that the compressed size is larger than the uncompressed one, but the
+      // smallest APK is the one that is actually served.
+      return Math.min(
+          entry.getSize(),
+          GZipUtils.calculateGzipCompressedSize(ZipUtils.asByteSource(apksZip, entry)));
     } catch (IOException e) {
       throw new UncheckedIOException(
           String.format("Error while processing the APK Set archive '%s'.", apksArchive), e);
     }
-    return sizeByApkPath.build();
+  }
+
+  /**
+   * Returns the size of the APK when downloaded: the smallest of the sizes of the APK compressed or
+   * not, the smallest APK being the one that is actually served.
+   */
+  private static long getCompressedSize(ApkFileInfo apkFileInfo) {
+    return Math.min(apkFileInfo.getSizeBytes(), apkFileInfo.getGzipSizeBytes());
   }
 
   private ApkSizeUtils() {}
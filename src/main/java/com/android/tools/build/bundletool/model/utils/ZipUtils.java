@@ -27,6 +27,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.nio.file.Path;
+import java.util.OptionalLong;
 import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -70,6 +71,34 @@ public final class ZipUtils {
     return new ZipEntryByteSource(file, entry);
   }
 
+  /**
+   * Returns a {@link ByteSource} for reading the uncompressed contents of a zip entry, with the
+   * given uncompressed size and CRC-32 as recorded in the zip file.
+   *
+   * <p>Allows zip readers other than {@link ZipFile} to expose the metadata of the entries.
+   */
+  public static ByteSource asByteSource(ByteSource content, long size, long crc32) {
+    return new ZipMetadataByteSource(content, size, crc32);
+  }
+
+  /**
+   * Returns the CRC-32 of the given content, if it was created by {@link #asByteSource(ZipFile,
+   * ZipEntry)} or {@link #asByteSource(ByteSource, long, long)} and the CRC-32 is recorded in the
+   * zip file.
+   */
+  public static OptionalLong getCrc32IfKnown(ByteSource content) {
+    if (content instanceof ZipEntryByteSource) {
+      long crc = ((ZipEntryByteSource) content).entry.getCrc();
+      if (crc != -1) {
+        return OptionalLong.of(crc);
+      }
+    }
+    if (content instanceof ZipMetadataByteSource) {
+      return OptionalLong.of(((ZipMetadataByteSource) content).crc32);
+    }
+    return OptionalLong.empty();
+  }
+
   private static final class ZipEntryByteSource extends ByteSource {
     private final ZipFile file;
     private final ZipEntry entry;
@@ -95,6 +124,33 @@ public final class ZipUtils {
     }
   }
 
+  private static final class ZipMetadataByteSource extends ByteSource {
+    private final ByteSource content;
+    private final long size;
+    private final long crc32;
+
+    ZipMetadataByteSource(ByteSource content, long size, long crc32) {
+      this.content = checkNotNull(content);
+      this.size = size;
+      this.crc32 = crc32;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+      return content.openStream();
+    }
+
+    @Override
+    public Optional<Long> sizeIfKnown() {
+      return Optional.of(size);
+    }
+
+    @Override
+    public String toString() {
+      return content.toString();
+    }
+  }
+
   // Not meant to be instantiated.
   private ZipUtils() {}
 }
@@ -17,6 +17,7 @@ package com.android.tools.build.bundletool.preprocessors;
 
 import com.android.tools.build.bundletool.commands.BuildApksCommand;
 import com.android.tools.build.bundletool.commands.CommandScoped;
+import com.android.tools.build.bundletool.model.PhaseTracer;
 import dagger.BindsInstance;
 import dagger.Component;
 
@@ -33,5 +34,8 @@ public interface AppBundlePreprocessorComponent {
 
     @BindsInstance
     Builder setBuildApksCommand(BuildApksCommand command);
+
+    @BindsInstance
+    Builder setPhaseTracer(PhaseTracer phaseTracer);
   }
 }
@@ -16,6 +16,9 @@
 package com.android.tools.build.bundletool.preprocessors;
 
 import com.android.tools.build.bundletool.model.AppBundle;
+import com.android.tools.build.bundletool.model.PhaseTracer;
+import com.android.tools.build.bundletool.model.PhaseTracer.Phase;
+import com.android.tools.build.bundletool.model.PhaseTracer.Span;
 import com.google.common.collect.ImmutableList;
 import javax.inject.Inject;
 
@@ -23,16 +26,23 @@ import javax.inject.Inject;
 public final class AppBundlePreprocessorManager {
 
   private final ImmutableList<AppBundlePreprocessor> appBundlePreprocessors;
+  private final PhaseTracer phaseTracer;
 
   @Inject
-  AppBundlePreprocessorManager(ImmutableList<AppBundlePreprocessor> appBundlePreprocessors) {
+  AppBundlePreprocessorManager(
+      ImmutableList<AppBundlePreprocessor> appBundlePreprocessors, PhaseTracer phaseTracer) {
     this.appBundlePreprocessors = appBundlePreprocessors;
+    this.phaseTracer = phaseTracer;
   }
 
   public AppBundle processAppBundle(AppBundle appBundle) {
     AppBundle newAppBundle = appBundle;
     for (AppBundlePreprocessor preprocessor : appBundlePreprocessors) {
-      newAppBundle = preprocessor.preprocess(newAppBundle);
+      try (Span span =
+          phaseTracer.startPhase(
+              Phase.PREPROCESS_BUNDLE, preprocessor.getClass().getSimpleName())) {
+        newAppBundle = preprocessor.preprocess(newAppBundle);
+      }
     }
     return newAppBundle;
   }
@@ -16,6 +16,7 @@
 
 package com.android.tools.build.bundletool.shards;
 
+import static com.android.tools.build.bundletool.io.ConcurrencyUtils.waitForAll;
 import static com.android.tools.build.bundletool.model.targeting.TargetingUtils.standaloneApkVariantTargeting;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 
@@ -30,7 +31,9 @@ import com.android.tools.build.bundletool.optimizations.ApkOptimizations;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Optional;
 import javax.inject.Inject;
@@ -42,17 +45,20 @@ public class StandaloneApksGenerator {
   private final ModuleSplitterForShards moduleSplitter;
   private final Sharder sharder;
   private final ModuleSplitsToShardMerger shardsMerger;
+  private final ListeningExecutorService executorService;
 
   @Inject
   public StandaloneApksGenerator(
       Optional<SourceStamp> stampSource,
       ModuleSplitterForShards moduleSplitter,
       Sharder sharder,
-      ModuleSplitsToShardMerger shardsMerger) {
+      ModuleSplitsToShardMerger shardsMerger,
+      ListeningExecutorService executorService) {
     this.stampSource = stampSource;
     this.moduleSplitter = moduleSplitter;
     this.sharder = sharder;
     this.shardsMerger = shardsMerger;
+    this.executorService = executorService;
   }
 
   /**
@@ -78,14 +84,20 @@ public class StandaloneApksGenerator {
    */
   public ImmutableList<ModuleSplit> generateStandaloneApks(
       ImmutableList<BundleModule> modules, ApkOptimizations apkOptimizations) {
-    // Generate a flat list of splits from all input modules.
+    // Generate a flat list of splits from all input modules. Modules are split in parallel, and
+    // the splits are kept in the order of the modules.
     ImmutableList<ModuleSplit> splits =
-        modules.stream()
-            .flatMap(
-                module ->
-                    moduleSplitter
-                        .generateSplits(module, apkOptimizations.getStandaloneDimensions())
-                        .stream())
+        waitForAll(
+                modules.stream()
+                    .map(
+                        module ->
+                            executorService.submit(
+                                () ->
+                                    moduleSplitter.generateSplits(
+                                        module, apkOptimizations.getStandaloneDimensions())))
+                    .collect(toImmutableList()))
+            .stream()
+            .flatMap(Collection::stream)
             .collect(toImmutableList());
 
     Map<ImmutableSet<ModuleEntry>, ImmutableList<Path>> dexCache = Maps.newHashMap();
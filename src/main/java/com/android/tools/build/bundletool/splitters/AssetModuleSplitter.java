@@ -102,6 +102,7 @@ public class AssetModuleSplitter {
 
   private ModuleSplit setAssetSliceManifest(ModuleSplit assetSlice) {
     String resolvedSuffix = suffixManager.createSuffix(assetSlice);
-    return assetSlice.writeSplitIdInManifest(resolvedSuffix).setHasCodeInManifest(false);
+    return assetSlice.writeSplitIdInManifest(
+        resolvedSuffix, ImmutableList.of(editor -> editor.setHasCode(false)));
   }
 }
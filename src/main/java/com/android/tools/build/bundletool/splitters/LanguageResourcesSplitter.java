@@ -20,21 +20,22 @@ import static com.android.tools.build.bundletool.model.BundleModule.RESOURCES_DI
 import static com.android.tools.build.bundletool.model.utils.ResourcesUtils.convertLocaleToLanguage;
 import static com.android.tools.build.bundletool.model.utils.ResourcesUtils.entries;
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableListMultimap.toImmutableListMultimap;
 
 import com.android.aapt.Resources.ConfigValue;
-import com.android.aapt.Resources.Entry;
 import com.android.aapt.Resources.ResourceTable;
 import com.android.bundle.Targeting.LanguageTargeting;
 import com.android.tools.build.bundletool.model.ModuleEntry;
 import com.android.tools.build.bundletool.model.ModuleSplit;
 import com.android.tools.build.bundletool.model.ResourceTableEntry;
 import com.android.tools.build.bundletool.model.utils.ResourcesUtils;
+import com.android.tools.build.bundletool.splitters.ResourceTablePartitioner.Partition;
 import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
 import java.util.function.Predicate;
 
 /**
@@ -71,18 +72,18 @@ public class LanguageResourcesSplitter extends SplitterForOneTargetingDimension
     }
 
     ResourceTable resourceTable = split.getResourceTable().get();
-    ImmutableMap<String, ResourceTable> byLanguage =
+    ImmutableMap<String, Partition> byLanguage =
         groupByLanguage(resourceTable, hasNonResourceEntries(split));
 
     ImmutableList.Builder<ModuleSplit> result = new ImmutableList.Builder<>();
 
     for (String language : byLanguage.keySet()) {
+      Partition partition = byLanguage.get(language);
       ModuleSplit moduleSplit =
           split
               .toBuilder()
-              .setEntries(
-                  getEntriesForSplit(split.getEntries(), language, byLanguage.get(language)))
-              .setResourceTable(byLanguage.get(language))
+              .setEntries(getEntriesForSplit(split.getEntries(), language, partition))
+              .setResourceTable(partition.getResourceTable())
               .setApkTargeting(
                   // Grouping by language may produce a special value "" for non-language specific
                   // resources. This won't end up in any language split hence we exclude it for the
@@ -112,9 +113,9 @@ public class LanguageResourcesSplitter extends SplitterForOneTargetingDimension
   }
 
   private static ImmutableList<ModuleEntry> getEntriesForSplit(
-      ImmutableList<ModuleEntry> inputEntries, String language, ResourceTable resourceTable) {
+      ImmutableList<ModuleEntry> inputEntries, String language, Partition partition) {
     ImmutableList<ModuleEntry> entriesFromResourceTable =
-        ModuleSplit.filterResourceEntries(inputEntries, resourceTable);
+        partition.filterResourceEntries(inputEntries);
     if (language.isEmpty()) { // The split with no specific language targeting.
       return ImmutableList.<ModuleEntry>builder()
           .addAll(entriesFromResourceTable)
@@ -129,18 +130,21 @@ public class LanguageResourcesSplitter extends SplitterForOneTargetingDimension
     }
   }
 
-  private ImmutableMap<String, ResourceTable> groupByLanguage(
+  private ImmutableMap<String, Partition> groupByLanguage(
       ResourceTable table, boolean hasNonResourceEntries) {
     ImmutableSet<String> languages = ResourcesUtils.getAllLanguages(table);
+    // All the languages are extracted from the table in a single pass.
+    ImmutableMap<String, Partition> partitions =
+        ResourceTablePartitioner.partition(table, this::partitionEntryByLanguage);
+    Partition emptyPartition = ResourceTablePartitioner.emptyPartition(table);
 
-    ImmutableMap.Builder<String, ResourceTable> resourceTableByLanguage =
-        new ImmutableMap.Builder<>();
+    ImmutableMap.Builder<String, Partition> resourceTableByLanguage = new ImmutableMap.Builder<>();
     for (String language : languages) {
-      ResourceTable languageResourceTable = filterByLanguage(table, language);
+      Partition languagePartition = partitions.getOrDefault(language, emptyPartition);
       // The resource table might be empty, due to resource pinning. In that case avoid creating
       // a language split.
-      if (!languageResourceTable.equals(ResourceTable.getDefaultInstance())) {
-        resourceTableByLanguage.put(language, languageResourceTable);
+      if (!languagePartition.getResourceTable().equals(ResourceTable.getDefaultInstance())) {
+        resourceTableByLanguage.put(language, languagePartition);
       }
     }
 
@@ -148,12 +152,8 @@ public class LanguageResourcesSplitter extends SplitterForOneTargetingDimension
     // resource table with pinned entries for master split or empty resource table if there are
     // non resource related entries and no pinned entries.
     if (!languages.contains("")) {
-      ResourceTable pinnedResources =
-          ResourcesUtils.filterResourceTable(
-              table,
-              /* removeEntryPredicate= */ pinResourceToMaster.negate(),
-              /* configValuesFilterFn= */ ResourceTableEntry::getEntry);
-      if (hasNonResourceEntries || entries(pinnedResources).count() > 0) {
+      Partition pinnedResources = partitions.getOrDefault("", emptyPartition);
+      if (hasNonResourceEntries || entries(pinnedResources.getResourceTable()).count() > 0) {
         resourceTableByLanguage.put("", pinnedResources);
       }
     }
@@ -161,40 +161,24 @@ public class LanguageResourcesSplitter extends SplitterForOneTargetingDimension
     return resourceTableByLanguage.build();
   }
 
-  private ResourceTable filterByLanguage(ResourceTable input, String language) {
-    return ResourcesUtils.filterResourceTable(
-        input,
-        /* removeEntryPredicate= */ language.isEmpty()
-            ? Predicates.alwaysFalse()
-            : pinResourceToMaster,
-        /* configValuesFilterFn= */ entry -> filterEntryForLanguage(entry, language));
-  }
-
   /**
-   * Only leaves the language specific config values relevant for the given language. For pinned
-   * resource to master splits, retains them fully if the target language is empty (default value).
+   * Groups the config values of the entry by language. Resources pinned to master splits are
+   * retained fully for the default language, and not present in any other language.
    *
-   * @param initialEntry the entry to be updated
-   * @param targetLanguage the desired language to match
-   * @return the entry containing only config values specific to the given language or pinned
-   *     resources to master splits if applicable.
+   * @param entry the entry to partition
+   * @return the config values of the entry, keyed by the language they are specific to
    */
-  private Entry filterEntryForLanguage(ResourceTableEntry initialEntry, String targetLanguage) {
-    if (targetLanguage.isEmpty() && pinResourceToMaster.test(initialEntry)) {
-      return initialEntry.getEntry();
+  private ImmutableListMultimap<String, ConfigValue> partitionEntryByLanguage(
+      ResourceTableEntry entry) {
+    if (pinResourceToMaster.test(entry)) {
+      return ImmutableListMultimap.<String, ConfigValue>builder()
+          .putAll("", entry.getEntry().getConfigValueList())
+          .build();
     }
-
-    Iterable<ConfigValue> filteredConfigValues =
-        Iterables.filter(
-            initialEntry.getEntry().getConfigValueList(),
-            configValue ->
-                convertLocaleToLanguage(configValue.getConfig().getLocale())
-                    .equals(targetLanguage));
-    return initialEntry
-        .getEntry()
-        .toBuilder()
-        .clearConfigValue()
-        .addAllConfigValue(filteredConfigValues)
-        .build();
+    return entry.getEntry().getConfigValueList().stream()
+        .collect(
+            toImmutableListMultimap(
+                configValue -> convertLocaleToLanguage(configValue.getConfig().getLocale()),
+                configValue -> configValue));
   }
 }
@@ -45,6 +45,7 @@ import com.android.tools.build.bundletool.model.SourceStamp.StampType;
 import com.android.tools.build.bundletool.model.SuffixManager;
 import com.android.tools.build.bundletool.model.exceptions.CommandExecutionException;
 import com.android.tools.build.bundletool.model.version.Version;
+import com.google.auto.value.AutoValue;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableCollection;
@@ -141,15 +142,28 @@ public class ModuleSplitter {
   }
 
   public ImmutableList<ModuleSplit> splitModule() {
+    return splitModule(/* variantIndependentSplits= */ Optional.empty());
+  }
+
+  /**
+   * Same as {@link #splitModule()} but reuses the splits generated by {@link
+   * #splitVariantIndependentEntries()} for another variant, instead of running the splitters which
+   * don't depend on the variant again.
+   */
+  ImmutableList<ModuleSplit> splitModule(VariantIndependentSplits variantIndependentSplits) {
+    return splitModule(Optional.of(variantIndependentSplits));
+  }
+
+  private ImmutableList<ModuleSplit> splitModule(
+      Optional<VariantIndependentSplits> variantIndependentSplits) {
     if (apkGenerationConfiguration.isForInstantAppVariants()) {
       // Returns the list of module splits, ready for use as an instant app.
-      return splitModuleInternal().stream()
+      return splitModuleInternal(variantIndependentSplits).stream()
           .map(this::makeInstantManifestChanges)
           .map(moduleSplit -> moduleSplit.toBuilder().setSplitType(SplitType.INSTANT).build())
           .collect(toImmutableList());
     } else {
-      return splitModuleInternal().stream()
-          .map(this::removeSplitName)
+      return splitModuleInternal(variantIndependentSplits).stream()
           .map(this::addPlaceHolderNativeLibsToBaseModule)
           .collect(toImmutableList());
     }
@@ -166,44 +180,86 @@ public class ModuleSplitter {
   }
 
   /** Common modifications to both the instant and installed splits. */
-  private ImmutableList<ModuleSplit> splitModuleInternal() {
-    ImmutableList<ModuleSplit> moduleSplits =
-        runSplitters().stream()
-            .map(this::addApkTargetingForSigningConfiguration)
-            .map(this::addLPlusApkTargeting)
-            .map(this::writeSplitIdInManifest)
-            .map(ModuleSplit::addApplicationElementIfMissingInManifest)
-            .collect(toImmutableList());
+  private ImmutableList<ModuleSplit> splitModuleInternal(
+      Optional<VariantIndependentSplits> variantIndependentSplits) {
+    return runSplitters(variantIndependentSplits).stream()
+        .map(this::addApkTargetingForSigningConfiguration)
+        .map(this::addLPlusApkTargeting)
+        .map(this::writeFinalManifest)
+        .collect(toImmutableList());
+  }
+
+  /**
+   * Writes the Split ID in the manifest, along with the master manifest mutators for the master
+   * split and the other manifest changes common to all the splits: adds the {@code <application>}
+   * element if missing, writes the source stamp and, for installed splits, removes the {@code
+   * splitName} attributes.
+   *
+   * <p>All the changes are made in a single edit of the manifest, instead of copying the manifest
+   * once per change.
+   */
+  private ModuleSplit writeFinalManifest(ModuleSplit moduleSplit) {
+    ImmutableList.Builder<ManifestMutator> manifestMutators = ImmutableList.builder();
+    if (moduleSplit.isMasterSplit()) {
+      manifestMutators.addAll(moduleSplit.getMasterManifestMutators());
+    }
+    manifestMutators.add(ManifestEditor::addApplicationElementIfMissing);
     if (stampSource.isPresent()) {
-      return moduleSplits.stream()
-          .map(moduleSplit -> moduleSplit.writeSourceStampInManifest(stampSource.get(), stampType))
-          .collect(toImmutableList());
+      manifestMutators.addAll(
+          moduleSplit.getSourceStampManifestMutators(stampSource.get(), stampType));
+    }
+    if (!apkGenerationConfiguration.isForInstantAppVariants()) {
+      manifestMutators.add(ManifestEditor::removeSplitName);
     }
-    return moduleSplits;
+    return moduleSplit
+        .writeSplitIdInManifest(suffixManager.createSuffix(moduleSplit), manifestMutators.build())
+        .toBuilder()
+        .setMasterManifestMutators(ImmutableList.of())
+        .build();
   }
 
-  private ImmutableList<ModuleSplit> runSplitters() {
-    if (targetsOnlyPreL(module)) {
-      throw CommandExecutionException.builder()
-          .withInternalMessage(
-              "Cannot split module '%s' because it does not target devices on Android L or above.",
-              module.getName())
-          .build();
-    }
+  /**
+   * Runs the splitters which don't depend on the variant targeting (resources and assets), so that
+   * their splits can be shared by all the variants.
+   *
+   * <p>The returned splits have an empty variant targeting.
+   */
+  VariantIndependentSplits splitVariantIndependentEntries() {
+    checkTargetsLPlus();
+    return splitVariantIndependentEntries(VariantTargeting.getDefaultInstance());
+  }
+
+  private VariantIndependentSplits splitVariantIndependentEntries(
+      VariantTargeting variantTargeting) {
+    SplittingPipeline resourcesPipeline = createResourcesSplittingPipeline();
+    SplittingPipeline assetsPipeline = createAssetsSplittingPipeline();
+    return VariantIndependentSplits.create(
+        ImmutableList.copyOf(
+            resourcesPipeline.split(ModuleSplit.forResources(module, variantTargeting))),
+        ImmutableList.copyOf(
+            assetsPipeline.split(ModuleSplit.forAssets(module, variantTargeting))));
+  }
+
+  private ImmutableList<ModuleSplit> runSplitters(
+      Optional<VariantIndependentSplits> precomputedVariantIndependentSplits) {
+    checkTargetsLPlus();
+
+    VariantIndependentSplits variantIndependentSplits =
+        precomputedVariantIndependentSplits
+            .map(splits -> splits.withVariantTargeting(variantTargeting))
+            .orElseGet(() -> splitVariantIndependentEntries(variantTargeting));
 
     ImmutableList.Builder<ModuleSplit> splits = ImmutableList.builder();
 
     // Resources splits.
-    SplittingPipeline resourcesPipeline = createResourcesSplittingPipeline();
-    splits.addAll(resourcesPipeline.split(ModuleSplit.forResources(module, variantTargeting)));
+    splits.addAll(variantIndependentSplits.getResourceSplits());
 
     // Native libraries splits.
     SplittingPipeline nativePipeline = createNativeLibrariesSplittingPipeline();
     splits.addAll(nativePipeline.split(ModuleSplit.forNativeLibraries(module, variantTargeting)));
 
     // Assets splits.
-    SplittingPipeline assetsPipeline = createAssetsSplittingPipeline();
-    splits.addAll(assetsPipeline.split(ModuleSplit.forAssets(module, variantTargeting)));
+    splits.addAll(variantIndependentSplits.getAssetSplits());
 
     // Dex Files.
     SplittingPipeline dexPipeline = createDexSplittingPipeline();
@@ -212,9 +268,21 @@ public class ModuleSplitter {
     // Other files.
     splits.add(ModuleSplit.forRoot(module, variantTargeting));
 
-    // Merging and making a master split.
+    // Merging and making a master split. The master manifest mutators of all the splits are
+    // applied to the master split when its final manifest is written.
+    ImmutableList<ModuleSplit> unmergedSplits = splits.build();
+    ImmutableList<ManifestMutator> masterManifestMutators =
+        collectMasterManifestMutators(unmergedSplits);
     ImmutableList<ModuleSplit> mergedSplits =
-        new SameTargetingMerger().merge(applyMasterManifestMutators(splits.build()));
+        new SameTargetingMerger().merge(unmergedSplits).stream()
+            .map(
+                split ->
+                    split.isMasterSplit()
+                        ? split.toBuilder()
+                            .setMasterManifestMutators(masterManifestMutators)
+                            .build()
+                        : split)
+            .collect(toImmutableList());
 
     // Check that we have only one split with default targeting - the master split.
     ImmutableList<ModuleSplit> defaultTargetingSplits =
@@ -226,17 +294,23 @@ public class ModuleSplitter {
     return mergedSplits;
   }
 
+  private void checkTargetsLPlus() {
+    if (targetsOnlyPreL(module)) {
+      throw CommandExecutionException.builder()
+          .withInternalMessage(
+              "Cannot split module '%s' because it does not target devices on Android L or above.",
+              module.getName())
+          .build();
+    }
+  }
+
   /* Writes the final manifest that reflects the Split ID. */
-  public ModuleSplit writeSplitIdInManifest(ModuleSplit moduleSplit) {
+  @VisibleForTesting
+  ModuleSplit writeSplitIdInManifest(ModuleSplit moduleSplit) {
     String resolvedSuffix = suffixManager.createSuffix(moduleSplit);
     return moduleSplit.writeSplitIdInManifest(resolvedSuffix);
   }
 
-  /* Removes the {@code splitName} attribute, if it exists in the manifest. */
-  public ModuleSplit removeSplitName(ModuleSplit moduleSplit) {
-    return moduleSplit.removeSplitName();
-  }
-
   /**
    * Updates the split to insert instant app specific manifest changes:
    *
@@ -299,31 +373,15 @@ public class ModuleSplitter {
     return new SplittingPipeline(resourceSplitters.build());
   }
 
-  /**
-   * Updates the android manifest of the master splits, using manifest mutators across all splits.
-   */
-  public static ImmutableList<ModuleSplit> applyMasterManifestMutators(
+  /** Returns the manifest mutators of the master split, collected across all splits. */
+  @VisibleForTesting
+  static ImmutableList<ManifestMutator> collectMasterManifestMutators(
       ImmutableCollection<ModuleSplit> moduleSplits) {
     checkState(
         moduleSplits.stream().map(ModuleSplit::getVariantTargeting).distinct().count() == 1,
         "Expected same variant targeting across all splits.");
-    ImmutableList<ManifestMutator> manifestMutators =
-        moduleSplits.stream()
-            .flatMap(moduleSplit -> moduleSplit.getMasterManifestMutators().stream())
-            .collect(toImmutableList());
-
     return moduleSplits.stream()
-        .map(
-            moduleSplit -> {
-              if (moduleSplit.isMasterSplit()) {
-                moduleSplit =
-                    moduleSplit.toBuilder()
-                        .setAndroidManifest(
-                            moduleSplit.getAndroidManifest().applyMutators(manifestMutators))
-                        .build();
-              }
-              return moduleSplit;
-            })
+        .flatMap(moduleSplit -> moduleSplit.getMasterManifestMutators().stream())
         .collect(toImmutableList());
   }
 
@@ -430,4 +488,30 @@ public class ModuleSplitter {
         .anyMatch(
             configValue -> configValue.getConfig().equals(Configuration.getDefaultInstance()));
   }
+
+  /** Splits of a module which are the same for all variants, except for the variant targeting. */
+  @AutoValue
+  abstract static class VariantIndependentSplits {
+    abstract ImmutableList<ModuleSplit> getResourceSplits();
+
+    abstract ImmutableList<ModuleSplit> getAssetSplits();
+
+    static VariantIndependentSplits create(
+        ImmutableList<ModuleSplit> resourceSplits, ImmutableList<ModuleSplit> assetSplits) {
+      return new AutoValue_ModuleSplitter_VariantIndependentSplits(resourceSplits, assetSplits);
+    }
+
+    VariantIndependentSplits withVariantTargeting(VariantTargeting variantTargeting) {
+      return create(
+          setVariantTargeting(getResourceSplits(), variantTargeting),
+          setVariantTargeting(getAssetSplits(), variantTargeting));
+    }
+
+    private static ImmutableList<ModuleSplit> setVariantTargeting(
+        ImmutableList<ModuleSplit> splits, VariantTargeting variantTargeting) {
+      return splits.stream()
+          .map(split -> split.toBuilder().setVariantTargeting(variantTargeting).build())
+          .collect(toImmutableList());
+    }
+  }
 }
@@ -17,13 +17,13 @@
 package com.android.tools.build.bundletool.splitters;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
 
 import com.android.aapt.Resources.CompoundValue;
 import com.android.aapt.Resources.ConfigValue;
 import com.android.aapt.Resources.FileReference;
 import com.android.aapt.Resources.Item;
-import com.android.aapt.Resources.ResourceTable;
 import com.android.aapt.Resources.Style;
 import com.android.aapt.Resources.XmlAttribute;
 import com.android.aapt.Resources.XmlElement;
@@ -34,8 +34,7 @@ import com.android.tools.build.bundletool.model.ResourceId;
 import com.android.tools.build.bundletool.model.ResourceTableEntry;
 import com.android.tools.build.bundletool.model.ZipPath;
 import com.android.tools.build.bundletool.model.exceptions.CommandExecutionException;
-import com.android.tools.build.bundletool.model.utils.ResourcesUtils;
-import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.protobuf.InvalidProtocolBufferException;
 import java.io.IOException;
@@ -46,6 +45,7 @@ import java.util.HashSet;
 import java.util.Queue;
 import java.util.Set;
 import java.util.stream.Stream;
+import javax.annotation.Nullable;
 
 /** Provides insights into resources of an app. */
 public class ResourceAnalyzer {
@@ -200,46 +200,39 @@ public class ResourceAnalyzer {
   }
 
   private static class ResourceIndex {
-    private final ImmutableMap<ResourceId, BundleModule> resourceIdToModule;
-    private final ImmutableMap<ResourceId, ResourceTableEntry> resourceIdToEntry;
+    private final ImmutableList<BundleModule> modulesWithResources;
 
     private ResourceIndex(AppBundle appBundle) {
-      ImmutableMap.Builder<ResourceId, BundleModule> resourceIdToModule = ImmutableMap.builder();
-      ImmutableMap.Builder<ResourceId, ResourceTableEntry> resourceIdToEntry =
-          ImmutableMap.builder();
-      for (BundleModule module : appBundle.getFeatureModules().values()) {
-        if (!module.getResourceTable().isPresent()) {
-          continue;
-        }
-        ResourceTable resourceTable = module.getResourceTable().get();
-        ResourcesUtils.entries(resourceTable)
-            .forEach(
-                entry -> {
-                  resourceIdToModule.put(entry.getResourceId(), module);
-                  resourceIdToEntry.put(entry.getResourceId(), entry);
-                });
-      }
-
-      this.resourceIdToModule = resourceIdToModule.build();
-      this.resourceIdToEntry = resourceIdToEntry.build();
+      this.modulesWithResources =
+          appBundle.getFeatureModules().values().stream()
+              .filter(module -> module.getResourceTable().isPresent())
+              .collect(toImmutableList());
     }
 
     BundleModule getModuleForResourceId(ResourceId resourceId) {
       return checkNotNull(
-          resourceIdToModule.get(resourceId), "Resource ID %s not found", resourceId);
+          findModuleForResourceId(resourceId), "Resource ID %s not found", resourceId);
     }
 
     ResourceTableEntry getEntryForResourceId(ResourceId resourceId) {
-      return checkNotNull(
-          resourceIdToEntry.get(resourceId), "Resource ID %s not found", resourceId);
+      return getModuleForResourceId(resourceId)
+          .getResourceTableIndex()
+          .lookupTableEntryByResourceId(resourceId.getFullResourceId())
+          .get();
     }
 
-    ImmutableSet<ResourceId> getAllResourceIds() {
-      return resourceIdToModule.keySet();
+    boolean isResourceFromApp(ResourceId resourceId) {
+      return findModuleForResourceId(resourceId) != null;
     }
 
-    boolean isResourceFromApp(ResourceId resourceId) {
-      return getAllResourceIds().contains(resourceId);
+    @Nullable
+    private BundleModule findModuleForResourceId(ResourceId resourceId) {
+      for (BundleModule module : modulesWithResources) {
+        if (module.getResourceTableIndex().containsResourceId(resourceId.getFullResourceId())) {
+          return module;
+        }
+      }
+      return null;
     }
   }
 }
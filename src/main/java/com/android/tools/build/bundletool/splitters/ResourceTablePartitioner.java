@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.splitters;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.android.aapt.Resources.ConfigValue;
+import com.android.aapt.Resources.Entry;
+import com.android.aapt.Resources.Package;
+import com.android.aapt.Resources.ResourceTable;
+import com.android.aapt.Resources.Type;
+import com.android.tools.build.bundletool.model.ModuleEntry;
+import com.android.tools.build.bundletool.model.ModuleSplit;
+import com.android.tools.build.bundletool.model.ResourceTableEntry;
+import com.android.tools.build.bundletool.model.ZipPath;
+import com.android.tools.build.bundletool.model.utils.ResourcesUtils;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Partitions the config values of a resource table into several resource tables in a single pass.
+ *
+ * <p>This is equivalent to calling {@link ResourcesUtils#filterResourceTable} followed by {@link
+ * ModuleSplit#filterResourceEntries} once per partition, but walks the resource table only once
+ * regardless of the number of partitions.
+ */
+final class ResourceTablePartitioner {
+
+  /**
+   * Partitions the given resource table.
+   *
+   * <p>{@code partitionFn} is called once per entry of the table, and returns the config values of
+   * the entry which go in each partition. A config value may go in several partitions, or in none.
+   *
+   * <p>Packages, types and entries are kept in the same order as in the original table, and removed
+   * if they are empty in a partition. All the other fields of the table are kept.
+   *
+   * @return the non-empty partitions, in the order in which they were first returned by {@code
+   *     partitionFn}
+   */
+  static <K> ImmutableMap<K, Partition> partition(
+      ResourceTable table,
+      Function<ResourceTableEntry, ImmutableListMultimap<K, ConfigValue>> partitionFn) {
+    ResourceTable tableHeader = table.toBuilder().clearPackage().build();
+    Map<K, PartitionBuilder> partitions = new LinkedHashMap<>();
+
+    for (int pkgIdx = 0; pkgIdx < table.getPackageCount(); pkgIdx++) {
+      Package pkg = table.getPackage(pkgIdx);
+      Package pkgHeader = pkg.toBuilder().clearType().build();
+
+      for (int typeIdx = 0; typeIdx < pkg.getTypeCount(); typeIdx++) {
+        Type type = pkg.getType(typeIdx);
+        Type typeHeader = type.toBuilder().clearEntry().build();
+
+        for (Entry entry : type.getEntryList()) {
+          ImmutableListMultimap<K, ConfigValue> configValuesByPartition =
+              partitionFn.apply(ResourceTableEntry.create(pkg, type, entry));
+
+          for (Map.Entry<K, Collection<ConfigValue>> partitionConfigValues :
+              configValuesByPartition.asMap().entrySet()) {
+            partitions
+                .computeIfAbsent(
+                    partitionConfigValues.getKey(), key -> new PartitionBuilder(tableHeader))
+                .addEntry(
+                    pkgIdx,
+                    pkgHeader,
+                    typeIdx,
+                    typeHeader,
+                    entry,
+                    partitionConfigValues.getValue());
+          }
+        }
+      }
+    }
+
+    ImmutableMap.Builder<K, Partition> result = ImmutableMap.builder();
+    partitions.forEach((key, partition) -> result.put(key, partition.build()));
+    return result.build();
+  }
+
+  /** Returns the partition with no entries of the given resource table. */
+  static Partition emptyPartition(ResourceTable table) {
+    return Partition.create(table.toBuilder().clearPackage().build(), ImmutableSet.of());
+  }
+
+  /** A partition of a resource table. */
+  @AutoValue
+  abstract static class Partition {
+    abstract ResourceTable getResourceTable();
+
+    /** Paths of the files referenced by the resource table of the partition. */
+    abstract ImmutableSet<ZipPath> getFileReferences();
+
+    static Partition create(ResourceTable resourceTable, ImmutableSet<ZipPath> fileReferences) {
+      return new AutoValue_ResourceTablePartitioner_Partition(resourceTable, fileReferences);
+    }
+
+    /** Returns the given entries which are referenced by the resource table of the partition. */
+    ImmutableList<ModuleEntry> filterResourceEntries(ImmutableList<ModuleEntry> entries) {
+      return entries.stream()
+          .filter(entry -> getFileReferences().contains(entry.getPath()))
+          .collect(toImmutableList());
+    }
+  }
+
+  private static final class PartitionBuilder {
+    private final ResourceTable.Builder table;
+    private final ImmutableSet.Builder<ZipPath> fileReferences = ImmutableSet.builder();
+
+    private int currentPkgIdx = -1;
+    private int currentTypeIdx = -1;
+    private Package.Builder currentPackage;
+    private Type.Builder currentType;
+
+    PartitionBuilder(ResourceTable tableHeader) {
+      this.table = tableHeader.toBuilder();
+    }
+
+    void addEntry(
+        int pkgIdx,
+        Package pkgHeader,
+        int typeIdx,
+        Type typeHeader,
+        Entry entry,
+        Collection<ConfigValue> configValues) {
+      if (pkgIdx != currentPkgIdx) {
+        currentPackage = table.addPackageBuilder().mergeFrom(pkgHeader);
+        currentPkgIdx = pkgIdx;
+        currentTypeIdx = -1;
+      }
+      if (typeIdx != currentTypeIdx) {
+        currentType = currentPackage.addTypeBuilder().mergeFrom(typeHeader);
+        currentTypeIdx = typeIdx;
+      }
+
+      if (hasAllConfigValues(entry, configValues)) {
+        // Avoids copying the entry when none of its config values is filtered out.
+        currentType.addEntry(entry);
+      } else {
+        currentType.addEntry(
+            entry.toBuilder().clearConfigValue().addAllConfigValue(configValues).build());
+      }
+
+      for (ConfigValue configValue : configValues) {
+        if (configValue.getValue().getItem().hasFile()) {
+          fileReferences.add(
+              ZipPath.create(configValue.getValue().getItem().getFile().getPath()));
+        }
+      }
+    }
+
+    private static boolean hasAllConfigValues(Entry entry, Collection<ConfigValue> configValues) {
+      if (configValues.size() != entry.getConfigValueCount()) {
+        return false;
+      }
+      int i = 0;
+      for (ConfigValue configValue : configValues) {
+        if (configValue != entry.getConfigValue(i++)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    Partition build() {
+      return Partition.create(table.build(), fileReferences.build());
+    }
+  }
+
+  private ResourceTablePartitioner() {}
+}
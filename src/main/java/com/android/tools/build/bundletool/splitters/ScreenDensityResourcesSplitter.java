@@ -22,17 +22,13 @@ import static com.android.tools.build.bundletool.model.utils.ResourcesUtils.DEFA
 import static com.android.tools.build.bundletool.model.utils.ResourcesUtils.MIPMAP_TYPE;
 import static com.android.tools.build.bundletool.model.utils.ResourcesUtils.getLowestDensity;
 import static com.android.tools.build.bundletool.model.version.VersionGuardedFeature.RESOURCES_WITH_NO_ALTERNATIVES_IN_MASTER_SPLIT;
-import static com.google.common.base.Preconditions.checkArgument;
-import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
 
 import com.android.aapt.ConfigurationOuterClass.Configuration;
 import com.android.aapt.Resources.ConfigValue;
 import com.android.aapt.Resources.Entry;
-import com.android.aapt.Resources.Package;
 import com.android.aapt.Resources.ResourceTable;
-import com.android.aapt.Resources.Type;
 import com.android.bundle.Targeting.ScreenDensity;
 import com.android.bundle.Targeting.ScreenDensity.DensityAlias;
 import com.android.bundle.Targeting.ScreenDensityTargeting;
@@ -40,16 +36,16 @@ import com.android.tools.build.bundletool.model.ModuleSplit;
 import com.android.tools.build.bundletool.model.ResourceId;
 import com.android.tools.build.bundletool.model.ResourceTableEntry;
 import com.android.tools.build.bundletool.model.targeting.ScreenDensitySelector;
-import com.android.tools.build.bundletool.model.utils.ResourcesUtils;
 import com.android.tools.build.bundletool.model.version.Version;
+import com.android.tools.build.bundletool.splitters.ResourceTablePartitioner.Partition;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
@@ -113,9 +109,15 @@ public class ScreenDensityResourcesSplitter extends SplitterForOneTargetingDimen
       return ImmutableList.of(split);
     }
 
+    // All the density splits and the default split are extracted from the table in a single pass.
+    ImmutableMap<Optional<DensityAlias>, Partition> partitions =
+        ResourceTablePartitioner.partition(resourceTable.get(), this::partitionEntryByDensity);
+    Partition emptyPartition = ResourceTablePartitioner.emptyPartition(resourceTable.get());
+
     ImmutableList.Builder<ModuleSplit> splitsBuilder = new ImmutableList.Builder<>();
     for (DensityAlias density : densityBuckets) {
-      ResourceTable optimizedTable = filterResourceTableForDensity(resourceTable.get(), density);
+      Partition densityPartition = partitions.getOrDefault(Optional.of(density), emptyPartition);
+      ResourceTable optimizedTable = densityPartition.getResourceTable();
       // Don't generate empty splits.
       if (optimizedTable.equals(ResourceTable.getDefaultInstance())) {
         continue;
@@ -134,12 +136,18 @@ public class ScreenDensityResourcesSplitter extends SplitterForOneTargetingDimen
                       .build())
               .setMasterSplit(false)
               .addMasterManifestMutator(withSplitsRequired(true))
-              .setEntries(ModuleSplit.filterResourceEntries(split.getEntries(), optimizedTable))
+              .setEntries(densityPartition.filterResourceEntries(split.getEntries()))
               .setResourceTable(optimizedTable);
       splitsBuilder.add(moduleSplitBuilder.build());
     }
 
-    ModuleSplit defaultResourcesSplit = getDefaultResourcesSplit(split, splitsBuilder.build());
+    // Creates resources split with no extra targeting with all other unclaimed resource entries.
+    Partition defaultPartition = partitions.getOrDefault(Optional.empty(), emptyPartition);
+    ModuleSplit defaultResourcesSplit =
+        split.toBuilder()
+            .setEntries(defaultPartition.filterResourceEntries(split.getEntries()))
+            .setResourceTable(defaultPartition.getResourceTable())
+            .build();
     return splitsBuilder.add(defaultResourcesSplit).build();
   }
 
@@ -147,89 +155,40 @@ public class ScreenDensityResourcesSplitter extends SplitterForOneTargetingDimen
     return ScreenDensity.newBuilder().setDensityAlias(alias).build();
   }
 
-  /** Creates resources split with no extra targeting with all other unclaimed resource entries. */
-  private ModuleSplit getDefaultResourcesSplit(
-      ModuleSplit inputSplit, ImmutableCollection<ModuleSplit> densitySplits) {
-    ResourceTable defaultSplitTable =
-        getResourceTableForDefaultSplit(inputSplit, getClaimedConfigs(densitySplits));
-    return inputSplit.toBuilder()
-        .setEntries(ModuleSplit.filterResourceEntries(inputSplit.getEntries(), defaultSplitTable))
-        .setResourceTable(defaultSplitTable)
-        .build();
-  }
-
-  private ImmutableMultimap<ResourceId, ConfigValue> getClaimedConfigs(
-      Iterable<ModuleSplit> moduleSplits) {
-    ImmutableMultimap.Builder<ResourceId, ConfigValue> result = new ImmutableMultimap.Builder<>();
-    for (ModuleSplit moduleSplit : moduleSplits) {
-      checkState(
-          moduleSplit.getResourceTable().isPresent(),
-          "Resource table not found in the density split.");
-      for (Package pkg : moduleSplit.getResourceTable().get().getPackageList()) {
-        for (Type type : pkg.getTypeList()) {
-          for (Entry entry : type.getEntryList()) {
-            for (ConfigValue configValue : entry.getConfigValueList()) {
-              result.put(ResourceId.create(pkg, type, entry), configValue);
-            }
-          }
-        }
-      }
-    }
-    return result.build();
-  }
-
   /**
-   * Returns a resource table for master split.
+   * Assigns the config values of the entry to the density splits, and all the config values not
+   * claimed by any density split to the default split, keyed by {@link Optional#empty()}.
    *
-   * <p>It will be stripped of any entries claimed by the config splits.
+   * <p>Mipmaps are not claimed by any density split, so they end up in the master split.
    */
-  private ResourceTable getResourceTableForDefaultSplit(
-      ModuleSplit split, ImmutableMultimap<ResourceId, ConfigValue> claimedConfigs) {
-    checkArgument(
-        split.getResourceTable().isPresent(), "Expected the split to contain Resource Table.");
-    ResourceTable.Builder prunedTable = split.getResourceTable().get().toBuilder();
-    for (Package.Builder packageBuilder : prunedTable.getPackageBuilderList()) {
-      for (Type.Builder typeBuilder : packageBuilder.getTypeBuilderList()) {
-        List<Entry> newEntries = new ArrayList<>();
-        for (Entry entry : typeBuilder.getEntryList()) {
-          ResourceId resourceId = ResourceId.create(packageBuilder, typeBuilder, entry);
-          ImmutableList<ConfigValue> allConfigsExceptClaimed =
-              entry.getConfigValueList().stream()
-                  .filter(configValue -> !claimedConfigs.containsEntry(resourceId, configValue))
-                  .collect(toImmutableList());
-          Entry.Builder newEntry =
-              entry.toBuilder().clearConfigValue().addAllConfigValue(allConfigsExceptClaimed);
-          if (newEntry.getConfigValueCount() > 0) { // if everything was claimed we skip the entry.
-            newEntries.add(newEntry.build());
-          }
-        }
-        typeBuilder.clearEntry().addAllEntry(newEntries);
+  private ImmutableListMultimap<Optional<DensityAlias>, ConfigValue> partitionEntryByDensity(
+      ResourceTableEntry tableEntry) {
+    ImmutableListMultimap.Builder<Optional<DensityAlias>, ConfigValue> partitions =
+        ImmutableListMultimap.builder();
+    Set<ConfigValue> claimedConfigValues = new HashSet<>();
+
+    if (!tableEntry.getType().getName().equals(MIPMAP_TYPE)) {
+      ImmutableList<List<ConfigValue>> densityGroups = getDensityGroups(tableEntry.getEntry());
+      Predicate<ConfigValue> pinConfigToMaster =
+          getConfigsPinnedToMaster(tableEntry, densityGroups);
+      for (DensityAlias density : densityBuckets) {
+        ImmutableList<ConfigValue> densityConfigValues =
+            filterEntryForDensity(densityGroups, pinConfigToMaster, density);
+        partitions.putAll(Optional.of(density), densityConfigValues);
+        claimedConfigValues.addAll(densityConfigValues);
       }
     }
-    return prunedTable.build();
-  }
 
-  private ResourceTable filterResourceTableForDensity(ResourceTable input, DensityAlias density) {
-    return ResourcesUtils.filterResourceTable(
-        input,
-        // Put mipmaps into the master split.
-        /* removeEntryPredicate= */ entry -> entry.getType().getName().equals(MIPMAP_TYPE),
-        /* configValuesFilterFn= */ entry -> filterEntryForDensity(entry, density));
+    for (ConfigValue configValue : tableEntry.getEntry().getConfigValueList()) {
+      if (!claimedConfigValues.contains(configValue)) {
+        partitions.put(Optional.empty(), configValue);
+      }
+    }
+    return partitions.build();
   }
 
-  /**
-   * Only leaves the density specific config values optimized for a given density.
-   *
-   * <p>As any other resource qualifiers can be requested when delivering resources, the algorithm
-   * chooses the best match only within group of resources differing by density only.
-   *
-   * @param tableEntry the entry to be updated
-   * @param targetDensity the desired density to match
-   * @return the entry with the best matching density config values.
-   */
-  private Entry filterEntryForDensity(ResourceTableEntry tableEntry, DensityAlias targetDensity) {
-    Entry initialEntry = tableEntry.getEntry();
-    // Groups together configs that only differ on density.
+  /** Groups together configs of the entry that only differ on density. */
+  private ImmutableList<List<ConfigValue>> getDensityGroups(Entry initialEntry) {
     ImmutableMap<Configuration, ? extends List<ConfigValue>> configValuesByConfiguration =
         initialEntry.getConfigValueList().stream()
             .filter(
@@ -247,27 +206,45 @@ public class ScreenDensityResourcesSplitter extends SplitterForOneTargetingDimen
                   configValuesByConfiguration, configValues -> configValues.size() > 1));
     }
 
-    ImmutableList<List<ConfigValue>> densityGroups =
-        ImmutableList.copyOf(configValuesByConfiguration.values());
+    return ImmutableList.copyOf(configValuesByConfiguration.values());
+  }
 
-    // We want to pin specific configs to the master, instead of putting them into a density split.
-    Predicate<ConfigValue> pinConfigToMaster;
+  /**
+   * Returns the configs which we want to pin to the master, instead of putting them into a density
+   * split.
+   */
+  private Predicate<ConfigValue> getConfigsPinnedToMaster(
+      ResourceTableEntry tableEntry, ImmutableList<List<ConfigValue>> densityGroups) {
     if (pinWholeResourceToMaster.test(tableEntry.getResourceId())) {
-      pinConfigToMaster = anyConfig -> true;
+      return anyConfig -> true;
     } else if (pinLowestBucketToMaster(tableEntry)) {
       ImmutableSet<ConfigValue> lowDensityConfigsPinnedToMaster =
           pickBestDensityForEachGroup(densityGroups, getLowestDensity(densityBuckets))
               .collect(toImmutableSet());
-      pinConfigToMaster = lowDensityConfigsPinnedToMaster::contains;
+      return lowDensityConfigsPinnedToMaster::contains;
     } else {
-      pinConfigToMaster = anyConfig -> false;
+      return anyConfig -> false;
     }
+  }
 
-    ImmutableList<ConfigValue> valuesToKeep =
-        pickBestDensityForEachGroup(densityGroups, targetDensity)
-            .filter(config -> !pinConfigToMaster.test(config))
-            .collect(toImmutableList());
-    return initialEntry.toBuilder().clearConfigValue().addAllConfigValue(valuesToKeep).build();
+  /**
+   * Only leaves the density specific config values optimized for a given density.
+   *
+   * <p>As any other resource qualifiers can be requested when delivering resources, the algorithm
+   * chooses the best match only within group of resources differing by density only.
+   *
+   * @param densityGroups the config values of the entry, grouped by configuration without density
+   * @param pinConfigToMaster the config values which never go in a density split
+   * @param targetDensity the desired density to match
+   * @return the best matching density config values.
+   */
+  private ImmutableList<ConfigValue> filterEntryForDensity(
+      ImmutableList<List<ConfigValue>> densityGroups,
+      Predicate<ConfigValue> pinConfigToMaster,
+      DensityAlias targetDensity) {
+    return pickBestDensityForEachGroup(densityGroups, targetDensity)
+        .filter(config -> !pinConfigToMaster.test(config))
+        .collect(toImmutableList());
   }
 
   private boolean pinLowestBucketToMaster(ResourceTableEntry entry) {
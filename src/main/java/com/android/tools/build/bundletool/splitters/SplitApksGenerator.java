@@ -16,18 +16,27 @@
 
 package com.android.tools.build.bundletool.splitters;
 
+import static com.android.tools.build.bundletool.io.ConcurrencyUtils.waitForAll;
 import static com.android.tools.build.bundletool.model.targeting.TargetingUtils.generateAllVariantTargetings;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static com.google.protobuf.TextFormat.shortDebugString;
 
 import com.android.bundle.Targeting.VariantTargeting;
 import com.android.tools.build.bundletool.model.BundleModule;
 import com.android.tools.build.bundletool.model.ModuleSplit;
+import com.android.tools.build.bundletool.model.PhaseTracer;
+import com.android.tools.build.bundletool.model.PhaseTracer.Phase;
+import com.android.tools.build.bundletool.model.PhaseTracer.Span;
 import com.android.tools.build.bundletool.model.SourceStamp;
 import com.android.tools.build.bundletool.model.SourceStamp.StampType;
 import com.android.tools.build.bundletool.model.version.Version;
+import com.android.tools.build.bundletool.splitters.ModuleSplitter.VariantIndependentSplits;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import java.util.Collection;
 import java.util.Optional;
 import javax.inject.Inject;
 
@@ -37,28 +46,93 @@ public final class SplitApksGenerator {
   private final Version bundletoolVersion;
   private final Optional<SourceStamp> stampSource;
   private final VariantGenerator variantGenerator;
+  private final ListeningExecutorService executorService;
+  private final PhaseTracer phaseTracer;
 
   @Inject
   public SplitApksGenerator(
       Version bundletoolVersion,
       Optional<SourceStamp> stampSource,
-      VariantGenerator variantGenerator) {
+      VariantGenerator variantGenerator,
+      ListeningExecutorService executorService,
+      PhaseTracer phaseTracer) {
     this.bundletoolVersion = bundletoolVersion;
     this.stampSource = stampSource;
     this.variantGenerator = variantGenerator;
+    this.executorService = executorService;
+    this.phaseTracer = phaseTracer;
   }
 
   public ImmutableList<ModuleSplit> generateSplits(
       ImmutableList<BundleModule> modules, ApkGenerationConfiguration apkGenerationConfiguration) {
     ImmutableSet<VariantTargeting> variantTargetings =
         generateVariants(modules, apkGenerationConfiguration);
-    return variantTargetings.stream()
-        .flatMap(
-            variantTargeting ->
-                generateSplitApks(modules, apkGenerationConfiguration, variantTargeting).stream())
+    ImmutableSet<String> allModuleNames =
+        modules.stream().map(module -> module.getName().getName()).collect(toImmutableSet());
+
+    // The resources and assets splits don't depend on the variant, so when there are several
+    // variants they are computed once per module and shared by all variants.
+    Optional<ImmutableList<VariantIndependentSplits>> variantIndependentSplits =
+        variantTargetings.size() > 1
+            ? Optional.of(
+                splitVariantIndependentEntries(modules, apkGenerationConfiguration, allModuleNames))
+            : Optional.empty();
+
+    // Each (variant, module) pair is split independently. The results are collected in submission
+    // order so the output is the same as if the modules had been split sequentially.
+    ImmutableList.Builder<ListenableFuture<ImmutableList<ModuleSplit>>> splitsFutures =
+        ImmutableList.builder();
+    for (VariantTargeting variantTargeting : variantTargetings) {
+      for (int i = 0; i < modules.size(); i++) {
+        int moduleIndex = i;
+        BundleModule module = modules.get(i);
+        Optional<VariantIndependentSplits> moduleVariantIndependentSplits =
+            variantIndependentSplits.map(splits -> splits.get(moduleIndex));
+        splitsFutures.add(
+            executorService.submit(
+                () -> {
+                  String spanDetail =
+                      module.getName().getName() + " " + shortDebugString(variantTargeting);
+                  try (Span span = phaseTracer.startPhase(Phase.SPLIT_MODULE, spanDetail)) {
+                    ModuleSplitter moduleSplitter =
+                        createModuleSplitter(
+                            module, apkGenerationConfiguration, variantTargeting, allModuleNames);
+                    return moduleVariantIndependentSplits.isPresent()
+                        ? moduleSplitter.splitModule(moduleVariantIndependentSplits.get())
+                        : moduleSplitter.splitModule();
+                  }
+                }));
+      }
+    }
+    return waitForAll(splitsFutures.build()).stream()
+        .flatMap(Collection::stream)
         .collect(toImmutableList());
   }
 
+  private ImmutableList<VariantIndependentSplits> splitVariantIndependentEntries(
+      ImmutableList<BundleModule> modules,
+      ApkGenerationConfiguration apkGenerationConfiguration,
+      ImmutableSet<String> allModuleNames) {
+    ImmutableList.Builder<ListenableFuture<VariantIndependentSplits>> splitsFutures =
+        ImmutableList.builder();
+    for (BundleModule module : modules) {
+      splitsFutures.add(
+          executorService.submit(
+              () -> {
+                try (Span span =
+                    phaseTracer.startPhase(Phase.SPLIT_MODULE, module.getName().getName())) {
+                  return createModuleSplitter(
+                          module,
+                          apkGenerationConfiguration,
+                          VariantTargeting.getDefaultInstance(),
+                          allModuleNames)
+                      .splitVariantIndependentEntries();
+                }
+              }));
+    }
+    return waitForAll(splitsFutures.build());
+  }
+
   private ImmutableSet<VariantTargeting> generateVariants(
       ImmutableList<BundleModule> modules, ApkGenerationConfiguration apkGenerationConfiguration) {
     ImmutableSet.Builder<VariantTargeting> builder = ImmutableSet.builder();
@@ -70,26 +144,18 @@ public final class SplitApksGenerator {
     return generateAllVariantTargetings(builder.build());
   }
 
-  private ImmutableList<ModuleSplit> generateSplitApks(
-      ImmutableList<BundleModule> modules,
+  private ModuleSplitter createModuleSplitter(
+      BundleModule module,
       ApkGenerationConfiguration apkGenerationConfiguration,
-      VariantTargeting variantTargeting) {
-    ImmutableSet<String> allModuleNames =
-        modules.stream().map(module -> module.getName().getName()).collect(toImmutableSet());
-    ImmutableList.Builder<ModuleSplit> splits = ImmutableList.builder();
-
-    for (BundleModule module : modules) {
-      ModuleSplitter moduleSplitter =
-          ModuleSplitter.create(
-              module,
-              bundletoolVersion,
-              apkGenerationConfiguration,
-              variantTargeting,
-              allModuleNames,
-              stampSource.map(SourceStamp::getSource),
-              StampType.STAMP_TYPE_DISTRIBUTION_APK);
-      splits.addAll(moduleSplitter.splitModule());
-    }
-    return splits.build();
+      VariantTargeting variantTargeting,
+      ImmutableSet<String> allModuleNames) {
+    return ModuleSplitter.create(
+        module,
+        bundletoolVersion,
+        apkGenerationConfiguration,
+        variantTargeting,
+        allModuleNames,
+        stampSource.map(SourceStamp::getSource),
+        StampType.STAMP_TYPE_DISTRIBUTION_APK);
   }
 }
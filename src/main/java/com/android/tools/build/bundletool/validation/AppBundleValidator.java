@@ -19,6 +19,8 @@ package com.android.tools.build.bundletool.validation;
 import com.android.tools.build.bundletool.model.AppBundle;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import java.util.Optional;
 import java.util.zip.ZipFile;
 
 /** Validates the files and configuration for the bundle. */
@@ -59,12 +61,15 @@ public class AppBundleValidator {
 
   private final ImmutableList<SubValidator> allBundleSubValidators;
   private final ImmutableList<SubValidator> allBundleFileSubValidators;
+  private final Optional<ListeningExecutorService> executorService;
 
   private AppBundleValidator(
       ImmutableList<SubValidator> allBundleSubValidators,
-      ImmutableList<SubValidator> allBundleFileSubValidators) {
+      ImmutableList<SubValidator> allBundleFileSubValidators,
+      Optional<ListeningExecutorService> executorService) {
     this.allBundleSubValidators = allBundleSubValidators;
     this.allBundleFileSubValidators = allBundleFileSubValidators;
+    this.executorService = executorService;
   }
 
   public static AppBundleValidator create() {
@@ -72,6 +77,22 @@ public class AppBundleValidator {
   }
 
   public static AppBundleValidator create(ImmutableList<SubValidator> extraSubValidators) {
+    return create(extraSubValidators, Optional.empty());
+  }
+
+  /**
+   * Creates a validator running the validations concurrently on the given executor.
+   *
+   * <p>The extra sub-validators must be thread-safe.
+   */
+  public static AppBundleValidator create(
+      ImmutableList<SubValidator> extraSubValidators, ListeningExecutorService executorService) {
+    return create(extraSubValidators, Optional.of(executorService));
+  }
+
+  private static AppBundleValidator create(
+      ImmutableList<SubValidator> extraSubValidators,
+      Optional<ListeningExecutorService> executorService) {
     AppBundleValidator validator =
         new AppBundleValidator(
             ImmutableList.<SubValidator>builder()
@@ -81,7 +102,8 @@ public class AppBundleValidator {
             ImmutableList.<SubValidator>builder()
                 .addAll(DEFAULT_BUNDLE_FILE_SUB_VALIDATORS)
                 .addAll(extraSubValidators)
-                .build());
+                .build(),
+            executorService);
     return validator;
   }
 
@@ -91,7 +113,7 @@ public class AppBundleValidator {
    * <p>Note that this method performs different checks than {@link #validate(AppBundle)}.
    */
   public void validateFile(ZipFile bundleFile) {
-    new ValidatorRunner(allBundleFileSubValidators).validateBundleZipFile(bundleFile);
+    createRunner(allBundleFileSubValidators).validateBundleZipFile(bundleFile);
   }
 
   /**
@@ -102,6 +124,12 @@ public class AppBundleValidator {
    * @throws ValidationException If the bundle is invalid.
    */
   public void validate(AppBundle bundle) {
-    new ValidatorRunner(allBundleSubValidators).validateBundle(bundle);
+    createRunner(allBundleSubValidators).validateBundle(bundle);
+  }
+
+  private ValidatorRunner createRunner(ImmutableList<SubValidator> subValidators) {
+    return executorService
+        .map(executor -> new ValidatorRunner(subValidators, executor))
+        .orElseGet(() -> new ValidatorRunner(subValidators));
   }
 }
@@ -22,64 +22,206 @@ import com.android.tools.build.bundletool.model.AppBundle;
 import com.android.tools.build.bundletool.model.BundleModule;
 import com.android.tools.build.bundletool.model.ModuleEntry;
 import com.android.tools.build.bundletool.model.ZipPath;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
-import java.util.Enumeration;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
-/** Runs given set of validators. */
+/**
+ * Runs given set of validators.
+ *
+ * <p>When created with an executor, the validations are split into tasks (one per validator and
+ * module, and one per batch of zip entries) which run concurrently. The reported error is always
+ * the one that running the validations sequentially would report first.
+ */
 public class ValidatorRunner {
 
+  private static final Logger logger = Logger.getLogger(ValidatorRunner.class.getName());
+
+  /** Number of zip entries validated by each task when validating concurrently. */
+  private static final int ZIP_ENTRIES_PER_TASK = 1000;
+
   private final ImmutableList<SubValidator> subValidators;
+  private final Optional<ListeningExecutorService> executorService;
+
+  /** Time spent in each sub-validator, in nanoseconds. */
+  private final AtomicLongArray validatorNanos;
 
   public ValidatorRunner(ImmutableList<SubValidator> subValidators) {
+    this(subValidators, Optional.empty());
+  }
+
+  /**
+   * Creates a runner running the validations concurrently on the given executor.
+   *
+   * <p>Sub-validators must then be thread-safe, since each of them may be called from several
+   * threads at once.
+   */
+  public ValidatorRunner(
+      ImmutableList<SubValidator> subValidators, ListeningExecutorService executorService) {
+    this(subValidators, Optional.of(executorService));
+  }
+
+  private ValidatorRunner(
+      ImmutableList<SubValidator> subValidators,
+      Optional<ListeningExecutorService> executorService) {
     this.subValidators = subValidators;
+    this.executorService = executorService;
+    this.validatorNanos = new AtomicLongArray(subValidators.size());
   }
 
   /** Validates the given App Bundle zip file. */
   public void validateBundleZipFile(ZipFile bundleFile) {
-    subValidators.forEach(subValidator -> subValidator.validateBundleZipFile(bundleFile));
+    ImmutableList.Builder<Runnable> tasks = ImmutableList.builder();
+    for (int i = 0; i < subValidators.size(); i++) {
+      int validatorIndex = i;
+      tasks.add(
+          () ->
+              runTimed(
+                  validatorIndex,
+                  subValidator -> subValidator.validateBundleZipFile(bundleFile)));
+    }
 
-    Enumeration<? extends ZipEntry> zipEntries = bundleFile.entries();
-    while (zipEntries.hasMoreElements()) {
-      ZipEntry zipEntry = zipEntries.nextElement();
-      subValidators.forEach(
-          subValidator -> subValidator.validateBundleZipEntry(bundleFile, zipEntry));
+    // Each entry is visited once, and passed to all the sub-validators.
+    List<? extends ZipEntry> zipEntries = Collections.list(bundleFile.entries());
+    for (List<? extends ZipEntry> batch : Lists.partition(zipEntries, ZIP_ENTRIES_PER_TASK)) {
+      tasks.add(
+          () -> {
+            for (ZipEntry zipEntry : batch) {
+              for (int i = 0; i < subValidators.size(); i++) {
+                runTimed(
+                    i, subValidator -> subValidator.validateBundleZipEntry(bundleFile, zipEntry));
+              }
+            }
+          });
     }
+
+    runTasks(tasks.build());
   }
 
   /** Validates the given App Bundle module zip file. */
   public void validateModuleZipFile(ZipFile moduleFile) {
-    subValidators.forEach(subValidator -> subValidator.validateModuleZipFile(moduleFile));
+    ImmutableList.Builder<Runnable> tasks = ImmutableList.builder();
+    for (int i = 0; i < subValidators.size(); i++) {
+      int validatorIndex = i;
+      tasks.add(
+          () ->
+              runTimed(
+                  validatorIndex,
+                  subValidator -> subValidator.validateModuleZipFile(moduleFile)));
+    }
+    runTasks(tasks.build());
   }
 
   /** Validates the given App Bundle. */
   public void validateBundle(AppBundle bundle) {
-    subValidators.forEach(subValidator -> validateBundleUsingSubValidator(bundle, subValidator));
+    ImmutableList<BundleModule> modules = ImmutableList.copyOf(bundle.getModules().values());
+    ImmutableList.Builder<Runnable> tasks = ImmutableList.builder();
+    for (int i = 0; i < subValidators.size(); i++) {
+      int validatorIndex = i;
+      tasks.add(
+          () -> runTimed(validatorIndex, subValidator -> subValidator.validateBundle(bundle)));
+      addBundleModulesTasks(tasks, modules, validatorIndex);
+    }
+    runTasks(tasks.build());
   }
 
   /** Interprets given modules as a bundle and validates it. */
   public void validateBundleModules(ImmutableList<BundleModule> modules) {
-    subValidators.forEach(
-        subValidator -> validateBundleModulesUsingSubValidator(modules, subValidator));
+    ImmutableList.Builder<Runnable> tasks = ImmutableList.builder();
+    for (int i = 0; i < subValidators.size(); i++) {
+      addBundleModulesTasks(tasks, modules, i);
+    }
+    runTasks(tasks.build());
   }
 
-  private static void validateBundleUsingSubValidator(AppBundle bundle, SubValidator subValidator) {
-    subValidator.validateBundle(bundle);
-    validateBundleModulesUsingSubValidator(
-        ImmutableList.copyOf(bundle.getModules().values()), subValidator);
+  private void addBundleModulesTasks(
+      ImmutableList.Builder<Runnable> tasks,
+      ImmutableList<BundleModule> modules,
+      int validatorIndex) {
+    tasks.add(
+        () -> runTimed(validatorIndex, subValidator -> subValidator.validateAllModules(modules)));
+
+    for (BundleModule module : modules) {
+      tasks.add(
+          () ->
+              runTimed(
+                  validatorIndex,
+                  subValidator -> {
+                    subValidator.validateModule(module);
+
+                    for (ZipPath moduleFile : getModuleFiles(module)) {
+                      subValidator.validateModuleFile(moduleFile);
+                    }
+                  }));
+    }
   }
 
-  private static void validateBundleModulesUsingSubValidator(
-      ImmutableList<BundleModule> modules, SubValidator subValidator) {
-    subValidator.validateAllModules(modules);
+  private void runTimed(int validatorIndex, Consumer<SubValidator> validation) {
+    long startNanos = System.nanoTime();
+    try {
+      validation.accept(subValidators.get(validatorIndex));
+    } finally {
+      validatorNanos.addAndGet(validatorIndex, System.nanoTime() - startNanos);
+    }
+  }
 
-    for (BundleModule module : modules) {
-      subValidator.validateModule(module);
+  /**
+   * Runs the given tasks, and throws the error of the first failing task in the order of the list.
+   *
+   * <p>Without executor, the tasks run sequentially and the first error stops the validation.
+   */
+  private void runTasks(ImmutableList<Runnable> tasks) {
+    try {
+      if (!executorService.isPresent()) {
+        tasks.forEach(Runnable::run);
+        return;
+      }
 
-      for (ZipPath moduleFile : getModuleFiles(module)) {
-        subValidator.validateModuleFile(moduleFile);
+      ImmutableList.Builder<ListenableFuture<?>> futuresBuilder = ImmutableList.builder();
+      for (Runnable task : tasks) {
+        futuresBuilder.add(executorService.get().submit(task));
+      }
+      ImmutableList<ListenableFuture<?>> futures = futuresBuilder.build();
+      try {
+        for (ListenableFuture<?> future : futures) {
+          future.get();
+        }
+      } catch (ExecutionException e) {
+        Throwables.throwIfUnchecked(e.getCause());
+        throw new IllegalStateException(e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Validation was interrupted.", e);
+      } finally {
+        futures.forEach(future -> future.cancel(/* mayInterruptIfRunning= */ false));
       }
+    } finally {
+      logTimings();
+    }
+  }
+
+  private void logTimings() {
+    if (!logger.isLoggable(Level.FINE)) {
+      return;
+    }
+    for (int i = 0; i < subValidators.size(); i++) {
+      logger.fine(
+          String.format(
+              "%s: %d ms",
+              subValidators.get(i).getClass().getSimpleName(),
+              validatorNanos.getAndSet(i, 0) / 1_000_000));
     }
   }
 
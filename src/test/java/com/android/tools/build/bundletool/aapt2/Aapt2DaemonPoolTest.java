@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.aapt2;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.android.tools.build.bundletool.model.exceptions.CommandExecutionException;
+import com.android.tools.build.bundletool.model.utils.OsPlatform;
+import com.google.common.collect.ImmutableList;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class Aapt2DaemonPoolTest {
+
+  /**
+   * Fake aapt2 daemon, following the protocol of "aapt2 daemon". The "convert" command copies the
+   * input to the output, and its behavior depends on the name of the input file:
+   *
+   * <ul>
+   *   <li>"error": the command fails.
+   *   <li>"crash": the daemon crashes the first time it runs the command.
+   *   <li>"hang": the command never terminates.
+   * </ul>
+   *
+   * <p>Each start of the daemon is recorded in the file "starts" next to the script. The daemon
+   * never reports being ready if the file "hang-on-start" exists next to the script.
+   */
+  private static final ImmutableList<String> FAKE_DAEMON_SCRIPT =
+      ImmutableList.of(
+          "#!/bin/bash",
+          "echo started >> \"$(dirname \"$0\")/starts\"",
+          "if [ -e \"$(dirname \"$0\")/hang-on-start\" ]; then exec sleep 600; fi",
+          "echo Ready",
+          "args=()",
+          "while IFS= read -r line; do",
+          "  if [ -n \"$line\" ]; then args+=(\"$line\"); continue; fi",
+          "  if [ \"${args[0]}\" = quit ]; then exit 0; fi",
+          "  out=\"${args[4]}\"",
+          "  in=\"${args[5]}\"",
+          "  case \"$in\" in",
+          "    *error*) echo \"error: invalid resource\" >&2; echo Error >&2 ;;",
+          "    *crash*)",
+          "      if [ ! -e \"$in.crashed\" ]; then touch \"$in.crashed\"; exit 1; fi",
+          "      cp \"$in\" \"$out\" ;;",
+          "    *hang*) exec sleep 600 ;;",
+          "    *) cp \"$in\" \"$out\" ;;",
+          "  esac",
+          "  echo Done >&2",
+          "  args=()",
+          "done");
+
+  @Rule public final TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path tmpDir;
+  private Path aapt2Path;
+
+  @Before
+  public void setUp() throws Exception {
+    assumeFalse(OsPlatform.getCurrentPlatform().equals(OsPlatform.WINDOWS));
+    tmpDir = tmp.getRoot().toPath();
+    aapt2Path = tmpDir.resolve("aapt2");
+    Files.write(aapt2Path, FAKE_DAEMON_SCRIPT, UTF_8);
+    aapt2Path.toFile().setExecutable(true);
+  }
+
+  @Test
+  public void convert_success_daemonReused() throws Exception {
+    Path protoApk1 = createProtoApk("first.apk");
+    Path protoApk2 = createProtoApk("second.apk");
+
+    try (Aapt2DaemonPool pool = createPool(Duration.ofMinutes(1))) {
+      pool.convertApkProtoToBinary(protoApk1, tmpDir.resolve("first-binary.apk"));
+      pool.convertApkProtoToBinary(protoApk2, tmpDir.resolve("second-binary.apk"));
+    }
+
+    assertThat(Files.readAllBytes(tmpDir.resolve("first-binary.apk")))
+        .isEqualTo(Files.readAllBytes(protoApk1));
+    assertThat(Files.readAllBytes(tmpDir.resolve("second-binary.apk")))
+        .isEqualTo(Files.readAllBytes(protoApk2));
+    assertThat(getDaemonStartCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void convert_commandFails_throwsAndDaemonReused() throws Exception {
+    Path protoApk = createProtoApk("error.apk");
+    Path otherProtoApk = createProtoApk("other.apk");
+
+    try (Aapt2DaemonPool pool = createPool(Duration.ofMinutes(1))) {
+      assertThrows(
+          CommandExecutionException.class,
+          () -> pool.convertApkProtoToBinary(protoApk, tmpDir.resolve("error-binary.apk")));
+      pool.convertApkProtoToBinary(otherProtoApk, tmpDir.resolve("other-binary.apk"));
+    }
+
+    assertThat(Files.exists(tmpDir.resolve("error-binary.apk"))).isFalse();
+    assertThat(Files.exists(tmpDir.resolve("other-binary.apk"))).isTrue();
+    assertThat(getDaemonStartCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void convert_daemonCrashes_retriedOnNewDaemon() throws Exception {
+    Path protoApk = createProtoApk("crash.apk");
+
+    try (Aapt2DaemonPool pool = createPool(Duration.ofMinutes(1))) {
+      pool.convertApkProtoToBinary(protoApk, tmpDir.resolve("crash-binary.apk"));
+    }
+
+    assertThat(Files.readAllBytes(tmpDir.resolve("crash-binary.apk")))
+        .isEqualTo(Files.readAllBytes(protoApk));
+    assertThat(getDaemonStartCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void convert_timeout_daemonKilledAndThrows() throws Exception {
+    Path protoApk = createProtoApk("hang.apk");
+    Path otherProtoApk = createProtoApk("other.apk");
+
+    try (Aapt2DaemonPool pool = createPool(Duration.ofMillis(500))) {
+      CommandExecutionException exception =
+          assertThrows(
+              CommandExecutionException.class,
+              () -> pool.convertApkProtoToBinary(protoApk, tmpDir.resolve("hang-binary.apk")));
+      assertThat(exception).hasMessageThat().contains("aapt2 daemon failed to run command");
+
+      // The killed daemons are not reused.
+      pool.convertApkProtoToBinary(otherProtoApk, tmpDir.resolve("other-binary.apk"));
+    }
+
+    assertThat(Files.exists(tmpDir.resolve("other-binary.apk"))).isTrue();
+    assertThat(getDaemonStartCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void convert_daemonNeverReady_daemonKilledAndThrows() throws Exception {
+    Path protoApk = createProtoApk("first.apk");
+    Path otherProtoApk = createProtoApk("other.apk");
+    Path hangOnStart = Files.createFile(tmpDir.resolve("hang-on-start"));
+
+    try (Aapt2DaemonPool pool = createPool(Duration.ofMillis(500))) {
+      CommandExecutionException exception =
+          assertThrows(
+              CommandExecutionException.class,
+              () -> pool.convertApkProtoToBinary(protoApk, tmpDir.resolve("first-binary.apk")));
+      assertThat(exception).hasMessageThat().contains("was not ready after");
+
+      // The killed daemon is not reused.
+      Files.delete(hangOnStart);
+      pool.convertApkProtoToBinary(otherProtoApk, tmpDir.resolve("other-binary.apk"));
+    }
+
+    assertThat(Files.exists(tmpDir.resolve("first-binary.apk"))).isFalse();
+    assertThat(Files.exists(tmpDir.resolve("other-binary.apk"))).isTrue();
+    assertThat(getDaemonStartCount()).isEqualTo(2);
+  }
+
+  private Aapt2DaemonPool createPool(Duration timeout) {
+    return Aapt2DaemonPool.create(() -> aapt2Path, /* verbose= */ false, timeout);
+  }
+
+  private Path createProtoApk(String fileName) throws Exception {
+    Path path = tmpDir.resolve(fileName);
+    Files.write(path, ("content of " + fileName).getBytes(UTF_8));
+    return path;
+  }
+
+  private int getDaemonStartCount() throws Exception {
+    return Files.readAllLines(tmpDir.resolve("starts"), UTF_8).size();
+  }
+}
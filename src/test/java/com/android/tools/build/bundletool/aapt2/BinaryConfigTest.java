@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.aapt2;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.android.aapt.ConfigurationOuterClass.Configuration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class BinaryConfigTest {
+
+  @Test
+  public void defaultConfig_onlySizeSet() {
+    byte[] bytes = toBytes(Configuration.getDefaultInstance());
+
+    assertThat(bytes).hasLength(64);
+    assertThat(bytes[0]).isEqualTo((byte) 64);
+    for (int i = 1; i < bytes.length; i++) {
+      assertThat(bytes[i]).isEqualTo((byte) 0);
+    }
+  }
+
+  @Test
+  public void locale_twoLetterCodes() {
+    byte[] bytes = toBytes(Configuration.newBuilder().setLocale("en-US").build());
+
+    assertThat(new String(bytes, 8, 4, US_ASCII)).isEqualTo("enUS");
+  }
+
+  @Test
+  public void locale_threeLetterLanguageIsPacked() {
+    byte[] bytes = toBytes(Configuration.newBuilder().setLocale("fil").build());
+
+    assertThat(bytes[8]).isEqualTo((byte) 0xAD);
+    assertThat(bytes[9]).isEqualTo((byte) 0x05);
+  }
+
+  @Test
+  public void locale_withScript() {
+    byte[] bytes = toBytes(Configuration.newBuilder().setLocale("sr-Latn").build());
+
+    assertThat(new String(bytes, 8, 2, US_ASCII)).isEqualTo("sr");
+    assertThat(new String(bytes, 36, 4, US_ASCII)).isEqualTo("Latn");
+  }
+
+  @Test
+  public void twoStateDimensions_mappedToBinaryValues() {
+    byte[] bytes =
+        toBytes(
+            Configuration.newBuilder()
+                .setUiModeNight(Configuration.UiModeNight.UI_MODE_NIGHT_NIGHT)
+                .setScreenRound(Configuration.ScreenRound.SCREEN_ROUND_ROUND)
+                .build());
+
+    assertThat(bytes[29]).isEqualTo((byte) 0x20);
+    assertThat(bytes[48]).isEqualTo((byte) 0x2);
+  }
+
+  @Test
+  public void diff() {
+    BinaryConfig defaultConfig = BinaryConfig.fromProto(Configuration.getDefaultInstance());
+    BinaryConfig hdpiFr =
+        BinaryConfig.fromProto(Configuration.newBuilder().setDensity(240).setLocale("fr").build());
+
+    assertThat(defaultConfig.diff(defaultConfig)).isEqualTo(0);
+    assertThat(defaultConfig.diff(hdpiFr)).isEqualTo(0x0100 | 0x0004);
+  }
+
+  @Test
+  public void product_throws() {
+    Configuration config = Configuration.newBuilder().setProduct("tablet").build();
+
+    assertThrows(UnsupportedResourceException.class, () -> BinaryConfig.fromProto(config));
+  }
+
+  private static byte[] toBytes(Configuration config) {
+    ChunkBuffer buffer = new ChunkBuffer();
+    BinaryConfig.fromProto(config).writeTo(buffer);
+    return buffer.toByteArray();
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.aapt2;
+
+import static com.android.tools.build.bundletool.testing.ResourcesTableFactory.HDPI;
+import static com.android.tools.build.bundletool.testing.ResourcesTableFactory.entry;
+import static com.android.tools.build.bundletool.testing.ResourcesTableFactory.locale;
+import static com.android.tools.build.bundletool.testing.ResourcesTableFactory.pkg;
+import static com.android.tools.build.bundletool.testing.ResourcesTableFactory.resourceTable;
+import static com.android.tools.build.bundletool.testing.ResourcesTableFactory.type;
+import static com.android.tools.build.bundletool.testing.ResourcesTableFactory.value;
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.android.aapt.ConfigurationOuterClass.Configuration;
+import com.android.aapt.Resources.Overlayable;
+import com.android.aapt.Resources.ResourceTable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class BinaryResourceTableSerializerTest {
+
+  private static final int TABLE_HEADER_SIZE = 12;
+  private static final int PACKAGE_HEADER_SIZE = 288;
+
+  @Test
+  public void serialize_tableAndPackageHeaders() {
+    ResourceTable table =
+        resourceTable(
+            pkg(
+                0x7f,
+                "com.test.app",
+                type(
+                    0x01,
+                    "string",
+                    entry(0x00, "title", value("Title", Configuration.getDefaultInstance())))));
+
+    ByteBuffer arsc = wrap(BinaryResourceTableSerializer.serialize(table));
+
+    assertThat(arsc.getShort(0)).isEqualTo((short) 0x0002);
+    assertThat(arsc.getShort(2)).isEqualTo((short) TABLE_HEADER_SIZE);
+    assertThat(arsc.getInt(4)).isEqualTo(arsc.limit());
+    assertThat(arsc.getInt(8)).isEqualTo(1);
+
+    int packageStart = TABLE_HEADER_SIZE + arsc.getInt(TABLE_HEADER_SIZE + 4);
+    assertThat(arsc.getShort(packageStart)).isEqualTo((short) 0x0200);
+    assertThat(arsc.getShort(packageStart + 2)).isEqualTo((short) PACKAGE_HEADER_SIZE);
+    assertThat(arsc.getInt(packageStart + 8)).isEqualTo(0x7f);
+    assertThat(packageStart + arsc.getInt(packageStart + 4)).isEqualTo(arsc.limit());
+  }
+
+  @Test
+  public void serialize_specFlagsCombineConfigDifferences() {
+    ResourceTable table =
+        resourceTable(
+            pkg(
+                0x7f,
+                "com.test.app",
+                type(
+                    0x01,
+                    "string",
+                    entry(
+                        0x00,
+                        "title",
+                        value("Title", Configuration.getDefaultInstance()),
+                        value("Titre", locale("fr")),
+                        value("Title", HDPI)))));
+
+    ByteBuffer arsc = wrap(BinaryResourceTableSerializer.serialize(table));
+
+    int packageStart = TABLE_HEADER_SIZE + arsc.getInt(TABLE_HEADER_SIZE + 4);
+    int typeStringsStart = packageStart + arsc.getInt(packageStart + 268);
+    int keyStringsStart = typeStringsStart + arsc.getInt(typeStringsStart + 4);
+    int typeSpecStart = keyStringsStart + arsc.getInt(keyStringsStart + 4);
+    assertThat(arsc.getShort(typeSpecStart)).isEqualTo((short) 0x0202);
+    assertThat(arsc.getInt(typeSpecStart + 12)).isEqualTo(1);
+    // Public entry, varying by locale and density.
+    assertThat(arsc.getInt(typeSpecStart + 16)).isEqualTo(0x40000000 | 0x0004 | 0x0100);
+  }
+
+  @Test
+  public void serialize_overlayable_throws() {
+    ResourceTable table =
+        ResourceTable.newBuilder()
+            .addOverlayable(Overlayable.newBuilder().setName("overlayable"))
+            .build();
+
+    assertThrows(
+        UnsupportedResourceException.class, () -> BinaryResourceTableSerializer.serialize(table));
+  }
+
+  @Test
+  public void serialize_duplicateConfiguration_throws() {
+    ResourceTable table =
+        resourceTable(
+            pkg(
+                0x7f,
+                "com.test.app",
+                type(
+                    0x01,
+                    "string",
+                    entry(
+                        0x00,
+                        "title",
+                        value("Title", Configuration.getDefaultInstance()),
+                        value("Other title", Configuration.getDefaultInstance())))));
+
+    assertThrows(
+        UnsupportedResourceException.class, () -> BinaryResourceTableSerializer.serialize(table));
+  }
+
+  private static ByteBuffer wrap(byte[] bytes) {
+    return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.aapt2;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.android.aapt.Resources.Item;
+import com.android.aapt.Resources.Primitive;
+import com.android.aapt.Resources.XmlAttribute;
+import com.android.aapt.Resources.XmlElement;
+import com.android.aapt.Resources.XmlNamespace;
+import com.android.aapt.Resources.XmlNode;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class BinaryXmlSerializerTest {
+
+  private static final String ANDROID_NAMESPACE_URI = "http://schemas.android.com/apk/res/android";
+
+  private static final XmlNode MANIFEST =
+      XmlNode.newBuilder()
+          .setElement(
+              XmlElement.newBuilder()
+                  .setName("manifest")
+                  .addNamespaceDeclaration(
+                      XmlNamespace.newBuilder().setPrefix("android").setUri(ANDROID_NAMESPACE_URI))
+                  .addAttribute(
+                      XmlAttribute.newBuilder().setName("package").setValue("com.test.app"))
+                  .addAttribute(
+                      XmlAttribute.newBuilder()
+                          .setNamespaceUri(ANDROID_NAMESPACE_URI)
+                          .setName("versionName")
+                          .setValue("1.0")
+                          .setResourceId(0x0101021c))
+                  .addAttribute(
+                      XmlAttribute.newBuilder()
+                          .setNamespaceUri(ANDROID_NAMESPACE_URI)
+                          .setName("versionCode")
+                          .setValue("1")
+                          .setResourceId(0x0101021b)
+                          .setCompiledItem(
+                              Item.newBuilder()
+                                  .setPrim(Primitive.newBuilder().setIntDecimalValue(1)))))
+          .build();
+
+  @Test
+  public void serialize_chunkSizeMatchesOutput() {
+    ByteBuffer xml = wrap(BinaryXmlSerializer.serialize(MANIFEST, /* utf16= */ true));
+
+    assertThat(xml.getShort(0)).isEqualTo((short) 0x0003);
+    assertThat(xml.getShort(2)).isEqualTo((short) 8);
+    assertThat(xml.getInt(4)).isEqualTo(xml.limit());
+  }
+
+  @Test
+  public void serialize_stringPoolEncoding() {
+    ByteBuffer utf16Xml = wrap(BinaryXmlSerializer.serialize(MANIFEST, /* utf16= */ true));
+    ByteBuffer utf8Xml = wrap(BinaryXmlSerializer.serialize(MANIFEST, /* utf16= */ false));
+
+    // Flags of the string pool chunk following the XML header.
+    assertThat(utf16Xml.getInt(8 + 16) & 0x100).isEqualTo(0);
+    assertThat(utf8Xml.getInt(8 + 16) & 0x100).isEqualTo(0x100);
+  }
+
+  @Test
+  public void serialize_resourceMapSortedById() {
+    ByteBuffer xml = wrap(BinaryXmlSerializer.serialize(MANIFEST, /* utf16= */ false));
+
+    int resourceMapStart = 8 + xml.getInt(8 + 4);
+    assertThat(xml.getShort(resourceMapStart)).isEqualTo((short) 0x0180);
+    assertThat(xml.getInt(resourceMapStart + 4)).isEqualTo(8 + 2 * 4);
+    assertThat(xml.getInt(resourceMapStart + 8)).isEqualTo(0x0101021b);
+    assertThat(xml.getInt(resourceMapStart + 12)).isEqualTo(0x0101021c);
+
+    // The attribute names are the first strings of the pool, in the same order as their IDs.
+    assertThat(readUtf8String(xml, 0)).isEqualTo("versionCode");
+    assertThat(readUtf8String(xml, 1)).isEqualTo("versionName");
+  }
+
+  @Test
+  public void serialize_rootNotAnElement_throws() {
+    XmlNode text = XmlNode.newBuilder().setText("text").build();
+
+    assertThrows(
+        UnsupportedResourceException.class,
+        () -> BinaryXmlSerializer.serialize(text, /* utf16= */ false));
+  }
+
+  private static ByteBuffer wrap(byte[] bytes) {
+    return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /** Reads a short string (less than 128 bytes) from the UTF-8 string pool after the header. */
+  private static String readUtf8String(ByteBuffer xml, int index) {
+    int poolStart = 8;
+    int stringsStart = poolStart + xml.getInt(poolStart + 20);
+    int stringStart = stringsStart + xml.getInt(poolStart + 28 + 4 * index);
+    int length = xml.get(stringStart + 1);
+    return new String(xml.array(), stringStart + 2, length, UTF_8);
+  }
+}
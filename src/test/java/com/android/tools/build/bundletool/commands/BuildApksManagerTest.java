@@ -47,6 +47,7 @@ import static com.android.tools.build.bundletool.model.utils.Versions.ANDROID_Q_
 import static com.android.tools.build.bundletool.testing.ApkSetUtils.extractFromApkSetFile;
 import static com.android.tools.build.bundletool.testing.ApkSetUtils.extractTocFromApkSetFile;
 import static com.android.tools.build.bundletool.testing.ApkSetUtils.parseTocFromFile;
+import static com.android.tools.build.bundletool.testing.ApksArchiveHelpers.apkDescriptionStream;
 import static com.android.tools.build.bundletool.testing.DeviceFactory.abis;
 import static com.android.tools.build.bundletool.testing.DeviceFactory.density;
 import static com.android.tools.build.bundletool.testing.DeviceFactory.deviceTier;
@@ -113,6 +114,7 @@ import static com.google.common.collect.Iterables.getOnlyElement;
 import static com.google.common.collect.Maps.transformValues;
 import static com.google.common.collect.MoreCollectors.onlyElement;
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
 import static com.google.common.truth.Truth8.assertThat;
 import static com.google.common.truth.extensions.proto.ProtoTruth.assertThat;
 import static junit.framework.TestCase.fail;
@@ -216,6 +218,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import javax.inject.Inject;
@@ -418,6 +421,180 @@ public class BuildApksManagerTest {
                 .build());
   }
 
+  @Test
+  public void incrementalFrom_reusesApksOfPreviousApkSet() throws Exception {
+    AppBundle appBundle = createAppBundleWithBaseAndFeatureModules("ar", "vr");
+    Path previousApkSetPath = tmpDir.resolve("previous.apks");
+    // The previous APK Set doesn't exist yet: all APKs are generated.
+    TestComponent.useTestModule(
+        this,
+        TestModule.builder()
+            .withAppBundle(appBundle)
+            .withOutputPath(previousApkSetPath)
+            .withCustomBuildApksCommandSetter(
+                builder ->
+                    builder
+                        .setAapt2ExecutablePath(Paths.get(Aapt2Helper.AAPT2_PATH))
+                        .setIncrementalFrom(previousApkSetPath))
+            .build());
+    buildApksManager.execute();
+    TestComponent.useTestModule(
+        this,
+        TestModule.builder()
+            .withAppBundle(appBundle)
+            .withOutputPath(outputFilePath)
+            .withCustomBuildApksCommandSetter(
+                builder ->
+                    builder
+                        .setAapt2ExecutablePath(Paths.get(Aapt2Helper.AAPT2_PATH))
+                        .setIncrementalFrom(previousApkSetPath))
+            .build());
+    buildApksManager.execute();
+
+    ZipFile previousApkSetFile = openZipFile(previousApkSetPath.toFile());
+    ZipFile apkSetFile = openZipFile(outputFilePath.toFile());
+    Path previousOutputDir = tmp.newFolder("previous").toPath();
+    BuildApksResult previousResult =
+        extractTocFromApkSetFile(previousApkSetFile, previousOutputDir);
+    BuildApksResult result = extractTocFromApkSetFile(apkSetFile, outputDir);
+    assertThat(result).isEqualTo(previousResult);
+    ImmutableList<ApkDescription> apkDescriptions =
+        apkDescriptionStream(result).collect(toImmutableList());
+    assertThat(apkDescriptions).isNotEmpty();
+    for (ApkDescription apkDescription : apkDescriptions) {
+      assertThat(apkDescription.getFingerprint()).isNotEmpty();
+      File previousApk =
+          extractFromApkSetFile(previousApkSetFile, apkDescription.getPath(), previousOutputDir);
+      File apk = extractFromApkSetFile(apkSetFile, apkDescription.getPath(), outputDir);
+      assertThat(Files.readAllBytes(apk.toPath()))
+          .isEqualTo(Files.readAllBytes(previousApk.toPath()));
+    }
+  }
+
+  @Test
+  public void incrementalFrom_sameOutputAsCleanBuild() throws Exception {
+    AppBundle appBundle = createAppBundleWithNativeLibrariesAndAssetPack();
+    Path previousApkSetPath = tmpDir.resolve("previous.apks");
+    Path cleanApkSetPath = tmpDir.resolve("clean.apks");
+    // Builds from scratch, then incrementally from the first build.
+    for (Path apkSetPath : ImmutableList.of(previousApkSetPath, cleanApkSetPath)) {
+      TestComponent.useTestModule(
+          this,
+          TestModule.builder()
+              .withAppBundle(appBundle)
+              .withOutputPath(apkSetPath)
+              .withCustomBuildApksCommandSetter(
+                  builder ->
+                      builder
+                          .setAapt2ExecutablePath(Paths.get(Aapt2Helper.AAPT2_PATH))
+                          .setRecordApkFingerprints(true))
+              .build());
+      buildApksManager.execute();
+    }
+    TestComponent.useTestModule(
+        this,
+        TestModule.builder()
+            .withAppBundle(appBundle)
+            .withOutputPath(outputFilePath)
+            .withCustomBuildApksCommandSetter(
+                builder ->
+                    builder
+                        .setAapt2ExecutablePath(Paths.get(Aapt2Helper.AAPT2_PATH))
+                        .setIncrementalFrom(previousApkSetPath))
+            .build());
+    buildApksManager.execute();
+
+    BuildApksResult result = assertSameApkSets(outputFilePath, cleanApkSetPath);
+    assertThat(apkDescriptionStream(result).map(ApkDescription::getFingerprint))
+        .doesNotContain("");
+  }
+
+  @Test
+  public void aapt2BinaryKnown_fingerprintsNotRecordedByDefault() throws Exception {
+    AppBundle appBundle = createAppBundleWithNativeLibrariesAndAssetPack();
+    // With the path of the aapt2 binary, the APKs can be fingerprinted like with the default
+    // aapt2 command.
+    TestComponent.useTestModule(
+        this,
+        TestModule.builder()
+            .withAppBundle(appBundle)
+            .withOutputPath(outputFilePath)
+            .withCustomBuildApksCommandSetter(
+                builder -> builder.setAapt2ExecutablePath(Paths.get(Aapt2Helper.AAPT2_PATH)))
+            .build());
+    buildApksManager.execute();
+
+    BuildApksResult result =
+        extractTocFromApkSetFile(openZipFile(outputFilePath.toFile()), outputDir);
+    assertThat(apkDescriptionStream(result).collect(toImmutableList())).isNotEmpty();
+    assertThat(apkDescriptionStream(result).map(ApkDescription::getFingerprint).distinct())
+        .containsExactly("");
+  }
+
+  @Test
+  public void recordApkFingerprints_fingerprintsRecordedWithoutIncrementalFrom() throws Exception {
+    AppBundle appBundle = createAppBundleWithNativeLibrariesAndAssetPack();
+    TestComponent.useTestModule(
+        this,
+        TestModule.builder()
+            .withAppBundle(appBundle)
+            .withOutputPath(outputFilePath)
+            .withCustomBuildApksCommandSetter(
+                builder ->
+                    builder
+                        .setAapt2ExecutablePath(Paths.get(Aapt2Helper.AAPT2_PATH))
+                        .setRecordApkFingerprints(true))
+            .build());
+    buildApksManager.execute();
+
+    BuildApksResult result =
+        extractTocFromApkSetFile(openZipFile(outputFilePath.toFile()), outputDir);
+    assertThat(apkDescriptionStream(result).collect(toImmutableList())).isNotEmpty();
+    assertThat(apkDescriptionStream(result).map(ApkDescription::getFingerprint))
+        .doesNotContain("");
+  }
+
+  @Test
+  public void pipelinedSerialization_sameOutputAsDefault() throws Exception {
+    AppBundle appBundle = createAppBundleWithNativeLibrariesAndAssetPack();
+    Path pipelinedApkSetPath = tmpDir.resolve("pipelined.apks");
+    TestComponent.useTestModule(
+        this, TestModule.builder().withAppBundle(appBundle).withOutputPath(outputFilePath).build());
+    buildApksManager.execute();
+    TestComponent.useTestModule(
+        this,
+        TestModule.builder()
+            .withAppBundle(appBundle)
+            .withOutputPath(pipelinedApkSetPath)
+            .withCustomBuildApksCommandSetter(
+                builder -> builder.setEnablePipelinedSerialization(true))
+            .build());
+    buildApksManager.execute();
+
+    BuildApksResult result = assertSameApkSets(pipelinedApkSetPath, outputFilePath);
+    assertThat(result.getAssetSliceSetList()).isNotEmpty();
+  }
+
+  @Test
+  public void pipelinedSerialization_deterministic() throws Exception {
+    AppBundle appBundle = createAppBundleWithNativeLibrariesAndAssetPack();
+    Path secondApkSetPath = tmpDir.resolve("second.apks");
+    for (Path apkSetPath : ImmutableList.of(outputFilePath, secondApkSetPath)) {
+      TestComponent.useTestModule(
+          this,
+          TestModule.builder()
+              .withAppBundle(appBundle)
+              .withOutputPath(apkSetPath)
+              .withCustomBuildApksCommandSetter(
+                  builder -> builder.setEnablePipelinedSerialization(true))
+              .build());
+      buildApksManager.execute();
+    }
+
+    assertThat(Files.readAllBytes(secondApkSetPath))
+        .isEqualTo(Files.readAllBytes(outputFilePath));
+  }
+
   @Test
   public void selectsRightModules_systemMode_withModulesFlag() throws Exception {
     AppBundle appBundle = createAppBundleWithBaseAndFeatureModules("ar", "vr");
@@ -5490,6 +5667,79 @@ public class BuildApksManagerTest {
                 .build());
   }
 
+  /**
+   * Asserts that both APK Sets have the same table of contents and the same APKs, and returns the
+   * table of contents.
+   */
+  private BuildApksResult assertSameApkSets(Path actualApkSetPath, Path expectedApkSetPath)
+      throws Exception {
+    ZipFile actualApkSetFile = openZipFile(actualApkSetPath.toFile());
+    ZipFile expectedApkSetFile = openZipFile(expectedApkSetPath.toFile());
+    Path actualOutputDir = tmp.newFolder().toPath();
+    Path expectedOutputDir = tmp.newFolder().toPath();
+    BuildApksResult actualResult = extractTocFromApkSetFile(actualApkSetFile, actualOutputDir);
+    BuildApksResult expectedResult =
+        extractTocFromApkSetFile(expectedApkSetFile, expectedOutputDir);
+    assertThat(actualResult).isEqualTo(expectedResult);
+
+    ImmutableList<ApkDescription> apkDescriptions =
+        Stream.concat(
+                apkDescriptionStream(actualResult),
+                actualResult.getAssetSliceSetList().stream()
+                    .flatMap(assetSliceSet -> assetSliceSet.getApkDescriptionList().stream()))
+            .collect(toImmutableList());
+    assertThat(apkDescriptions).isNotEmpty();
+    for (ApkDescription apkDescription : apkDescriptions) {
+      File actualApk =
+          extractFromApkSetFile(actualApkSetFile, apkDescription.getPath(), actualOutputDir);
+      File expectedApk =
+          extractFromApkSetFile(expectedApkSetFile, apkDescription.getPath(), expectedOutputDir);
+      assertWithMessage(apkDescription.getPath())
+          .that(Files.readAllBytes(actualApk.toPath()))
+          .isEqualTo(Files.readAllBytes(expectedApk.toPath()));
+    }
+    return actualResult;
+  }
+
+  private static AppBundle createAppBundleWithNativeLibrariesAndAssetPack() throws IOException {
+    return new AppBundleBuilder()
+        .addModule(
+            "base",
+            module ->
+                module
+                    .addFile("assets/base.txt")
+                    .addFile("lib/x86/libbase.so")
+                    .addFile("lib/arm64-v8a/libbase.so")
+                    .setNativeConfig(
+                        nativeLibraries(
+                            targetedNativeDirectory("lib/x86", nativeDirectoryTargeting(X86)),
+                            targetedNativeDirectory(
+                                "lib/arm64-v8a", nativeDirectoryTargeting(ARM64_V8A))))
+                    .setManifest(androidManifest("com.app"))
+                    .setResourceTable(resourceTableWithTestLabel("Test feature")))
+        .addModule(
+            "feature",
+            module ->
+                module
+                    .addFile("assets/feature.txt")
+                    .addFile("lib/x86/libfeature.so")
+                    .setNativeConfig(
+                        nativeLibraries(
+                            targetedNativeDirectory("lib/x86", nativeDirectoryTargeting(X86))))
+                    .setManifest(
+                        androidManifestForFeature(
+                            "com.app",
+                            withTitle("@string/test_label", TEST_LABEL_RESOURCE_ID))))
+        .addModule(
+            "asset_pack",
+            module ->
+                module
+                    .addFile("assets/asset_pack/data.dat")
+                    .setManifest(
+                        androidManifestForAssetModule("com.app", withInstallTimeDelivery())))
+        .build();
+  }
+
   private static AppBundle createAppBundleWithBaseAndFeatureModules(String... featureModuleNames)
       throws IOException {
     AppBundleBuilder appBundle =
@@ -90,6 +90,8 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.protobuf.util.JsonFormat;
 import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
@@ -97,6 +99,7 @@ import java.io.PrintStream;
 import java.io.Reader;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.Executors;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -305,6 +308,27 @@ public final class GetSizeCommandTest {
     assertThat(fromFlags).isEqualTo(fromBuilderApi);
   }
 
+  @Test
+  public void builderAndFlagsConstruction_maxThreads_equivalent() throws Exception {
+    BuildApksResult tableOfContentsProto = BuildApksResult.getDefaultInstance();
+    Path apksArchiveFile =
+        createApksArchiveFile(tableOfContentsProto, tmpDir.resolve("bundle.apks"));
+
+    GetSizeCommand fromFlags =
+        GetSizeCommand.fromFlags(
+            new FlagParser()
+                .parse("get-size", "total", "--apks=" + apksArchiveFile, "--max-threads=8"));
+
+    GetSizeCommand fromBuilderApi =
+        GetSizeCommand.builder()
+            .setApksArchivePath(apksArchiveFile)
+            .setGetSizeSubCommand(GetSizeSubcommand.TOTAL)
+            .setMaxThreads(8)
+            .build();
+
+    assertThat(fromFlags).isEqualTo(fromBuilderApi);
+  }
+
   @Test
   public void builderAndFlagsConstruction_optionalDeviceSpec_inJavaViaApi_equivalent()
       throws Exception {
@@ -473,6 +497,58 @@ public final class GetSizeCommandTest {
         .isGreaterThan(2 * compressedApkSize); // base+x86_64
   }
 
+  @Test
+  public void getSizeTotalInternal_apkSharedByVariants_withExecutorService() throws Exception {
+    Variant lVariant =
+        createVariant(
+            variantSdkTargeting(sdkVersionFrom(21), ImmutableSet.of(sdkVersionFrom(23))),
+            createSplitApkSet(
+                "base",
+                createMasterApkDescription(
+                    ApkTargeting.getDefaultInstance(), ZipPath.create("base-master.apk"))));
+    Variant mVariant =
+        createVariant(
+            variantSdkTargeting(sdkVersionFrom(23), ImmutableSet.of(sdkVersionFrom(21))),
+            createSplitApkSet(
+                "base",
+                createMasterApkDescription(
+                    ApkTargeting.getDefaultInstance(), ZipPath.create("base-master.apk"))));
+
+    ZipBuilder archiveBuilder = new ZipBuilder();
+    archiveBuilder.addFileWithContent(ZipPath.create("base-master.apk"), DUMMY_BYTES);
+    archiveBuilder.addFileWithProtoContent(
+        ZipPath.create("toc.pb"),
+        BuildApksResult.newBuilder()
+            .setBundletool(
+                Bundletool.newBuilder()
+                    .setVersion(BundleToolVersion.getCurrentVersion().toString()))
+            .addVariant(lVariant)
+            .addVariant(mVariant)
+            .build());
+    Path apksArchiveFile = archiveBuilder.writeTo(tmpDir.resolve("bundle.apks"));
+
+    ListeningExecutorService executorService =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(2));
+    try {
+      ConfigurationSizes configurationSizes =
+          GetSizeCommand.builder()
+              .setGetSizeSubCommand(GetSizeSubcommand.TOTAL)
+              .setApksArchivePath(apksArchiveFile)
+              .setExecutorService(executorService)
+              .build()
+              .getSizeTotalInternal();
+
+      assertThat(configurationSizes.getMinSizeConfigurationMap())
+          .containsExactly(SizeConfiguration.getDefaultInstance(), compressedApkSize);
+      assertThat(configurationSizes.getMaxSizeConfigurationMap())
+          .containsExactly(SizeConfiguration.getDefaultInstance(), compressedApkSize);
+      // The executor service provided belongs to the caller.
+      assertThat(executorService.isShutdown()).isFalse();
+    } finally {
+      executorService.shutdown();
+    }
+  }
+
   @Test
   public void getSizeTotalInternal_multipleStandaloneVariant() throws Exception {
     Variant preLLdpiVariant =
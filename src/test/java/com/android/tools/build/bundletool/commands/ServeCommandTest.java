@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.commands;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.extensions.proto.ProtoTruth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.android.bundle.Commands.ServeResponse;
+import com.android.tools.build.bundletool.device.AdbServer;
+import com.android.tools.build.bundletool.flags.FlagParser;
+import com.android.tools.build.bundletool.model.version.BundleToolVersion;
+import com.android.tools.build.bundletool.testing.FakeAdbServer;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.util.JsonFormat;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ServeCommandTest {
+
+  private final AdbServer fakeAdbServer =
+      new FakeAdbServer(/* hasInitialDeviceList= */ true, /* devices= */ ImmutableList.of());
+
+  @Test
+  public void buildingViaFlagsAndBuilderHasSameResult() {
+    ServeCommand commandViaFlags =
+        ServeCommand.fromFlags(
+            new FlagParser().parse("serve", "--max-threads=8", "--max-concurrent-requests=3"),
+            fakeAdbServer);
+    ServeCommand commandViaBuilder =
+        ServeCommand.builder()
+            .setAdbServer(fakeAdbServer)
+            .setMaxThreads(8)
+            .setMaxConcurrentRequests(3)
+            .build();
+
+    assertThat(commandViaBuilder).isEqualTo(commandViaFlags);
+  }
+
+  @Test
+  public void runsCommandsOfRequests() throws Exception {
+    ImmutableList<ServeResponse> responses =
+        serve(
+            "{\"id\": \"1\", \"args\": [\"version\"]}",
+            "",
+            "{\"id\": \"2\", \"args\": [\"version\"]}");
+
+    assertThat(responses)
+        .containsExactly(
+            ServeResponse.newBuilder()
+                .setId("1")
+                .setSuccess(true)
+                .setOutput(BundleToolVersion.getCurrentVersion() + System.lineSeparator())
+                .build(),
+            ServeResponse.newBuilder()
+                .setId("2")
+                .setSuccess(true)
+                .setOutput(BundleToolVersion.getCurrentVersion() + System.lineSeparator())
+                .build());
+  }
+
+  @Test
+  public void unsupportedCommand_fails() throws Exception {
+    ImmutableList<ServeResponse> responses =
+        serve("{\"id\": \"1\", \"args\": [\"install-apks\", \"--apks=app.apks\"]}");
+
+    assertThat(responses).hasSize(1);
+    assertThat(responses.get(0).getId()).isEqualTo("1");
+    assertThat(responses.get(0).getSuccess()).isFalse();
+    assertThat(responses.get(0).getErrorMessage())
+        .isEqualTo("Command 'install-apks' is not supported by the 'serve' command.");
+  }
+
+  @Test
+  public void invalidFlags_fails() throws Exception {
+    ImmutableList<ServeResponse> responses =
+        serve("{\"id\": \"1\", \"args\": [\"version\", \"--unknown-flag=1\"]}");
+
+    assertThat(responses).hasSize(1);
+    assertThat(responses.get(0).getSuccess()).isFalse();
+    assertThat(responses.get(0).getErrorMessage()).contains("unknown-flag");
+  }
+
+  @Test
+  public void invalidRequest_fails() throws Exception {
+    ImmutableList<ServeResponse> responses = serve("not json");
+
+    assertThat(responses).hasSize(1);
+    assertThat(responses.get(0).getSuccess()).isFalse();
+    assertThat(responses.get(0).getErrorMessage()).startsWith("Invalid request");
+  }
+
+  private ImmutableList<ServeResponse> serve(String... requests)
+      throws InvalidProtocolBufferException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    ServeCommand.builder()
+        .setAdbServer(fakeAdbServer)
+        .setInputStream(new ByteArrayInputStream(Joiner.on('\n').join(requests).getBytes(UTF_8)))
+        .setOutputStream(new PrintStream(output))
+        .build()
+        .execute();
+
+    ImmutableList.Builder<ServeResponse> responses = ImmutableList.builder();
+    for (String line : Splitter.on('\n').omitEmptyStrings().split(output.toString())) {
+      ServeResponse.Builder response = ServeResponse.newBuilder();
+      JsonFormat.parser().merge(line, response);
+      responses.add(response.build());
+    }
+    return responses.build();
+  }
+}
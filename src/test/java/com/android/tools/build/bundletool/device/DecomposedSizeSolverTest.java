@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.tools.build.bundletool.device;
+
+import static com.android.bundle.Targeting.Abi.AbiAlias.ARM64_V8A;
+import static com.android.bundle.Targeting.Abi.AbiAlias.MIPS;
+import static com.android.bundle.Targeting.Abi.AbiAlias.X86;
+import static com.android.tools.build.bundletool.testing.ApksArchiveHelpers.createApkDescription;
+import static com.android.tools.build.bundletool.testing.ApksArchiveHelpers.createMasterApkDescription;
+import static com.android.tools.build.bundletool.testing.DeviceFactory.abis;
+import static com.android.tools.build.bundletool.testing.DeviceFactory.locales;
+import static com.android.tools.build.bundletool.testing.TargetingUtils.apkAbiTargeting;
+import static com.android.tools.build.bundletool.testing.TargetingUtils.apkLanguageTargeting;
+import static com.android.tools.build.bundletool.testing.TargetingUtils.mergeApkTargeting;
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.android.bundle.Commands.ApkDescription;
+import com.android.bundle.Targeting.ApkTargeting;
+import com.android.tools.build.bundletool.device.DecomposedSizeSolver.DeviceDimension;
+import com.android.tools.build.bundletool.model.ZipPath;
+import com.android.tools.build.bundletool.model.exceptions.IncompatibleDeviceException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Ints;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class DecomposedSizeSolverTest {
+
+  private static final ApkDescription MASTER_APK =
+      createMasterApkDescription(ApkTargeting.getDefaultInstance(), ZipPath.create("base.apk"));
+  private static final ApkDescription X86_APK =
+      createApkDescription(
+          apkAbiTargeting(X86, ImmutableSet.of(ARM64_V8A)),
+          ZipPath.create("base-x86.apk"),
+          /* isMasterSplit= */ false);
+  private static final ApkDescription ARM64_APK =
+      createApkDescription(
+          apkAbiTargeting(ARM64_V8A, ImmutableSet.of(X86)),
+          ZipPath.create("base-arm64_v8a.apk"),
+          /* isMasterSplit= */ false);
+  private static final ApkDescription FR_APK =
+      createApkDescription(
+          apkLanguageTargeting("fr"), ZipPath.create("base-fr.apk"), /* isMasterSplit= */ false);
+  private static final ApkDescription X86_FR_APK =
+      createApkDescription(
+          mergeApkTargeting(
+              apkAbiTargeting(X86, ImmutableSet.of(ARM64_V8A)), apkLanguageTargeting("fr")),
+          ZipPath.create("base-x86-fr.apk"),
+          /* isMasterSplit= */ false);
+  private static final ApkDescription MIPS_APK =
+      createApkDescription(
+          apkAbiTargeting(MIPS), ZipPath.create("base-mips.apk"), /* isMasterSplit= */ false);
+
+  private static final ImmutableMap<String, Long> SIZE_BY_APK_PATHS =
+      ImmutableMap.<String, Long>builder()
+          .put("base.apk", 100L)
+          .put("base-x86.apk", 10L)
+          .put("base-arm64_v8a.apk", 20L)
+          .put("base-fr.apk", 5L)
+          .put("base-x86-fr.apk", 1000L)
+          .put("base-mips.apk", 10000L)
+          .build();
+
+  @Test
+  public void separableApks_sizePerAbi() {
+    ImmutableMap<List<Integer>, List<Long>> sizes =
+        solve(
+            ImmutableList.of(MASTER_APK, X86_APK, ARM64_APK, FR_APK),
+            abiDimension(ImmutableList.of("x86", "arm64")),
+            languageDimension(ImmutableList.of("all", "all")),
+            /* checkDeviceCompatibility= */ true);
+
+    assertThat(sizes)
+        .containsExactly(
+            Ints.asList(0, 0), ImmutableList.of(110L, 115L),
+            Ints.asList(1, 0), ImmutableList.of(120L, 125L));
+  }
+
+  @Test
+  public void separableApks_sizePerAbiAndLanguage() {
+    ImmutableMap<List<Integer>, List<Long>> sizes =
+        solve(
+            ImmutableList.of(MASTER_APK, X86_APK, ARM64_APK, FR_APK),
+            abiDimension(ImmutableList.of("x86", "arm64")),
+            languageDimension(ImmutableList.of("en", "fr")),
+            /* checkDeviceCompatibility= */ true);
+
+    assertThat(sizes)
+        .containsExactly(
+            Ints.asList(0, 0), ImmutableList.of(110L, 110L),
+            Ints.asList(0, 1), ImmutableList.of(115L, 115L),
+            Ints.asList(1, 0), ImmutableList.of(120L, 120L),
+            Ints.asList(1, 1), ImmutableList.of(125L, 125L));
+  }
+
+  @Test
+  public void apkTargetedAtSeveralDimensions_sizePerAbi() {
+    ImmutableMap<List<Integer>, List<Long>> sizes =
+        solve(
+            ImmutableList.of(MASTER_APK, X86_APK, ARM64_APK, FR_APK, X86_FR_APK),
+            abiDimension(ImmutableList.of("x86", "arm64")),
+            languageDimension(ImmutableList.of("all", "all")),
+            /* checkDeviceCompatibility= */ true);
+
+    assertThat(sizes)
+        .containsExactly(
+            Ints.asList(0, 0), ImmutableList.of(110L, 1115L),
+            Ints.asList(1, 0), ImmutableList.of(120L, 125L));
+  }
+
+  @Test
+  public void apkTargetedAtSeveralDimensions_singleGroup() {
+    ImmutableMap<List<Integer>, List<Long>> sizes =
+        solve(
+            ImmutableList.of(MASTER_APK, X86_APK, ARM64_APK, FR_APK, X86_FR_APK),
+            abiDimension(ImmutableList.of("all", "all")),
+            languageDimension(ImmutableList.of("all", "all")),
+            /* checkDeviceCompatibility= */ true);
+
+    assertThat(sizes).containsExactly(Ints.asList(0, 0), ImmutableList.of(110L, 1115L));
+  }
+
+  @Test
+  public void apkNeverMatched_ignored() {
+    ImmutableMap<List<Integer>, List<Long>> sizes =
+        solve(
+            ImmutableList.of(MASTER_APK, MIPS_APK),
+            abiDimension(ImmutableList.of("x86", "arm64")),
+            languageDimension(ImmutableList.of("all", "all")),
+            /* checkDeviceCompatibility= */ false);
+
+    assertThat(sizes)
+        .containsExactly(
+            Ints.asList(0, 0), ImmutableList.of(100L, 100L),
+            Ints.asList(1, 0), ImmutableList.of(100L, 100L));
+  }
+
+  @Test
+  public void incompatibleApk_deviceCompatibilityChecked_throws() {
+    assertThrows(
+        IncompatibleDeviceException.class,
+        () ->
+            solve(
+                ImmutableList.of(MASTER_APK, MIPS_APK),
+                abiDimension(ImmutableList.of("x86", "arm64")),
+                languageDimension(ImmutableList.of("all", "all")),
+                /* checkDeviceCompatibility= */ true));
+  }
+
+  /** Dimension with the ABIs x86 and arm64-v8a, grouped by the given keys. */
+  private static DeviceDimension abiDimension(ImmutableList<String> groupKeys) {
+    return DeviceDimension.create(
+        ImmutableList.of(
+            ImmutableList.of(new AbiMatcher(abis("x86"))),
+            ImmutableList.of(new AbiMatcher(abis("arm64-v8a")))),
+        groupKeys);
+  }
+
+  /** Dimension with the languages en and fr, grouped by the given keys. */
+  private static DeviceDimension languageDimension(ImmutableList<String> groupKeys) {
+    return DeviceDimension.create(
+        ImmutableList.of(
+            ImmutableList.of(new LanguageMatcher(locales("en"))),
+            ImmutableList.of(new LanguageMatcher(locales("fr")))),
+        groupKeys);
+  }
+
+  private static ImmutableMap<List<Integer>, List<Long>> solve(
+      ImmutableList<ApkDescription> apks,
+      DeviceDimension abiDimension,
+      DeviceDimension languageDimension,
+      boolean checkDeviceCompatibility) {
+    Map<List<Integer>, List<Long>> sizes = new HashMap<>();
+    new DecomposedSizeSolver(
+            ImmutableList.of(abiDimension, languageDimension), checkDeviceCompatibility)
+        .solve(
+            apks,
+            SIZE_BY_APK_PATHS,
+            (values, minSize, maxSize) ->
+                sizes.put(Ints.asList(values), ImmutableList.of(minSize, maxSize)));
+    return ImmutableMap.copyOf(sizes);
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.io;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ApkCacheTest {
+
+  private static final HashCode KEY_1 = Hashing.sha256().hashInt(1);
+  private static final HashCode KEY_2 = Hashing.sha256().hashInt(2);
+  private static final HashCode KEY_3 = Hashing.sha256().hashInt(3);
+
+  @Rule public final TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path tmpDir;
+  private Path cacheDir;
+
+  @Before
+  public void setUp() throws Exception {
+    tmpDir = tmp.getRoot().toPath();
+    cacheDir = tmpDir.resolve("cache");
+  }
+
+  @Test
+  public void maxSizeNotPositive_throws() {
+    assertThrows(IllegalArgumentException.class, () -> new ApkCache(cacheDir, 0));
+  }
+
+  @Test
+  public void copyTo_notCached_miss() throws Exception {
+    ApkCache cache = new ApkCache(cacheDir, 1000);
+
+    assertThat(cache.copyTo(KEY_1, tmpDir.resolve("out.apk"))).isFalse();
+    assertThat(Files.exists(tmpDir.resolve("out.apk"))).isFalse();
+  }
+
+  @Test
+  public void copyTo_cached_hit() throws Exception {
+    ApkCache cache = new ApkCache(cacheDir, 1000);
+    cache.put(KEY_1, createApk("first.apk", 10));
+
+    assertThat(cache.copyTo(KEY_1, tmpDir.resolve("out.apk"))).isTrue();
+    assertThat(Files.readAllBytes(tmpDir.resolve("out.apk")))
+        .isEqualTo(Files.readAllBytes(tmpDir.resolve("first.apk")));
+    assertThat(cache.copyTo(KEY_2, tmpDir.resolve("other.apk"))).isFalse();
+  }
+
+  @Test
+  public void copyTo_cachedInPreviousRun_hit() throws Exception {
+    new ApkCache(cacheDir, 1000).put(KEY_1, createApk("first.apk", 10));
+
+    ApkCache cache = new ApkCache(cacheDir, 1000);
+
+    assertThat(cache.getTotalSizeBytes()).isEqualTo(10);
+    assertThat(cache.copyTo(KEY_1, tmpDir.resolve("out.apk"))).isTrue();
+    assertThat(Files.readAllBytes(tmpDir.resolve("out.apk")))
+        .isEqualTo(Files.readAllBytes(tmpDir.resolve("first.apk")));
+  }
+
+  @Test
+  public void put_cacheTooLarge_leastRecentlyUsedEvicted() throws Exception {
+    ApkCache cache = new ApkCache(cacheDir, 25);
+    cache.put(KEY_1, createApk("first.apk", 10));
+    cache.put(KEY_2, createApk("second.apk", 10));
+    // Makes KEY_2 the least recently used APK.
+    assertThat(cache.copyTo(KEY_1, tmpDir.resolve("out.apk"))).isTrue();
+
+    cache.put(KEY_3, createApk("third.apk", 10));
+
+    assertThat(cache.getTotalSizeBytes()).isEqualTo(20);
+    assertThat(getCachedApkCount()).isEqualTo(2);
+    assertThat(cache.copyTo(KEY_2, tmpDir.resolve("out2.apk"))).isFalse();
+    assertThat(cache.copyTo(KEY_1, tmpDir.resolve("out1.apk"))).isTrue();
+    assertThat(cache.copyTo(KEY_3, tmpDir.resolve("out3.apk"))).isTrue();
+  }
+
+  @Test
+  public void create_cacheTooLarge_leastRecentlyModifiedEvicted() throws Exception {
+    ApkCache previousCache = new ApkCache(cacheDir, 1000);
+    previousCache.put(KEY_1, createApk("first.apk", 10));
+    previousCache.put(KEY_2, createApk("second.apk", 10));
+    Files.setLastModifiedTime(
+        cacheDir.resolve(KEY_2 + ".apk"), FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+
+    ApkCache cache = new ApkCache(cacheDir, 15);
+
+    assertThat(cache.getTotalSizeBytes()).isEqualTo(10);
+    assertThat(cache.copyTo(KEY_2, tmpDir.resolve("out2.apk"))).isFalse();
+    assertThat(cache.copyTo(KEY_1, tmpDir.resolve("out1.apk"))).isTrue();
+  }
+
+  @Test
+  public void put_concurrentlyWithSameKey_cachedOnce() throws Exception {
+    // Same APK serialized by several threads.
+    Path apk = createApk("apk.apk", 100);
+    ImmutableList<Path> apkCopies =
+        IntStream.range(0, 8)
+            .mapToObj(i -> copy(apk, tmpDir.resolve("apk" + i + ".apk")))
+            .collect(toImmutableList());
+    ApkCache cache = new ApkCache(cacheDir, 1000);
+    ListeningExecutorService executor =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(apkCopies.size()));
+    CountDownLatch start = new CountDownLatch(1);
+    try {
+      ImmutableList<ListenableFuture<?>> puts =
+          apkCopies.stream()
+              .map(
+                  apkCopy ->
+                      executor.submit(
+                          () -> {
+                            start.await();
+                            cache.put(KEY_1, apkCopy);
+                            return null;
+                          }))
+              .collect(toImmutableList());
+      start.countDown();
+      Futures.allAsList(puts).get();
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(cache.getTotalSizeBytes()).isEqualTo(100);
+    assertThat(getCachedApkCount()).isEqualTo(1);
+    try (Stream<Path> files = Files.list(cacheDir)) {
+      assertThat(files.map(path -> path.getFileName().toString()).collect(toImmutableList()))
+          .containsExactly(KEY_1 + ".apk");
+    }
+    assertThat(cache.copyTo(KEY_1, tmpDir.resolve("out.apk"))).isTrue();
+    assertThat(Files.readAllBytes(tmpDir.resolve("out.apk")))
+        .isEqualTo(Files.readAllBytes(apk));
+  }
+
+  @Test
+  public void copyTo_corruptCachedApk_missAndDeleted() throws Exception {
+    ApkCache cache = new ApkCache(cacheDir, 1000);
+    cache.put(KEY_1, createApk("first.apk", 10));
+    // Truncates the cached APK.
+    Files.write(cacheDir.resolve(KEY_1 + ".apk"), new byte[5]);
+
+    assertThat(cache.copyTo(KEY_1, tmpDir.resolve("out.apk"))).isFalse();
+
+    assertThat(Files.exists(tmpDir.resolve("out.apk"))).isFalse();
+    assertThat(Files.exists(cacheDir.resolve(KEY_1 + ".apk"))).isFalse();
+    assertThat(cache.getTotalSizeBytes()).isEqualTo(0);
+    cache.put(KEY_1, tmpDir.resolve("first.apk"));
+    assertThat(cache.copyTo(KEY_1, tmpDir.resolve("out.apk"))).isTrue();
+  }
+
+  @Test
+  public void copyTo_cachedApkDeletedExternally_miss() throws Exception {
+    ApkCache cache = new ApkCache(cacheDir, 1000);
+    cache.put(KEY_1, createApk("first.apk", 10));
+    Files.delete(cacheDir.resolve(KEY_1 + ".apk"));
+
+    assertThat(cache.copyTo(KEY_1, tmpDir.resolve("out.apk"))).isFalse();
+    assertThat(cache.getTotalSizeBytes()).isEqualTo(0);
+  }
+
+  private Path createApk(String fileName, int size) {
+    Path path = tmpDir.resolve(fileName);
+    byte[] content = new byte[size];
+    byte[] name = fileName.getBytes(UTF_8);
+    System.arraycopy(name, 0, content, 0, Math.min(name.length, size));
+    try {
+      Files.write(path, content);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return path;
+  }
+
+  private static Path copy(Path source, Path target) {
+    try {
+      return Files.copy(source, target);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private long getCachedApkCount() throws Exception {
+    try (Stream<Path> files = Files.list(cacheDir)) {
+      return files.filter(path -> path.toString().endsWith(".apk")).count();
+    }
+  }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.io;
+
+import static com.android.tools.build.bundletool.model.utils.FileNames.TABLE_OF_CONTENTS_FILE;
+import static com.android.tools.build.bundletool.testing.ManifestProtoUtils.androidManifest;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.android.bundle.Commands.ApkDescription;
+import com.android.bundle.Commands.BuildApksResult;
+import com.android.bundle.Targeting.ApkTargeting;
+import com.android.bundle.Targeting.VariantTargeting;
+import com.android.tools.build.bundletool.io.ApkSetBuilderFactory.ApkSetBuilder;
+import com.android.tools.build.bundletool.model.AndroidManifest;
+import com.android.tools.build.bundletool.model.BundleModuleName;
+import com.android.tools.build.bundletool.model.ModuleSplit;
+import com.android.tools.build.bundletool.model.ModuleSplit.SplitType;
+import com.android.tools.build.bundletool.model.ZipPath;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ApkSetBuilderFactoryTest {
+
+  private static final ModuleSplit SPLIT =
+      ModuleSplit.builder()
+          .setAndroidManifest(AndroidManifest.create(androidManifest("com.test.app")))
+          .setEntries(ImmutableList.of())
+          .setMasterSplit(true)
+          .setSplitType(SplitType.SPLIT)
+          .setModuleName(BundleModuleName.create("base"))
+          .setApkTargeting(ApkTargeting.getDefaultInstance())
+          .setVariantTargeting(VariantTargeting.getDefaultInstance())
+          .build();
+
+  private static final BuildApksResult TABLE_OF_CONTENTS =
+      BuildApksResult.newBuilder().setPackageName("com.test.app").build();
+
+  @Rule public final TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path tmpDir;
+  private SplitApkSerializer splitApkSerializer;
+  private StandaloneApkSerializer standaloneApkSerializer;
+
+  @Before
+  public void setUp() throws Exception {
+    tmpDir = tmp.getRoot().toPath();
+    // Fake serializer writing the path of the APK as its content.
+    splitApkSerializer = mock(SplitApkSerializer.class);
+    when(splitApkSerializer.writeSplitToDisk(any(), any(), any()))
+        .thenAnswer(
+            invocation -> {
+              Path outputDirectory = invocation.getArgument(1);
+              ZipPath apkPath = invocation.getArgument(2);
+              Path apkFile = outputDirectory.resolve(apkPath.toString());
+              Files.createDirectories(apkFile.getParent());
+              Files.write(apkFile, apkPath.toString().getBytes(UTF_8));
+              return ApkDescription.newBuilder().setPath(apkPath.toString()).build();
+            });
+    standaloneApkSerializer = mock(StandaloneApkSerializer.class);
+  }
+
+  @Test
+  public void apkSetBuilder_tableOfContentsThenSortedApks() throws Exception {
+    Path apkSetPath = tmpDir.resolve("output.apks");
+    try (ApkSetBuilder apkSetBuilder = createApkSetBuilder(/* pipelined= */ false)) {
+      apkSetBuilder.declareApks(apkPaths("splits/b.apk", "a.apk"));
+      apkSetBuilder.addSplitApk(SPLIT, ZipPath.create("splits/b.apk"));
+      apkSetBuilder.addSplitApk(SPLIT, ZipPath.create("a.apk"));
+      apkSetBuilder.setTableOfContentsFile(TABLE_OF_CONTENTS);
+      apkSetBuilder.writeTo(apkSetPath);
+    }
+
+    assertThat(getEntryNames(apkSetPath))
+        .containsExactly(TABLE_OF_CONTENTS_FILE, "a.apk", "splits/b.apk")
+        .inOrder();
+    assertApksStored(apkSetPath);
+  }
+
+  @Test
+  public void pipelinedApkSetBuilder_apksInDeclaredOrderThenTableOfContents() throws Exception {
+    Path apkSetPath = tmpDir.resolve("output.apks");
+    try (ApkSetBuilder apkSetBuilder = createApkSetBuilder(/* pipelined= */ true)) {
+      apkSetBuilder.declareApks(apkPaths("splits/d.apk", "splits/c.apk"));
+      apkSetBuilder.declareApks(apkPaths("b.apk", "a.apk"));
+      apkSetBuilder.addSplitApk(SPLIT, ZipPath.create("a.apk"));
+      apkSetBuilder.addSplitApk(SPLIT, ZipPath.create("splits/d.apk"));
+      apkSetBuilder.addSplitApk(SPLIT, ZipPath.create("b.apk"));
+      apkSetBuilder.addSplitApk(SPLIT, ZipPath.create("splits/c.apk"));
+      apkSetBuilder.setTableOfContentsFile(TABLE_OF_CONTENTS);
+      apkSetBuilder.writeTo(apkSetPath);
+    }
+
+    assertThat(getEntryNames(apkSetPath))
+        .containsExactly(
+            "splits/c.apk", "splits/d.apk", "a.apk", "b.apk", TABLE_OF_CONTENTS_FILE)
+        .inOrder();
+    assertApksStored(apkSetPath);
+  }
+
+  @Test
+  public void pipelinedApkSetBuilder_apkAppendedOnceEarlierApksSerialized() throws Exception {
+    try (ApkSetBuilder apkSetBuilder = createApkSetBuilder(/* pipelined= */ true)) {
+      apkSetBuilder.declareApks(apkPaths("a.apk", "b.apk"));
+
+      apkSetBuilder.addSplitApk(SPLIT, ZipPath.create("b.apk"));
+      assertThat(Files.exists(tmpDir.resolve("b.apk"))).isTrue();
+
+      apkSetBuilder.addSplitApk(SPLIT, ZipPath.create("a.apk"));
+      // Both APKs were appended to the archive, and their temporary files deleted.
+      assertThat(Files.exists(tmpDir.resolve("a.apk"))).isFalse();
+      assertThat(Files.exists(tmpDir.resolve("b.apk"))).isFalse();
+    }
+  }
+
+  @Test
+  public void pipelinedApkSetBuilder_apksNotDeclared_sortedAfterDeclaredApks() throws Exception {
+    Path apkSetPath = tmpDir.resolve("output.apks");
+    try (ApkSetBuilder apkSetBuilder = createApkSetBuilder(/* pipelined= */ true)) {
+      apkSetBuilder.declareApks(apkPaths("c.apk", "missing.apk", "d.apk"));
+      apkSetBuilder.addSplitApk(SPLIT, ZipPath.create("d.apk"));
+      apkSetBuilder.addSplitApk(SPLIT, ZipPath.create("b.apk"));
+      apkSetBuilder.addSplitApk(SPLIT, ZipPath.create("a.apk"));
+      apkSetBuilder.addSplitApk(SPLIT, ZipPath.create("c.apk"));
+      apkSetBuilder.writeTo(apkSetPath);
+    }
+
+    assertThat(getEntryNames(apkSetPath))
+        .containsExactly("c.apk", "d.apk", "a.apk", "b.apk")
+        .inOrder();
+  }
+
+  @Test
+  public void pipelinedApkSetBuilder_apksAddedConcurrently_deterministic() throws Exception {
+    ImmutableList<ZipPath> apkPaths =
+        IntStream.range(0, 50)
+            .mapToObj(i -> ZipPath.create(String.format("splits/split-%d.apk", i)))
+            .collect(toImmutableList());
+    Path firstApkSetPath = tmpDir.resolve("first.apks");
+    Path secondApkSetPath = tmpDir.resolve("second.apks");
+
+    buildApkSetConcurrently(apkPaths, firstApkSetPath);
+    buildApkSetConcurrently(apkPaths, secondApkSetPath);
+
+    assertThat(Files.readAllBytes(secondApkSetPath)).isEqualTo(Files.readAllBytes(firstApkSetPath));
+    assertThat(getEntryNames(firstApkSetPath)).hasSize(apkPaths.size() + 1);
+    assertApksStored(firstApkSetPath);
+  }
+
+  @Test
+  public void pipelinedApkSetBuilder_closedWithoutWriting_noOutput() throws Exception {
+    try (ApkSetBuilder apkSetBuilder = createApkSetBuilder(/* pipelined= */ true)) {
+      apkSetBuilder.declareApks(apkPaths("a.apk"));
+      apkSetBuilder.addSplitApk(SPLIT, ZipPath.create("a.apk"));
+    }
+
+    assertThat(Files.exists(tmpDir.resolve("output.apks"))).isFalse();
+  }
+
+  @Test
+  public void pipelinedApkSetBuilder_apkAddedAfterClose_throws() throws Exception {
+    ApkSetBuilder apkSetBuilder = createApkSetBuilder(/* pipelined= */ true);
+    apkSetBuilder.declareApks(apkPaths("a.apk", "b.apk"));
+    apkSetBuilder.addSplitApk(SPLIT, ZipPath.create("a.apk"));
+    apkSetBuilder.close();
+
+    assertThrows(
+        IllegalStateException.class,
+        () -> apkSetBuilder.addSplitApk(SPLIT, ZipPath.create("b.apk")));
+    assertThrows(
+        IllegalStateException.class, () -> apkSetBuilder.writeTo(tmpDir.resolve("output.apks")));
+  }
+
+  private void buildApkSetConcurrently(ImmutableList<ZipPath> apkPaths, Path apkSetPath)
+      throws Exception {
+    Path tempDirectory = Files.createTempDirectory(tmpDir, "apks");
+    ListeningExecutorService executor =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(8));
+    try (ApkSetBuilder apkSetBuilder =
+        ApkSetBuilderFactory.createPipelinedApkSetBuilder(
+            splitApkSerializer, standaloneApkSerializer, tempDirectory)) {
+      apkSetBuilder.declareApks(apkPaths);
+      // Serialized in a different order in each run.
+      ImmutableList<ZipPath> shuffledApkPaths = shuffle(apkPaths);
+      ImmutableList<ListenableFuture<ApkDescription>> apkDescriptions =
+          shuffledApkPaths.stream()
+              .map(apkPath -> executor.submit(() -> apkSetBuilder.addSplitApk(SPLIT, apkPath)))
+              .collect(toImmutableList());
+      Futures.allAsList(apkDescriptions).get();
+      apkSetBuilder.setTableOfContentsFile(TABLE_OF_CONTENTS);
+      apkSetBuilder.writeTo(apkSetPath);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private ApkSetBuilder createApkSetBuilder(boolean pipelined) {
+    return pipelined
+        ? ApkSetBuilderFactory.createPipelinedApkSetBuilder(
+            splitApkSerializer, standaloneApkSerializer, tmpDir)
+        : ApkSetBuilderFactory.createApkSetBuilder(
+            splitApkSerializer, standaloneApkSerializer, tmpDir);
+  }
+
+  private static ImmutableList<ZipPath> apkPaths(String... apkPaths) {
+    return ImmutableList.copyOf(apkPaths).stream().map(ZipPath::create).collect(toImmutableList());
+  }
+
+  private static ImmutableList<ZipPath> shuffle(ImmutableList<ZipPath> apkPaths) {
+    List<ZipPath> shuffled = Lists.newArrayList(apkPaths);
+    Collections.shuffle(shuffled);
+    return ImmutableList.copyOf(shuffled);
+  }
+
+  private static ImmutableList<String> getEntryNames(Path apkSetPath) throws Exception {
+    try (ZipFile apkSet = new ZipFile(apkSetPath.toFile())) {
+      return Collections.list(apkSet.entries()).stream()
+          .map(ZipEntry::getName)
+          .collect(toImmutableList());
+    }
+  }
+
+  /** Asserts that the APKs are stored uncompressed and have their expected content. */
+  private static void assertApksStored(Path apkSetPath) throws Exception {
+    try (ZipFile apkSet = new ZipFile(apkSetPath.toFile())) {
+      for (ZipEntry entry : Collections.list(apkSet.entries())) {
+        if (entry.getName().equals(TABLE_OF_CONTENTS_FILE)) {
+          try (InputStream content = apkSet.getInputStream(entry)) {
+            assertThat(BuildApksResult.parseFrom(content)).isEqualTo(TABLE_OF_CONTENTS);
+          }
+          continue;
+        }
+        assertThat(entry.getMethod()).isEqualTo(ZipEntry.STORED);
+        try (InputStream content = apkSet.getInputStream(entry)) {
+          assertThat(new String(ByteStreams.toByteArray(content), UTF_8))
+              .isEqualTo(entry.getName());
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.io;
+
+import static com.android.tools.build.bundletool.model.utils.Versions.ANDROID_L_API_VERSION;
+import static com.android.tools.build.bundletool.model.utils.Versions.ANDROID_N_API_VERSION;
+import static com.android.tools.build.bundletool.testing.ManifestProtoUtils.androidManifest;
+import static com.android.tools.build.bundletool.testing.ManifestProtoUtils.withMinSdkVersion;
+import static com.android.tools.build.bundletool.testing.ModuleSplitUtils.createModuleSplitBuilder;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.Iterables.getOnlyElement;
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+
+import com.android.apksig.ApkVerifier;
+import com.android.tools.build.bundletool.TestData;
+import com.android.tools.build.bundletool.model.AndroidManifest;
+import com.android.tools.build.bundletool.model.BundleModuleName;
+import com.android.tools.build.bundletool.model.ModuleEntry;
+import com.android.tools.build.bundletool.model.ModuleSplit;
+import com.android.tools.build.bundletool.model.PhaseTracer;
+import com.android.tools.build.bundletool.model.SigningConfiguration;
+import com.android.tools.build.bundletool.model.ZipPath;
+import com.android.tools.build.bundletool.model.version.BundleToolVersion;
+import com.android.tools.build.bundletool.testing.CertificateFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.MoreFiles;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ApkSignerTest {
+
+  /** Alignment of the APK Signing Block, padded when the entries don't end on a boundary. */
+  private static final int SIGNING_BLOCK_ALIGNMENT = 4096;
+
+  /** Size of the End of Central Directory of an archive without comment. */
+  private static final int EOCD_SIZE = 22;
+
+  /** Offset of the "offset of the central directory" field in the End of Central Directory. */
+  private static final int EOCD_CENTRAL_DIRECTORY_OFFSET_FIELD_OFFSET = 16;
+
+  private static PrivateKey privateKey;
+  private static X509Certificate certificate;
+
+  @Rule public final TemporaryFolder tmp = new TemporaryFolder();
+
+  private final AtomicInteger signedApkCount = new AtomicInteger();
+
+  /** Counts the signed APKs, embedded or not. */
+  private final PhaseTracer phaseTracer =
+      new PhaseTracer() {
+        @Override
+        public Span startPhase(Phase phase, String detail) {
+          if (phase.equals(Phase.SIGN_APK)) {
+            signedApkCount.incrementAndGet();
+          }
+          return Span.NO_OP;
+        }
+      };
+
+  private Path tmpDir;
+  private TempDirectory tempDirectory;
+
+  @BeforeClass
+  public static void setUpClass() throws Exception {
+    KeyPair keyPair = KeyPairGenerator.getInstance("RSA").genKeyPair();
+    privateKey = keyPair.getPrivate();
+    certificate = CertificateFactory.buildSelfSignedCertificate(keyPair, "CN=ApkSignerTest");
+  }
+
+  @Before
+  public void setUp() {
+    tmpDir = tmp.getRoot().toPath();
+    tempDirectory = new TempDirectory();
+  }
+
+  @After
+  public void tearDown() {
+    tempDirectory.close();
+  }
+
+  @Test
+  public void signApkInPlace_v2_withPadding() throws Exception {
+    assertSignedInPlace(/* signWithV3= */ false, /* withPadding= */ true);
+  }
+
+  @Test
+  public void signApkInPlace_v2_withoutPadding() throws Exception {
+    assertSignedInPlace(/* signWithV3= */ false, /* withPadding= */ false);
+  }
+
+  @Test
+  public void signApkInPlace_v3_withPadding() throws Exception {
+    assertSignedInPlace(/* signWithV3= */ true, /* withPadding= */ true);
+  }
+
+  @Test
+  public void signApkInPlace_v3_withoutPadding() throws Exception {
+    assertSignedInPlace(/* signWithV3= */ true, /* withPadding= */ false);
+  }
+
+  @Test
+  public void signEmbeddedApks_sameApkInSeveralSplits_signedOnce() throws Exception {
+    ModuleEntry embeddedApk = createEmbeddedApkEntry();
+    ApkSigner apkSigner = createApkSigner(/* signWithV3= */ false);
+    ImmutableList<ModuleSplit> splits =
+        ImmutableList.of("base", "feature1", "feature2").stream()
+            .map(
+                moduleName ->
+                    createSplitWithEmbeddedApk(moduleName, ANDROID_N_API_VERSION, embeddedApk))
+            .collect(toImmutableList());
+
+    ImmutableList<ModuleSplit> signedSplits =
+        splits.stream().map(apkSigner::signEmbeddedApks).collect(toImmutableList());
+
+    assertThat(signedApkCount.get()).isEqualTo(1);
+    ModuleEntry signedEmbeddedApk = getOnlyElement(signedSplits.get(0).getEntries());
+    assertThat(signedEmbeddedApk.getShouldSign()).isFalse();
+    for (ModuleSplit signedSplit : signedSplits) {
+      assertThat(getOnlyElement(signedSplit.getEntries()).getContent().read())
+          .isEqualTo(signedEmbeddedApk.getContent().read());
+    }
+    ApkVerifier.Result result = verify(signedEmbeddedApk, ANDROID_N_API_VERSION);
+    assertThat(result.isVerified()).isTrue();
+    assertThat(result.isVerifiedUsingV1Scheme()).isFalse();
+  }
+
+  @Test
+  public void signEmbeddedApks_differentMinSdkVersions_signedForEach() throws Exception {
+    ModuleEntry embeddedApk = createEmbeddedApkEntry();
+    ApkSigner apkSigner = createApkSigner(/* signWithV3= */ false);
+    ModuleSplit lSplit = createSplitWithEmbeddedApk("base", ANDROID_L_API_VERSION, embeddedApk);
+    ModuleSplit nSplit = createSplitWithEmbeddedApk("base", ANDROID_N_API_VERSION, embeddedApk);
+
+    ModuleEntry lSignedEmbeddedApk =
+        getOnlyElement(apkSigner.signEmbeddedApks(lSplit).getEntries());
+    ModuleEntry nSignedEmbeddedApk =
+        getOnlyElement(apkSigner.signEmbeddedApks(nSplit).getEntries());
+
+    assertThat(signedApkCount.get()).isEqualTo(2);
+    // Signed with v1 only for the devices below Android N.
+    ApkVerifier.Result lResult = verify(lSignedEmbeddedApk, ANDROID_L_API_VERSION);
+    assertThat(lResult.isVerified()).isTrue();
+    assertThat(lResult.isVerifiedUsingV1Scheme()).isTrue();
+    ApkVerifier.Result nResult = verify(nSignedEmbeddedApk, ANDROID_N_API_VERSION);
+    assertThat(nResult.isVerified()).isTrue();
+    assertThat(nResult.isVerifiedUsingV1Scheme()).isFalse();
+  }
+
+  /**
+   * Signs an APK in place, and checks that the signature is valid and that the APK is identical to
+   * the one signed by {@link ApkSigner#signApk}.
+   */
+  private void assertSignedInPlace(boolean signWithV3, boolean withPadding) throws Exception {
+    Path apkSignedInPlace = createUnsignedApk(tmpDir.resolve("in-place.apk"), withPadding);
+    Path apkSigned = Files.copy(apkSignedInPlace, tmpDir.resolve("signed.apk"));
+    ApkSigner apkSigner = createApkSigner(signWithV3);
+    ModuleSplit split =
+        createModuleSplitBuilder()
+            .setAndroidManifest(
+                AndroidManifest.create(
+                    androidManifest("com.test.app", withMinSdkVersion(ANDROID_N_API_VERSION))))
+            .build();
+
+    apkSigner.signApkInPlace(apkSignedInPlace, split);
+    apkSigner.signApk(apkSigned, split);
+
+    ApkVerifier.Result result =
+        new ApkVerifier.Builder(apkSignedInPlace.toFile())
+            .setMinCheckedPlatformVersion(ANDROID_N_API_VERSION)
+            .build()
+            .verify();
+    assertThat(result.getErrors()).isEmpty();
+    assertThat(result.isVerified()).isTrue();
+    assertThat(result.isVerifiedUsingV1Scheme()).isFalse();
+    assertThat(result.isVerifiedUsingV2Scheme()).isTrue();
+    assertThat(result.isVerifiedUsingV3Scheme()).isEqualTo(signWithV3);
+    assertThat(result.getSignerCertificates()).containsExactly(certificate);
+    assertThat(Files.readAllBytes(apkSignedInPlace)).isEqualTo(Files.readAllBytes(apkSigned));
+  }
+
+  private ApkSigner createApkSigner(boolean signWithV3) {
+    SigningConfiguration signingConfig =
+        SigningConfiguration.builder()
+            .setSignerConfig(privateKey, certificate)
+            // The split targets Android N, so it's only signed with v3 if not restricted to R+.
+            .setRestrictV3SigningToRPlus(!signWithV3)
+            .build();
+    return new ApkSigner(
+        Optional.of(signingConfig),
+        /* stampSigningConfig= */ Optional.empty(),
+        BundleToolVersion.getCurrentVersion(),
+        tempDirectory,
+        new SignedEmbeddedApkCache(),
+        phaseTracer);
+  }
+
+  private ModuleEntry createEmbeddedApkEntry() throws IOException {
+    Path embeddedApk = createUnsignedApk(tmpDir.resolve("embedded.apk"), /* withPadding= */ true);
+    return ModuleEntry.builder()
+        .setPath(ZipPath.create("root/embedded.apk"))
+        .setContent(embeddedApk)
+        .setShouldSign(true)
+        .build();
+  }
+
+  private static ModuleSplit createSplitWithEmbeddedApk(
+      String moduleName, int minSdkVersion, ModuleEntry embeddedApk) {
+    return createModuleSplitBuilder()
+        .setModuleName(BundleModuleName.create(moduleName))
+        .setAndroidManifest(
+            AndroidManifest.create(
+                androidManifest("com.test.app", withMinSdkVersion(minSdkVersion))))
+        .setEntries(ImmutableList.of(embeddedApk))
+        .build();
+  }
+
+  private ApkVerifier.Result verify(ModuleEntry signedApk, int minSdkVersion) throws Exception {
+    Path apkPath = Files.createTempFile(tmpDir, "verified", ".apk");
+    signedApk.getContent().copyTo(MoreFiles.asByteSink(apkPath));
+    return new ApkVerifier.Builder(apkPath.toFile())
+        .setMinCheckedPlatformVersion(minSdkVersion)
+        .build()
+        .verify();
+  }
+
+  /**
+   * Writes an unsigned APK with the manifest of a test app, whose entries end on a boundary of the
+   * APK Signing Block alignment only if no padding is wanted.
+   */
+  private static Path createUnsignedApk(Path apkPath, boolean withPadding) throws IOException {
+    // Growing the stored entry moves the central directory by as many bytes.
+    writeUnsignedApk(apkPath, /* storedEntrySize= */ SIGNING_BLOCK_ALIGNMENT);
+    int misalignment = (int) (getCentralDirectoryOffset(apkPath) % SIGNING_BLOCK_ALIGNMENT);
+    int storedEntrySize = 2 * SIGNING_BLOCK_ALIGNMENT - misalignment + (withPadding ? 1 : 0);
+    Files.delete(apkPath);
+    writeUnsignedApk(apkPath, storedEntrySize);
+
+    boolean entriesAligned = getCentralDirectoryOffset(apkPath) % SIGNING_BLOCK_ALIGNMENT == 0;
+    assertThat(entriesAligned).isEqualTo(!withPadding);
+    return apkPath;
+  }
+
+  private static void writeUnsignedApk(Path apkPath, int storedEntrySize) throws IOException {
+    try (OutputStream out = Files.newOutputStream(apkPath);
+        ZipOutputStream zipOut = new ZipOutputStream(out)) {
+      // Stored first, with a name such that its data is 4-byte aligned like apksig expects.
+      byte[] storedContent = new byte[storedEntrySize];
+      Arrays.fill(storedContent, (byte) 'a');
+      CRC32 crc = new CRC32();
+      crc.update(storedContent);
+      ZipEntry storedEntry = new ZipEntry("assets/abc");
+      storedEntry.setMethod(ZipEntry.STORED);
+      storedEntry.setSize(storedContent.length);
+      storedEntry.setCrc(crc.getValue());
+      zipOut.putNextEntry(storedEntry);
+      zipOut.write(storedContent);
+      zipOut.closeEntry();
+
+      ZipEntry manifestEntry = new ZipEntry("AndroidManifest.xml");
+      zipOut.putNextEntry(manifestEntry);
+      zipOut.write(readTestAppManifest());
+      zipOut.closeEntry();
+    }
+  }
+
+  private static byte[] readTestAppManifest() throws IOException {
+    try (InputStream apk = TestData.openStream("testdata/apk/com.test.app.apk");
+        ZipInputStream zipIn = new ZipInputStream(apk)) {
+      ZipEntry entry;
+      while ((entry = zipIn.getNextEntry()) != null) {
+        if (entry.getName().equals("AndroidManifest.xml")) {
+          return ByteStreams.toByteArray(zipIn);
+        }
+      }
+    }
+    throw new IllegalStateException("AndroidManifest.xml not found in the test app.");
+  }
+
+  private static long getCentralDirectoryOffset(Path apkPath) throws IOException {
+    byte[] apk = Files.readAllBytes(apkPath);
+    return Integer.toUnsignedLong(
+        ByteBuffer.wrap(apk, apk.length - EOCD_SIZE, EOCD_SIZE)
+            .slice()
+            .order(LITTLE_ENDIAN)
+            .getInt(EOCD_CENTRAL_DIRECTORY_OFFSET_FIELD_OFFSET));
+  }
+}
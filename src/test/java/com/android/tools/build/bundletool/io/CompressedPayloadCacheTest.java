@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.io;
+
+import static com.android.tools.build.bundletool.model.CompressionLevel.DEFAULT_COMPRESSION;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.android.tools.build.bundletool.io.CompressedPayloadCache.CachedPayload;
+import com.android.tools.build.bundletool.io.ZipReader.EntryNotFoundException;
+import com.android.tools.build.bundletool.model.ZipPath;
+import com.android.zipflinger.Entry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CompressedPayloadCacheTest {
+
+  private static final int ENTRY_COUNT = 8;
+
+  @Rule public final TemporaryFolder tmp = new TemporaryFolder();
+
+  private ImmutableMap<String, byte[]> entryContents;
+  private ZipReader zipReader;
+  private TempDirectory tempDirectory;
+
+  @Before
+  public void setUp() throws Exception {
+    ImmutableMap.Builder<String, byte[]> contents = ImmutableMap.builder();
+    for (int i = 0; i < ENTRY_COUNT; i++) {
+      contents.put("file" + i, compressibleBytes(10_000 + i));
+    }
+    entryContents = contents.build();
+    Path zipFile = tmp.getRoot().toPath().resolve("bundle.zip");
+    writeZip(zipFile, entryContents);
+    zipReader = ZipReader.createFromFile(zipFile);
+    tempDirectory = new TempDirectory();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    zipReader.close();
+    tempDirectory.close();
+  }
+
+  @Test
+  public void acquire_inMemory_compressedOnce() throws Exception {
+    CompressedPayloadCache cache = createInMemoryCache();
+
+    CachedPayload payload = cache.acquire(getEntry("file0"), DEFAULT_COMPRESSION);
+    CachedPayload samePayload = cache.acquire(getEntry("file0"), DEFAULT_COMPRESSION);
+
+    assertThat(samePayload).isSameInstanceAs(payload);
+    assertThat(inflate(payload)).isEqualTo(entryContents.get("file0"));
+    assertThat(getPayloadFiles()).isEmpty();
+    payload.release();
+    samePayload.release();
+  }
+
+  @Test
+  public void acquire_onDisk_compressedOnce() throws Exception {
+    CompressedPayloadCache cache = createOnDiskCache(1 << 20);
+
+    CachedPayload payload = cache.acquire(getEntry("file0"), DEFAULT_COMPRESSION);
+    CachedPayload samePayload = cache.acquire(getEntry("file0"), DEFAULT_COMPRESSION);
+
+    assertThat(samePayload).isSameInstanceAs(payload);
+    assertThat(inflate(payload)).isEqualTo(entryContents.get("file0"));
+    assertThat(getPayloadFiles()).hasSize(1);
+    payload.release();
+    samePayload.release();
+    // Still cached.
+    assertThat(getPayloadFiles()).hasSize(1);
+  }
+
+  @Test
+  public void evictedWhileInUse_deletedAfterLastRelease() throws Exception {
+    long payloadSize = compressedSize("file0");
+    // Room for a single payload.
+    CompressedPayloadCache cache = createOnDiskCache(payloadSize + 1000);
+    CachedPayload firstUse = cache.acquire(getEntry("file0"), DEFAULT_COMPRESSION);
+    CachedPayload secondUse = cache.acquire(getEntry("file0"), DEFAULT_COMPRESSION);
+
+    // Evicts the payload of "file0", still in use.
+    CachedPayload otherPayload = cache.acquire(getEntry("file1"), DEFAULT_COMPRESSION);
+    otherPayload.release();
+
+    assertThat(getPayloadFiles()).hasSize(2);
+    firstUse.release();
+    assertThat(getPayloadFiles()).hasSize(2);
+    assertThat(inflate(secondUse)).isEqualTo(entryContents.get("file0"));
+    secondUse.release();
+    assertThat(getPayloadFiles()).hasSize(1);
+
+    // Compressed again once evicted.
+    CachedPayload newPayload = cache.acquire(getEntry("file0"), DEFAULT_COMPRESSION);
+    assertThat(newPayload).isNotSameInstanceAs(firstUse);
+    assertThat(inflate(newPayload)).isEqualTo(entryContents.get("file0"));
+    newPayload.release();
+  }
+
+  @Test
+  public void sourceNeverWritten_payloadDeletedOnceSourceClosed() throws Exception {
+    long payloadSize = compressedSize("file0");
+    // Room for a single payload.
+    CompressedPayloadCache cache = createOnDiskCache(payloadSize + 1000);
+    ZipEntrySource source =
+        ZipEntrySource.create(
+            zipReader,
+            getEntry("file0"),
+            ZipPath.create("file0"),
+            DEFAULT_COMPRESSION,
+            tempDirectory,
+            cache);
+
+    // Evicts the payload of "file0", still held by the source.
+    cache.acquire(getEntry("file1"), DEFAULT_COMPRESSION).release();
+    assertThat(getPayloadFiles()).hasSize(2);
+
+    source.close();
+    assertThat(getPayloadFiles()).hasSize(1);
+    // Closing the source again doesn't release the payload again.
+    source.close();
+  }
+
+  @Test
+  public void concurrentAcquireReleaseAndEviction_payloadsDeletedOnceUnused() throws Exception {
+    long maxDiskBytes = 3 * compressedSize("file0");
+    CompressedPayloadCache cache = createOnDiskCache(maxDiskBytes);
+    ImmutableList<String> entryNames = entryContents.keySet().asList();
+    ListeningExecutorService executor =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(16));
+    try {
+      ImmutableList<ListenableFuture<?>> tasks =
+          IntStream.range(0, 16)
+              .mapToObj(
+                  seed ->
+                      executor.submit(
+                          () -> {
+                            Random random = new Random(seed);
+                            for (int i = 0; i < 200; i++) {
+                              String entryName = entryNames.get(random.nextInt(entryNames.size()));
+                              CachedPayload payload =
+                                  cache.acquire(getEntry(entryName), DEFAULT_COMPRESSION);
+                              try {
+                                // Fails if the payload was deleted while in use.
+                                assertThat(inflate(payload))
+                                    .isEqualTo(entryContents.get(entryName));
+                              } finally {
+                                payload.release();
+                              }
+                            }
+                            return null;
+                          }))
+              .collect(toImmutableList());
+      Futures.allAsList(tasks).get();
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // All evicted payloads were deleted once released.
+    long totalSize = 0;
+    for (Path payloadFile : getPayloadFiles()) {
+      totalSize += Files.size(payloadFile);
+    }
+    assertThat(totalSize).isAtMost(maxDiskBytes);
+  }
+
+  @Test
+  public void acquire_compressionFails_throwsAndNothingCached() throws Exception {
+    CompressedPayloadCache cache = createOnDiskCache(1 << 20);
+    Entry entryOfOtherZip = getEntryOfOtherZip("missing");
+
+    assertThrows(
+        EntryNotFoundException.class, () -> cache.acquire(entryOfOtherZip, DEFAULT_COMPRESSION));
+    // The failure isn't cached.
+    assertThrows(
+        EntryNotFoundException.class, () -> cache.acquire(entryOfOtherZip, DEFAULT_COMPRESSION));
+
+    assertThat(getPayloadFiles()).isEmpty();
+    CachedPayload payload = cache.acquire(getEntry("file0"), DEFAULT_COMPRESSION);
+    assertThat(inflate(payload)).isEqualTo(entryContents.get("file0"));
+    payload.release();
+  }
+
+  @Test
+  public void acquire_inMemoryCompressionFails_throws() throws Exception {
+    CompressedPayloadCache cache = createInMemoryCache();
+    Entry entryOfOtherZip = getEntryOfOtherZip("missing");
+
+    assertThrows(
+        EntryNotFoundException.class, () -> cache.acquire(entryOfOtherZip, DEFAULT_COMPRESSION));
+
+    CachedPayload payload = cache.acquire(getEntry("file0"), DEFAULT_COMPRESSION);
+    assertThat(inflate(payload)).isEqualTo(entryContents.get("file0"));
+    payload.release();
+  }
+
+  @Test
+  public void release_moreThanAcquired_throws() throws Exception {
+    CompressedPayloadCache cache = createInMemoryCache();
+    CachedPayload payload = cache.acquire(getEntry("file0"), DEFAULT_COMPRESSION);
+    payload.release();
+
+    assertThrows(IllegalStateException.class, payload::release);
+  }
+
+  private CompressedPayloadCache createInMemoryCache() {
+    return new CompressedPayloadCache(
+        zipReader, tempDirectory, /* maxMemoryBytes= */ 1 << 20, /* maxDiskBytes= */ 0);
+  }
+
+  private CompressedPayloadCache createOnDiskCache(long maxDiskBytes) {
+    return new CompressedPayloadCache(
+        zipReader, tempDirectory, /* maxMemoryBytes= */ 0, maxDiskBytes);
+  }
+
+  private Entry getEntry(String entryName) {
+    return zipReader.getEntry(entryName).get();
+  }
+
+  private Entry getEntryOfOtherZip(String entryName) throws Exception {
+    Path otherZipFile = tmp.getRoot().toPath().resolve("other.zip");
+    writeZip(otherZipFile, ImmutableMap.of(entryName, compressibleBytes(1000)));
+    try (ZipReader otherZipReader = ZipReader.createFromFile(otherZipFile)) {
+      return otherZipReader.getEntry(entryName).get();
+    }
+  }
+
+  private long compressedSize(String entryName) throws Exception {
+    CompressedPayloadCache cache = createInMemoryCache();
+    CachedPayload payload = cache.acquire(getEntry(entryName), DEFAULT_COMPRESSION);
+    payload.release();
+    return payload.size();
+  }
+
+  private ImmutableList<Path> getPayloadFiles() throws Exception {
+    try (Stream<Path> files = Files.list(tempDirectory.getPath())) {
+      return files
+          .filter(path -> path.getFileName().toString().endsWith(".payload"))
+          .collect(toImmutableList());
+    }
+  }
+
+  private static byte[] inflate(CachedPayload payload) throws Exception {
+    Inflater inflater = new Inflater(/* nowrap= */ true);
+    try (InputStream content = new InflaterInputStream(payload.openStream(), inflater)) {
+      return ByteStreams.toByteArray(content);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  private static void writeZip(Path path, ImmutableMap<String, byte[]> entries) throws Exception {
+    try (OutputStream outputStream = Files.newOutputStream(path);
+        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream)) {
+      for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+        zipOutputStream.putNextEntry(new ZipEntry(entry.getKey()));
+        zipOutputStream.write(entry.getValue());
+        zipOutputStream.closeEntry();
+      }
+    }
+  }
+
+  /** Bytes compressing to about a third of their size. */
+  private static byte[] compressibleBytes(int size) {
+    byte[] bytes = new byte[size];
+    Random random = new Random(size);
+    for (int i = 0; i < size; i++) {
+      bytes[i] = (byte) random.nextInt(8);
+    }
+    return bytes;
+  }
+}
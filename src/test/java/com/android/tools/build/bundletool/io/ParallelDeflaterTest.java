@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.io;
+
+import static com.android.tools.build.bundletool.io.ParallelDeflater.CHUNK_SIZE_BYTES;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ParallelDeflaterTest {
+
+  @Test
+  public void deflate_roundTrip() throws Exception {
+    for (int size :
+        new int[] {
+          0,
+          1,
+          1000,
+          CHUNK_SIZE_BYTES - 1,
+          CHUNK_SIZE_BYTES,
+          CHUNK_SIZE_BYTES + 1,
+          2 * CHUNK_SIZE_BYTES,
+          2 * CHUNK_SIZE_BYTES + 12345,
+          5 * CHUNK_SIZE_BYTES + 1
+        }) {
+      byte[] input = compressibleBytes(size);
+
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      long compressedSize =
+          ParallelDeflater.deflate(
+              new ByteArrayInputStream(input), Deflater.BEST_SPEED, output);
+
+      assertWithMessage("Size %s", size).that(compressedSize).isEqualTo(output.size());
+      assertWithMessage("Size %s", size).that(inflate(output.toByteArray())).isEqualTo(input);
+    }
+  }
+
+  @Test
+  public void deflate_repeatedContentAcrossChunks_roundTrip() throws Exception {
+    // The second chunk back-references the end of the first one, through the dictionary.
+    byte[] pattern = randomBytes(10_000);
+    byte[] input = new byte[2 * CHUNK_SIZE_BYTES];
+    for (int i = 0; i < input.length; i++) {
+      input[i] = pattern[i % pattern.length];
+    }
+
+    byte[] compressed = deflate(input, 9);
+
+    assertThat(inflate(compressed)).isEqualTo(input);
+    // Without the dictionary, the second chunk would contain another copy of the pattern.
+    assertThat(compressed.length).isLessThan(deflateWithSingleDeflater(input, 9) + 1000);
+  }
+
+  @Test
+  public void deflate_allCompressionLevels_roundTrip() throws Exception {
+    byte[] input = compressibleBytes(2 * CHUNK_SIZE_BYTES + 1);
+    for (int level = 0; level <= 9; level++) {
+      assertWithMessage("Level %s", level).that(inflate(deflate(input, level))).isEqualTo(input);
+    }
+  }
+
+  @Test
+  public void deflate_deterministic() throws Exception {
+    byte[] input = compressibleBytes(3 * CHUNK_SIZE_BYTES + 17);
+
+    byte[] firstRun = deflate(input, 9);
+    byte[] secondRun = deflate(input, 9);
+
+    assertThat(secondRun).isEqualTo(firstRun);
+  }
+
+  @Test
+  public void deflate_invalidCompressionLevel_throws() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            ParallelDeflater.deflate(
+                new ByteArrayInputStream(new byte[1]), 10, new ByteArrayOutputStream()));
+  }
+
+  private static byte[] deflate(byte[] input, int compressionLevel) throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    ParallelDeflater.deflate(new ByteArrayInputStream(input), compressionLevel, output);
+    return output.toByteArray();
+  }
+
+  private static int deflateWithSingleDeflater(byte[] input, int compressionLevel) {
+    Deflater deflater = new Deflater(compressionLevel, /* nowrap= */ true);
+    try {
+      deflater.setInput(input);
+      deflater.finish();
+      byte[] buffer = new byte[64 * 1024];
+      int compressedSize = 0;
+      while (!deflater.finished()) {
+        compressedSize += deflater.deflate(buffer);
+      }
+      return compressedSize;
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /** Inflates a raw deflate stream, checking that it is complete. */
+  private static byte[] inflate(byte[] compressed) throws Exception {
+    Inflater inflater = new Inflater(/* nowrap= */ true);
+    try {
+      inflater.setInput(compressed);
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      byte[] buffer = new byte[64 * 1024];
+      while (!inflater.finished()) {
+        int length = inflater.inflate(buffer);
+        output.write(buffer, 0, length);
+        if (length == 0 && !inflater.finished() && inflater.needsInput()) {
+          throw new AssertionError("Truncated deflate stream.");
+        }
+      }
+      assertThat(inflater.getRemaining()).isEqualTo(0);
+      return output.toByteArray();
+    } finally {
+      inflater.end();
+    }
+  }
+
+  private static byte[] randomBytes(int size) {
+    byte[] bytes = new byte[size];
+    new Random(size).nextBytes(bytes);
+    return bytes;
+  }
+
+  /** Bytes compressing to about a third of their size. */
+  private static byte[] compressibleBytes(int size) {
+    byte[] bytes = new byte[size];
+    Random random = new Random(size);
+    for (int i = 0; i < size; i++) {
+      bytes[i] = (byte) random.nextInt(8);
+    }
+    return bytes;
+  }
+}
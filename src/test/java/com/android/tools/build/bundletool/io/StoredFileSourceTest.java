@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.io;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.tools.build.bundletool.model.ZipPath;
+import com.android.zipflinger.ZipArchive;
+import com.google.common.io.ByteStreams;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class StoredFileSourceTest {
+
+  @Rule public final TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path tmpDir;
+
+  @Before
+  public void setUp() throws Exception {
+    tmpDir = tmp.getRoot().toPath();
+  }
+
+  @Test
+  public void writtenToZip_storedUncompressed() throws Exception {
+    // Larger than the buffers used to transfer files.
+    byte[] largeContent = randomBytes(3 * 1024 * 1024 + 17);
+    byte[] emptyContent = new byte[0];
+    Path largeFile = tmpDir.resolve("large.apk");
+    Path emptyFile = tmpDir.resolve("empty.apk");
+    Files.write(largeFile, largeContent);
+    Files.write(emptyFile, emptyContent);
+    Path zipPath = tmpDir.resolve("archive.zip");
+
+    try (ZipArchive archive = new ZipArchive(zipPath.toFile())) {
+      archive.add(StoredFileSource.create(largeFile, ZipPath.create("splits/large.apk")));
+      archive.add(StoredFileSource.create(emptyFile, ZipPath.create("empty.apk")));
+    }
+
+    try (ZipFile zipFile = new ZipFile(zipPath.toFile())) {
+      assertStoredEntry(zipFile, "splits/large.apk", largeContent);
+      assertStoredEntry(zipFile, "empty.apk", emptyContent);
+    }
+  }
+
+  private static void assertStoredEntry(ZipFile zipFile, String entryName, byte[] expectedContent)
+      throws Exception {
+    ZipEntry entry = zipFile.getEntry(entryName);
+    assertThat(entry).isNotNull();
+    assertThat(entry.getMethod()).isEqualTo(ZipEntry.STORED);
+    assertThat(entry.getSize()).isEqualTo(expectedContent.length);
+    assertThat(entry.getCompressedSize()).isEqualTo(expectedContent.length);
+    assertThat(entry.getCrc()).isEqualTo(crc32(expectedContent));
+    try (InputStream content = zipFile.getInputStream(entry)) {
+      // Reading the entry also verifies its CRC.
+      assertThat(ByteStreams.toByteArray(content)).isEqualTo(expectedContent);
+    }
+  }
+
+  private static byte[] randomBytes(int size) {
+    byte[] bytes = new byte[size];
+    new Random(size).nextBytes(bytes);
+    return bytes;
+  }
+
+  private static long crc32(byte[] bytes) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    return crc.getValue();
+  }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.io;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.android.tools.build.bundletool.model.ZipPath;
+import com.android.zipflinger.Location;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ZipReaderTest {
+
+  private static final long WINDOW_SIZE = 4096;
+  private static final long WINDOW_OVERLAP = 1024;
+
+  @Rule public final TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path zipFile;
+  private ImmutableMap<String, byte[]> entryContents;
+
+  @Before
+  public void setUp() throws Exception {
+    zipFile = tmp.getRoot().toPath().resolve("test.zip");
+    // Entries of various sizes, so that many of them span the boundaries between windows: some
+    // fit in the overlap of two windows, others are larger than the overlap.
+    ImmutableMap.Builder<String, byte[]> contents = ImmutableMap.builder();
+    contents.put("empty", new byte[0]);
+    for (int size : new int[] {1, 100, 700, 1000, 1500, 3000, 4095, 4096, 4097, 10_000}) {
+      contents.put("stored/file" + size, randomBytes(size));
+      contents.put("compressed/file" + size, compressibleBytes(size));
+    }
+    entryContents = contents.build();
+    writeZip(zipFile, entryContents);
+  }
+
+  @Test
+  public void memoryMapped_sameContentAsChannelReads() throws Exception {
+    try (ZipReader channelReader = ZipReader.createFromFile(zipFile, /* memoryMapped= */ false);
+        ZipReader mappedReader = ZipReader.createFromFile(zipFile, /* memoryMapped= */ true)) {
+      assertSameContent(mappedReader, channelReader);
+    }
+  }
+
+  @Test
+  public void memoryMappedBySmallWindows_sameContentAsChannelReads() throws Exception {
+    try (ZipReader channelReader = ZipReader.createFromFile(zipFile, /* memoryMapped= */ false);
+        ZipReader mappedReader =
+            ZipReader.createMemoryMappedFromFile(zipFile, WINDOW_SIZE, WINDOW_OVERLAP)) {
+      assertSameContent(mappedReader, channelReader);
+    }
+  }
+
+  @Test
+  public void memoryMappedBySmallWindows_entriesSpanningWindowBoundaries() throws Exception {
+    ImmutableList<String> entriesInOverlap =
+        entryContents.keySet().stream()
+            .filter(name -> spansWindowBoundary(name, /* largerThanOverlap= */ false))
+            .collect(toImmutableList());
+    ImmutableList<String> entriesLargerThanOverlap =
+        entryContents.keySet().stream()
+            .filter(name -> spansWindowBoundary(name, /* largerThanOverlap= */ true))
+            .collect(toImmutableList());
+    // Both the entries served from the overlap of a window and the entries served from the file
+    // channel are covered.
+    assertThat(entriesInOverlap).isNotEmpty();
+    assertThat(entriesLargerThanOverlap).isNotEmpty();
+
+    try (ZipReader mappedReader =
+        ZipReader.createMemoryMappedFromFile(zipFile, WINDOW_SIZE, WINDOW_OVERLAP)) {
+      for (String entryName :
+          ImmutableList.<String>builder()
+              .addAll(entriesInOverlap)
+              .addAll(entriesLargerThanOverlap)
+              .build()) {
+        try (InputStream content = mappedReader.getUncompressedPayload(entryName)) {
+          assertWithMessage(entryName)
+              .that(ByteStreams.toByteArray(content))
+              .isEqualTo(entryContents.get(entryName));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void memoryMapped_concurrentReadsOfSameEntry() throws Exception {
+    String entryName = "compressed/file10000";
+    ListeningExecutorService executor =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(8));
+    try (ZipReader mappedReader =
+        ZipReader.createMemoryMappedFromFile(zipFile, WINDOW_SIZE, WINDOW_OVERLAP)) {
+      ByteSource content = mappedReader.getFileEntryContents().get(ZipPath.create(entryName));
+      ImmutableList<ListenableFuture<byte[]>> reads =
+          IntStream.range(0, 200)
+              .mapToObj(i -> executor.submit(() -> content.read()))
+              .collect(toImmutableList());
+      for (byte[] read : Futures.allAsList(reads).get()) {
+        assertThat(read).isEqualTo(entryContents.get(entryName));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void memoryMapped_windowTooLarge_throws() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> ZipReader.createMemoryMappedFromFile(zipFile, 1L << 31, 0).close());
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> ZipReader.createMemoryMappedFromFile(zipFile, 0, 0).close());
+  }
+
+  private void assertSameContent(ZipReader actualReader, ZipReader expectedReader)
+      throws Exception {
+    assertThat(actualReader.getEntries().keySet())
+        .containsExactlyElementsIn(entryContents.keySet());
+    for (String entryName : entryContents.keySet()) {
+      try (InputStream actualPayload = actualReader.getPayload(entryName);
+          InputStream expectedPayload = expectedReader.getPayload(entryName)) {
+        assertWithMessage(entryName)
+            .that(ByteStreams.toByteArray(actualPayload))
+            .isEqualTo(ByteStreams.toByteArray(expectedPayload));
+      }
+      try (InputStream content = actualReader.getUncompressedPayload(entryName)) {
+        assertWithMessage(entryName)
+            .that(ByteStreams.toByteArray(content))
+            .isEqualTo(entryContents.get(entryName));
+      }
+    }
+    for (Map.Entry<ZipPath, ByteSource> entry : actualReader.getFileEntryContents().entrySet()) {
+      assertWithMessage(entry.getKey().toString())
+          .that(entry.getValue().read())
+          .isEqualTo(entryContents.get(entry.getKey().toString()));
+    }
+  }
+
+  private boolean spansWindowBoundary(String entryName, boolean largerThanOverlap) {
+    try (ZipReader reader = ZipReader.createFromFile(zipFile, /* memoryMapped= */ false)) {
+      Location location = reader.getEntry(entryName).get().getPayloadLocation();
+      long end = location.first + location.size();
+      long windowEnd = (location.first / WINDOW_SIZE + 1) * WINDOW_SIZE;
+      return end > windowEnd && (end > windowEnd + WINDOW_OVERLAP) == largerThanOverlap;
+    } catch (Exception e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static void writeZip(Path path, ImmutableMap<String, byte[]> entries) throws Exception {
+    try (OutputStream outputStream = Files.newOutputStream(path);
+        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream)) {
+      for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+        ZipEntry zipEntry = new ZipEntry(entry.getKey());
+        if (!entry.getKey().startsWith("compressed/")) {
+          CRC32 crc = new CRC32();
+          crc.update(entry.getValue());
+          zipEntry.setMethod(ZipEntry.STORED);
+          zipEntry.setSize(entry.getValue().length);
+          zipEntry.setCrc(crc.getValue());
+        }
+        zipOutputStream.putNextEntry(zipEntry);
+        zipOutputStream.write(entry.getValue());
+        zipOutputStream.closeEntry();
+      }
+    }
+  }
+
+  private static byte[] randomBytes(int size) {
+    byte[] bytes = new byte[size];
+    new Random(size).nextBytes(bytes);
+    return bytes;
+  }
+
+  /** Bytes compressing to about a third of their size. */
+  private static byte[] compressibleBytes(int size) {
+    byte[] bytes = new byte[size];
+    Random random = new Random(size);
+    for (int i = 0; i < size; i++) {
+      bytes[i] = (byte) random.nextInt(8);
+    }
+    return bytes;
+  }
+}
@@ -39,6 +39,7 @@ import com.android.aapt.Resources.Source;
 import com.android.aapt.Resources.StringPool;
 import com.android.aapt.Resources.Style;
 import com.android.aapt.Resources.Visibility;
+import com.google.common.collect.ImmutableList;
 import com.google.protobuf.ByteString;
 import java.nio.charset.StandardCharsets;
 import java.util.function.Function;
@@ -647,6 +648,38 @@ public class ResourceTableMergerTest {
                 .build());
   }
 
+  @Test
+  public void mergeList_sameAsPairwiseMerges() throws Exception {
+    ResourceTable table1 =
+        resourceTable(
+            pkg(0x01, "package", type(0x11, "type1", entry(0x21, "entry", value("a", MDPI)))));
+    ResourceTable table2 =
+        resourceTable(
+            pkg(
+                0x01,
+                "package",
+                type(0x11, "type1", entry(0x21, "entry", value("a", MDPI), value("b", LDPI))),
+                type(0x12, "type2", entry(0x21, "entry2", value("c", MDPI)))));
+    ResourceTable table3 =
+        resourceTable(
+            pkg(0x01, "package", type(0x12, "type2", entry(0x22, "entry3", value("d", MDPI)))),
+            pkg(0x02, "package2"));
+
+    ResourceTableMerger merger = new ResourceTableMerger();
+    ResourceTable merged = merger.merge(ImmutableList.of(table1, table2, table3));
+
+    assertThat(merged)
+        .ignoringRepeatedFieldOrder()
+        .isEqualTo(merger.merge(merger.merge(table1, table2), table3));
+  }
+
+  @Test
+  public void mergeList_singleTable_unchanged() throws Exception {
+    ResourceTable table = resourceTable(pkg(0x01, "package", type(0x11, "type")));
+
+    assertThat(new ResourceTableMerger().merge(ImmutableList.of(table))).isSameInstanceAs(table);
+  }
+
   private static OverlayableItem newOverlayableItem(int idx) {
     return OverlayableItem.newBuilder().setOverlayableIdx(idx).build();
   }
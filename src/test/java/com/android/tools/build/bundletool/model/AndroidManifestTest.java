@@ -190,6 +190,13 @@ public class AndroidManifestTest {
     assertThat(androidManifest.getUsesSplits()).containsExactly("parent");
   }
 
+  @Test
+  public void getUsesSplits_memoized() {
+    AndroidManifest androidManifest =
+        AndroidManifest.create(androidManifest("com.test.app", withUsesSplit("parent")));
+    assertThat(androidManifest.getUsesSplits()).isSameInstanceAs(androidManifest.getUsesSplits());
+  }
+
   @Test
   public void getUsesSplits_negative() {
     AndroidManifest androidManifest = AndroidManifest.create(androidManifest("com.test.app"));
@@ -34,6 +34,7 @@ import com.android.bundle.Targeting.Abi.AbiAlias;
 import com.android.tools.build.bundletool.io.ZipBuilder;
 import com.android.tools.build.bundletool.testing.AppBundleBuilder;
 import com.android.tools.build.bundletool.testing.BundleConfigBuilder;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.io.ByteSource;
 import java.nio.file.Path;
 import java.util.Optional;
@@ -94,6 +95,27 @@ public class AppBundleTest {
     }
   }
 
+  @Test
+  public void buildFromZipEntries() throws Exception {
+    AppBundle appBundle =
+        AppBundle.buildFromZipEntries(
+            ImmutableMap.of(
+                ZipPath.create("BundleConfig.pb"),
+                ByteSource.wrap(BUNDLE_CONFIG.toByteArray()),
+                ZipPath.create("base/manifest/AndroidManifest.xml"),
+                ByteSource.wrap(MANIFEST.toByteArray()),
+                ZipPath.create("base/dex/classes.dex"),
+                ByteSource.wrap(DUMMY_CONTENT),
+                ZipPath.create("BUNDLE-METADATA/some.namespace/metadata1"),
+                ByteSource.wrap(DUMMY_CONTENT)));
+
+    assertThat(appBundle.getFeatureModules().keySet())
+        .containsExactly(BundleModuleName.create("base"));
+    assertThat(appBundle.getBaseModule().getEntry(ZipPath.create("dex/classes.dex"))).isPresent();
+    assertThat(appBundle.getBundleMetadata().getFileAsByteSource("some.namespace", "metadata1"))
+        .isPresent();
+  }
+
   @Test
   public void classFilesNotAddedToModule() throws Exception {
     createBasicZipBuilderWithManifest()
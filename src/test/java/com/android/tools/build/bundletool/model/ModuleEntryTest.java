@@ -82,6 +82,25 @@ public class ModuleEntryTest {
     assertThat(entry.equals(entry)).isTrue();
   }
 
+  @Test
+  public void equals_sameContentFromDifferentSources() throws Exception {
+    ModuleEntry entry1 = createEntry(ZipPath.create("a"), new byte[] {'a', 'b'});
+    ModuleEntry entry2 = createEntry(ZipPath.create("a"), new byte[] {'a', 'b'});
+
+    assertThat(entry1.equals(entry2)).isTrue();
+    assertThat(entry1.hashCode()).isEqualTo(entry2.hashCode());
+  }
+
+  @Test
+  public void getContentDigest_sameForSameContent() throws Exception {
+    ModuleEntry entry1 = createEntry(ZipPath.create("a"), new byte[] {'a'});
+    ModuleEntry entry2 = createEntry(ZipPath.create("b"), new byte[] {'a'});
+    ModuleEntry entry3 = createEntry(ZipPath.create("a"), new byte[] {'b'});
+
+    assertThat(entry1.getContentDigest()).isEqualTo(entry2.getContentDigest());
+    assertThat(entry1.getContentDigest()).isNotEqualTo(entry3.getContentDigest());
+  }
+
   private static ModuleEntry createEntry(ZipPath path, byte[] content) throws Exception {
     return ModuleEntry.builder().setPath(path).setContent(ByteSource.wrap(content)).build();
   }
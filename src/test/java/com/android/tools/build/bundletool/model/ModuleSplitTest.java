@@ -157,6 +157,34 @@ public class ModuleSplitTest {
     assertThat(abiSplit.getAndroidManifest().getSplitId()).hasValue("config.x86");
   }
 
+  @Test
+  public void writeSplitIdInManifest_withMutators_appliedToMasterAndConfigSplits() {
+    ImmutableList<ManifestMutator> manifestMutators =
+        ImmutableList.of(editor -> editor.setTargetSandboxVersion(2));
+    ModuleSplit masterSplit =
+        ModuleSplit.builder()
+            .setModuleName(BundleModuleName.create("moduleA"))
+            .setApkTargeting(ApkTargeting.getDefaultInstance())
+            .setVariantTargeting(lPlusVariantTargeting())
+            .setAndroidManifest(AndroidManifest.create(androidManifest("com.test.app")))
+            .setMasterSplit(true)
+            .build();
+    ModuleSplit abiSplit =
+        masterSplit.toBuilder()
+            .setApkTargeting(
+                apkAbiTargeting(ImmutableSet.of(AbiAlias.X86), ImmutableSet.of(AbiAlias.X86)))
+            .setMasterSplit(false)
+            .build();
+
+    masterSplit = masterSplit.writeSplitIdInManifest(masterSplit.getSuffix(), manifestMutators);
+    abiSplit = abiSplit.writeSplitIdInManifest(abiSplit.getSuffix(), manifestMutators);
+
+    assertThat(masterSplit.getAndroidManifest().getSplitId()).hasValue("moduleA");
+    assertThat(masterSplit.getAndroidManifest().getTargetSandboxVersion()).hasValue(2);
+    assertThat(abiSplit.getAndroidManifest().getSplitId()).hasValue("moduleA.config.x86");
+    assertThat(abiSplit.getAndroidManifest().getTargetSandboxVersion()).hasValue(2);
+  }
+
   @Test
   public void masterSplitGetsManifestForFeatureSplit() throws Exception {
     BundleModule module =
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.model;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth8.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.android.aapt.Resources.Entry;
+import com.android.aapt.Resources.ResourceTable;
+import com.android.tools.build.bundletool.testing.ResourceTableBuilder;
+import java.util.Optional;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ResourceTableIndexTest {
+
+  private static final ResourceTable RESOURCE_TABLE =
+      new ResourceTableBuilder()
+          .addPackage("com.test.app", 0x7F)
+          // 0x7F010000
+          .addXmlResource("layout", "res/xml/layout.xml")
+          // 0x7F020000
+          .addStringResource("hello", "Hello")
+          .addPackage("com.test.app.split", 0x80)
+          // 0x80010000
+          .addXmlResource("split_layout", "res/xml/split_layout.xml")
+          // 0x80020000
+          .addStringResource("world", "World")
+          .build();
+
+  @Test
+  public void lookupEntryByResourceId() {
+    ResourceTableIndex index = ResourceTableIndex.create(RESOURCE_TABLE);
+
+    assertThat(index.lookupEntryByResourceId(0x7F010000).map(Entry::getName)).hasValue("layout");
+    assertThat(index.lookupEntryByResourceId(0x7F020000).map(Entry::getName)).hasValue("hello");
+    assertThat(index.lookupEntryByResourceId(0x80010000).map(Entry::getName))
+        .hasValue("split_layout");
+    assertThat(index.lookupEntryByResourceId(0x80020000).map(Entry::getName)).hasValue("world");
+    assertThat(index.lookupEntryByResourceId(0x7F020001)).isEmpty();
+    assertThat(index.lookupEntryByResourceId(0)).isEmpty();
+  }
+
+  @Test
+  public void lookupTableEntryByResourceId() {
+    ResourceTableIndex index = ResourceTableIndex.create(RESOURCE_TABLE);
+
+    Optional<ResourceTableEntry> entry = index.lookupTableEntryByResourceId(0x80020000);
+
+    assertThat(entry).isPresent();
+    assertThat(entry.get().getPackage().getPackageName()).isEqualTo("com.test.app.split");
+    assertThat(entry.get().getType().getName()).isEqualTo("string");
+    assertThat(entry.get().getEntry().getName()).isEqualTo("world");
+    assertThat(entry.get().getResourceId().getFullResourceId()).isEqualTo(0x80020000);
+  }
+
+  @Test
+  public void containsResourceId() {
+    ResourceTableIndex index = ResourceTableIndex.create(RESOURCE_TABLE);
+
+    assertThat(index.containsResourceId(0x7F010000)).isTrue();
+    assertThat(index.containsResourceId(0x7F010001)).isFalse();
+    assertThat(index.containsResourceId(0x81010000)).isFalse();
+  }
+
+  @Test
+  public void lookupEntryByResourceTypeAndName() {
+    ResourceTableIndex index = ResourceTableIndex.create(RESOURCE_TABLE);
+
+    assertThat(index.lookupEntryByResourceTypeAndName("string", "world").map(Entry::getName))
+        .hasValue("world");
+    assertThat(index.lookupEntryByResourceTypeAndName("xml", "hello")).isEmpty();
+    assertThat(index.lookupEntryByResourceTypeAndName("raw", "hello")).isEmpty();
+  }
+
+  @Test
+  public void emptyTable() {
+    ResourceTableIndex index = ResourceTableIndex.create(ResourceTable.getDefaultInstance());
+
+    assertThat(index.lookupEntryByResourceId(0x7F010000)).isEmpty();
+    assertThat(index.lookupEntryByResourceTypeAndName("string", "hello")).isEmpty();
+  }
+
+  @Test
+  public void manyEntries_allFound() {
+    ResourceTableBuilder builder = new ResourceTableBuilder().addPackage("com.test.app", 0x7F);
+    for (int i = 0; i < 5000; i++) {
+      builder.addStringResource("string" + i, "value" + i);
+    }
+    ResourceTableIndex index = ResourceTableIndex.create(builder.build());
+
+    for (int i = 0; i < 5000; i++) {
+      assertThat(index.lookupEntryByResourceId(0x7F010000 + i).map(Entry::getName))
+          .hasValue("string" + i);
+    }
+    assertThat(index.lookupEntryByResourceId(0x7F010000 + 5000)).isEmpty();
+  }
+
+  @Test
+  public void duplicateNames_throws() {
+    ResourceTable resourceTable =
+        new ResourceTableBuilder()
+            .addPackage("com.test.app", 0x7F)
+            .addStringResource("hello", "Hello")
+            .addPackage("com.test.app.split", 0x80)
+            .addStringResource("hello", "Hello again")
+            .build();
+    ResourceTableIndex index = ResourceTableIndex.create(resourceTable);
+
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> index.lookupEntryByResourceTypeAndName("string", "hello"));
+    assertThat(index.lookupEntryByResourceId(0x80010000).map(Entry::getName)).hasValue("hello");
+  }
+}
@@ -28,7 +28,12 @@ import static com.android.tools.build.bundletool.testing.TargetingUtils.apkAbiTa
 import static com.android.tools.build.bundletool.testing.TargetingUtils.sdkVersionFrom;
 import static com.android.tools.build.bundletool.testing.TargetingUtils.variantSdkTargeting;
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import com.android.bundle.Commands.ApkDescription;
+import com.android.bundle.Commands.ApkFileInfo;
 import com.android.bundle.Commands.BuildApksResult;
 import com.android.bundle.Commands.Variant;
 import com.android.bundle.Targeting.ApkTargeting;
@@ -38,7 +43,17 @@ import com.android.tools.build.bundletool.model.ZipPath;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -210,4 +225,90 @@ public class ApkSizeUtilsTest {
 
     assertThat(sizeByApkPaths.get("apk_one.apk")).isAtLeast(1L);
   }
+
+  @Test
+  public void recordedSizes_usedInsteadOfCompressingApks() throws Exception {
+    ZipPath apkOne = ZipPath.create("apk_one.apk");
+    ZipPath apkTwo = ZipPath.create("apk_two.apk");
+    ApkDescription apkOneWithSizes =
+        createMasterApkDescription(ApkTargeting.getDefaultInstance(), apkOne).toBuilder()
+            .setFileInfo(ApkFileInfo.newBuilder().setSizeBytes(1000).setGzipSizeBytes(800))
+            .build();
+    ImmutableList<Variant> variants =
+        ImmutableList.of(
+            createVariant(
+                variantSdkTargeting(sdkVersionFrom(21)),
+                createSplitApkSet(
+                    "base",
+                    apkOneWithSizes,
+                    createApkDescription(apkAbiTargeting(X86), apkTwo, false))));
+
+    ZipBuilder archiveBuilder = new ZipBuilder();
+    archiveBuilder.addFileWithContent(ZipPath.create(apkOne.toString()), DUMMY_BYTES);
+    archiveBuilder.addFileWithContent(ZipPath.create(apkTwo.toString()), DUMMY_BYTES);
+    archiveBuilder.addFileWithProtoContent(
+        ZipPath.create("toc.pb"), BuildApksResult.newBuilder().addAllVariant(variants).build());
+    Path apksArchiveFile = archiveBuilder.writeTo(tmpDir.resolve("bundle.apks"));
+
+    ImmutableMap<String, Long> sizeByApkPaths =
+        getVariantCompressedSizeByApkPaths(variants, apksArchiveFile);
+
+    assertThat(sizeByApkPaths)
+        .containsExactly(
+            "apk_one.apk",
+            800L,
+            "apk_two.apk",
+            GZipUtils.calculateGzipCompressedSize(ByteSource.wrap(DUMMY_BYTES)));
+  }
+
+  @Test
+  public void apkFails_runningTasksEndBeforeArchiveIsClosed() throws Exception {
+    // Large enough to be still compressed when the other APK fails.
+    byte[] largeApk = new byte[16 * 1024 * 1024];
+    new Random(0).nextBytes(largeApk);
+    ZipBuilder archiveBuilder = new ZipBuilder();
+    archiveBuilder.addFileWithContent(ZipPath.create("large.apk"), largeApk);
+    Path apksArchiveFile = archiveBuilder.writeTo(tmpDir.resolve("bundle.apks"));
+    List<Future<?>> tasks = Collections.synchronizedList(new ArrayList<>());
+    ThreadPoolExecutor threadPool =
+        new ThreadPoolExecutor(2, 2, 0, MILLISECONDS, new LinkedBlockingQueue<>()) {
+          @Override
+          public void execute(Runnable task) {
+            tasks.add((Future<?>) task);
+            super.execute(task);
+          }
+        };
+
+    try {
+      assertThrows(
+          NullPointerException.class,
+          () ->
+              ApkSizeUtils.getCompressedSizeByApkPaths(
+                  ImmutableList.of("large.apk", "missing.apk"),
+                  apksArchiveFile,
+                  listeningDecorator(threadPool)));
+
+      assertThat(tasks).hasSize(2);
+      // Compressed entirely, without the archive being closed under it. Random bytes don't
+      // compress, so the size is the uncompressed one.
+      assertThat(tasks.get(0).isDone()).isTrue();
+      assertThat(tasks.get(0).get()).isEqualTo((long) largeApk.length);
+    } finally {
+      threadPool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void computeApkFileInfo() throws Exception {
+    Path apkFile = Files.write(tmpDir.resolve("app.apk"), DUMMY_BYTES);
+
+    assertThat(ApkSizeUtils.computeApkFileInfo(apkFile))
+        .isEqualTo(
+            ApkFileInfo.newBuilder()
+                .setSizeBytes(DUMMY_BYTES.length)
+                .setGzipSizeBytes(
+                    GZipUtils.calculateGzipCompressedSize(ByteSource.wrap(DUMMY_BYTES)))
+                .setSha256(Hashing.sha256().hashBytes(DUMMY_BYTES).toString())
+                .build());
+  }
 }
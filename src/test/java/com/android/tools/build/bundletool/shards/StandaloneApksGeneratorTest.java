@@ -57,12 +57,16 @@ import static com.android.tools.build.bundletool.testing.TargetingUtils.toScreen
 import static com.android.tools.build.bundletool.testing.TargetingUtils.variantAbiTargeting;
 import static com.android.tools.build.bundletool.testing.TargetingUtils.variantSdkTargeting;
 import static com.android.tools.build.bundletool.testing.TestUtils.extractPaths;
+import static com.android.tools.build.bundletool.testing.TestUtils.getSplitContents;
 import static com.android.tools.build.bundletool.testing.truth.resources.TruthResourceTable.assertThat;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth8.assertThat;
 import static com.google.common.truth.extensions.proto.ProtoTruth.assertThat;
+import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
+import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
+import static java.util.concurrent.Executors.newFixedThreadPool;
 import static org.junit.Assert.fail;
 
 import com.android.aapt.ConfigurationOuterClass.Configuration;
@@ -96,6 +100,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.protobuf.Message;
 import dagger.Component;
 import javax.inject.Inject;
@@ -1316,6 +1321,89 @@ public class StandaloneApksGeneratorTest {
         .containsExactly("assets/file.txt", "dex/classes.dex", "root/license.dat");
   }
 
+  @Test
+  public void multithreadedExecutor_sameShardsAsSingleThreaded() throws Exception {
+    BundleModule baseModule =
+        new BundleModuleBuilder("base")
+            .addFile("dex/classes.dex")
+            .addFile("lib/x86/libtest.so")
+            .addFile("lib/x86_64/libtest.so")
+            .addFile("res/drawable-ldpi/image.jpg")
+            .addFile("res/drawable-hdpi/image.jpg")
+            .setManifest(androidManifest("com.test.app"))
+            .setNativeConfig(
+                nativeLibraries(
+                    targetedNativeDirectory("lib/x86", nativeDirectoryTargeting(X86)),
+                    targetedNativeDirectory("lib/x86_64", nativeDirectoryTargeting(X86_64))))
+            .setResourceTable(
+                resourceTable(
+                    pkg(
+                        USER_PACKAGE_OFFSET,
+                        "com.test.app",
+                        type(
+                            0x01,
+                            "drawable",
+                            entry(
+                                0x01,
+                                "image",
+                                fileReference("res/drawable-ldpi/image.jpg", LDPI),
+                                fileReference("res/drawable-hdpi/image.jpg", HDPI))))))
+            .build();
+    BundleModule featureModule =
+        new BundleModuleBuilder("feature")
+            .addFile("assets/feature.txt")
+            .addFile("lib/x86/libfeature.so")
+            .addFile("lib/x86_64/libfeature.so")
+            .addFile("res/drawable-hdpi/image2.jpg")
+            .setManifest(androidManifestForFeature("com.test.app"))
+            .setNativeConfig(
+                nativeLibraries(
+                    targetedNativeDirectory("lib/x86", nativeDirectoryTargeting(X86)),
+                    targetedNativeDirectory("lib/x86_64", nativeDirectoryTargeting(X86_64))))
+            .setResourceTable(
+                resourceTable(
+                    pkg(
+                        USER_PACKAGE_OFFSET + 1,
+                        "com.test.app.split",
+                        type(
+                            0x01,
+                            "drawable",
+                            entry(
+                                0x01,
+                                "image2",
+                                fileReference("res/drawable-hdpi/image2.jpg", HDPI))))))
+            .build();
+    ImmutableList<BundleModule> modules = ImmutableList.of(baseModule, featureModule);
+    ApkOptimizations apkOptimizations =
+        standaloneApkOptimizations(
+            OptimizationDimension.ABI, OptimizationDimension.SCREEN_DENSITY);
+
+    ImmutableList<ModuleSplit> singleThreadedShards =
+        generateStandaloneApks(modules, apkOptimizations, newDirectExecutorService());
+    ListeningExecutorService executorService = listeningDecorator(newFixedThreadPool(4));
+    ImmutableList<ModuleSplit> multithreadedShards;
+    try {
+      multithreadedShards = generateStandaloneApks(modules, apkOptimizations, executorService);
+    } finally {
+      executorService.shutdown();
+    }
+
+    // 14 shards: {x86, x86_64} x {LDPI, MDPI, ..., XXXHDPI}.
+    assertThat(singleThreadedShards).hasSize(14);
+    assertThat(getSplitContents(multithreadedShards))
+        .containsExactlyElementsIn(getSplitContents(singleThreadedShards))
+        .inOrder();
+  }
+
+  private ImmutableList<ModuleSplit> generateStandaloneApks(
+      ImmutableList<BundleModule> modules,
+      ApkOptimizations apkOptimizations,
+      ListeningExecutorService executorService) {
+    TestComponent.useTestModule(
+        this, TestModule.builder().withExecutorService(executorService).build());
+    return standaloneApksGenerator.generateStandaloneApks(modules, apkOptimizations);
+  }
+
   private static ApkOptimizations standaloneApkOptimizations(OptimizationDimension... dimensions) {
     return ApkOptimizations.builder()
         .setSplitDimensions(ImmutableSet.of())
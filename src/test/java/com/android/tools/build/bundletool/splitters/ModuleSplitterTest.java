@@ -44,7 +44,6 @@ import static com.android.tools.build.bundletool.testing.ManifestProtoUtils.with
 import static com.android.tools.build.bundletool.testing.ManifestProtoUtils.withMinSdkVersion;
 import static com.android.tools.build.bundletool.testing.ManifestProtoUtils.withSplitNameActivity;
 import static com.android.tools.build.bundletool.testing.ManifestProtoUtils.xmlAttribute;
-import static com.android.tools.build.bundletool.testing.ModuleSplitUtils.applyManifestMutators;
 import static com.android.tools.build.bundletool.testing.ModuleSplitUtils.createModuleSplitBuilder;
 import static com.android.tools.build.bundletool.testing.ResourcesTableFactory.HDPI;
 import static com.android.tools.build.bundletool.testing.ResourcesTableFactory.USER_PACKAGE_OFFSET;
@@ -108,6 +107,7 @@ import com.android.bundle.Targeting.VariantTargeting;
 import com.android.tools.build.bundletool.model.AndroidManifest;
 import com.android.tools.build.bundletool.model.BundleModule;
 import com.android.tools.build.bundletool.model.BundleModuleName;
+import com.android.tools.build.bundletool.model.ManifestMutator;
 import com.android.tools.build.bundletool.model.ModuleEntry;
 import com.android.tools.build.bundletool.model.ModuleSplit;
 import com.android.tools.build.bundletool.model.ModuleSplit.SplitType;
@@ -130,6 +130,7 @@ import com.google.common.collect.Sets;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Supplier;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -1220,6 +1221,65 @@ public class ModuleSplitterTest {
     assertThat(nonCzNonFrSplits.get(0).getResourceTable()).isEmpty();
   }
 
+  @Test
+  public void variantIndependentSplits_reusedForVariant_sameSplitsAsSplittingModule()
+      throws Exception {
+    BundleModule testModule =
+        new BundleModuleBuilder("testModule")
+            .addFile("assets/languages#lang_fr/pack.pak")
+            .addFile("assets/languages/pack.pak")
+            .addFile("dex/classes.dex")
+            .addFile("lib/x86/liba.so")
+            .setAssetsConfig(
+                assets(
+                    targetedAssetsDirectory(
+                        "assets/languages#lang_fr",
+                        assetsDirectoryTargeting(languageTargeting("fr"))),
+                    targetedAssetsDirectory(
+                        "assets/languages",
+                        assetsDirectoryTargeting(alternativeLanguageTargeting("fr")))))
+            .setNativeConfig(
+                nativeLibraries(
+                    targetedNativeDirectory("lib/x86", nativeDirectoryTargeting("x86"))))
+            .setResourceTable(
+                getWelcomeLabel(
+                    value("Welcome", Configuration.getDefaultInstance()),
+                    value("Bienvenue", locale("fr"))))
+            .setManifest(androidManifest("com.test.app"))
+            .build();
+    ApkGenerationConfiguration apkGenerationConfiguration =
+        withOptimizationDimensions(ImmutableSet.of(ABI, SCREEN_DENSITY, LANGUAGE)).toBuilder()
+            .setEnableDexCompressionSplitter(true)
+            .build();
+
+    ModuleSplitter.VariantIndependentSplits variantIndependentSplits =
+        ModuleSplitter.createNoStamp(
+                testModule,
+                BUNDLETOOL_VERSION,
+                apkGenerationConfiguration,
+                VariantTargeting.getDefaultInstance(),
+                ImmutableSet.of("testModule"))
+            .splitVariantIndependentEntries();
+
+    for (VariantTargeting variantTargeting :
+        ImmutableList.of(lPlusVariantTargeting(), variantMinSdkTargeting(ANDROID_Q_API_VERSION))) {
+      // Each splitter deduplicates the suffixes of the splits it generates, so each run uses its
+      // own splitter.
+      Supplier<ModuleSplitter> moduleSplitter =
+          () ->
+              ModuleSplitter.createNoStamp(
+                  testModule,
+                  BUNDLETOOL_VERSION,
+                  apkGenerationConfiguration,
+                  variantTargeting,
+                  ImmutableSet.of("testModule"));
+
+      assertThat(moduleSplitter.get().splitModule(variantIndependentSplits))
+          .containsExactlyElementsIn(moduleSplitter.get().splitModule())
+          .inOrder();
+    }
+  }
+
   private ResourceTable getWelcomeLabel(ConfigValue... values) {
     return resourceTable(
         pkg(
@@ -1594,7 +1654,8 @@ public class ModuleSplitterTest {
   }
 
   @Test
-  public void applyMasterManifestMutators_singleVariant() throws Exception {
+  public void collectMasterManifestMutators_singleVariant() throws Exception {
+    ManifestMutator extractNativeLibs = withExtractNativeLibs(true);
     ModuleSplit masterSplit =
         createModuleSplitBuilder().setVariantTargeting(lPlusVariantTargeting()).build();
 
@@ -1603,25 +1664,51 @@ public class ModuleSplitterTest {
             .setMasterSplit(false)
             .setApkTargeting(apkAbiTargeting(AbiAlias.X86))
             .setVariantTargeting(lPlusVariantTargeting())
-            .addMasterManifestMutator(withExtractNativeLibs(true))
+            .addMasterManifestMutator(extractNativeLibs)
             .build();
 
-    ImmutableList<ModuleSplit> moduleSplits =
-        ModuleSplitter.applyMasterManifestMutators(ImmutableList.of(masterSplit, nonMasterSplit));
+    assertThat(
+            ModuleSplitter.collectMasterManifestMutators(
+                ImmutableList.of(masterSplit, nonMasterSplit)))
+        .containsExactly(extractNativeLibs);
+  }
 
-    ImmutableMap<Boolean, ModuleSplit> moduleSplitMap =
-        Maps.uniqueIndex(moduleSplits, ModuleSplit::isMasterSplit);
+  @Test
+  public void masterManifestMutators_appliedToFinalManifestOfMasterSplit() throws Exception {
+    NativeLibraries nativeConfig =
+        nativeLibraries(targetedNativeDirectory("lib/x86", nativeDirectoryTargeting("x86")));
+    BundleModule testModule =
+        new BundleModuleBuilder("testModule")
+            .setManifest(androidManifest("com.test.app"))
+            .setNativeConfig(nativeConfig)
+            .addFile("lib/x86/liba.so")
+            .build();
+    ModuleSplitter moduleSplitter =
+        ModuleSplitter.createNoStamp(
+            testModule,
+            BUNDLETOOL_VERSION,
+            ApkGenerationConfiguration.builder()
+                .setOptimizationDimensions(ImmutableSet.of(ABI))
+                .setEnableUncompressedNativeLibraries(true)
+                .build(),
+            lPlusVariantTargeting(),
+            ImmutableSet.of("testModule"));
 
-    assertThat(moduleSplitMap.get(true).getAndroidManifest().getExtractNativeLibsValue().get())
-        .isTrue();
-    assertThat(applyManifestMutators(masterSplit, ImmutableList.of(withExtractNativeLibs(true))))
-        .isEqualTo(moduleSplitMap.get(true));
+    ImmutableList<ModuleSplit> moduleSplits = moduleSplitter.splitModule();
 
-    assertThat(moduleSplitMap.get(false)).isEqualTo(nonMasterSplit);
+    // The mutators are added by the native libraries splitters to the splits merged into the
+    // master split, and are only applied when writing its final manifest.
+    ModuleSplit masterSplit =
+        moduleSplits.stream().filter(ModuleSplit::isMasterSplit).collect(onlyElement());
+    assertThat(masterSplit.getAndroidManifest().getExtractNativeLibsValue()).hasValue(true);
+    assertThat(masterSplit.getAndroidManifest().getSplitId()).hasValue("testModule");
+    for (ModuleSplit moduleSplit : moduleSplits) {
+      assertThat(moduleSplit.getMasterManifestMutators()).isEmpty();
+    }
   }
 
   @Test
-  public void applyMasterManifestMutators_multipleVariants_throws() throws Exception {
+  public void collectMasterManifestMutators_multipleVariants_throws() throws Exception {
     ModuleSplit masterSplit =
         createModuleSplitBuilder().setVariantTargeting(lPlusVariantTargeting()).build();
 
@@ -1637,7 +1724,7 @@ public class ModuleSplitterTest {
         assertThrows(
             IllegalStateException.class,
             () ->
-                ModuleSplitter.applyMasterManifestMutators(
+                ModuleSplitter.collectMasterManifestMutators(
                     ImmutableList.of(masterSplit, nonMasterSplit)));
     assertThat(exception)
         .hasMessageThat()
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.tools.build.bundletool.splitters;
+
+import static com.android.tools.build.bundletool.testing.ResourcesTableFactory.USER_PACKAGE_OFFSET;
+import static com.android.tools.build.bundletool.testing.ResourcesTableFactory.entry;
+import static com.android.tools.build.bundletool.testing.ResourcesTableFactory.fileReference;
+import static com.android.tools.build.bundletool.testing.ResourcesTableFactory.locale;
+import static com.android.tools.build.bundletool.testing.ResourcesTableFactory.pkg;
+import static com.android.tools.build.bundletool.testing.ResourcesTableFactory.resourceTable;
+import static com.android.tools.build.bundletool.testing.ResourcesTableFactory.type;
+import static com.android.tools.build.bundletool.testing.ResourcesTableFactory.value;
+import static com.android.tools.build.bundletool.testing.TestUtils.createModuleEntryForFile;
+import static com.android.tools.build.bundletool.testing.TestUtils.extractPaths;
+import static com.google.common.collect.ImmutableListMultimap.toImmutableListMultimap;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.extensions.proto.ProtoTruth.assertThat;
+
+import com.android.aapt.ConfigurationOuterClass.Configuration;
+import com.android.aapt.Resources.ConfigValue;
+import com.android.aapt.Resources.ResourceTable;
+import com.android.aapt.Resources.StringPool;
+import com.android.tools.build.bundletool.model.ResourceTableEntry;
+import com.android.tools.build.bundletool.model.ZipPath;
+import com.android.tools.build.bundletool.splitters.ResourceTablePartitioner.Partition;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ResourceTablePartitionerTest {
+
+  private static final ResourceTable TABLE =
+      resourceTable(
+          pkg(
+              USER_PACKAGE_OFFSET,
+              "com.test.app",
+              type(
+                  0x01,
+                  "drawable",
+                  entry(
+                      0x01,
+                      "image",
+                      fileReference("res/drawable/image.png", Configuration.getDefaultInstance()),
+                      fileReference("res/drawable-fr/image.png", locale("fr")))),
+              type(
+                  0x02,
+                  "string",
+                  entry(0x01, "welcome", value("Welcome", Configuration.getDefaultInstance())),
+                  entry(0x02, "goodbye", value("Au revoir", locale("fr"))))));
+
+  @Test
+  public void partitionsConfigValues_removesEmptyEntriesAndTypes() {
+    ImmutableMap<String, Partition> partitions =
+        ResourceTablePartitioner.partition(TABLE, ResourceTablePartitionerTest::byLocale);
+
+    assertThat(partitions.keySet()).containsExactly("", "fr").inOrder();
+    assertThat(partitions.get("").getResourceTable())
+        .isEqualTo(
+            resourceTable(
+                pkg(
+                    USER_PACKAGE_OFFSET,
+                    "com.test.app",
+                    type(
+                        0x01,
+                        "drawable",
+                        entry(
+                            0x01,
+                            "image",
+                            fileReference(
+                                "res/drawable/image.png", Configuration.getDefaultInstance()))),
+                    type(
+                        0x02,
+                        "string",
+                        entry(
+                            0x01,
+                            "welcome",
+                            value("Welcome", Configuration.getDefaultInstance()))))));
+    assertThat(partitions.get("fr").getResourceTable())
+        .isEqualTo(
+            resourceTable(
+                pkg(
+                    USER_PACKAGE_OFFSET,
+                    "com.test.app",
+                    type(
+                        0x01,
+                        "drawable",
+                        entry(
+                            0x01,
+                            "image",
+                            fileReference("res/drawable-fr/image.png", locale("fr")))),
+                    type(
+                        0x02,
+                        "string",
+                        entry(0x02, "goodbye", value("Au revoir", locale("fr")))))));
+  }
+
+  @Test
+  public void configValueInSeveralPartitions() {
+    ImmutableMap<String, Partition> partitions =
+        ResourceTablePartitioner.partition(
+            TABLE,
+            entry ->
+                ImmutableListMultimap.<String, ConfigValue>builder()
+                    .putAll("all", entry.getEntry().getConfigValueList())
+                    .putAll("copy", entry.getEntry().getConfigValueList())
+                    .build());
+
+    assertThat(partitions.get("all").getResourceTable()).isEqualTo(TABLE);
+    assertThat(partitions.get("copy").getResourceTable()).isEqualTo(TABLE);
+  }
+
+  @Test
+  public void collectsFileReferences() {
+    ImmutableMap<String, Partition> partitions =
+        ResourceTablePartitioner.partition(TABLE, ResourceTablePartitionerTest::byLocale);
+
+    Partition frPartition = partitions.get("fr");
+    assertThat(frPartition.getFileReferences())
+        .containsExactly(ZipPath.create("res/drawable-fr/image.png"));
+    assertThat(
+            extractPaths(
+                frPartition.filterResourceEntries(
+                    ImmutableList.of(
+                        createModuleEntryForFile("res/drawable/image.png", new byte[0]),
+                        createModuleEntryForFile("res/drawable-fr/image.png", new byte[0]),
+                        createModuleEntryForFile("dex/classes.dex", new byte[0])))))
+        .containsExactly("res/drawable-fr/image.png");
+  }
+
+  @Test
+  public void preservesSourcePool() {
+    StringPool sourcePool =
+        StringPool.newBuilder().setData(ByteString.copyFrom(new byte[] {'x'})).build();
+    ResourceTable table = TABLE.toBuilder().setSourcePool(sourcePool).build();
+
+    ImmutableMap<String, Partition> partitions =
+        ResourceTablePartitioner.partition(table, ResourceTablePartitionerTest::byLocale);
+
+    assertThat(partitions.get("").getResourceTable().getSourcePool()).isEqualTo(sourcePool);
+    assertThat(partitions.get("fr").getResourceTable().getSourcePool()).isEqualTo(sourcePool);
+    assertThat(ResourceTablePartitioner.emptyPartition(table).getResourceTable())
+        .isEqualTo(ResourceTable.newBuilder().setSourcePool(sourcePool).build());
+  }
+
+  private static ImmutableListMultimap<String, ConfigValue> byLocale(ResourceTableEntry entry) {
+    return entry.getEntry().getConfigValueList().stream()
+        .collect(
+            toImmutableListMultimap(
+                configValue -> configValue.getConfig().getLocale(), configValue -> configValue));
+  }
+}
@@ -26,9 +26,13 @@ import static com.android.tools.build.bundletool.testing.TargetingUtils.nativeLi
 import static com.android.tools.build.bundletool.testing.TargetingUtils.targetedNativeDirectory;
 import static com.android.tools.build.bundletool.testing.TargetingUtils.variantMinSdkTargeting;
 import static com.android.tools.build.bundletool.testing.TestUtils.extractPaths;
+import static com.android.tools.build.bundletool.testing.TestUtils.getSplitContents;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.extensions.proto.ProtoTruth.assertThat;
+import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
+import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
+import static java.util.concurrent.Executors.newFixedThreadPool;
 
 import com.android.bundle.Targeting.Abi.AbiAlias;
 import com.android.bundle.Targeting.VariantTargeting;
@@ -37,11 +41,14 @@ import com.android.tools.build.bundletool.commands.CommandScoped;
 import com.android.tools.build.bundletool.model.BundleModule;
 import com.android.tools.build.bundletool.model.ModuleSplit;
 import com.android.tools.build.bundletool.model.ModuleSplit.SplitType;
+import com.android.tools.build.bundletool.model.OptimizationDimension;
 import com.android.tools.build.bundletool.testing.BundleModuleBuilder;
 import com.android.tools.build.bundletool.testing.TestModule;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import dagger.Component;
 import javax.inject.Inject;
 import org.junit.Before;
@@ -289,6 +296,79 @@ public class SplitApksGeneratorTest {
     assertThat(getForceUncompressed(testModule, "dex/classes.dex")).isFalse();
   }
 
+  @Test
+  public void multithreadedExecutor_sameSplitsAsSingleThreaded() throws Exception {
+    ImmutableList<BundleModule> bundleModule =
+        ImmutableList.of(
+            new BundleModuleBuilder("base")
+                .addFile("assets/leftover.txt")
+                .addFile("dex/classes.dex")
+                .addFile("lib/x86/libsome.so")
+                .addFile("lib/x86_64/libsome.so")
+                .setManifest(androidManifest("com.test.app"))
+                .setNativeConfig(
+                    nativeLibraries(
+                        targetedNativeDirectory("lib/x86", nativeDirectoryTargeting(AbiAlias.X86)),
+                        targetedNativeDirectory(
+                            "lib/x86_64", nativeDirectoryTargeting(AbiAlias.X86_64))))
+                .build(),
+            new BundleModuleBuilder("feature1")
+                .addFile("assets/feature1.txt")
+                .addFile("dex/classes.dex")
+                .addFile("lib/x86/libfeature1.so")
+                .setManifest(androidManifest("com.test.app"))
+                .setNativeConfig(
+                    nativeLibraries(
+                        targetedNativeDirectory("lib/x86", nativeDirectoryTargeting(AbiAlias.X86))))
+                .build(),
+            new BundleModuleBuilder("feature2")
+                .addFile("assets/feature2.txt")
+                .setManifest(androidManifest("com.test.app"))
+                .build());
+    ApkGenerationConfiguration apkGenerationConfiguration =
+        ApkGenerationConfiguration.builder()
+            .setEnableUncompressedNativeLibraries(true)
+            .setEnableDexCompressionSplitter(true)
+            .setOptimizationDimensions(ImmutableSet.of(OptimizationDimension.ABI))
+            .build();
+
+    ImmutableList<ModuleSplit> singleThreadedSplits =
+        generateSplits(bundleModule, apkGenerationConfiguration, newDirectExecutorService());
+    ListeningExecutorService executorService = listeningDecorator(newFixedThreadPool(4));
+    ImmutableList<ModuleSplit> multithreadedSplits;
+    try {
+      multithreadedSplits =
+          generateSplits(bundleModule, apkGenerationConfiguration, executorService);
+    } finally {
+      executorService.shutdown();
+    }
+
+    // Several variants, each with splits of all the modules.
+    assertThat(
+            singleThreadedSplits.stream()
+                .map(ModuleSplit::getVariantTargeting)
+                .distinct()
+                .count())
+        .isGreaterThan(1L);
+    assertThat(
+            singleThreadedSplits.stream()
+                .map(moduleSplit -> moduleSplit.getModuleName().getName())
+                .collect(toImmutableSet()))
+        .containsExactly("base", "feature1", "feature2");
+    assertThat(getSplitContents(multithreadedSplits))
+        .containsExactlyElementsIn(getSplitContents(singleThreadedSplits))
+        .inOrder();
+  }
+
+  private ImmutableList<ModuleSplit> generateSplits(
+      ImmutableList<BundleModule> modules,
+      ApkGenerationConfiguration apkGenerationConfiguration,
+      ListeningExecutorService executorService) {
+    TestComponent.useTestModule(
+        this, TestModule.builder().withExecutorService(executorService).build());
+    return splitApksGenerator.generateSplits(modules, apkGenerationConfiguration);
+  }
+
   private static ModuleSplit getModuleSplit(
       ImmutableList<ModuleSplit> moduleSplits,
       VariantTargeting variantTargeting,
@@ -32,6 +32,7 @@ import com.android.tools.build.bundletool.model.ApkListener;
 import com.android.tools.build.bundletool.model.ApkModifier;
 import com.android.tools.build.bundletool.model.AppBundle;
 import com.android.tools.build.bundletool.model.OptimizationDimension;
+import com.android.tools.build.bundletool.model.PhaseTracer;
 import com.android.tools.build.bundletool.model.SigningConfiguration;
 import com.android.tools.build.bundletool.model.SourceStamp;
 import com.android.tools.build.bundletool.model.version.BundleToolVersion;
@@ -90,6 +91,11 @@ public class TestModule {
     return useBundleCompression;
   }
 
+  @Provides
+  PhaseTracer providePhaseTracer(BuildApksCommand command) {
+    return command.getPhaseTracer().orElse(PhaseTracer.NO_OP);
+  }
+
   public static Builder builder() {
     return new Builder();
   }
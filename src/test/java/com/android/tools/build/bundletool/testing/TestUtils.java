@@ -22,6 +22,7 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import com.android.tools.build.bundletool.flags.Flag.RequiredFlagNotSetException;
 import com.android.tools.build.bundletool.model.ModuleEntry;
+import com.android.tools.build.bundletool.model.ModuleSplit;
 import com.android.tools.build.bundletool.model.ZipPath;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.ByteSource;
@@ -77,6 +78,27 @@ public final class TestUtils {
         .collect(toImmutableList());
   }
 
+  /**
+   * Returns the contents of the given splits, which can be compared between splits generated
+   * separately, unlike the splits themselves whose manifest mutators are lambdas.
+   */
+  public static ImmutableList<ImmutableList<Object>> getSplitContents(
+      ImmutableList<ModuleSplit> moduleSplits) {
+    return moduleSplits.stream()
+        .map(
+            moduleSplit ->
+                ImmutableList.<Object>of(
+                    moduleSplit.getModuleName(),
+                    moduleSplit.getSplitType(),
+                    moduleSplit.getVariantTargeting(),
+                    moduleSplit.getApkTargeting(),
+                    moduleSplit.isMasterSplit(),
+                    moduleSplit.getEntries(),
+                    moduleSplit.getResourceTable(),
+                    moduleSplit.getAndroidManifest().getManifestRoot().getProto()))
+        .collect(toImmutableList());
+  }
+
   public static ModuleEntry createModuleEntryForFile(String filePath, byte[] content) {
     return ModuleEntry.builder()
         .setPath(ZipPath.create(filePath))
@@ -20,6 +20,10 @@ import static com.android.tools.build.bundletool.testing.ManifestProtoUtils.andr
 import static com.android.tools.build.bundletool.testing.ManifestProtoUtils.withSplitId;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth8.assertThat;
+import static com.google.common.util.concurrent.Uninterruptibles.sleepUninterruptibly;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
@@ -35,8 +39,11 @@ import com.android.tools.build.bundletool.io.ZipBuilder;
 import com.android.tools.build.bundletool.model.AppBundle;
 import com.android.tools.build.bundletool.model.BundleModule;
 import com.android.tools.build.bundletool.model.ZipPath;
+import com.android.tools.build.bundletool.model.exceptions.InvalidBundleException;
 import com.android.tools.build.bundletool.testing.BundleConfigBuilder;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.nio.file.Path;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -178,6 +185,83 @@ public class ValidatorRunnerTest {
     }
   }
 
+  @Test
+  public void validateBundle_withExecutor_invokesRightSubValidatorMethods() throws Exception {
+    Path bundlePath =
+        new ZipBuilder()
+            .addFileWithContent(ZipPath.create("BundleConfig.pb"), BUNDLE_CONFIG.toByteArray())
+            .addFileWithProtoContent(
+                ZipPath.create("moduleX/manifest/AndroidManifest.xml"),
+                androidManifest("com.test.app", withSplitId("moduleX")))
+            .addFileWithContent(ZipPath.create("moduleX/assets/other.txt"), DUMMY_CONTENT)
+            .addFileWithProtoContent(
+                ZipPath.create("moduleY/manifest/AndroidManifest.xml"),
+                androidManifest("com.test.app", withSplitId("moduleY")))
+            .addFileWithContent(ZipPath.create("moduleY/assets/file.txt"), DUMMY_CONTENT)
+            .writeTo(tempFolder.resolve("bundle.aab"));
+    ListeningExecutorService executor = MoreExecutors.listeningDecorator(newFixedThreadPool(4));
+
+    try (ZipFile bundleZip = new ZipFile(bundlePath.toFile())) {
+      AppBundle bundle = AppBundle.buildFromZip(bundleZip);
+      ImmutableList<BundleModule> bundleFeatureModules =
+          ImmutableList.copyOf(bundle.getFeatureModules().values());
+
+      new ValidatorRunner(ImmutableList.of(validator, validator2), executor)
+          .validateBundle(bundle);
+
+      for (SubValidator subValidator : ImmutableList.of(validator, validator2)) {
+        ArgumentCaptor<ZipPath> fileArgs = ArgumentCaptor.forClass(ZipPath.class);
+        verify(subValidator).validateBundle(eq(bundle));
+        verify(subValidator).validateAllModules(eq(bundleFeatureModules));
+        verify(subValidator, times(2)).validateModule(any());
+        verify(subValidator, times(2)).validateModuleFile(fileArgs.capture());
+        verifyNoMoreInteractions(subValidator);
+        assertThat(fileArgs.getAllValues().stream().map(ZipPath::toString))
+            .containsExactly("assets/file.txt", "assets/other.txt");
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void validateBundleZipFile_withExecutor_reportsFirstErrorInSequentialOrder()
+      throws Exception {
+    Path bundlePath =
+        new ZipBuilder()
+            .addFileWithContent(ZipPath.create("file.txt"), DUMMY_CONTENT)
+            .writeTo(tempFolder.resolve("bundle.aab"));
+    SubValidator slowFailingValidator =
+        new SubValidator() {
+          @Override
+          public void validateBundleZipFile(ZipFile bundleFile) {
+            sleepUninterruptibly(200, MILLISECONDS);
+            throw InvalidBundleException.createWithUserMessage("First error.");
+          }
+        };
+    SubValidator fastFailingValidator =
+        new SubValidator() {
+          @Override
+          public void validateBundleZipFile(ZipFile bundleFile) {
+            throw InvalidBundleException.createWithUserMessage("Second error.");
+          }
+        };
+    ListeningExecutorService executor = MoreExecutors.listeningDecorator(newFixedThreadPool(2));
+
+    try (ZipFile bundleZip = new ZipFile(bundlePath.toFile())) {
+      ValidatorRunner runner =
+          new ValidatorRunner(
+              ImmutableList.of(slowFailingValidator, fastFailingValidator), executor);
+
+      InvalidBundleException exception =
+          assertThrows(InvalidBundleException.class, () -> runner.validateBundleZipFile(bundleZip));
+
+      assertThat(exception).hasMessageThat().isEqualTo("First error.");
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   @Test
   public void validateModuleZipFile_invokesRightSubValidatorMethods() throws Exception {
     Path modulePath =